@@ -0,0 +1,420 @@
+package pl.magzik;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.grouping.FileIndex;
+import pl.magzik.io.FileRecord;
+import pl.magzik.io.RecordFiles;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An append-only checkpoint of a {@link Processor#process(Collection)} run, from which a run over the same input resumes.
+ * <p>
+ * The run is divided into stages: stage {@code 0} is the output of the grouper, and stage {@code n} is the output
+ * of the {@code n}-th algorithm, after consolidation. The checkpoint records, one line each:
+ * </p>
+ * <ul>
+ *     <li>{@code V\t<version>\t<fingerprint>} - the header, identifying the input of the run,</li>
+ *     <li>{@code G\t<stage>\t<size>\t<path>...\t$} - a group of a stage, followed by {@code E\t<stage>\t<count>} once the stage is complete,</li>
+ *     <li>{@code R\t<step>\t<group>\t<sets>(\t<key>\t<size>\t<path>...)...\t$} - the result of an algorithm for a group of the previous stage,
+ *     as the sets of files sharing a key.</li>
+ * </ul>
+ * <p>
+ * A run resumes from the last complete stage, and skips the groups with finished results of the next step.
+ * Results are recorded only for algorithms whose keys are strings, files, numbers, characters or booleans,
+ * which can be restored. Tabs, line breaks and backslashes are escaped.
+ * </p>
+ * <p>
+ * Results are handed to a single background writer thread through a bounded queue, so the workers recording them
+ * never wait for the file, only for a free slot when the writer falls behind. The writer flushes whenever the queue
+ * runs empty, without waiting for the storage device, so the checkpoint survives the crash of the process,
+ * but not of the machine. Completed stages are forced to the storage device. Incomplete records, left by a crash,
+ * are ignored when the checkpoint is opened again.
+ * </p>
+ */
+final class Checkpoint implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+
+    private static final String VERSION = "1";
+
+    /** The last field of a complete record, so records cut short by a crash are recognized. */
+    private static final String END = "$";
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /** Stops the writer thread, once every record before it is written. */
+    private static final Object STOP = new Object();
+
+    private final FileChannel channel;
+    private final Writer writer;
+    private final BlockingQueue<Object> queue;
+    private Thread thread;
+    private volatile IOException failure;
+    private int completedStage;
+    private List<Set<File>> completedGroups;
+    private final Map<Integer, Map<Object, Set<File>>> results;
+
+    private Checkpoint(FileChannel channel) {
+        this.channel = channel;
+        this.writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16);
+        this.completedStage = -1;
+        this.completedGroups = List.of();
+        this.results = new ConcurrentHashMap<>();
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens the checkpoint, reading the records of an earlier run over the same input.
+     * The checkpoint of a different input is discarded.
+     *
+     * @param path the checkpoint file.
+     * @param fingerprint the fingerprint of the input, see {@link #fingerprint(Collection, Collection)}.
+     * @return the checkpoint.
+     * @throws IOException if the checkpoint couldn't be read or opened for writing.
+     */
+    @NotNull
+    static Checkpoint open(@NotNull Path path, @NotNull String fingerprint) throws IOException {
+        boolean resumed = Files.exists(path) && header(path).equals(fingerprint);
+        FileChannel channel = resumed
+            ? FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+            : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        Checkpoint checkpoint = new Checkpoint(channel);
+        try {
+            if (resumed) {
+                checkpoint.read(path);
+                if (!RecordFiles.endsWithLine(path)) {
+                    checkpoint.writer.write('\n'); // Terminates a record cut short by a crash.
+                    checkpoint.writer.flush();
+                }
+                logger.info("Checkpoint {} resumed at stage {} with {} finished groups.", path, checkpoint.completedStage, checkpoint.results.size());
+            } else {
+                checkpoint.writer.write("V\t" + VERSION + '\t' + fingerprint + '\n');
+                checkpoint.writer.flush();
+                logger.info("Checkpoint {} started.", path);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        checkpoint.thread = Thread.ofPlatform().daemon().name("checkpoint-writer").start(checkpoint::write);
+        return checkpoint;
+    }
+
+    /**
+     * Computes the fingerprint of the input of a run, independent of the order of the files.
+     * Besides the paths, it covers the size and modification time of every file, so a checkpoint of files
+     * changed since is discarded.
+     *
+     * @param files the files processed.
+     * @param steps the names of the grouper and algorithms, in order.
+     * @return the fingerprint.
+     */
+    @NotNull
+    static String fingerprint(@NotNull Collection<File> files, @NotNull Collection<String> steps) {
+        long sum = 0, xor = 0;
+        for (File file : files) {
+            long h = hash(file.getPath());
+            h = (h ^ FileRecord.sizeOf(file)) * 0x100000001b3L;
+            h = (h ^ FileRecord.mtimeOf(file)) * 0x100000001b3L;
+            sum += h;
+            xor ^= Long.rotateLeft(h, 17);
+        }
+        return files.size() + "-" + Long.toHexString(sum) + "-" + Long.toHexString(xor) + "-" + Long.toHexString(hash(String.join("\t", steps)));
+    }
+
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static String header(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            String prefix = "V\t" + VERSION + '\t';
+            return line != null && line.startsWith(prefix) ? line.substring(prefix.length()) : "";
+        }
+    }
+
+    private void read(Path path) throws IOException {
+        Map<Integer, List<Set<File>>> pending = new HashMap<>();
+        Map<Integer, Map<Object, Set<File>>> recorded = new HashMap<>();
+        int step = -1;
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            reader.readLine(); // The header.
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    switch (fields[0]) {
+                        case "G" -> {
+                            int stage = Integer.parseInt(fields[1]);
+                            Set<File> group = files(fields, 2, fields.length - 1);
+                            if (group.size() != Integer.parseInt(fields[2]) || !fields[fields.length - 1].equals(END)) continue;
+                            pending.computeIfAbsent(stage, k -> new ArrayList<>()).add(group);
+                        }
+                        case "E" -> {
+                            int stage = Integer.parseInt(fields[1]), count = Integer.parseInt(fields[2]);
+                            List<Set<File>> groups = pending.remove(stage);
+                            if (groups == null) groups = List.of();
+                            if (groups.size() < count || stage <= completedStage) continue;
+
+                            // Groups of an earlier, interrupted attempt at the stage precede the complete ones.
+                            completedStage = stage;
+                            completedGroups = List.copyOf(groups.subList(groups.size() - count, groups.size()));
+                            recorded.clear();
+                            step = stage;
+                        }
+                        case "R" -> {
+                            if (Integer.parseInt(fields[1]) != step || !fields[fields.length - 1].equals(END)) continue;
+                            recorded.put(Integer.parseInt(fields[2]), result(fields));
+                        }
+                        default -> { }
+                    }
+                } catch (RuntimeException e) {
+                    logger.debug("Ignoring malformed checkpoint record: {}", line);
+                }
+            }
+        }
+        results.putAll(recorded);
+    }
+
+    private static Map<Object, Set<File>> result(String[] fields) {
+        Map<Object, Set<File>> result = new HashMap<>();
+        int sets = Integer.parseInt(fields[3]), i = 4;
+        for (int k = 0; k < sets; k++) {
+            String key = RecordFiles.unescape(fields[i]);
+            int size = Integer.parseInt(fields[i + 1]);
+            result.put(key, files(fields, i + 1, i + 2 + size));
+            i += 2 + size;
+        }
+        if (i != fields.length - 1) throw new IllegalArgumentException("Unexpected number of fields");
+        return result;
+    }
+
+    /**
+     * @return the last stage recorded as complete, or {@code -1} if none was.
+     */
+    int completedStage() {
+        return completedStage;
+    }
+
+    /**
+     * @return the groups of the {@link #completedStage() completed stage}, in the order they were recorded.
+     */
+    @NotNull
+    List<Set<File>> groups() {
+        return completedGroups;
+    }
+
+    /**
+     * Takes the recorded result of the algorithm following the {@link #completedStage() completed stage}, for a single group.
+     *
+     * @param step the index of the algorithm.
+     * @param group the index of the group, in the completed stage.
+     * @return the restored result, keyed as by {@link #recordResult(int, int, Map)}, or {@code null} if it wasn't recorded.
+     */
+    @Nullable
+    Map<Object, Set<File>> takeResult(int step, int group) {
+        return step == completedStage ? results.remove(group) : null;
+    }
+
+    /**
+     * Records all groups of a stage, and marks the stage as complete.
+     *
+     * @param stage the stage.
+     * @param index the index of the files.
+     * @param groups the groups of file IDs.
+     * @throws IOException if the records couldn't be written.
+     */
+    void recordStage(int stage, @NotNull FileIndex index, @NotNull int[][] groups) throws IOException {
+        for (int[] group : groups) {
+            StringBuilder record = new StringBuilder("G\t").append(stage).append('\t').append(group.length);
+            for (int id : group) record.append('\t').append(RecordFiles.escape(index.file(id).getPath()));
+            enqueue(record.append('\t').append(END).append('\n').toString());
+        }
+        enqueue("E\t" + stage + '\t' + groups.length + '\n');
+        sync();
+        results.clear();
+    }
+
+    /**
+     * Records the result of an algorithm for a single group.
+     * <p>
+     * The keys are replaced with their string representations, so results computed in this run
+     * can be consolidated with the ones {@link #takeResult(int, int) restored}.
+     * </p>
+     *
+     * @param step the index of the algorithm.
+     * @param group the index of the group, in the previous stage.
+     * @param result the result of the algorithm.
+     * @return the result with the keys replaced, or {@code null} if a key can't be restored, in which case nothing is recorded.
+     * @throws IOException if the record couldn't be written.
+     */
+    @Nullable
+    Map<Object, Set<File>> recordResult(int step, int group, @NotNull Map<?, Set<File>> result) throws IOException {
+        Map<Object, Set<File>> keyed = HashMap.newHashMap(result.size());
+        StringBuilder record = new StringBuilder("R\t").append(step).append('\t').append(group).append('\t').append(result.size());
+        for (Map.Entry<?, Set<File>> entry : result.entrySet()) {
+            String key = key(entry.getKey());
+            if (key == null) return null;
+
+            keyed.put(key, entry.getValue());
+            record.append('\t').append(RecordFiles.escape(key)).append('\t').append(entry.getValue().size());
+            for (File file : entry.getValue()) record.append('\t').append(RecordFiles.escape(file.getPath()));
+        }
+        record.append('\t').append(END).append('\n');
+
+        enqueue(record.toString());
+        return keyed;
+    }
+
+    /**
+     * Hands a record to the writer thread, waiting for a free slot if the queue is full.
+     *
+     * @throws IOException if the writer failed, or the thread was interrupted while waiting.
+     */
+    private void enqueue(Object record) throws IOException {
+        if (failure != null) throw new IOException("Couldn't write the checkpoint", failure);
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while recording to the checkpoint");
+        }
+    }
+
+    /**
+     * Waits until every record handed to the writer so far is forced to the storage device.
+     *
+     * @throws IOException if the records couldn't be written, or the thread was interrupted while waiting.
+     */
+    private void sync() throws IOException {
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        enqueue(synced);
+        try {
+            synced.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while forcing the checkpoint");
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't write the checkpoint", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the queued records, until {@link #STOP}. After a failure, records are dropped,
+     * and the failure is reported to the threads recording or syncing.
+     */
+    private void write() {
+        while (true) {
+            Object next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == STOP) return;
+
+            try {
+                if (failure != null) {
+                    if (next instanceof CompletableFuture<?> synced) synced.completeExceptionally(failure);
+                } else if (next instanceof String record) {
+                    writer.write(record);
+                    if (queue.isEmpty()) writer.flush();
+                } else if (next instanceof CompletableFuture<?> synced) {
+                    writer.flush();
+                    channel.force(false);
+                    synced.complete(null);
+                }
+            } catch (IOException e) {
+                logger.warn("Couldn't write the checkpoint", e);
+                failure = e;
+                if (next instanceof CompletableFuture<?> synced) synced.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Nullable
+    private static String key(Object key) {
+        return switch (key) {
+            case String s -> "s:" + s;
+            case File f -> "f:" + f.getPath();
+            case Number n -> "n:" + n.getClass().getName() + ':' + n;
+            case Character c -> "c:" + c;
+            case Boolean b -> "b:" + b;
+            case null, default -> null;
+        };
+    }
+
+    /**
+     * Restores the files of a record as plain files. The {@link pl.magzik.Processor} maps them back to the input records
+     * through its {@link FileIndex}, where equal paths share an ID.
+     */
+    private static Set<File> files(String[] fields, int from, int to) {
+        Set<File> files = new LinkedHashSet<>();
+        for (int i = from + 1; i < to; i++) files.add(new File(RecordFiles.unescape(fields[i])));
+        return files;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            stop();
+            writer.close();
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written the queued records, even if the current thread is interrupted.
+     */
+    private void stop() {
+        boolean interrupted = false, stopping = false;
+        while (thread.isAlive()) {
+            try {
+                if (!stopping) {
+                    queue.put(STOP);
+                    stopping = true;
+                }
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -2,16 +2,41 @@ package pl.magzik;
 
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pl.magzik.algorithms.Algorithm;
+import pl.magzik.algorithms.SplittableAlgorithm;
+import pl.magzik.cache.Prefetcher;
+import pl.magzik.execution.CancellationToken;
+import pl.magzik.execution.ExecutionStrategy;
+import pl.magzik.execution.TaskScope;
+import pl.magzik.grouping.FileIndex;
 import pl.magzik.grouping.Grouper;
+import pl.magzik.grouping.UnionFind;
+import pl.magzik.io.FileRecord;
+import pl.magzik.progress.ProgressDispatcher;
+import pl.magzik.report.DuplicateReport;
+import pl.magzik.report.ReportWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * The {@code Processor} class is responsible for identifying and grouping duplicate files
@@ -32,6 +57,22 @@ import java.util.stream.Collectors;
  * This class is designed to process collections of files efficiently, leveraging parallel streams for processing subsets
  * and applying algorithms concurrently. It also provides robust error handling for I/O issues encountered during processing.
  * </p>
+ * <p>
+ * Results may also be streamed with {@link #process(Collection, ResultListener)}, which pipelines each group through
+ * the algorithms on its own, instead of waiting for every group to finish an algorithm before the next one starts.
+ * Large results may be returned as a columnar {@link DuplicateReport} with {@link #report(Collection)}, or written
+ * to disk group by group, without being held in memory, with {@link #report(Collection, ReportWriter)}.
+ * A run may be stopped by a {@link CancellationToken}, with {@link #process(Collection, CancellationToken)},
+ * which returns the groups verified so far.
+ * </p>
+ * <p>
+ * Within a run, files are interned to dense {@code int} IDs by a {@link FileIndex}, and groups sharing a key are merged
+ * with a {@link UnionFind}, so the result sets are built only once, at the end.
+ * </p>
+ * <p>
+ * Algorithms run on the CPU pool of the {@link ExecutionStrategy}, the common {@link java.util.concurrent.ForkJoinPool}
+ * by default. A dedicated strategy keeps them apart from other work in the JVM.
+ * </p>
  *
  * <h3>Usage Example:</h3>
  * <pre>{@code
@@ -54,10 +95,27 @@ public class Processor {
 
     private static final Logger logger = LoggerFactory.getLogger(Processor.class);
 
+    /**
+     * The default size above which groups are split for a {@link SplittableAlgorithm}.
+     */
+    public static final int DEFAULT_SPLIT_THRESHOLD = 1024;
+
     private final Grouper grouper;
 
     private final Set<Algorithm<?>> algorithms;
 
+    private Prefetcher prefetcher;
+
+    private ExecutionStrategy executionStrategy;
+
+    private int splitThreshold;
+
+    private Path checkpoint;
+
+    private ProgressDispatcher progress;
+
+    private LinkListener linkListener;
+
     /**
      * Creates new Processor instance.
      * <p>
@@ -71,10 +129,95 @@ public class Processor {
     public Processor(Grouper grouper, Collection<Algorithm<?>> algorithms) {
         Objects.requireNonNull(grouper, "Grouper is null");
         Objects.requireNonNull(algorithms, "Algorithm set is null");
-        if (algorithms.isEmpty() || algorithms.contains(null)) throw new NullPointerException("Algorithm set is empty or contains null.");
+        if (algorithms.isEmpty() || algorithms.stream().anyMatch(Objects::isNull)) throw new NullPointerException("Algorithm set is empty or contains null.");
 
         this.grouper = grouper;
         this.algorithms = new LinkedHashSet<>(algorithms);
+        this.executionStrategy = ExecutionStrategy.commonPool();
+        this.splitThreshold = DEFAULT_SPLIT_THRESHOLD;
+        this.progress = ProgressDispatcher.none();
+    }
+
+    /**
+     * Sets the size above which groups are split into parts, processed in parallel by a {@link SplittableAlgorithm}.
+     * Smaller groups, and all groups of other algorithms, are processed by a single task.
+     *
+     * @param splitThreshold the maximum size of a part.
+     * @throws IllegalArgumentException if the threshold is lower than {@code 2}.
+     */
+    @SuppressWarnings("unused")
+    public void setSplitThreshold(int splitThreshold) {
+        if (splitThreshold < 2) throw new IllegalArgumentException("Split threshold must be at least 2");
+        this.splitThreshold = splitThreshold;
+    }
+
+    /**
+     * Sets the {@link ExecutionStrategy} deciding where the algorithms run, the common pool by default.
+     *
+     * @param executionStrategy the strategy to use.
+     */
+    @SuppressWarnings("unused")
+    public void setExecutionStrategy(@NotNull ExecutionStrategy executionStrategy) {
+        this.executionStrategy = Objects.requireNonNull(executionStrategy, "executionStrategy must not be null");
+    }
+
+    /**
+     * Sets the {@link Prefetcher} used to load images of upcoming groups while the algorithms are applied.
+     * Each algorithm step schedules its groups in the order they are processed.
+     *
+     * @param prefetcher the prefetcher to use, or {@code null} to load images on demand.
+     */
+    @SuppressWarnings("unused")
+    public void setPrefetcher(Prefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Sets the file where the progress of {@link #process(Collection)} and {@link #report(Collection)} is checkpointed.
+     * <p>
+     * The output of the grouper and of every algorithm is recorded, as are the results of each group as soon as
+     * an algorithm is done with it. A run over the same files, with the same grouper and algorithms, resumes
+     * from the checkpoint, skipping the recorded work. The checkpoint of a different run is overwritten.
+     * The file is kept after the run completes, so the result of a repeated run is restored at once.
+     * </p>
+     * <p>
+     * The pipelined {@link #process(Collection, ResultListener)} and {@link #report(Collection, ReportWriter)}
+     * aren't checkpointed.
+     * </p>
+     *
+     * @param checkpoint the checkpoint file, or {@code null} to disable checkpointing.
+     */
+    @SuppressWarnings("unused")
+    public void setCheckpoint(@Nullable Path checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets the dispatcher recording the stages of a run: the {@code divide} stage, and a stage per algorithm,
+     * named by its simple class name, with the groups processed, the throughput and the ETA.
+     * The pipelined methods, where the algorithms overlap, record a single {@code pipeline} stage instead,
+     * counting the groups of the initial division completed by all algorithms.
+     * <p>
+     * The bytes read by the grouper are recorded by the grouper itself, e.g. {@link pl.magzik.grouping.CRC32Grouper#setProgress(ProgressDispatcher)}.
+     * </p>
+     *
+     * @param progress the dispatcher, {@link ProgressDispatcher#none()} by default.
+     */
+    @SuppressWarnings("unused")
+    public void setProgress(@NotNull ProgressDispatcher progress) {
+        this.progress = Objects.requireNonNull(progress, "progress must not be null");
+    }
+
+    /**
+     * Sets the listener of files already linked to another input file, i.e. {@link FileRecord}s sharing their file key,
+     * such as hard links, or the aliases passed to {@link pl.magzik.io.FileOperator#setAliasSink(java.util.function.Consumer)}.
+     * Linked files are removed from the input before it's divided, so they're neither read twice nor reported as duplicates.
+     *
+     * @param linkListener the listener, or {@code null} to leave collapsing linked files to the grouper.
+     */
+    @SuppressWarnings("unused")
+    public void setLinkListener(@Nullable LinkListener linkListener) {
+        this.linkListener = linkListener;
     }
 
     /**
@@ -112,135 +255,707 @@ public class Processor {
     @NotNull
     @Contract("_ -> new")
     public Map<File, Set<File>> process(@NotNull Collection<@NotNull File> files) throws IOException {
+        FileIndex index = new FileIndex();
+        int[][] groups = groups(index, files);
+        return originalDistinction(index, groups);
+    }
+
+    /**
+     * Processes a collection of files like {@link #process(Collection)}, but returns the result as a columnar
+     * {@link DuplicateReport}, which takes a fraction of the memory of the map for large results.
+     * In each group, the first file is the original.
+     *
+     * @param files A collection of files to process.
+     * @return The report of all final groups.
+     * @throws NullPointerException If the input collection or any file in it is null.
+     * @throws IOException If an I/O error occur.
+     */
+    @NotNull
+    @Contract("_ -> new")
+    public DuplicateReport report(@NotNull Collection<@NotNull File> files) throws IOException {
+        FileIndex index = new FileIndex();
+        int[][] groups = groups(index, files);
+
+        DuplicateReport.Builder builder = DuplicateReport.builder();
+        for (int[] group : groups) {
+            String[] paths = new String[group.length];
+            for (int i = 0; i < group.length; i++) paths[i] = index.file(group[i]).getPath();
+            builder.appendGroup(List.of(paths), null); // Final groups are disjoint, no need to intern.
+        }
+        return builder.build();
+    }
+
+    /**
+     * Processes a collection of files like {@link #process(Collection)}, but pipelines every group through the algorithms
+     * independently, and reports each final group as soon as it's complete.
+     * <p>
+     * As soon as a group finishes an algorithm, its subgroups are scheduled for the next one, on the same worker
+     * where possible, so the images of a group are still cached when the next algorithm compares them, and a single
+     * huge group doesn't hold back the others. The first results are therefore reported long before the whole
+     * collection is processed.
+     * </p>
+     * <p>
+     * Unlike {@link #process(Collection)}, groups are refined on their own: subgroups with the same key produced
+     * from different groups are not merged. Results are reported in no particular order, one at a time.
+     * </p>
+     *
+     * @param files A collection of files to process.
+     * @param listener The listener notified of each final group, with its original file and its other files.
+     * @return A map of all final groups, the same as reported to the listener.
+     * @throws NullPointerException If the input collection, any file in it, or the listener is null.
+     * @throws IOException If an I/O error occur.
+     */
+    @NotNull
+    @Contract("_, _ -> new")
+    public Map<File, Set<File>> process(@NotNull Collection<@NotNull File> files, @NotNull ResultListener listener) throws IOException {
+        Pipeline pipeline = pipeline(files, listener, true, null);
+        return new HashMap<>(pipeline.results);
+    }
+
+    /**
+     * Processes a collection of files like {@link #process(Collection, ResultListener)}, until the token is cancelled
+     * or its deadline passes.
+     * <p>
+     * The token reaches the grouper, see {@link Grouper#divide(Collection, CancellationToken)}, which stops reading files,
+     * and the algorithms, which aren't applied to any group or part of a {@link #setSplitThreshold(int) split} group
+     * once it's cancelled. Threads already applying an algorithm are interrupted, so algorithms and image loads blocked
+     * in interruptible reads or waits, e.g. for a permit of the {@link pl.magzik.io.ReadScheduler}, stop at once,
+     * and their groups are left out. Since each group is pipelined through all the algorithms on its own, the groups completed
+     * before the cancellation are fully verified, and are returned as a partial result.
+     * If the grouper is cancelled, no group is verified, and the partial result is empty.
+     * </p>
+     *
+     * @param files A collection of files to process.
+     * @param token The token stopping the processing.
+     * @return The final groups, marked as partial if the processing was stopped before all groups were complete.
+     * @throws NullPointerException If the input collection, any file in it, or the token is null.
+     * @throws IOException If an I/O error occur.
+     */
+    @NotNull
+    @Contract("_, _ -> new")
+    public Result process(@NotNull Collection<@NotNull File> files, @NotNull CancellationToken token) throws IOException {
+        Objects.requireNonNull(token, "Token must not be null");
+        Pipeline pipeline = pipeline(files, (original, duplicates) -> {}, true, token);
+        return new Result(new HashMap<>(pipeline.results), pipeline.partial);
+    }
+
+    /**
+     * Processes a collection of files like {@link #process(Collection, ResultListener)}, writing each final group
+     * with the writer as soon as it's complete. No result is kept in memory, so the size of the result is bounded
+     * only by the space on the disk. The writer is flushed, but not closed.
+     *
+     * @param files A collection of files to process.
+     * @param writer The writer of the groups.
+     * @throws NullPointerException If the input collection, any file in it, or the writer is null.
+     * @throws IOException If an I/O error occur, including when a group couldn't be written.
+     */
+    public void report(@NotNull Collection<@NotNull File> files, @NotNull ReportWriter writer) throws IOException {
+        pipeline(files, writer, false, null);
+        writer.flush();
+    }
+
+    /**
+     * Divides the files, applies the algorithms and consolidates the groups.
+     *
+     * @param index the index to intern the files with.
+     * @param files the files to process.
+     * @return the final groups of file IDs, each in ascending order.
+     * @throws IOException If an I/O error occur.
+     */
+    @NotNull
+    private int[][] groups(@NotNull FileIndex index, @NotNull Collection<@NotNull File> files) throws IOException {
         Objects.requireNonNull(files, "Input collection must not be null");
-        if (files.contains(null)) {
+        if (files.stream().anyMatch(Objects::isNull)) {
             throw new NullPointerException("Input collection must not contain null.");
         }
         logger.info("Processing started...");
+        files = unlinked(files);
+        if (checkpoint != null) return resume(index, files);
 
         logger.info("Dividing input collection.");
+        ProgressDispatcher.Stage stage = progress.stage("divide", 1, files.size());
 
         Set<Set<File>> groupedFiles = grouper.divide(files);
                         // This variable must contain only subsets with more than 1 element.
 
         logger.info("Input collection division completed.");
-        groupedFiles = algorithmsApplication(groupedFiles);
-        return originalDistinction(groupedFiles);
+        int[][] groups = intern(index, groupedFiles);
+        stage.finish(groups.length, fileCount(groups));
+        return algorithmsApplication(index, groups, 0, null);
+    }
+
+    /**
+     * Removes the files linked to other input files, reporting them to the {@link #setLinkListener(LinkListener) link listener}.
+     *
+     * @param files the input files.
+     * @return the files without linked ones, or the input if there's no listener.
+     */
+    @NotNull
+    private Collection<File> unlinked(@NotNull Collection<File> files) {
+        LinkListener listener = linkListener;
+        if (listener == null) return files;
+
+        List<File> out = FileRecord.collapseAliases(files, listener::onLinked);
+        if (out.size() < files.size()) logger.info("Removed {} files linked to other input files.", files.size() - out.size());
+        return out;
+    }
+
+    /**
+     * Divides the files, applies the algorithms and consolidates the groups like {@link #groups(FileIndex, Collection)},
+     * starting from the last stage recorded in the {@link #setCheckpoint(Path) checkpoint}.
+     *
+     * @param index the index to intern the files with.
+     * @param files the files to process.
+     * @return the final groups of file IDs, each in ascending order.
+     * @throws IOException If an I/O error occur, including when the checkpoint couldn't be read or written.
+     */
+    @NotNull
+    private int[][] resume(@NotNull FileIndex index, @NotNull Collection<@NotNull File> files) throws IOException {
+        List<String> steps = new ArrayList<>();
+        steps.add(grouper.getClass().getName());
+        algorithms.forEach(a -> steps.add(a.getClass().getName()));
+
+        try (Checkpoint cp = Checkpoint.open(checkpoint, Checkpoint.fingerprint(files, steps))) {
+            int stage = cp.completedStage();
+            int[][] groups;
+            if (stage >= 0) {
+                logger.info("Resuming from stage {} with {} groups.", stage, cp.groups().size());
+                // Restored paths are plain files, interning the input first maps them back to its records.
+                files.forEach(index::intern);
+                groups = intern(index, cp.groups());
+            } else {
+                logger.info("Dividing input collection.");
+                ProgressDispatcher.Stage divide = progress.stage("divide", 1, files.size());
+                groups = intern(index, grouper.divide(files));
+                divide.finish(groups.length, fileCount(groups));
+                cp.recordStage(0, index, groups);
+                stage = 0;
+                logger.info("Input collection division completed.");
+            }
+            return algorithmsApplication(index, groups, stage, cp);
+        }
+    }
+
+    /**
+     * Runs the files through the pipeline, reporting each final group to the listener.
+     *
+     * @param files the files to process.
+     * @param listener the listener of the final groups.
+     * @param retain whether the final groups are also kept in {@link Pipeline#results}.
+     * @param token the token stopping the pipeline, or {@code null}.
+     * @return the completed pipeline.
+     * @throws IOException If an I/O error occur.
+     */
+    @NotNull
+    private Pipeline pipeline(@NotNull Collection<@NotNull File> files, @NotNull ResultListener listener,
+                              boolean retain, @Nullable CancellationToken token) throws IOException {
+        Objects.requireNonNull(files, "Input collection must not be null");
+        Objects.requireNonNull(listener, "Listener must not be null");
+        if (files.stream().anyMatch(Objects::isNull)) {
+            throw new NullPointerException("Input collection must not contain null.");
+        }
+        logger.info("Processing started (pipelined)...");
+        files = unlinked(files);
+
+        Pipeline pipeline = new Pipeline(List.copyOf(algorithms), listener, retain, token);
+        List<Set<File>> groups;
+        ProgressDispatcher.Stage divide = progress.stage("divide", 1, files.size());
+        try {
+            groups = (token == null ? grouper.divide(files) : grouper.divide(files, token)).stream()
+                    .filter(g -> g.size() > 1)
+                    .toList();
+        } catch (CancellationException e) {
+            logger.info("Processing cancelled while dividing the input collection.");
+            pipeline.partial = true;
+            return pipeline;
+        }
+        long fileCount = groups.stream().mapToLong(Set::size).sum();
+        divide.finish(groups.size(), fileCount);
+        logger.info("Input collection divided into {} groups.", groups.size());
+
+        pipeline.stage = progress.stage("pipeline", groups.size(), fileCount);
+
+        Prefetcher.Schedule schedule = prefetcher == null ? null : prefetcher.schedule(groups);
+        try {
+            executionStrategy.cpu().invoke(pipeline.start(groups, schedule));
+        } catch (UncheckedIOException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
+            if (schedule != null) schedule.close();
+        }
+
+        if (pipeline.partial) {
+            logger.info("Processing cancelled with {} groups complete.", pipeline.emitted);
+        } else {
+            pipeline.stage.finish(pipeline.emitted, pipeline.emittedFiles);
+            logger.info("Processing finished with {} groups.", pipeline.emitted);
+        }
+        return pipeline;
     }
 
     /**
-     * Applies a series of algorithms to group files and consolidates the results by merging groups with the same key.
-     * <p>This method processes the grouped files using each algorithm in the {@code algorithms} collection. After each algorithm is applied,
-     * it consolidates the resulting maps by merging groups that have the same key and removing groups that only contain a single file.</p>
+     * Applies a series of algorithms to groups of interned files and consolidates the results by merging groups with the same key.
+     * <p>After each algorithm is applied, groups that have the same key are merged, and groups that only contain a single file are removed.</p>
      *
-     * @param groupedFiles a {@link Set} of {@link Set} of {@link File} instances representing the grouped files to which the algorithms should be applied.
-     *                     Each group represents a set of similar files.
-     * @return a {@link Set} of {@link Set} of {@link File} instances after applying the algorithms and consolidating the results.
+     * @param index the index of the files.
+     * @param groups the groups of file IDs, each in ascending order.
+     * @param from the index of the first algorithm to apply.
+     * @param checkpoint the checkpoint recording the progress, or {@code null}.
+     * @return the groups of file IDs after applying the algorithms and consolidating the results.
      * @throws IOException if an error occurs during algorithm application or file processing.
      */
     @NotNull
-    @Contract("_ -> new")
-    private Set<Set<File>> algorithmsApplication(@NotNull Set<Set<File>> groupedFiles) throws IOException {
+    private int[][] algorithmsApplication(@NotNull FileIndex index, @NotNull int[][] groups, int from, @Nullable Checkpoint checkpoint) throws IOException {
         logger.info("Proceeding to algorithm application.");
-        Map<?, Set<File>> algorithmOutput;
-        for (Algorithm<?> algorithm : algorithms) {
+        List<Algorithm<?>> steps = List.copyOf(algorithms);
+        for (int step = from; step < steps.size(); step++) {
+            Algorithm<?> algorithm = steps.get(step);
             try {
-                algorithmOutput = applyAlgorithm(algorithm, groupedFiles);
-                groupedFiles = postAlgorithmConsolidation(algorithmOutput);
+                ProgressDispatcher.Stage stage = progress.stage(algorithm.getClass().getSimpleName(), groups.length, fileCount(groups));
+                List<? extends Map<?, Set<File>>> outputs = applyAlgorithm(algorithm, step, index, groups, checkpoint, stage);
+                groups = consolidate(index, outputs);
+                stage.finish(groups.length, fileCount(groups));
+                if (checkpoint != null) checkpoint.recordStage(step + 1, index, groups);
                 logger.info("Step finished.");
             } catch (UncheckedIOException e) {
                 throw new IOException("Couldn't use algorithm: " + algorithm.getClass().getSimpleName() + "\nBecause: " + e.getMessage(), e.getCause());
             }
         }
-        return groupedFiles;
+        return groups;
     }
 
     /**
-     * Applies a single algorithm to the grouped files and returns a map of results.
-     * <p>This method processes the input groups using the specified algorithm and generates a map, where the key represents
+     * Applies a single algorithm to the grouped files and returns its results for every group.
+     * <p>This method processes the input groups using the specified algorithm and generates a map for each group, where the key represents
      * a shared characteristic, and the value is a set of files that share that characteristic.</p>
+     * <p>If a {@link Prefetcher} is set, the groups are scheduled for prefetching in the order they are processed,
+     * and each group is released as soon as the algorithm is done with it.</p>
+     *
+     * <p>If a {@link Checkpoint} is given, the results recorded by an earlier run are restored instead of being computed,
+     * and new results are recorded, with their keys replaced by the ones of the checkpoint.</p>
      *
      * @param algorithm the {@link Algorithm} to apply to the grouped files.
-     * @param groupedFiles a {@link Set} of {@link Set} of {@link File} instances representing the grouped files to be processed.
+     * @param step the index of the algorithm.
+     * @param index the index of the files.
+     * @param groupedFiles the groups of file IDs to be processed, each in ascending order.
+     * @param checkpoint the checkpoint recording the results, or {@code null}.
+     * @param stage the stage recording the processed groups.
      * @param <T> the type of the key in the generated map (e.g., perceptual hash, CRC32 checksum).
-     * @return a {@link Map} where the key is the characteristic (e.g., hash value), and the value is a set of files sharing that characteristic.
+     * @return a {@link Map} for each group, where the key is the characteristic (e.g., hash value), and the value is a set of files sharing that characteristic.
      */
     @NotNull
-    @Contract("_,_ -> new")
-    private <T> Map<T, Set<File>> applyAlgorithm(@NotNull Algorithm<T> algorithm, @NotNull Set<Set<File>> groupedFiles) {
+    @Contract("_,_,_,_,_,_ -> new")
+    private <T> List<Map<?, Set<File>>> applyAlgorithm(@NotNull Algorithm<T> algorithm, int step, @NotNull FileIndex index,
+                                                       @NotNull int[][] groupedFiles, @Nullable Checkpoint checkpoint,
+                                                       @NotNull ProgressDispatcher.Stage stage) {
         logger.info("Applying algorithm: {}", algorithm.getClass().getSimpleName());
-        return groupedFiles.parallelStream()
-            .map(algorithm::apply)
-            .flatMap(m -> m.entrySet().stream())
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue,
-                this::consolidate
-            ));
+        List<Set<File>> groups = Arrays.stream(groupedFiles).map(index::view).toList();
+        Prefetcher.Schedule schedule = prefetcher == null ? null : prefetcher.schedule(groups);
+
+        IntFunction<Map<?, Set<File>>> compute = i -> {
+            try {
+                if (checkpoint == null) return applyBalanced(algorithm, groups.get(i), null);
+
+                Map<Object, Set<File>> restored = checkpoint.takeResult(step, i);
+                if (restored != null) return restored;
+
+                Map<T, Set<File>> result = applyBalanced(algorithm, groups.get(i), null);
+                Map<Object, Set<File>> recorded = checkpoint.recordResult(step, i, result);
+                return recorded == null ? result : recorded;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (schedule != null) schedule.release(i);
+            }
+        };
+        IntFunction<Map<?, Set<File>>> task = i -> {
+            Map<?, Set<File>> result = compute.apply(i);
+            stage.groupDone(groups.get(i).size());
+            return result;
+        };
+
+        try {
+            if (executionStrategy.isScoped()) return forkAll(groups.size(), task);
+
+            List<Map<?, Set<File>>> results = new ArrayList<>(Collections.nCopies(groups.size(), null));
+            executionStrategy.cpu().invoke(inOrder(groups.size(), i -> results.set(i, task.apply(i))));
+            return results;
+        } finally {
+            if (schedule != null) {
+                schedule.close();
+                logger.debug("Prefetch status: {}", prefetcher.stats());
+            }
+        }
     }
 
     /**
-     * Consolidates the results of the applied algorithm by removing groups with only one file and merging groups with identical keys.
-     * <p>This method processes the output of an algorithm, eliminating groups that contain only one file and merging groups with the same key.</p>
+     * Applies the algorithm to a single group. Groups above the {@link #setSplitThreshold(int) split threshold}
+     * are split in halves for a {@link SplittableAlgorithm}, down to parts below the threshold,
+     * which are processed as separate tasks of the CPU pool, and their results merged.
      *
-     * @param algorithmOutput a {@link Map} containing the results of the algorithm, where the key is a shared characteristic (e.g., hash) and the value is a set of files.
-     * @return a {@link Set} of {@link Set} of {@link File} instances after consolidation, where only groups with more than one file are kept.
+     * @param algorithm the algorithm to apply.
+     * @param group the group to process.
+     * @param token the token stopping the parts of a split group, or {@code null}.
+     * @return the result of the algorithm.
+     * @param <T> the type of the key.
+     * @throws CancellationException if the token was cancelled before all parts were processed.
      */
     @NotNull
-    @Contract("_ -> new")
-    private Set<Set<File>> postAlgorithmConsolidation(@NotNull Map<?, Set<File>> algorithmOutput) {
-        logger.info("Algorithm applied. Eliminating unique files...");
-        return algorithmOutput.values()
-            .stream().filter(s -> s.size() > 1)
-            .collect(Collectors.toSet());
+    private <T> Map<T, Set<File>> applyBalanced(@NotNull Algorithm<T> algorithm, @NotNull Set<File> group, @Nullable CancellationToken token) {
+        if (!(algorithm instanceof SplittableAlgorithm<T> splittable) || group.size() <= splitThreshold) {
+            return algorithm.apply(group);
+        }
+
+        logger.debug("Splitting group of {} files for: {}", group.size(), algorithm.getClass().getSimpleName());
+        SplitTask<T> task = new SplitTask<>(splittable, List.copyOf(group), 0, group.size(), splitThreshold, token);
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : executionStrategy.cpu().invoke(task);
     }
 
     /**
-     * Identifies the "original" file in each group and reorganizes the groups into a map.
-     * Each group is represented as a set of files, where the first file in the group is
-     * treated as the "original". This method creates a map where:
-     * <ul>
-     *     <li>The key is the original file (the first file in each group).</li>
-     *     <li>The value is a set of files representing duplicates or similar files for that original.</li>
-     * </ul>
-     * Note that each subset of passed {@link Set} must contain more than one element.
+     * Creates the task running the action for every index. Each task takes the next index from a shared counter,
+     * and forks its successor before running the action, so indices are started in ascending order, which is
+     * the order the {@link Prefetcher} loads groups in, and an idle or compensating worker can always take the next one,
+     * even while the others are blocked. No index is started after a failure.
      *
-     * @param groupedFiles a {@link Set} of {@link Set} of {@link File} instances,
-     *                     where each inner set represents a group of files.
-     *                     The input must not be null, and each group should contain at least two files.
-     * @return a new {@link Map} where:
-     *         - The key is a {@link File} representing the original file in one group.
-     *         - The value is a {@link Set} of {@link File} instances representing duplicates or similar files.
-     *         The returned map is guaranteed not to contain null keys or values.
-     * @throws NullPointerException if {@code groupedFiles} is null, or when it contains null.
+     * @param count the number of indices.
+     * @param action the action, given an index.
+     * @return the task, to be invoked in a {@link java.util.concurrent.ForkJoinPool}.
      */
     @NotNull
-    @Contract("_ -> new")
-    private Map<File, Set<File>> originalDistinction(@NotNull Set<Set<File>> groupedFiles) {
-        Objects.requireNonNull(groupedFiles, "groupedFiles is null.");
-        if (groupedFiles.contains(null)) throw new NullPointerException("groupedFiles contains null.");
+    private static ForkJoinTask<Void> inOrder(int count, @NotNull IntConsumer action) {
+        return new InOrderTask(null, new AtomicInteger(), count, action);
+    }
+
+    /**
+     * Runs the action, interrupting the current thread if the token is cancelled in the meantime, so algorithms
+     * and image loads blocked in interruptible reads or waits stop at once. The interrupt is cleared afterwards,
+     * as the thread is pooled.
+     *
+     * @param token the token, or {@code null} to run the action as is.
+     * @param action the action.
+     * @return the result of the action.
+     * @param <R> the type of the result.
+     */
+    private static <R> R interruptibly(@Nullable CancellationToken token, @NotNull Supplier<R> action) {
+        if (token == null) return action.get();
+
+        Thread thread = Thread.currentThread();
+        CancellationToken.Registration registration = token.onCancel(thread::interrupt);
+        try (registration) {
+            return action.get();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Runs the tasks in a {@link TaskScope}, so the first failure cancels the tasks that haven't finished.
+     *
+     * @param count the number of tasks.
+     * @param task the task, given its index.
+     * @return the results, in the order of the tasks.
+     * @param <R> the type of the results.
+     * @throws UncheckedIOException if the current thread is interrupted while waiting.
+     */
+    @NotNull
+    private <R> List<R> forkAll(int count, @NotNull IntFunction<R> task) {
+        try (TaskScope scope = executionStrategy.openScope()) {
+            List<Supplier<R>> results = IntStream.range(0, count)
+                .mapToObj(i -> scope.fork(() -> task.apply(i)))
+                .toList();
+            scope.join();
+            scope.throwIfFailed();
+            return results.stream().map(Supplier::get).toList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while applying an algorithm"));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error r) throw r;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Consolidates the results of the applied algorithm for every group, by removing groups with only one file and merging groups with identical keys.
+     * <p>Files sharing a key, in any group, are merged with a {@link UnionFind} over their IDs, so no intermediate set is built.</p>
+     *
+     * @param index the index of the files, new files are interned.
+     * @param outputs the results of the algorithm for every group.
+     * @return the groups of file IDs with more than one file, each in ascending order.
+     */
+    @NotNull
+    private int[][] consolidate(@NotNull FileIndex index, @NotNull List<? extends Map<?, Set<File>>> outputs) {
+        logger.info("Algorithm applied. Eliminating unique files...");
+        BitSet members = new BitSet();
+        for (Map<?, Set<File>> output : outputs) {
+            for (Set<File> files : output.values()) {
+                for (File file : files) members.set(index.intern(file));
+            }
+        }
+
+        UnionFind unionFind = new UnionFind(index.size());
+        Map<Object, Integer> keys = new HashMap<>();
+        for (Map<?, Set<File>> output : outputs) {
+            output.forEach((key, files) -> {
+                for (File file : files) {
+                    int id = index.idOf(file);
+                    unionFind.union(keys.computeIfAbsent(key, k -> id), id);
+                }
+            });
+        }
+        return unionFind.components(members.stream().toArray(), 2);
+    }
 
+    /**
+     * Identifies the "original" file in each group and materializes the final groups of file IDs into the result map.
+     * The file with the lowest ID, i.e. seen first, is the original, mapped to the other files of its group.
+     *
+     * @param index the index of the files.
+     * @param groups the groups of file IDs, each in ascending order.
+     * @return a new {@link Map} of the original files to the other files of their groups.
+     */
+    @NotNull
+    private Map<File, Set<File>> originalDistinction(@NotNull FileIndex index, @NotNull int[][] groups) {
         logger.info("Identifying originals...");
-        return groupedFiles.stream()
-                .map(s -> s.stream().toList())
-                .collect(Collectors.toMap(
-                        List::getFirst,
-                    s -> new HashSet<>(s.subList(1, s.size()))
-                ));
+        Map<File, Set<File>> result = HashMap.newHashMap(groups.length);
+        for (int[] group : groups) {
+            Set<File> duplicates = HashSet.newHashSet(group.length - 1);
+            for (int i = 1; i < group.length; i++) duplicates.add(index.file(group[i]));
+            result.put(index.file(group[0]), duplicates);
+        }
+        return result;
     }
 
     /**
-     * Merges two sets into a new set containing all elements from both input sets.
+     * Interns the files of every group.
      *
-     * @param s1 the first set to merge
-     * @param s2 the second set to merge
-     * @return a new set containing all elements from {@code s1} and {@code s2}
+     * @param index the index of the files.
+     * @param groupedFiles the groups of files.
+     * @return the groups of file IDs, each in ascending order.
      */
     @NotNull
-    @Contract("_,_ -> new")
-    private Set<File> consolidate(@NotNull Set<File> s1, @NotNull Set<File> s2) {
-        Set<File> out = new HashSet<>(s1);
-        out.addAll(s2);
-        return out;
+    private static int[][] intern(@NotNull FileIndex index, @NotNull Collection<Set<File>> groupedFiles) {
+        return groupedFiles.stream().map(index::intern).toArray(int[][]::new);
+    }
+
+    /**
+     * @param groups the groups of file IDs.
+     * @return the number of files in all groups.
+     */
+    private static long fileCount(@NotNull int[][] groups) {
+        long count = 0;
+        for (int[] group : groups) count += group.length;
+        return count;
+    }
+
+    /**
+     * Listener of the final groups, reported by {@link #process(Collection, ResultListener)}.
+     */
+    @FunctionalInterface
+    public interface ResultListener {
+
+        /**
+         * Called once for each final group. Calls are never concurrent.
+         *
+         * @param original the file considered the original of the group.
+         * @param duplicates the other files of the group.
+         */
+        void onGroup(@NotNull File original, @NotNull Set<File> duplicates);
+    }
+
+    /**
+     * Listener of the files already linked to another input file, reported before the input is divided.
+     */
+    @FunctionalInterface
+    public interface LinkListener {
+
+        /**
+         * Called once for each linked file. Calls are never concurrent.
+         *
+         * @param canonical the file kept in the input.
+         * @param alias the other path of the same physical file, removed from the input.
+         */
+        void onLinked(@NotNull File canonical, @NotNull File alias);
+    }
+
+    /**
+     * The final groups of {@link #process(Collection, CancellationToken)}.
+     *
+     * @param groups the map of the original files to their duplicates, for every complete group.
+     * @param partial whether the processing was stopped before all groups were complete.
+     */
+    public record Result(@NotNull Map<File, Set<File>> groups, boolean partial) {}
+
+    /**
+     * The state of a single {@link #process(Collection, ResultListener)} call.
+     */
+    private final class Pipeline {
+
+        private final List<Algorithm<?>> steps;
+        private final ResultListener listener;
+        private final Map<File, Set<File>> results;
+        private final CancellationToken token;
+        private ProgressDispatcher.Stage stage; // Set once the input collection is divided.
+        private volatile boolean failed;
+        private volatile boolean partial;
+        private int emitted; // Guarded by the listener.
+        private long emittedFiles; // Guarded by the listener.
+
+        private Pipeline(List<Algorithm<?>> steps, ResultListener listener, boolean retain, CancellationToken token) {
+            this.steps = steps;
+            this.listener = listener;
+            this.results = retain ? new ConcurrentHashMap<>() : null;
+            this.token = token;
+        }
+
+        /**
+         * Creates the task running all groups through the pipeline, started in the order of the schedule.
+         * Each group is released from the schedule once all of its subgroups are complete.
+         */
+        private ForkJoinTask<Void> start(List<Set<File>> groups, Prefetcher.Schedule schedule) {
+            return inOrder(groups.size(), i -> new GroupTask(groups.get(i), 0, i, schedule).invoke());
+        }
+
+        private void emit(Set<File> group) {
+            List<File> files = List.copyOf(group);
+            File original = files.getFirst();
+            Set<File> duplicates = new HashSet<>(files.subList(1, files.size()));
+            if (results != null) results.put(original, duplicates);
+            synchronized (listener) {
+                listener.onGroup(original, duplicates);
+                emitted++;
+                emittedFiles += files.size();
+            }
+        }
+
+        /**
+         * Applies a single algorithm to a single group, and forks its subgroups into the next step.
+         */
+        @SuppressWarnings("serial") // Tasks are never serialized.
+        private final class GroupTask extends RecursiveAction {
+
+            private final Set<File> group;
+            private final int step;
+            private final int index;
+            private final Prefetcher.Schedule schedule;
+
+            private GroupTask(Set<File> group, int step, int index, Prefetcher.Schedule schedule) {
+                this.group = group;
+                this.step = step;
+                this.index = index;
+                this.schedule = schedule;
+            }
+
+            @Override
+            protected void compute() {
+                if (failed) return; // Another group failed, the run is abandoned.
+                if (token != null && token.isCancelled()) {
+                    partial = true;
+                    return;
+                }
+
+                try {
+                    Algorithm<?> algorithm = steps.get(step);
+                    Collection<Set<File>> subgroups;
+                    try {
+                        subgroups = interruptibly(token, () -> applyBalanced(algorithm, group, token)).values();
+                    } catch (UncheckedIOException e) {
+                        throw new UncheckedIOException("Couldn't use algorithm: " + algorithm.getClass().getSimpleName() + "\nBecause: " + e.getMessage(), e.getCause());
+                    }
+
+                    List<GroupTask> next = new ArrayList<>();
+                    for (Set<File> subgroup : subgroups) {
+                        if (subgroup.size() <= 1) continue;
+
+                        if (step + 1 == steps.size()) emit(subgroup);
+                        else next.add(new GroupTask(subgroup, step + 1, index, null));
+                    }
+                    invokeAll(next);
+                    if (step == 0 && !partial) stage.groupDone(group.size()); // The whole group went through all algorithms.
+                } catch (CancellationException e) {
+                    partial = true; // A split group was cancelled, the others stop on their own.
+                } catch (RuntimeException | Error e) {
+                    if (e instanceof RuntimeException && token != null && token.isCancelled()) {
+                        partial = true; // Interrupted by the cancellation, e.g. while loading an image.
+                        return;
+                    }
+                    failed = true;
+                    throw e;
+                } finally {
+                    if (schedule != null) schedule.release(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs an action for the next index of a shared counter, see {@link #inOrder(int, IntConsumer)}.
+     * Completes once its action and all of its successors are complete.
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized.
+    private static final class InOrderTask extends CountedCompleter<Void> {
+
+        private final AtomicInteger next;
+        private final int count;
+        private final IntConsumer action;
+
+        private InOrderTask(CountedCompleter<?> parent, AtomicInteger next, int count, IntConsumer action) {
+            super(parent);
+            this.next = next;
+            this.count = count;
+            this.action = action;
+        }
+
+        @Override
+        public void compute() {
+            int i = next.getAndIncrement();
+            if (i < count) {
+                addToPendingCount(1);
+                new InOrderTask(this, next, count, action).fork();
+                try {
+                    action.accept(i);
+                } catch (RuntimeException | Error e) {
+                    next.set(count);
+                    throw e;
+                }
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Applies a {@link SplittableAlgorithm} to a range of a group, splitting it in halves while it's above the threshold.
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized.
+    private static final class SplitTask<T> extends RecursiveTask<Map<T, Set<File>>> {
+
+        private final SplittableAlgorithm<T> algorithm;
+        private final List<File> files;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final CancellationToken token;
+
+        private SplitTask(SplittableAlgorithm<T> algorithm, List<File> files, int from, int to, int threshold, CancellationToken token) {
+            this.algorithm = algorithm;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.token = token;
+        }
+
+        @Override
+        protected Map<T, Set<File>> compute() {
+            if (token != null) token.throwIfCancelled();
+            if (to - from <= threshold) return interruptibly(token, () -> algorithm.apply(new HashSet<>(files.subList(from, to))));
+
+            int mid = (from + to) >>> 1;
+            SplitTask<T> left = new SplitTask<>(algorithm, files, from, mid, threshold, token);
+            left.fork();
+            Map<T, Set<File>> right = new SplitTask<>(algorithm, files, mid, to, threshold, token).compute();
+            return algorithm.merge(left.join(), right);
+        }
     }
 }
@@ -3,6 +3,7 @@ package pl.magzik.algorithms;
 import org.jetbrains.annotations.NotNull;
 import pl.magzik.algorithms.math.DCT;
 import pl.magzik.cache.AdaptiveCache;
+import pl.magzik.cache.ImageSource;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -31,11 +32,32 @@ import java.util.stream.IntStream;
  * Images are then grouped based on their hashes, and the result is returned as a map where each key represents a unique hash,
  * and the corresponding value is a set of images that share that hash.
  * </p>
+ * <p>
+ * Images are retrieved through an {@link ImageSource}. By default, the shared {@link AdaptiveCache} instance is used.
+ * </p>
  */
-public class PerceptualHash implements Algorithm<String> {
+public class PerceptualHash implements SplittableAlgorithm<String> {
 
     private static final int WIDTH = 8, HEIGHT = 8;
 
+    private final ImageSource imageSource;
+
+    /**
+     * Creates the algorithm using the shared {@link AdaptiveCache} instance.
+     */
+    public PerceptualHash() {
+        this(file -> AdaptiveCache.getInstance().get(file));
+    }
+
+    /**
+     * Creates the algorithm using the given image source.
+     *
+     * @param imageSource the source of decoded images, e.g. an {@link AdaptiveCache} owned by the current run.
+     */
+    public PerceptualHash(@NotNull ImageSource imageSource) {
+        this.imageSource = Objects.requireNonNull(imageSource, "imageSource must not be null");
+    }
+
     @Override
     public Map<String, Set<File>> apply(@NotNull Set<File> group) {
         List<File> gf = group.stream().toList();
@@ -74,7 +96,7 @@ public class PerceptualHash implements Algorithm<String> {
     private BufferedImage resize(@NotNull File file) {
         BufferedImage image;
         try {
-            image = AdaptiveCache.getInstance().get(file);
+            image = imageSource.get(file);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
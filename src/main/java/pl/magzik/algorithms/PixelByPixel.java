@@ -2,6 +2,7 @@ package pl.magzik.algorithms;
 
 import org.jetbrains.annotations.NotNull;
 import pl.magzik.cache.AdaptiveCache;
+import pl.magzik.cache.ImageSource;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
@@ -22,11 +23,12 @@ import java.util.stream.Collectors;
  * </p>
  *
  * <p>
- * The algorithm uses an {@link AdaptiveCache} to store and retrieve images during the comparison process, improving
- * performance by avoiding reloading images from disk for every comparison.
+ * The algorithm uses an {@link ImageSource}, by default the shared {@link AdaptiveCache} instance, to retrieve images
+ * during the comparison process, improving performance by avoiding reloading images from disk for every comparison.
  * It performs a depth-first search-like operation by iterating through the image group, selecting a 'key' image and
  * comparing it against the rest of the group, grouping identical images together.
- * The comparison operation is parallelized to speed up the process when checking multiple images.
+ * The comparison operation is parallelized to speed up the process when checking multiple images. Large groups may also
+ * be split into parts, which are compared independently and {@link #merge(Map, Map) merged} by their key images.
  * </p>
  *
  * <p>
@@ -57,9 +59,28 @@ import java.util.stream.Collectors;
  * }</pre>
  *
  * @see AdaptiveCache
+ * @see ImageSource
  * @see ConcurrentLinkedQueue
  */
-public class PixelByPixel implements Algorithm<File> {
+public class PixelByPixel implements SplittableAlgorithm<File> {
+
+    private final ImageSource imageSource;
+
+    /**
+     * Creates the algorithm using the shared {@link AdaptiveCache} instance.
+     */
+    public PixelByPixel() {
+        this(file -> AdaptiveCache.getInstance().get(file));
+    }
+
+    /**
+     * Creates the algorithm using the given image source.
+     *
+     * @param imageSource the source of decoded images, e.g. an {@link AdaptiveCache} owned by the current run.
+     */
+    public PixelByPixel(@NotNull ImageSource imageSource) {
+        this.imageSource = Objects.requireNonNull(imageSource, "imageSource must not be null");
+    }
 
     @Override
     public Map<File, Set<File>> apply(Set<File> group) {
@@ -73,6 +94,35 @@ public class PixelByPixel implements Algorithm<File> {
         return result;
     }
 
+    /**
+     * Merges the results of two parts of a group by comparing their representative images:
+     * a group of the right part joins the group of the left part whose key image is identical.
+     *
+     * @param left the result of one part.
+     * @param right the result of the other part.
+     * @return the result for both parts together.
+     */
+    @Override
+    public Map<File, Set<File>> merge(Map<File, Set<File>> left, Map<File, Set<File>> right) {
+        Map<File, Set<File>> result = new HashMap<>(left);
+        for (Map.Entry<File, Set<File>> entry : right.entrySet()) {
+            BufferedImage image = getCachedImage(entry.getKey());
+            File match = left.keySet().stream()
+                .filter(k -> compareImages(getCachedImage(k), image))
+                .findFirst()
+                .orElse(null);
+
+            if (match == null) {
+                result.put(entry.getKey(), entry.getValue());
+            } else {
+                Set<File> union = new HashSet<>(result.get(match));
+                union.addAll(entry.getValue());
+                result.put(match, union);
+            }
+        }
+        return result;
+    }
+
     /**
      * Processes a queue of image files and groups identical images based on pixel-by-pixel comparison.
      * <p>
@@ -98,7 +148,7 @@ public class PixelByPixel implements Algorithm<File> {
     /**
      * Retrieves an image from the cache or loads it from the disk if not already cached.
      * <p>
-     * This method calls the {@link AdaptiveCache} to get the image. If the image is not found in the cache,
+     * This method calls the {@link ImageSource} to get the image. If the image is not found in the cache,
      * it will be loaded from disk and added to the cache.
      * </p>
      *
@@ -109,7 +159,7 @@ public class PixelByPixel implements Algorithm<File> {
     private BufferedImage getCachedImage(@NotNull File file) {
         BufferedImage img;
         try {
-            img = AdaptiveCache.getInstance().get(file);
+            img = imageSource.get(file);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -0,0 +1,42 @@
+package pl.magzik.algorithms;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link Algorithm} that may be applied to parts of a group independently, with the partial results merged afterward.
+ * <p>
+ * Applying the algorithm to a group must give the same division as applying it to any split of the group
+ * into disjoint parts, and merging the results. This lets a single large group be processed by many workers.
+ * </p>
+ * <p>
+ * The default {@link #merge(Map, Map)} unites the sets with equal keys, which is correct for algorithms whose key
+ * depends only on the file it's computed for, e.g. a hash. Algorithms keyed by a representative file,
+ * which compare files with each other, must override it.
+ * </p>
+ *
+ * @param <K> the type of the key.
+ */
+public interface SplittableAlgorithm<K> extends Algorithm<K> {
+
+    /**
+     * Merges the results of applying the algorithm to two disjoint parts of the same group.
+     * The arguments may be modified and returned.
+     *
+     * @param left the result of one part.
+     * @param right the result of the other part.
+     * @return the result for both parts together.
+     */
+    default Map<K, Set<File>> merge(Map<K, Set<File>> left, Map<K, Set<File>> right) {
+        Map<K, Set<File>> result = new HashMap<>(left);
+        right.forEach((key, files) -> result.merge(key, files, (a, b) -> {
+            Set<File> union = new HashSet<>(a);
+            union.addAll(b);
+            return union;
+        }));
+        return result;
+    }
+}
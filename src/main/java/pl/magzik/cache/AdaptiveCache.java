@@ -2,18 +2,34 @@ package pl.magzik.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.magzik.io.ImageDecoder;
+import pl.magzik.io.ReadScheduler;
 
-import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -24,11 +40,32 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * eviction policy.
  * </p>
  * <p>
- * This class is designed as a singleton, ensuring that there is only one instance of the cache in the application.
- * The cache also includes a periodic monitoring system to log cache statistics.
+ * A shared instance is available through {@link #getInstance()}, and it is used by algorithms created without
+ * an explicit {@link ImageSource}. For concurrent runs, prefer a separate instance per run, limited by a
+ * {@link MemoryBudget.Quota} and closed when the run finishes, so the memory is released deterministically.
+ * </p>
+ * <p>
+ * The cache records its metrics: hit rate, load time percentiles, evictions by cause, resident bytes and
+ * decode throughput. They are available as a {@link CacheSnapshot}, through JMX after {@link #registerMBean(String)},
+ * or periodically logged by the {@link #monitor(long) monitor}.
+ * </p>
+ * <p>
+ * On a miss, files are read through a {@link ReadScheduler}, the shared one unless {@link #setScheduler(ReadScheduler) set},
+ * so on-demand loads share the per-device limits with prefetches and other scheduled reads. Only the read is scheduled,
+ * the image is decoded after its permit is released.
+ * </p>
+ * <p>
+ * Images expire one second after they were last accessed, unless they're pinned by a {@link Prefetcher} that loaded
+ * them ahead of the algorithms. Pinned images are kept, within the size limit, until the prefetched group is released.
+ * </p>
+ * <p>
+ * Optionally, the cache can be backed by a {@link DiskCache}. Images evicted from memory are then
+ * stored on the local disk in a compressed form, and a memory miss checks the disk cache before
+ * falling back to decoding the original file. Evicted images are compressed and written by a thread of the cache,
+ * not on the common pool, where the removals would otherwise be handled.
  * </p>
  */
-public class AdaptiveCache {
+public class AdaptiveCache implements ImageSource, AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(AdaptiveCache.class);
 
@@ -38,6 +75,11 @@ public class AdaptiveCache {
      */
     private static final double MAXIMUM_MEMORY_PERCENTAGE = 0.6;
 
+    /**
+     * The time after the last access when an image that isn't pinned expires.
+     */
+    private static final long EXPIRE_AFTER_ACCESS_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     /**
      * Singleton holder for the {@link AdaptiveCache} instance.
      */
@@ -70,13 +112,48 @@ public class AdaptiveCache {
         return (long) (maxMemory * MAXIMUM_MEMORY_PERCENTAGE);
     }
 
-    private final AtomicBoolean monitorStarted = new AtomicBoolean(false);
-
     /**
      * The cache instance used for storing images.
      */
     private final Cache<File, BufferedImage> cache;
 
+    /**
+     * The optional second level cache, used for evicted images.
+     */
+    @Nullable
+    private final DiskCache diskCache;
+
+    /**
+     * The optional quota limiting this cache, when it shares a {@link MemoryBudget} with other caches.
+     */
+    @Nullable
+    private final MemoryBudget.Quota quota;
+
+    private final LatencyHistogram loadTimes;
+
+    private volatile ReadScheduler scheduler;
+
+    /**
+     * The number of prefetched groups pinning each file, see {@link #pin(Collection)}.
+     */
+    private final Map<File, Integer> pins;
+
+    private final Map<RemovalCause, LongAdder> removals;
+
+    private final LongAdder loadFailures, decodedImages, decodedBytes, decodeTime;
+
+    private final long createdAt;
+
+    private ScheduledExecutorService monitor;
+
+    /**
+     * The thread writing evicted images to the disk cache, or {@code null} without a disk cache.
+     */
+    @Nullable
+    private final ExecutorService writer;
+
+    private ObjectName mBeanName;
+
     /**
      * Initializes the cache with a dynamic weight limit based on available memory.
      * The cache will use up to 60% of the available JVM heap memory and will evict entries
@@ -85,16 +162,93 @@ public class AdaptiveCache {
      * @param maximumWeight the maximum weight (memory) the cache can use.
      */
     private AdaptiveCache(long maximumWeight) {
+        this(maximumWeight, null);
+    }
+
+    /**
+     * Initializes the cache with the default weight limit, backed by the given {@link DiskCache}.
+     *
+     * @param diskCache the second level cache for evicted images.
+     */
+    public AdaptiveCache(@NotNull DiskCache diskCache) {
+        this(getMaximumWeight(), diskCache);
+    }
+
+    /**
+     * Initializes the cache limited by the given quota of a shared {@link MemoryBudget}.
+     *
+     * @param quota the quota limiting this cache. It is closed together with the cache.
+     */
+    public AdaptiveCache(@NotNull MemoryBudget.Quota quota) {
+        this(quota, null);
+    }
+
+    /**
+     * Initializes the cache limited by the given quota of a shared {@link MemoryBudget},
+     * optionally backed by a {@link DiskCache}.
+     * <p>
+     * Whenever the budget is rebalanced, the maximum weight of the cache follows the quota's allocation.
+     * </p>
+     *
+     * @param quota the quota limiting this cache. It is closed together with the cache.
+     * @param diskCache the second level cache for evicted images, or {@code null} to disable it.
+     */
+    public AdaptiveCache(@NotNull MemoryBudget.Quota quota, @Nullable DiskCache diskCache) {
+        this(quota.allocation(), diskCache, quota);
+        quota.onResize(this::resize);
+        resize(quota.allocation());
+    }
+
+    /**
+     * Initializes the cache with the given weight limit, optionally backed by a {@link DiskCache}.
+     * Images evicted from the memory (by size or expiration) are passed to the disk cache.
+     *
+     * @param maximumWeight the maximum weight (memory) the cache can use.
+     * @param diskCache the second level cache for evicted images, or {@code null} to disable it.
+     */
+    public AdaptiveCache(long maximumWeight, @Nullable DiskCache diskCache) {
+        this(maximumWeight, diskCache, null);
+    }
+
+    private AdaptiveCache(long maximumWeight, @Nullable DiskCache diskCache, @Nullable MemoryBudget.Quota quota) {
         logger.info("Initialising cache memory...");
-        this.cache = Caffeine.newBuilder()
+        this.diskCache = diskCache;
+        this.quota = quota;
+        this.loadTimes = new LatencyHistogram();
+        this.scheduler = ReadScheduler.getInstance();
+        this.pins = new ConcurrentHashMap<>();
+        this.removals = new EnumMap<>(RemovalCause.class);
+        for (RemovalCause cause : RemovalCause.values()) removals.put(cause, new LongAdder());
+        this.loadFailures = new LongAdder();
+        this.decodedImages = new LongAdder();
+        this.decodedBytes = new LongAdder();
+        this.decodeTime = new LongAdder();
+        this.createdAt = System.nanoTime();
+        this.writer = diskCache == null ? null : Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().daemon().name("disk-cache-writer").factory()
+        );
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (writer != null) builder.executor(writer);
+        this.cache = builder
             .maximumWeight(maximumWeight)
             .weigher(this::getImageWeight)
-            .expireAfterAccess(1, TimeUnit.SECONDS)
+            .expireAfter(new PinnedExpiry())
+            .removalListener(this::onRemoval)
             .recordStats()
             .build();
         logger.info("Cache memory initialised.");
     }
 
+    /**
+     * Sets the scheduler reading files on a miss, the shared {@link ReadScheduler} by default.
+     *
+     * @param scheduler the scheduler of file reads.
+     */
+    public void setScheduler(@NotNull ReadScheduler scheduler) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler must not be null");
+    }
+
     /**
      * Calculates the weight of an image based on its dimensions (width * height * 4).
      * This assumes that each pixel is represented by 4 bytes (RGBA).
@@ -115,41 +269,385 @@ public class AdaptiveCache {
      * @return the buffered image from the cache.
      * @throws IOException if the image cannot be loaded from the file.
      */
+    @Override
     public BufferedImage get(@NotNull File key) throws IOException {
         try {
-            return cache.get(key, this::loadImage);
+            return cache.get(key, k -> loadImage(k, () -> {
+                ImageDecoder decoder = ImageDecoder.getInstance();
+                ByteBuffer content = scheduler.read(k, f -> decoder.read(f.toPath()));
+                return decoder.decode(content, ImageDecoder.formatOf(k));
+            }));
         } catch (UncheckedIOException e) {
             logger.error("Error loading image from file: {}", key, e);
             throw new IOException("Error loading image from file: " + key, e);
         }
     }
 
+    /**
+     * Retrieves an image from the cache, decoding it from the given file content if it is not present.
+     * This allows the caller to read the file on its own, e.g. on a thread dedicated to I/O.
+     *
+     * @param key the file representing the image.
+     * @param content the whole content of the file, e.g. read by {@link ImageDecoder#read(java.nio.file.Path)}.
+     * @return the buffered image from the cache.
+     * @throws IOException if the image cannot be decoded.
+     */
+    public BufferedImage get(@NotNull File key, @NotNull ByteBuffer content) throws IOException {
+        try {
+            return cache.get(key, k -> loadImage(k, () -> ImageDecoder.getInstance().decode(content, ImageDecoder.formatOf(k))));
+        } catch (UncheckedIOException e) {
+            logger.error("Error decoding image from file: {}", key, e);
+            throw new IOException("Error decoding image from file: " + key, e);
+        }
+    }
+
+    /**
+     * Checks if the image is present in memory, without affecting cache statistics.
+     *
+     * @param key the file representing the image.
+     * @return {@code true} if the image is cached.
+     */
+    public boolean contains(@NotNull File key) {
+        return cache.asMap().containsKey(key);
+    }
+
+    /**
+     * Keeps the images of the files from expiring until they're {@link #unpin(Collection) unpinned}, so images
+     * prefetched well ahead of the algorithms aren't lost. Pinned images are still evicted when the cache is full.
+     * Files may be pinned before their images are loaded.
+     *
+     * @param files the files to pin.
+     */
+    void pin(@NotNull Collection<File> files) {
+        for (File file : files) {
+            pins.compute(file, (f, count) -> {
+                if (count == null) setExpiresAfter(f, Long.MAX_VALUE);
+                return count == null ? 1 : count + 1;
+            });
+        }
+    }
+
+    /**
+     * Releases the pins taken by {@link #pin(Collection)}. Once a file isn't pinned anymore, its image expires
+     * as if it was just accessed.
+     *
+     * @param files the files to unpin.
+     */
+    void unpin(@NotNull Collection<File> files) {
+        for (File file : files) {
+            pins.computeIfPresent(file, (f, count) -> {
+                if (count > 1) return count - 1;
+                setExpiresAfter(f, EXPIRE_AFTER_ACCESS_NANOS);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Changes the expiration of a cached image, if it's present. Called while the pin count of the file is locked,
+     * so concurrent pins and unpins of the same file are applied in order.
+     */
+    private void setExpiresAfter(File file, long nanos) {
+        cache.policy().expireVariably().ifPresent(p -> p.setExpiresAfter(file, nanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Takes a snapshot of the cache metrics.
+     *
+     * @return the current metrics of the cache.
+     */
+    @NotNull
+    public CacheSnapshot snapshot() {
+        cache.cleanUp(); // Applies pending writes, so the resident size includes the latest loads.
+        var stats = cache.stats();
+        long elapsed = Math.max(1, System.nanoTime() - createdAt);
+        long decoded = decodedImages.sum();
+        long decodeNanos = decodeTime.sum();
+
+        return new CacheSnapshot(
+            stats.hitCount(), stats.missCount(), stats.hitRate(),
+            loadFailures.sum(),
+            loadTimes.percentile(50), loadTimes.percentile(95), loadTimes.percentile(99),
+            removals.get(RemovalCause.SIZE).sum(),
+            removals.get(RemovalCause.EXPIRED).sum(),
+            removals.get(RemovalCause.COLLECTED).sum(),
+            removals.get(RemovalCause.EXPLICIT).sum() + removals.get(RemovalCause.REPLACED).sum(),
+            cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L),
+            cache.estimatedSize(),
+            decoded,
+            decoded * 1e9 / elapsed,
+            decodeNanos == 0 ? 0 : decodedBytes.sum() * 1e9 / decodeNanos,
+            diskCache == null ? 0 : diskCache.hitCount(),
+            diskCache == null ? 0 : diskCache.missCount()
+        );
+    }
+
+    /**
+     * Registers the cache metrics in the platform {@link MBeanServer}
+     * under the {@code pl.magzik:type=AdaptiveCache,name=<name>} object name.
+     * The bean is unregistered when the cache is closed.
+     *
+     * @param name the name distinguishing this cache from others.
+     * @throws IllegalStateException if the bean couldn't be registered.
+     */
+    public synchronized void registerMBean(@NotNull String name) {
+        if (mBeanName != null) return;
+
+        try {
+            ObjectName objectName = new ObjectName("pl.magzik:type=AdaptiveCache,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), objectName);
+            mBeanName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register cache MBean: " + name, e);
+        }
+    }
+
     /**
      * Starts a periodic monitoring system that logs cache statistics at a specified interval.
+     * The monitor runs on a daemon thread and can be stopped with {@link #stopMonitor()}.
+     * Calling this method while the monitor is running has no effect.
      *
      * @param period the period (in seconds) between cache status logs.
      */
-    public void monitor(long period) {
-        if (monitorStarted.compareAndSet(false, true)) {
-            Executors.newSingleThreadScheduledExecutor()
-                .scheduleAtFixedRate(() -> logger.info("Cache status: {}", cache.stats()), 0, period, TimeUnit.SECONDS);
+    public synchronized void monitor(long period) {
+        if (monitor != null) return;
+
+        monitor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("cache-monitor").factory()
+        );
+        monitor.scheduleAtFixedRate(() -> logger.info("Cache status: {}", snapshot()), 0, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic monitoring system, if it is running.
+     */
+    public synchronized void stopMonitor() {
+        if (monitor == null) return;
+
+        monitor.shutdownNow();
+        monitor = null;
+    }
+
+    /**
+     * Drops all images held in memory and returns the quota, if any, to its {@link MemoryBudget}.
+     * Stops the monitor and unregisters the MBean, if they were started.
+     * <p>
+     * The {@link DiskCache}, if present, is not closed, as it may be shared with other caches.
+     * </p>
+     */
+    @Override
+    public void close() {
+        stopMonitor();
+        synchronized (this) {
+            if (mBeanName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+                } catch (JMException e) {
+                    logger.warn("Couldn't unregister cache MBean: {}", mBeanName, e);
+                }
+                mBeanName = null;
+            }
+        }
+        cache.invalidateAll();
+        cache.cleanUp();
+        if (writer != null) {
+            writer.shutdown(); // Pending writes are completed, the disk cache may be shared.
+            try {
+                if (!writer.awaitTermination(10, TimeUnit.SECONDS)) logger.warn("Disk cache writes didn't finish in time.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (quota != null) quota.close();
+        logger.info("Cache memory released.");
+    }
+
+    /**
+     * Changes the maximum weight of the cache, evicting images if necessary.
+     *
+     * @param maximumWeight the new maximum weight (memory) the cache can use.
+     */
+    private void resize(long maximumWeight) {
+        cache.policy().eviction().ifPresent(e -> e.setMaximum(maximumWeight));
+    }
+
+    /**
+     * Records the removal, and passes images evicted from the memory to the disk cache.
+     *
+     * @param key the file representing the image.
+     * @param value the evicted image.
+     * @param cause the reason of the removal.
+     */
+    private void onRemoval(@Nullable File key, @Nullable BufferedImage value, @NotNull RemovalCause cause) {
+        removals.get(cause).increment();
+        if (diskCache != null && cause.wasEvicted() && key != null && value != null) {
+            diskCache.put(key, value);
         }
     }
 
     /**
-     * Loads an image from disk.
+     * Loads an image from the disk cache, or decodes it if it isn't present there.
+     * The load time and decode throughput are recorded.
      *
      * @param key the file representing the image.
+     * @param decoder the function decoding the image from the file.
      * @return the loaded buffered image.
-     * @throws UncheckedIOException if an error occurs while reading the image.
+     * @throws UncheckedIOException if an error occurs while decoding the image.
      */
-    private BufferedImage loadImage(@NotNull File key) {
+    private BufferedImage loadImage(@NotNull File key, @NotNull ImageLoader decoder) {
+        long start = System.nanoTime();
+        if (diskCache != null) {
+            BufferedImage image = diskCache.get(key);
+            if (image != null) {
+                loadTimes.record(System.nanoTime() - start);
+                return image;
+            }
+        }
+
         try {
-            BufferedImage image = ImageIO.read(key);
-            if (image == null) throw new IOException("Unsupported file type for file: " + key);
+            long decodeStart = System.nanoTime();
+            BufferedImage image = decoder.load();
+            long end = System.nanoTime();
+
+            decodeTime.add(end - decodeStart);
+            decodedBytes.add(getImageWeight(key, image));
+            decodedImages.increment();
+            loadTimes.record(end - start);
             return image;
         } catch (IOException e) {
+            loadFailures.increment();
             throw new UncheckedIOException(e);
         }
     }
+
+    /**
+     * Expires images a second after their last access, unless they're pinned.
+     */
+    private final class PinnedExpiry implements Expiry<File, BufferedImage> {
+
+        private long expiry(File key) {
+            return pins.containsKey(key) ? Long.MAX_VALUE : EXPIRE_AFTER_ACCESS_NANOS;
+        }
+
+        @Override
+        public long expireAfterCreate(@NotNull File key, @NotNull BufferedImage value, long currentTime) {
+            return expiry(key);
+        }
+
+        @Override
+        public long expireAfterUpdate(@NotNull File key, @NotNull BufferedImage value, long currentTime, long currentDuration) {
+            return expiry(key);
+        }
+
+        @Override
+        public long expireAfterRead(@NotNull File key, @NotNull BufferedImage value, long currentTime, long currentDuration) {
+            return expiry(key);
+        }
+    }
+
+    /**
+     * Function loading an image, that may throw {@link IOException}.
+     */
+    @FunctionalInterface
+    private interface ImageLoader {
+        BufferedImage load() throws IOException;
+    }
+
+    /**
+     * The {@link CacheMXBean} implementation, reading attributes from a fresh snapshot.
+     */
+    private final class MBean implements CacheMXBean {
+
+        private static final double NANOS_PER_MILLI = 1e6;
+
+        @Override
+        public long getHitCount() {
+            return snapshot().hitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return snapshot().missCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return snapshot().hitRate();
+        }
+
+        @Override
+        public long getLoadFailureCount() {
+            return snapshot().loadFailureCount();
+        }
+
+        @Override
+        public double getLoadTimeP50Millis() {
+            return snapshot().loadTimeP50() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLoadTimeP95Millis() {
+            return snapshot().loadTimeP95() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLoadTimeP99Millis() {
+            return snapshot().loadTimeP99() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public long getSizeEvictionCount() {
+            return snapshot().sizeEvictionCount();
+        }
+
+        @Override
+        public long getExpiryEvictionCount() {
+            return snapshot().expiryEvictionCount();
+        }
+
+        @Override
+        public long getCollectedEvictionCount() {
+            return snapshot().collectedEvictionCount();
+        }
+
+        @Override
+        public long getExplicitRemovalCount() {
+            return snapshot().explicitRemovalCount();
+        }
+
+        @Override
+        public long getResidentBytes() {
+            return snapshot().residentBytes();
+        }
+
+        @Override
+        public long getResidentImages() {
+            return snapshot().residentImages();
+        }
+
+        @Override
+        public long getDecodedImages() {
+            return snapshot().decodedImages();
+        }
+
+        @Override
+        public double getDecodedImagesPerSecond() {
+            return snapshot().decodedImagesPerSecond();
+        }
+
+        @Override
+        public double getDecodedBytesPerSecond() {
+            return snapshot().decodedBytesPerSecond();
+        }
+
+        @Override
+        public long getDiskHitCount() {
+            return snapshot().diskHitCount();
+        }
+
+        @Override
+        public long getDiskMissCount() {
+            return snapshot().diskMissCount();
+        }
+    }
 }
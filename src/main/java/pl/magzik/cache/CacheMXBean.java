@@ -0,0 +1,48 @@
+package pl.magzik.cache;
+
+/**
+ * Management interface of the {@link AdaptiveCache}, exposing its metrics through JMX.
+ * <p>
+ * Every attribute is read from a fresh {@link CacheSnapshot}, times are reported in milliseconds.
+ * </p>
+ *
+ * @see AdaptiveCache#registerMBean(String)
+ */
+public interface CacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadFailureCount();
+
+    double getLoadTimeP50Millis();
+
+    double getLoadTimeP95Millis();
+
+    double getLoadTimeP99Millis();
+
+    long getSizeEvictionCount();
+
+    long getExpiryEvictionCount();
+
+    long getCollectedEvictionCount();
+
+    long getExplicitRemovalCount();
+
+    long getResidentBytes();
+
+    long getResidentImages();
+
+    long getDecodedImages();
+
+    double getDecodedImagesPerSecond();
+
+    double getDecodedBytesPerSecond();
+
+    long getDiskHitCount();
+
+    long getDiskMissCount();
+}
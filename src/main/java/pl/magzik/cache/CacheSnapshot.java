@@ -0,0 +1,32 @@
+package pl.magzik.cache;
+
+/**
+ * A point-in-time snapshot of the {@link AdaptiveCache} metrics.
+ *
+ * @param hitCount the number of lookups that found the image in memory.
+ * @param missCount the number of lookups that had to load the image.
+ * @param hitRate the ratio of hits to all lookups, or {@code 1.0} if there were no lookups.
+ * @param loadFailureCount the number of loads that failed.
+ * @param loadTimeP50 the median load time, in nanoseconds.
+ * @param loadTimeP95 the 95th percentile of the load time, in nanoseconds.
+ * @param loadTimeP99 the 99th percentile of the load time, in nanoseconds.
+ * @param sizeEvictionCount the number of images evicted because the cache was full.
+ * @param expiryEvictionCount the number of images evicted because they weren't accessed for too long.
+ * @param collectedEvictionCount the number of images evicted by the garbage collector.
+ * @param explicitRemovalCount the number of images removed or replaced explicitly.
+ * @param residentBytes the estimated number of bytes held by cached images.
+ * @param residentImages the number of cached images.
+ * @param decodedImages the number of images decoded from files.
+ * @param decodedImagesPerSecond the number of images decoded per second, since the cache was created.
+ * @param decodedBytesPerSecond the number of raster bytes produced per second of decoding.
+ * @param diskHitCount the number of loads served by the disk cache.
+ * @param diskMissCount the number of loads not found in the disk cache.
+ */
+public record CacheSnapshot(long hitCount, long missCount, double hitRate,
+                            long loadFailureCount,
+                            long loadTimeP50, long loadTimeP95, long loadTimeP99,
+                            long sizeEvictionCount, long expiryEvictionCount,
+                            long collectedEvictionCount, long explicitRemovalCount,
+                            long residentBytes, long residentImages,
+                            long decodedImages, double decodedImagesPerSecond, double decodedBytesPerSecond,
+                            long diskHitCount, long diskMissCount) {}
@@ -0,0 +1,462 @@
+package pl.magzik.cache;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.io.FileRecord;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A second level cache that keeps decoded images in a compressed form on the local disk.
+ * <p>
+ * Images evicted from the {@link AdaptiveCache} are stored as raw raster data, compressed with the fastest
+ * {@link Deflater} level and appended to one of a fixed number of memory-mapped segment files.
+ * Segments are used as a ring: when the active segment is full, the oldest one is recycled and every entry
+ * stored in it is dropped. Thanks to that, the disk usage never exceeds the configured maximum size.
+ * Segment files get unique names, so caches sharing a directory, even in separate processes, never truncate
+ * or delete each other's files.
+ * </p>
+ * <p>
+ * Each entry remembers the size and modification time of its source file, so a file changed on disk
+ * is treated as a miss instead of returning a stale raster.
+ * Only images of a standard {@link BufferedImage} type, backed by a single byte or int bank, are stored.
+ * Other images are skipped and simply decoded again on the next miss.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * DiskCache l2 = new DiskCache(Path.of("/var/cache/picture-comparer"), 4L << 30);
+ * AdaptiveCache.setInstance(new AdaptiveCache(l2));
+ * }</pre>
+ *
+ * @see AdaptiveCache
+ */
+public class DiskCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskCache.class);
+
+    /**
+     * The default size of a single segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Minimum number of segments, the ring needs at least one segment to recycle while the other is written.
+     */
+    private static final int MINIMUM_SEGMENTS = 2;
+
+    private final Path directory;
+
+    private final Segment[] segments;
+
+    private final Map<File, Entry> index;
+
+    private final ReadWriteLock lock;
+
+    private final LongAdder hits, misses;
+
+    private int active;
+
+    /**
+     * Creates a disk cache with the {@link #DEFAULT_SEGMENT_SIZE default segment size}.
+     *
+     * @param directory the directory where segment files will be created. It is created if it doesn't exist.
+     * @param maximumSize the maximum number of bytes the cache may use on disk.
+     * @throws IOException if the segment files couldn't be created or mapped.
+     */
+    public DiskCache(@NotNull Path directory, long maximumSize) throws IOException {
+        this(directory, maximumSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a disk cache with the given segment size.
+     * <p>
+     * The number of segments is derived from the maximum size. If the maximum size is too small to fit
+     * two segments of the requested size, the segments are shrunk accordingly.
+     * </p>
+     *
+     * @param directory the directory where segment files will be created. It is created if it doesn't exist.
+     * @param maximumSize the maximum number of bytes the cache may use on disk.
+     * @param segmentSize the preferred size of a single segment file.
+     * @throws IOException if the segment files couldn't be created or mapped.
+     * @throws IllegalArgumentException if any of the sizes is not positive.
+     */
+    public DiskCache(@NotNull Path directory, long maximumSize, int segmentSize) throws IOException {
+        Objects.requireNonNull(directory, "directory must not be null");
+        if (maximumSize <= 0 || segmentSize <= 0)
+            throw new IllegalArgumentException("Sizes must be positive");
+
+        int count = (int) Math.max(MINIMUM_SEGMENTS, Math.min(Integer.MAX_VALUE, maximumSize / segmentSize));
+        int size = (int) Math.min(segmentSize, maximumSize / count);
+
+        this.directory = Files.createDirectories(directory);
+        this.segments = new Segment[count];
+        this.index = new ConcurrentHashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.active = 0;
+
+        try {
+            for (int i = 0; i < count; i++)
+                segments[i] = new Segment(this.directory, size);
+        } catch (IOException e) {
+            closeSegments();
+            throw e;
+        }
+        logger.info("Disk cache initialised in {} with {} segments of {} bytes.", directory, count, size);
+    }
+
+    /**
+     * Stores the image in the cache, replacing any previous entry for the same file.
+     * <p>
+     * Images that can't be stored (non-standard type or larger than a single segment) are ignored.
+     * </p>
+     *
+     * @param key the source file of the image.
+     * @param image the decoded image.
+     */
+    public void put(@NotNull File key, @NotNull BufferedImage image) {
+        byte[] raw = rasterBytes(image);
+        if (raw == null) return;
+
+        byte[] compressed = compress(raw);
+        Entry entry;
+
+        lock.writeLock().lock();
+        try {
+            if (compressed.length > segments[active].capacity()) return;
+            if (segments[active].remaining() < compressed.length) roll();
+
+            Segment segment = segments[active];
+            int offset = segment.append(compressed);
+            entry = new Entry(
+                active, segment.generation, offset, compressed.length, raw.length,
+                image.getWidth(), image.getHeight(), image.getType(),
+                FileRecord.sizeOf(key), FileRecord.mtimeOf(key)
+            );
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        index.put(key, entry);
+    }
+
+    /**
+     * Retrieves the image stored for the given file.
+     *
+     * @param key the source file of the image.
+     * @return the decoded image, or {@code null} if there is no valid entry for the file.
+     */
+    @Nullable
+    public BufferedImage get(@NotNull File key) {
+        Entry entry = index.get(key);
+        if (entry == null || entry.sourceSize != FileRecord.sizeOf(key) || entry.sourceModified != FileRecord.mtimeOf(key)) {
+            if (entry != null) index.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+
+        byte[] compressed = new byte[entry.length];
+        lock.readLock().lock();
+        try {
+            Segment segment = segments[entry.segment];
+            if (segment.generation != entry.generation) {
+                index.remove(key, entry);
+                misses.increment();
+                return null;
+            }
+            segment.buffer.get(entry.offset, compressed);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        BufferedImage image = restore(entry, compressed);
+        if (image == null) {
+            index.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return image;
+    }
+
+    /**
+     * Removes the entry stored for the given file, if any.
+     *
+     * @param key the source file of the image.
+     */
+    public void invalidate(@NotNull File key) {
+        index.remove(key);
+    }
+
+    /**
+     * @return the number of successful lookups.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that found no valid entry.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of entries currently stored.
+     */
+    public long size() {
+        return index.size();
+    }
+
+    /**
+     * Drops all entries, closes the segment files and removes them from the disk.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            closeSegments();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Disk cache in {} closed.", directory);
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments) {
+            if (segment != null) segment.close();
+        }
+    }
+
+    /**
+     * Moves to the next segment, dropping every entry stored in it.
+     * Must be called while holding the write lock.
+     */
+    private void roll() {
+        active = (active + 1) % segments.length;
+        Segment segment = segments[active];
+        segment.recycle();
+
+        int recycled = active;
+        index.values().removeIf(e -> e.segment == recycled);
+    }
+
+    /**
+     * Extracts the raw raster data of the image.
+     *
+     * @param image the image to serialize.
+     * @return the raster bytes, or {@code null} if the image can't be restored from raw data.
+     */
+    @Nullable
+    private byte[] rasterBytes(@NotNull BufferedImage image) {
+        if (!isStorable(image)) return null;
+
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (buffer instanceof DataBufferByte b) {
+            return b.getData();
+        }
+
+        int[] data = ((DataBufferInt) buffer).getData();
+        ByteBuffer bytes = ByteBuffer.allocate(data.length * Integer.BYTES);
+        bytes.asIntBuffer().put(data);
+        return bytes.array();
+    }
+
+    /**
+     * Checks if the image can be restored only from its type, dimensions and raster data.
+     *
+     * @param image the image to check.
+     * @return {@code true} if the image can be stored in the cache.
+     */
+    private boolean isStorable(@NotNull BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_CUSTOM
+                || type == BufferedImage.TYPE_BYTE_BINARY
+                || type == BufferedImage.TYPE_BYTE_INDEXED)
+            return false;
+
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return image.getRaster().getParent() == null
+            && buffer.getNumBanks() == 1
+            && (buffer instanceof DataBufferByte || buffer instanceof DataBufferInt);
+    }
+
+    /**
+     * Restores an image from the stored entry.
+     *
+     * @param entry the entry describing the image.
+     * @param compressed the compressed raster data.
+     * @return the restored image, or {@code null} if the data doesn't match the image layout.
+     */
+    @Nullable
+    private BufferedImage restore(@NotNull Entry entry, byte[] compressed) {
+        byte[] raw = decompress(compressed, entry.rawLength);
+        if (raw == null) return null;
+
+        BufferedImage image = new BufferedImage(entry.width, entry.height, entry.type);
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+
+        if (buffer instanceof DataBufferByte b) {
+            byte[] data = b.getData();
+            if (data.length != raw.length) return null;
+            System.arraycopy(raw, 0, data, 0, raw.length);
+        } else if (buffer instanceof DataBufferInt i) {
+            int[] data = i.getData();
+            if (data.length * Integer.BYTES != raw.length) return null;
+            ByteBuffer.wrap(raw).asIntBuffer().get(data);
+        } else {
+            return null;
+        }
+
+        return image;
+    }
+
+    /**
+     * Compresses the given data using the fastest deflate level.
+     *
+     * @param raw the data to compress.
+     * @return the compressed data.
+     */
+    private byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+
+            byte[] out = new byte[Math.max(64, raw.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses the given data.
+     *
+     * @param compressed the compressed data.
+     * @param rawLength the expected length of the decompressed data.
+     * @return the decompressed data, or {@code null} if the data is corrupted.
+     */
+    @Nullable
+    private byte[] decompress(byte[] compressed, int rawLength) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && inflater.needsInput()) break;
+                length += n;
+            }
+            return length == rawLength ? raw : null;
+        } catch (DataFormatException e) {
+            logger.warn("Corrupted disk cache entry: {}", e.getMessage());
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Location and metadata of a single stored image.
+     */
+    private record Entry(int segment, long generation, int offset, int length, int rawLength,
+                         int width, int height, int type,
+                         long sourceSize, long sourceModified) {}
+
+    /**
+     * A single memory-mapped segment file, written sequentially.
+     */
+    private static final class Segment {
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private volatile long generation;
+
+        private int position;
+
+        private Segment(Path directory, int size) throws IOException {
+            this.path = Files.createTempFile(directory, "segment-", ".bin");
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                if (channel != null) channel.close();
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            this.channel = channel;
+            this.generation = 0;
+            this.position = 0;
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        private int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        private int append(byte[] data) {
+            int offset = position;
+            buffer.put(offset, data);
+            position += data.length;
+            return offset;
+        }
+
+        private void recycle() {
+            generation++;
+            position = 0;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Couldn't remove segment file: {}", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package pl.magzik.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Functional interface representing a source of decoded images.
+ * <p>
+ * Algorithms working on image content retrieve images through this interface,
+ * so the caller decides which cache (if any) backs them, instead of relying on a global instance.
+ * </p>
+ *
+ * @see AdaptiveCache
+ */
+@FunctionalInterface
+public interface ImageSource {
+
+    /**
+     * Retrieves the decoded image for the given file.
+     *
+     * @param file the image file.
+     * @return the decoded image.
+     * @throws IOException if the image couldn't be loaded.
+     */
+    BufferedImage get(File file) throws IOException;
+}
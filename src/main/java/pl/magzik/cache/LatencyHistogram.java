@@ -0,0 +1,70 @@
+package pl.magzik.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, used to estimate latency percentiles.
+ * <p>
+ * Durations are recorded in nanoseconds into buckets with logarithmic bounds: every power of two is split
+ * into {@value #SUB_BUCKETS} linear sub-buckets, which keeps the relative error of a percentile below 25%
+ * while using a fixed, small amount of memory.
+ * </p>
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private final AtomicLongArray counts;
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+    }
+
+    /**
+     * Records a single duration.
+     *
+     * @param nanos the duration in nanoseconds. Negative values are recorded as zero.
+     */
+    void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(0, nanos)));
+    }
+
+    /**
+     * Estimates the given percentile of the recorded durations.
+     *
+     * @param percentile the percentile, in range {@code [0, 100]}.
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds, or {@code 0} if nothing was recorded.
+     */
+    long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) return upperBound(i);
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    private static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return (1L << magnitude) + (sub + 1) * width - 1;
+    }
+}
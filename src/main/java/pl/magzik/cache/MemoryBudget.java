@@ -0,0 +1,199 @@
+package pl.magzik.cache;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * A memory budget shared by several {@link AdaptiveCache} instances.
+ * <p>
+ * Each cache registers a {@link Quota} with the maximum number of bytes it would like to use.
+ * As long as the sum of all quotas fits into the budget, every cache gets its full quota.
+ * When the budget is oversubscribed, each cache gets a share of the budget proportional to its quota.
+ * Allocations are recalculated whenever a quota is registered or closed, and the affected caches are resized.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * MemoryBudget budget = MemoryBudget.ofHeap(0.6);
+ * try (AdaptiveCache cache = new AdaptiveCache(budget.quota("tenant-a", 512L << 20))) {
+ *     Processor processor = new Processor(new CRC32Grouper(), List.of(new PerceptualHash(cache), new PixelByPixel(cache)));
+ *     processor.process(files);
+ * } // Memory used by the cache is released here.
+ * }</pre>
+ */
+public class MemoryBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBudget.class);
+
+    private final long capacity;
+
+    private final Set<Quota> quotas;
+
+    /**
+     * Creates a budget with the given capacity.
+     *
+     * @param capacity the number of bytes shared by all quotas.
+     * @throws IllegalArgumentException if the capacity is not positive.
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+
+        this.capacity = capacity;
+        this.quotas = new LinkedHashSet<>();
+    }
+
+    /**
+     * Creates a budget with the given fraction of the maximum JVM heap.
+     *
+     * @param fraction the fraction of the heap, in range {@code (0, 1]}.
+     * @return a new budget.
+     * @throws IllegalArgumentException if the fraction is out of range.
+     */
+    @NotNull
+    public static MemoryBudget ofHeap(double fraction) {
+        if (fraction <= 0 || fraction > 1) throw new IllegalArgumentException("Fraction must be in range (0, 1]");
+
+        return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Registers a new quota in this budget.
+     *
+     * @param tenant the name of the quota owner, used for logging.
+     * @param limit the maximum number of bytes the owner would like to use.
+     * @return the registered quota.
+     * @throws IllegalArgumentException if the limit is not positive.
+     */
+    @NotNull
+    public Quota quota(@NotNull String tenant, long limit) {
+        Objects.requireNonNull(tenant, "tenant must not be null");
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be positive");
+
+        Quota quota = new Quota(tenant, limit);
+        synchronized (this) {
+            quotas.add(quota);
+            rebalance();
+        }
+        return quota;
+    }
+
+    /**
+     * @return the number of bytes shared by all quotas.
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes currently allocated to all quotas.
+     */
+    public synchronized long allocated() {
+        return quotas.stream().mapToLong(Quota::allocation).sum();
+    }
+
+    /**
+     * Removes the quota from the budget, returning its allocation to other quotas.
+     *
+     * @param quota the quota to remove.
+     */
+    private synchronized void release(@NotNull Quota quota) {
+        if (quotas.remove(quota)) rebalance();
+    }
+
+    /**
+     * Recalculates allocations of all registered quotas.
+     * Must be called while holding the monitor of this budget.
+     */
+    private void rebalance() {
+        long requested = quotas.stream().mapToLong(q -> q.limit).sum();
+        for (Quota quota : quotas) {
+            long allocation = requested <= capacity
+                ? quota.limit
+                : Math.max(1, (long) ((double) capacity * quota.limit / requested));
+            quota.allocate(allocation);
+        }
+        logger.debug("Memory budget rebalanced: {} quotas, {} bytes requested, {} bytes available.", quotas.size(), requested, capacity);
+    }
+
+    /**
+     * A part of the {@link MemoryBudget} assigned to a single owner.
+     * <p>
+     * The quota's allocation may change over time, the owner is notified through the listener
+     * set with {@link #onResize(LongConsumer)}. Closing the quota returns its memory to the budget.
+     * </p>
+     */
+    public final class Quota implements AutoCloseable {
+
+        private final String tenant;
+
+        private final long limit;
+
+        private volatile long allocation;
+
+        private volatile LongConsumer listener;
+
+        private Quota(String tenant, long limit) {
+            this.tenant = tenant;
+            this.limit = limit;
+            this.allocation = 0;
+            this.listener = size -> {};
+        }
+
+        /**
+         * @return the name of the quota owner.
+         */
+        @NotNull
+        public String tenant() {
+            return tenant;
+        }
+
+        /**
+         * @return the maximum number of bytes requested by the owner.
+         */
+        public long limit() {
+            return limit;
+        }
+
+        /**
+         * @return the number of bytes currently allocated to the owner.
+         */
+        public long allocation() {
+            return allocation;
+        }
+
+        /**
+         * Sets the listener notified with the new allocation, whenever it changes.
+         *
+         * @param listener the listener to notify.
+         */
+        public void onResize(@NotNull LongConsumer listener) {
+            this.listener = Objects.requireNonNull(listener, "listener must not be null");
+        }
+
+        /**
+         * Returns the allocated memory to the budget.
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        private void allocate(long allocation) {
+            if (this.allocation == allocation) return;
+
+            this.allocation = allocation;
+            listener.accept(allocation);
+        }
+
+        @Override
+        public String toString() {
+            return "Quota[" + tenant + ", " + allocation + "/" + limit + "]";
+        }
+    }
+}
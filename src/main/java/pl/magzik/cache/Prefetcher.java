@@ -0,0 +1,378 @@
+package pl.magzik.cache;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.io.ImageDecoder;
+import pl.magzik.io.ReadScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads images into an {@link AdaptiveCache} ahead of the algorithms that need them.
+ * <p>
+ * The prefetcher is fed with the ordered list of groups that are about to be processed. For each group
+ * within the lookahead window, it reads file bytes through a {@link ReadScheduler} and decodes them on a bounded pool
+ * of platform threads, so disks and cores are kept busy while the algorithms compare already decoded images.
+ * </p>
+ * <p>
+ * The scheduler is the shared one by default, the same the {@link AdaptiveCache} reads through on a miss,
+ * so prefetches and on-demand loads share the per-device limits instead of competing for the disk.
+ * </p>
+ * <p>
+ * The lookahead window is measured in groups: at most {@code lookahead} groups are prefetched,
+ * but not yet released by the consumer. The files of these groups are pinned in the cache, so their images don't
+ * expire however long the consumer takes to reach them. Keep the window modest though, as images decoded too early
+ * may still be evicted when the cache is full.
+ * </p>
+ * <p>
+ * Within the window, at most {@code maxInFlight} files are read, but not yet decoded, so the bytes waiting for a decoder
+ * stay bounded even for a single huge group. A group is read in batches of that size, in the {@link ReadScheduler#LOCALITY}
+ * order, and a file leaves the budget once it's decoded.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (Prefetcher prefetcher = new Prefetcher(cache, 4);
+ *      Prefetcher.Schedule schedule = prefetcher.schedule(groups)) {
+ *     for (int i = 0; i < groups.size(); i++) {
+ *         algorithm.apply(groups.get(i));
+ *         schedule.release(i);
+ *     }
+ * }
+ * }</pre>
+ *
+ * @see AdaptiveCache
+ */
+public class Prefetcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Prefetcher.class);
+
+    private final AdaptiveCache cache;
+
+    private final int lookahead;
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    private final ExecutorService decoders;
+
+    private final ReadScheduler scheduler;
+
+    private final LongAdder prefetched, skipped, failed, reads, decodes;
+
+    private final LongAdder readyLatency, readTime, decodeTime;
+
+    private final AtomicLong maxReadyLatency;
+
+    /**
+     * Creates a prefetcher reading through the shared {@link ReadScheduler} and decoding on a pool sized to the number
+     * of available cores, with {@link #defaultMaxInFlight()} files read ahead of the decoders.
+     *
+     * @param cache the cache to load images into.
+     * @param lookahead the number of groups that may be prefetched ahead of the consumer.
+     */
+    public Prefetcher(@NotNull AdaptiveCache cache, int lookahead) {
+        this(cache, lookahead, defaultMaxInFlight());
+    }
+
+    /**
+     * Creates a prefetcher reading through the shared {@link ReadScheduler} and decoding on a pool sized to the number
+     * of available cores. The queue of the pool is bounded by the budget of files in flight.
+     *
+     * @param cache the cache to load images into.
+     * @param lookahead the number of groups that may be prefetched ahead of the consumer.
+     * @param maxInFlight the number of files that may be read, but not yet decoded.
+     * @throws IllegalArgumentException if the lookahead or the number of files in flight is not positive.
+     */
+    public Prefetcher(@NotNull AdaptiveCache cache, int lookahead, int maxInFlight) {
+        this(
+            cache, lookahead, maxInFlight,
+            ReadScheduler.getInstance(),
+            new ThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxInFlight)),
+                Thread.ofPlatform().daemon().name("prefetch-decoder-", 0).factory()
+            )
+        );
+    }
+
+    /**
+     * Creates a prefetcher with a custom scheduler and decoding executor, with {@link #defaultMaxInFlight()} files
+     * read ahead of the decoders. The executor is shut down when the prefetcher is closed, the scheduler isn't.
+     *
+     * @param cache the cache to load images into.
+     * @param lookahead the number of groups that may be prefetched ahead of the consumer.
+     * @param scheduler the scheduler of file reads, ordering them by the physical location of files.
+     * @param decoders the executor used for decoding images.
+     * @throws IllegalArgumentException if the lookahead is not positive.
+     */
+    public Prefetcher(@NotNull AdaptiveCache cache, int lookahead,
+                      @NotNull ReadScheduler scheduler, @NotNull ExecutorService decoders) {
+        this(cache, lookahead, defaultMaxInFlight(), scheduler, decoders);
+    }
+
+    /**
+     * Creates a prefetcher with a custom scheduler and decoding executor. The executor is shut down when the prefetcher
+     * is closed, the scheduler isn't. A bounded executor must accept at least {@code maxInFlight} pending tasks.
+     *
+     * @param cache the cache to load images into.
+     * @param lookahead the number of groups that may be prefetched ahead of the consumer.
+     * @param maxInFlight the number of files that may be read, but not yet decoded.
+     * @param scheduler the scheduler of file reads, ordering them by the physical location of files.
+     * @param decoders the executor used for decoding images.
+     * @throws IllegalArgumentException if the lookahead or the number of files in flight is not positive.
+     */
+    public Prefetcher(@NotNull AdaptiveCache cache, int lookahead, int maxInFlight,
+                      @NotNull ReadScheduler scheduler, @NotNull ExecutorService decoders) {
+        if (lookahead <= 0) throw new IllegalArgumentException("Lookahead must be positive");
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Max in flight must be positive");
+
+        this.cache = Objects.requireNonNull(cache, "cache must not be null");
+        this.lookahead = lookahead;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler must not be null");
+        this.decoders = Objects.requireNonNull(decoders, "decoders must not be null");
+        this.prefetched = new LongAdder();
+        this.skipped = new LongAdder();
+        this.failed = new LongAdder();
+        this.reads = new LongAdder();
+        this.decodes = new LongAdder();
+        this.readyLatency = new LongAdder();
+        this.readTime = new LongAdder();
+        this.decodeTime = new LongAdder();
+        this.maxReadyLatency = new AtomicLong();
+    }
+
+    /**
+     * @return the default number of files read ahead of the decoders, twice the number of available cores.
+     */
+    public static int defaultMaxInFlight() {
+        return 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Starts prefetching the given groups, in the order of the list.
+     *
+     * @param groups the ordered groups that are about to be processed.
+     * @return the handle used to release processed groups and to stop prefetching.
+     */
+    @NotNull
+    public Schedule schedule(@NotNull List<Set<File>> groups) {
+        Objects.requireNonNull(groups, "groups must not be null");
+        return new Schedule(List.copyOf(groups));
+    }
+
+    /**
+     * @return the snapshot of the prefetcher statistics.
+     */
+    @NotNull
+    public Stats stats() {
+        long count = prefetched.sum(), read = reads.sum(), decoded = decodes.sum();
+        return new Stats(
+            count, skipped.sum(), failed.sum(),
+            count == 0 ? 0 : readyLatency.sum() / count,
+            maxReadyLatency.get(),
+            read == 0 ? 0 : readTime.sum() / read,
+            decoded == 0 ? 0 : decodeTime.sum() / decoded
+        );
+    }
+
+    /**
+     * Shuts down the decoding executor, abandoning prefetches that are still in progress.
+     */
+    @Override
+    public void close() {
+        decoders.shutdownNow();
+        logger.info("Prefetcher closed: {}", stats());
+    }
+
+    /**
+     * Reads the bytes of every file from the group that isn't cached yet, and passes them to decoding.
+     * The files are sorted by their physical location and submitted to the {@link ReadScheduler} in batches
+     * of at most {@code maxInFlight} files, each taken from the budget of files in flight before it's read.
+     *
+     * @param group the group to prefetch.
+     * @throws InterruptedException if the thread is interrupted while waiting for the budget.
+     */
+    private void prefetch(@NotNull Set<File> group) throws InterruptedException {
+        List<File> files = new ArrayList<>(group.size());
+        for (File file : group) {
+            if (cache.contains(file)) skipped.increment();
+            else files.add(file);
+        }
+        if (files.isEmpty()) return;
+        files.sort(ReadScheduler.LOCALITY);
+
+        for (int from = 0; from < files.size(); from += maxInFlight) {
+            List<File> batch = files.subList(from, Math.min(files.size(), from + maxInFlight));
+            inFlight.acquire(batch.size());
+
+            long admitted = System.nanoTime();
+            Map<File, CompletableFuture<ByteBuffer>> reads;
+            try {
+                reads = scheduler.submitAll(batch, this::read);
+            } catch (RejectedExecutionException e) {
+                inFlight.release(batch.size());
+                return;
+            }
+
+            reads.forEach((file, read) -> read.whenComplete((content, e) -> {
+                if (e != null) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    logger.debug("Couldn't prefetch file: {}, because of: {}", file, cause.getMessage());
+                    failed.increment();
+                    inFlight.release();
+                    return;
+                }
+
+                try {
+                    decoders.execute(() -> decode(file, content, admitted));
+                } catch (RejectedExecutionException ignored) {
+                    // The prefetcher is closed, the file will be decoded on demand.
+                    inFlight.release();
+                }
+            }));
+        }
+    }
+
+    private ByteBuffer read(@NotNull File file) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return ImageDecoder.getInstance().read(file.toPath());
+        } finally {
+            readTime.add(System.nanoTime() - start);
+            reads.increment();
+        }
+    }
+
+    private void decode(@NotNull File file, @NotNull ByteBuffer content, long admitted) {
+        long start = System.nanoTime();
+        try {
+            cache.get(file, content);
+        } catch (IOException e) {
+            failed.increment();
+            return;
+        } finally {
+            decodeTime.add(System.nanoTime() - start);
+            decodes.increment();
+            inFlight.release(); // The buffer is no longer referenced once the image is decoded.
+        }
+
+        long now = System.nanoTime();
+        readyLatency.add(now - admitted);
+        maxReadyLatency.accumulateAndGet(now - admitted, Math::max);
+        prefetched.increment();
+    }
+
+    /**
+     * A single prefetch run over an ordered list of groups.
+     * <p>
+     * The consumer must {@link #release(int) release} every group once it's processed, otherwise the lookahead
+     * window is never moved forward. Groups released before the prefetcher reached them are skipped.
+     * </p>
+     */
+    public final class Schedule implements AutoCloseable {
+
+        private static final int PENDING = 0, ADMITTED = 1, RELEASED = 2;
+
+        private final List<Set<File>> groups;
+
+        private final AtomicIntegerArray states;
+
+        private final Semaphore window;
+
+        private final Thread feeder;
+
+        private Schedule(List<Set<File>> groups) {
+            this.groups = groups;
+            this.states = new AtomicIntegerArray(groups.size());
+            this.window = new Semaphore(lookahead);
+            this.feeder = Thread.ofVirtual().name("prefetch-feeder").start(this::feed);
+        }
+
+        /**
+         * Marks the group at the given index as processed, moving the lookahead window forward.
+         *
+         * @param index the index of the group in the scheduled list.
+         */
+        public void release(int index) {
+            int previous = states.getAndSet(index, RELEASED);
+            if (previous == ADMITTED) {
+                cache.unpin(groups.get(index));
+                window.release();
+            }
+        }
+
+        /**
+         * Stops feeding new groups, and unpins the groups that weren't released.
+         * Reads and decodes that have already started are completed.
+         */
+        @Override
+        public void close() {
+            feeder.interrupt();
+            boolean interrupted = false;
+            while (feeder.isAlive()) {
+                try {
+                    feeder.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (int i = 0; i < groups.size(); i++) release(i);
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        private void feed() {
+            try {
+                for (int i = 0; i < groups.size(); i++) {
+                    window.acquire();
+                    cache.pin(groups.get(i)); // Before the group is admitted, so a release always follows the pin.
+                    if (!states.compareAndSet(i, PENDING, ADMITTED)) {
+                        cache.unpin(groups.get(i));
+                        window.release();
+                        continue;
+                    }
+                    prefetch(groups.get(i)); // Waits for the budget of files in flight, so a huge group is read gradually.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The snapshot of the prefetcher statistics. All times are in nanoseconds.
+     *
+     * @param prefetched the number of images decoded ahead of time.
+     * @param skipped the number of files skipped, because their images were already cached.
+     * @param failed the number of files that couldn't be read or decoded.
+     * @param meanReadyLatency the mean time from admitting a file to having its image in the cache.
+     * @param maxReadyLatency the maximum time from admitting a file to having its image in the cache.
+     * @param meanReadTime the mean time of reading a file, over all reads, including failed ones.
+     * @param meanDecodeTime the mean time of decoding an image, over all decodes, including failed ones.
+     */
+    public record Stats(long prefetched, long skipped, long failed,
+                        long meanReadyLatency, long maxReadyLatency,
+                        long meanReadTime, long meanDecodeTime) {}
+}
@@ -0,0 +1,164 @@
+package pl.magzik.execution;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals that a run should stop, because it was cancelled or its deadline has passed.
+ * <p>
+ * Long-running work polls {@link #isCancelled()} between units of work, e.g. files or groups. Work blocked
+ * in a read registers a callback with {@link #onCancel(Runnable)}, typically interrupting its thread,
+ * so an interruptible channel is closed and the read fails at once.
+ * </p>
+ * <p>
+ * A token with a deadline is cancelled by a shared timer thread when the deadline passes, so the callbacks run
+ * even if no one polls the token.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * CancellationToken token = CancellationToken.withTimeout(Duration.ofMinutes(10));
+ * cancelButton.addActionListener(e -> token.cancel());
+ * Processor.Result result = processor.process(files, token);
+ * if (result.partial()) System.out.println("Stopped early, " + result.groups().size() + " groups verified.");
+ * }</pre>
+ */
+public final class CancellationToken {
+
+    /**
+     * Singleton holder for the timer cancelling tokens at their deadlines.
+     */
+    private static final class TimerHolder {
+        private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cancellation-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final List<Runnable> callbacks;
+    private final long deadline;
+    private ScheduledFuture<?> timeout;
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs a {@code CancellationToken} without a deadline, cancelled only by {@link #cancel()}.
+     */
+    public CancellationToken() {
+        this.callbacks = new ArrayList<>();
+        this.deadline = 0;
+    }
+
+    private CancellationToken(long deadline) {
+        this.callbacks = new ArrayList<>();
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token cancelled when the timeout elapses, or by {@link #cancel()}.
+     *
+     * @param timeout the time from now to the deadline.
+     * @return the new token.
+     */
+    @NotNull
+    public static CancellationToken withTimeout(@NotNull Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout must not be null");
+
+        long nanos = Math.max(1, timeout.toNanos());
+        CancellationToken token = new CancellationToken(System.nanoTime() + nanos);
+        synchronized (token) {
+            token.timeout = TimerHolder.timer.schedule(token::cancel, nanos, TimeUnit.NANOSECONDS);
+        }
+        return token;
+    }
+
+    /**
+     * Cancels the token, running the registered callbacks. Has no effect if the token is already cancelled.
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            if (timeout != null) timeout.cancel(false);
+            toRun = List.copyOf(callbacks);
+            callbacks.clear();
+
+            // Callbacks run under the lock, so none runs once its registration is closed.
+            toRun.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * @return {@code true} if the token was cancelled, or its deadline has passed.
+     */
+    public boolean isCancelled() {
+        if (cancelled) return true;
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            cancel();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the token has a deadline, and it has passed.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws CancellationException if the token is cancelled.
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) throw new CancellationException(isDeadlineExceeded() ? "Deadline exceeded" : "Cancelled");
+    }
+
+    /**
+     * Registers a callback run when the token is cancelled, or at once if it already is.
+     * Callbacks should be quick, e.g. interrupt a thread, as they run on the thread cancelling the token.
+     *
+     * @param callback the callback.
+     * @return the registration, to be closed once the callback is no longer needed.
+     */
+    @NotNull
+    public Registration onCancel(@NotNull Runnable callback) {
+        Objects.requireNonNull(callback, "callback must not be null");
+
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (this) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> {};
+    }
+
+    /**
+     * A callback registered with {@link #onCancel(Runnable)}.
+     */
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+
+        /**
+         * Unregisters the callback. Once this method returns, the callback is never run.
+         */
+        @Override
+        void close();
+    }
+}
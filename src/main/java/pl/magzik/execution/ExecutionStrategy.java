@@ -0,0 +1,188 @@
+package pl.magzik.execution;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.cache.ImageSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Decides where the work of a {@link pl.magzik.Processor} runs.
+ * <p>
+ * CPU-bound work, such as hashing and comparing images, runs on a {@link ForkJoinPool}. Parallel streams started
+ * from its workers, e.g. in {@link pl.magzik.algorithms.PixelByPixel}, stay in the same pool. Blocking work,
+ * such as reading and decoding images, runs on virtual threads, see {@link #offload(ImageSource)}.
+ * </p>
+ * <ul>
+ *     <li>{@link #commonPool()} uses the common {@link ForkJoinPool}, which is shared with the rest of the JVM.</li>
+ *     <li>{@link #dedicated(int, boolean)} creates a pool of its own, sized to the cores by default,
+ *     so blocking waits elsewhere in the JVM don't starve the comparisons, and the other way round.</li>
+ * </ul>
+ * <p>
+ * A scoped strategy runs each algorithm step in a {@link TaskScope}: the first failing group cancels
+ * the groups that haven't finished, and its failure is propagated to the caller once the whole step has stopped.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(8, true)) {
+ *     ImageSource images = strategy.offload(file -> cache.get(file));
+ *     Processor processor = new Processor(new CRC32Grouper(), List.of(new PixelByPixel(images)));
+ *     processor.setExecutionStrategy(strategy);
+ *     processor.process(files);
+ * }
+ * }</pre>
+ */
+public final class ExecutionStrategy implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionStrategy.class);
+
+    /**
+     * Singleton holder for the common {@link ExecutionStrategy} instance.
+     */
+    private static final class InstanceHolder {
+        private static final ExecutionStrategy instance =
+                new ExecutionStrategy(ForkJoinPool.commonPool(), Executors.newVirtualThreadPerTaskExecutor(), false, false);
+    }
+
+    /**
+     * Retrieves the shared strategy using the common {@link ForkJoinPool}. Closing it has no effect.
+     *
+     * @return the shared {@link ExecutionStrategy} instance.
+     */
+    @NotNull
+    public static ExecutionStrategy commonPool() {
+        return InstanceHolder.instance;
+    }
+
+    /**
+     * Creates a strategy with a pool of its own, sized to the available cores.
+     *
+     * @return the new strategy, which must be closed once it's no longer needed.
+     */
+    @NotNull
+    public static ExecutionStrategy dedicated() {
+        return dedicated(Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * Creates a strategy with a pool of its own.
+     *
+     * @param parallelism the number of CPU workers.
+     * @param scoped whether each algorithm step should run in a {@link TaskScope}.
+     * @return the new strategy, which must be closed once it's no longer needed.
+     * @throws IllegalArgumentException if the parallelism is not positive.
+     */
+    @NotNull
+    public static ExecutionStrategy dedicated(int parallelism, boolean scoped) {
+        if (parallelism <= 0) throw new IllegalArgumentException("Parallelism must be positive");
+
+        ForkJoinPool cpu = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("processor-cpu-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        logger.info("Created CPU pool with parallelism: {}", parallelism);
+        return new ExecutionStrategy(cpu, Executors.newVirtualThreadPerTaskExecutor(), scoped, true);
+    }
+
+    private final ForkJoinPool cpu;
+    private final ExecutorService io;
+    private final boolean scoped;
+    private final boolean owned;
+
+    private ExecutionStrategy(ForkJoinPool cpu, ExecutorService io, boolean scoped, boolean owned) {
+        this.cpu = cpu;
+        this.io = io;
+        this.scoped = scoped;
+        this.owned = owned;
+    }
+
+    /**
+     * @return the pool running CPU-bound work.
+     */
+    @NotNull
+    public ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    /**
+     * @return the executor running blocking work, on virtual threads.
+     */
+    @NotNull
+    public ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * @return {@code true} if each algorithm step should run in a {@link TaskScope}.
+     */
+    public boolean isScoped() {
+        return scoped;
+    }
+
+    /**
+     * Opens a scope forking its subtasks on the CPU pool.
+     *
+     * @return the new scope.
+     */
+    @NotNull
+    public TaskScope openScope() {
+        return new TaskScope(cpu);
+    }
+
+    /**
+     * Wraps the image source, so images requested from a CPU worker are loaded on a virtual thread.
+     * <p>
+     * While the image is loaded, the worker waits as a managed blocker, so the pool may compensate with another worker.
+     * Requests from other threads are served directly.
+     * </p>
+     *
+     * @param source the image source performing blocking reads and decodes.
+     * @return the offloading image source.
+     */
+    @NotNull
+    public ImageSource offload(@NotNull ImageSource source) {
+        Objects.requireNonNull(source, "source must not be null");
+        return file -> {
+            if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) return source.get(file);
+
+            try {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return source.get(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, io).join(); // Waits as a managed blocker.
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException u) throw u.getCause();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Shuts down both pools, if they are owned by this strategy.
+     */
+    @Override
+    public void close() {
+        if (!owned) return;
+
+        cpu.shutdown();
+        io.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionStrategy[parallelism=" + cpu.getParallelism() + ", scoped=" + scoped + "]";
+    }
+}
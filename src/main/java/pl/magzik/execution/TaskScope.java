@@ -0,0 +1,182 @@
+package pl.magzik.execution;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A scope of concurrent subtasks that succeed or fail together, following the shutdown-on-failure policy
+ * of {@code StructuredTaskScope}.
+ * <p>
+ * Subtasks are {@link #fork(Callable) forked} on the executor of the scope, and the owner {@link #join() joins} them all.
+ * The first failing subtask shuts the scope down: subtasks that haven't started are skipped, and running ones are interrupted.
+ * {@link #join()} returns only once every forked subtask has finished, so no work of the scope outlives it.
+ * </p>
+ * <p>
+ * Outstanding subtasks are counted with an {@link AtomicLong}, so a scope may fork any number of them,
+ * unlike a {@link java.util.concurrent.Phaser}, limited to 65,535 parties.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (TaskScope scope = strategy.openScope()) {
+ *     Supplier<Integer> a = scope.fork(() -> compute(x));
+ *     Supplier<Integer> b = scope.fork(() -> compute(y));
+ *     scope.join();
+ *     scope.throwIfFailed();
+ *     return a.get() + b.get();
+ * }
+ * }</pre>
+ */
+public final class TaskScope implements AutoCloseable {
+
+    private final Executor executor;
+    private final AtomicLong outstanding;
+    private final CountDownLatch done;
+    private final Queue<Subtask<?>> subtasks;
+    private final AtomicReference<Throwable> failure;
+    private volatile boolean shutdown;
+    private volatile boolean joined;
+
+    /**
+     * Constructs a {@code TaskScope}.
+     *
+     * @param executor the executor running the subtasks.
+     */
+    TaskScope(@NotNull Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+        this.outstanding = new AtomicLong(1); // The owner, until it joins.
+        this.done = new CountDownLatch(1);
+        this.subtasks = new ConcurrentLinkedQueue<>();
+        this.failure = new AtomicReference<>();
+    }
+
+    /**
+     * Starts a subtask.
+     *
+     * @param task the subtask.
+     * @return the supplier of the result, which may be called after {@link #join()} if the scope didn't fail.
+     * @param <T> the type of the result.
+     * @throws IllegalStateException if the scope is shut down.
+     */
+    @NotNull
+    public <T> Supplier<T> fork(@NotNull Callable<T> task) {
+        Objects.requireNonNull(task, "task must not be null");
+        if (shutdown) throw new IllegalStateException("Scope is shut down");
+        if (joined) throw new IllegalStateException("Scope is already joined");
+
+        Subtask<T> subtask = new Subtask<>(task);
+        outstanding.incrementAndGet();
+        subtasks.add(subtask);
+        try {
+            executor.execute(subtask);
+        } catch (RejectedExecutionException e) {
+            subtasks.remove(subtask);
+            arrive();
+            throw e;
+        }
+        return subtask;
+    }
+
+    /**
+     * Waits until all forked subtasks are finished, or skipped after the scope was shut down.
+     * A scope is joined once, and no subtask may be forked afterwards.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting, the scope is shut down then.
+     * @throws IllegalStateException if the scope was already joined.
+     */
+    public void join() throws InterruptedException {
+        if (joined) throw new IllegalStateException("Scope is already joined");
+        joined = true;
+        arrive();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    private void arrive() {
+        if (outstanding.decrementAndGet() == 0) done.countDown();
+    }
+
+    /**
+     * Throws the failure of the first failed subtask, if any.
+     *
+     * @throws ExecutionException wrapping the failure.
+     */
+    public void throwIfFailed() throws ExecutionException {
+        Throwable t = failure.get();
+        if (t != null) throw new ExecutionException(t);
+    }
+
+    /**
+     * Shuts the scope down: subtasks that haven't started are skipped, and running ones are interrupted.
+     */
+    public void shutdown() {
+        shutdown = true;
+        subtasks.forEach(s -> s.cancel(true));
+    }
+
+    /**
+     * @return {@code true} if the scope is shut down, after a failure or an explicit {@link #shutdown()}.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Shuts the scope down, if it isn't already.
+     */
+    @Override
+    public void close() {
+        if (!shutdown) shutdown();
+    }
+
+    /**
+     * A forked subtask, deregistering from the scope once it's run or skipped.
+     */
+    private final class Subtask<T> extends FutureTask<T> implements Supplier<T> {
+
+        private Subtask(Callable<T> task) {
+            super(task);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!shutdown) super.run();
+            } finally {
+                arrive();
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+            if (failure.compareAndSet(null, t)) shutdown();
+        }
+
+        @Override
+        public T get() {
+            if (!isDone() || isCancelled()) throw new IllegalStateException("Subtask didn't complete");
+            try {
+                return super.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Subtask failed", e);
+            }
+        }
+    }
+}
@@ -1,38 +1,184 @@
 package pl.magzik.grouping;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.magzik.execution.CancellationToken;
+import pl.magzik.io.FileRecord;
+import pl.magzik.io.FingerprintSet;
+import pl.magzik.io.IOThrottle;
+import pl.magzik.io.ReadScheduler;
+import pl.magzik.progress.ProgressDispatcher;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.zip.CRC32;
 
+/**
+ * Groups files with identical content, using their sizes and CRC32 checksums.
+ * <p>
+ * Files are first grouped by size, which for {@link FileRecord}s is known without touching
+ * the file system. Only files sharing their size with another file are read to calculate the checksum.
+ * </p>
+ * <p>
+ * Records of the same physical file are collapsed by their file key before any content is read,
+ * so hard links are hashed once and never reported as duplicates of each other.
+ * </p>
+ * <p>
+ * Files are read through a {@link ReadScheduler}, in the order of their physical location,
+ * with the number of concurrent reads limited per device, and their rate limited by an {@link IOThrottle}.
+ * </p>
+ * <p>
+ * With a {@link #setMemoryBudget(long) memory budget}, or through {@link #divide(Iterable, Consumer)}, files are grouped
+ * in external memory: fixed-width {@code (size, checksum, file)} records are spilled to sorted run files,
+ * which are merged to find the groups, so the memory used doesn't depend on the number of files, apart from a
+ * {@link FingerprintSet} of 16 bytes per record, used to collapse hard links across the whole input. In this mode,
+ * the first path of a physical file is kept. Records are spilled with their attributes, so checksums are read
+ * in the order of their physical location, and the groups consist of records, though without file keys.
+ * </p>
+ */
 public class CRC32Grouper implements Grouper {
 
     private static final Logger logger = LoggerFactory.getLogger(CRC32Grouper.class);
 
+    /**
+     * The number of bytes charged to the throttle at once.
+     */
+    private static final int THROTTLE_CHUNK = 256 * 1024;
+
+    private final ReadScheduler scheduler;
+
+    private final IOThrottle throttle;
+
+    private long memoryBudget;
+
+    private Path spillDirectory;
+
+    private ProgressDispatcher progress;
+
+    /**
+     * The memory budget of {@link #divide(Iterable, Consumer)} when none is set.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /**
+     * The approximate memory taken by a {@link File} of a batch, used to size the batches by the memory budget.
+     */
+    private static final int FILE_BYTES = 256;
+
+    /**
+     * Creates a grouper reading files through the shared {@link ReadScheduler} and {@link IOThrottle}.
+     */
+    public CRC32Grouper() {
+        this(ReadScheduler.getInstance());
+    }
+
+    /**
+     * Creates a grouper reading files through the given scheduler, and the shared {@link IOThrottle}.
+     *
+     * @param scheduler the scheduler ordering and limiting file reads.
+     */
+    public CRC32Grouper(ReadScheduler scheduler) {
+        this(scheduler, IOThrottle.getInstance());
+    }
+
+    /**
+     * Creates a grouper reading files through the given scheduler and throttle.
+     *
+     * @param scheduler the scheduler ordering and limiting file reads.
+     * @param throttle the throttle limiting the rate of file reads.
+     */
+    public CRC32Grouper(ReadScheduler scheduler, IOThrottle throttle) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler must not be null");
+        this.throttle = Objects.requireNonNull(throttle, "throttle must not be null");
+        this.progress = ProgressDispatcher.none();
+    }
+
+    /**
+     * Sets the memory budget of grouping. If positive, {@link #divide(Collection)} groups files in external memory,
+     * using about this many bytes regardless of the number of files, apart from the returned groups.
+     *
+     * @param memoryBudget the number of bytes, or {@code 0} to group files in memory.
+     * @throws IllegalArgumentException if the budget is negative.
+     */
+    @SuppressWarnings("unused")
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) throw new IllegalArgumentException("Memory budget must not be negative");
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the directory of the temporary files of external-memory grouping.
+     *
+     * @param spillDirectory the directory, or {@code null} for the default temporary-file directory.
+     */
+    @SuppressWarnings("unused")
+    public void setSpillDirectory(@Nullable Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the dispatcher recording the bytes read to calculate checksums.
+     *
+     * @param progress the dispatcher, {@link ProgressDispatcher#none()} by default.
+     */
+    @SuppressWarnings("unused")
+    public void setProgress(@NotNull ProgressDispatcher progress) {
+        this.progress = Objects.requireNonNull(progress, "progress must not be null");
+    }
+
     @Override
-    public Set<Set<File>> divide(Collection<File> col) {
+    public Set<Set<File>> divide(Collection<File> col) throws IOException {
+        return group(col, null);
+    }
+
+    /**
+     * Divides the files like {@link #divide(Collection)}, until the token is cancelled.
+     * Reads in progress are interrupted, and files are no longer read once the token is cancelled.
+     *
+     * @throws CancellationException if the token was cancelled before all files were read.
+     */
+    @Override
+    public Set<Set<File>> divide(Collection<File> col, @NotNull CancellationToken token) throws IOException {
+        Objects.requireNonNull(token, "token must not be null");
+        token.throwIfCancelled();
+
+        Set<Set<File>> groupedFiles = group(col, token);
+        token.throwIfCancelled(); // Checksums of some files are missing, so the groups aren't complete.
+        return groupedFiles;
+    }
+
+    private Set<Set<File>> group(Collection<File> col, @Nullable CancellationToken token) throws IOException {
+        if (memoryBudget > 0) {
+            Set<Set<File>> groupedFiles = new HashSet<>();
+            external(col, groupedFiles::add, token);
+            return groupedFiles;
+        }
+
         Set<Set<File>> groupedFiles = new HashSet<>();
-        Map<Long, Set<File>> checksumMap = col.parallelStream()
-            .map(f -> {
-                try {
-                    long checksum = calculateChecksum(f);
-                    if (checksum != 0L)
-                        return new AbstractMap.SimpleEntry<>(checksum, f);
-                } catch (IOException e) {
-                    logger.error("Error while processing a file: {}", f.getName(), e);
-                }
-                return null;
-            })
-            .filter(Objects::nonNull)
+        List<File> candidates = FileRecord.collapseAliases(col).stream()
+            .collect(Collectors.groupingBy(FileRecord::sizeOf))
+            .values().stream()
+            .filter(g -> g.size() > 1)
+            .flatMap(List::stream)
+            .toList();
+        logger.debug("{} of {} files share their size with another file.", candidates.size(), col.size());
+
+        Map<Key, Set<File>> checksumMap = scheduler.readAll(candidates, this::calculateChecksum, token)
+            .entrySet().stream()
+            .filter(e -> e.getValue() != 0L)
             .collect(Collectors.groupingBy(
-                Map.Entry::getKey,
-                Collectors.mapping(Map.Entry::getValue, Collectors.toSet())
+                e -> new Key(FileRecord.sizeOf(e.getKey()), e.getValue()),
+                Collectors.mapping(Map.Entry::getKey, Collectors.toSet())
             ));
 
         checksumMap.values().stream()
@@ -42,25 +188,127 @@ public class CRC32Grouper implements Grouper {
         return groupedFiles;
     }
 
+    /**
+     * Divides the files in external memory, passing each group of files with identical content to the consumer
+     * as soon as it's found, so neither the files nor the groups have to be held in memory.
+     * <p>
+     * In the first pass, the files are streamed into {@code (size, file)} records, and only the files sharing
+     * their size with another file are read, in batches, into {@code (size, checksum, file)} records.
+     * Both passes spill the records to sorted run files in the {@link #setSpillDirectory(Path) spill directory},
+     * and merge them. Files are referenced by the offsets of their paths in a temporary file.
+     * </p>
+     *
+     * @param files the files to divide, iterated once.
+     * @param groups the consumer of the groups with more than one file.
+     * @throws IOException if the temporary files couldn't be written or read.
+     */
+    public void divide(@NotNull Iterable<File> files, @NotNull Consumer<Set<File>> groups) throws IOException {
+        Objects.requireNonNull(files, "files must not be null");
+        Objects.requireNonNull(groups, "groups must not be null");
+        external(files, groups, null);
+    }
+
+    private void external(Iterable<File> files, Consumer<Set<File>> groups, @Nullable CancellationToken token) throws IOException {
+        long budget = memoryBudget > 0 ? memoryBudget : DEFAULT_MEMORY_BUDGET;
+        int batchSize = Math.clamp(budget / 3 / FILE_BYTES, 64, 1 << 20);
+        Path directory = spillDirectory != null ? spillDirectory : Path.of(System.getProperty("java.io.tmpdir"));
+
+        try (PathSpill paths = new PathSpill(directory);
+             ExternalSorter sizes = new ExternalSorter(directory, budget / 3);
+             ExternalSorter checksums = new ExternalSorter(directory, budget / 3)) {
+
+            long count = 0, aliases = 0;
+            FingerprintSet seen = new FingerprintSet(); // Physical files, so aliases in different batches are collapsed too.
+            List<File> batch = new ArrayList<>(batchSize);
+            for (File file : files) {
+                if (count++ % batchSize == 0 && token != null) token.throwIfCancelled();
+
+                String identity = file instanceof FileRecord record ? record.identity() : null;
+                if (identity != null && !seen.add(identity)) {
+                    aliases++;
+                    continue;
+                }
+                sizes.add(FileRecord.sizeOf(file), 0, paths.append(file));
+            }
+            paths.finish();
+            if (aliases > 0) logger.debug("Skipped {} paths of files already seen.", aliases);
+
+            List<Long> refs = new ArrayList<>(batchSize);
+            long[] candidates = new long[1];
+            sizes.forEachGroup(2, (size, unused, group, length) -> {
+                for (int i = 0; i < length; i++) {
+                    batch.add(paths.read(group[i]));
+                    refs.add(group[i]);
+                    if (batch.size() == batchSize) checksumBatch(batch, refs, checksums, token);
+                }
+                candidates[0] += length;
+            });
+            checksumBatch(batch, refs, checksums, token);
+            if (token != null) token.throwIfCancelled();
+            logger.debug("{} of {} files share their size with another file.", candidates[0], count);
+
+            checksums.forEachGroup(2, (size, checksum, group, length) -> {
+                Set<File> found = HashSet.newHashSet(length);
+                for (int i = 0; i < length; i++) found.add(paths.read(group[i]));
+                groups.accept(found);
+            });
+        }
+    }
+
+    /**
+     * Calculates the checksums of a batch of files, and adds their records. Both lists are cleared.
+     */
+    private void checksumBatch(List<File> batch, List<Long> refs, ExternalSorter checksums, @Nullable CancellationToken token) throws IOException {
+        if (token != null) token.throwIfCancelled();
+
+        Map<File, Integer> positions = HashMap.newHashMap(batch.size());
+        for (int i = 0; i < batch.size(); i++) positions.put(batch.get(i), i);
+
+        for (Map.Entry<File, Long> e : scheduler.readAll(batch, this::calculateChecksum, token).entrySet()) {
+            if (e.getValue() == 0L) continue;
+            checksums.add(FileRecord.sizeOf(e.getKey()), e.getValue(), refs.get(positions.get(e.getKey())));
+        }
+        batch.clear();
+        refs.clear();
+    }
+
     /**
      * Creates a checksum for a given file using the CRC32 algorithm.
      * This method reads the file in chunks and updates the CRC32 checksum as it processes the file's content.
      * The checksum is calculated by reading the file's bytes and applying the CRC32 hashing algorithm.
+     * The reads are charged to the throttle ahead, in chunks of {@value #THROTTLE_CHUNK} bytes.
      *
      * @param f The file for which the checksum is to be generated
      * @return The checksum value of the file as a long
      * @throws IOException If an I/O error occurs while reading the file
      */
     private long calculateChecksum(File f) throws IOException {
-        try (BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(f))) {
+        throttle.acquireOpen();
+        // A channel, unlike a FileInputStream, is closed when the reading thread is interrupted, which stops the read at once.
+        try (BufferedInputStream inputStream = new BufferedInputStream(Channels.newInputStream(FileChannel.open(f.toPath())))) {
             CRC32 crc32 = new CRC32();
             byte[] buffer = new byte[8192];
             int bytesRead;
+            long length = FileRecord.sizeOf(f), charged = 0, read = 0;
 
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
+            while (true) {
+                if (read >= charged && charged < length) {
+                    long chunk = Math.min(THROTTLE_CHUNK, length - charged);
+                    throttle.acquireBytes(chunk); // Charge ahead of the reads, a chunk at a time.
+                    charged += chunk;
+                }
+                if ((bytesRead = inputStream.read(buffer)) == -1) break;
+
+                read += bytesRead;
                 crc32.update(buffer, 0, bytesRead);
             }
+            progress.bytesRead(read);
             return crc32.getValue();
         }
     }
+
+    /**
+     * The grouping key: files with different sizes are never grouped, even if their checksums collide.
+     */
+    private record Key(long size, long checksum) {}
 }
@@ -0,0 +1,301 @@
+package pl.magzik.grouping;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Groups fixed-width records by their keys, using a bounded amount of memory regardless of the number of records.
+ * <p>
+ * A record is two {@code long} keys and a {@code long} reference, e.g. a file size, a checksum and the ID of the file.
+ * Records are collected in a buffer sized by the memory budget. When the buffer is full, it's sorted by the keys
+ * and spilled to a run file. The runs are then merged, at most as many at once as their read buffers fit in
+ * the budget, and records with equal keys are reported as a group.
+ * </p>
+ * <p>
+ * Run files are created in the given directory, and deleted as soon as they're merged, or when the sorter is closed.
+ * </p>
+ */
+final class ExternalSorter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ExternalSorter.class);
+
+    /**
+     * The size of a record, in bytes.
+     */
+    static final int RECORD_BYTES = 3 * Long.BYTES;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final Path directory;
+    private final long[] records;
+    private final int fanIn;
+    private final List<Path> runs;
+    private int count;
+
+    /**
+     * Receives the groups of records with equal keys.
+     */
+    @FunctionalInterface
+    interface GroupConsumer {
+
+        /**
+         * @param key1 the first key of the group.
+         * @param key2 the second key of the group.
+         * @param refs the references of the records in the group, valid only during the call.
+         * @param size the number of records in the group.
+         * @throws IOException if the group couldn't be handled.
+         */
+        void accept(long key1, long key2, long[] refs, int size) throws IOException;
+    }
+
+    /**
+     * Constructs an {@code ExternalSorter}.
+     *
+     * @param directory the directory of the run files.
+     * @param memoryBudget the number of bytes the sorter may use.
+     */
+    ExternalSorter(@NotNull Path directory, long memoryBudget) {
+        this.directory = directory;
+        this.records = new long[3 * Math.clamp(memoryBudget / RECORD_BYTES, 1024, Integer.MAX_VALUE / 3)];
+        this.fanIn = Math.clamp(memoryBudget / (2L * BUFFER_BYTES), 2, 1024);
+        this.runs = new ArrayList<>();
+    }
+
+    /**
+     * Adds a record, spilling the buffer to a run file if it's full.
+     *
+     * @throws IOException if the run file couldn't be written.
+     */
+    void add(long key1, long key2, long ref) throws IOException {
+        if (3 * count == records.length) spill();
+
+        int i = 3 * count++;
+        records[i] = key1;
+        records[i + 1] = key2;
+        records[i + 2] = ref;
+    }
+
+    /**
+     * Reports every group of at least {@code minSize} records with equal keys, in ascending order of the keys.
+     * No record may be added afterwards.
+     *
+     * @param minSize the minimum size of a reported group.
+     * @param consumer the consumer of the groups.
+     * @throws IOException if the run files couldn't be written or read, or the consumer failed.
+     */
+    void forEachGroup(int minSize, @NotNull GroupConsumer consumer) throws IOException {
+        Grouping grouping = new Grouping(minSize, consumer);
+        if (runs.isEmpty()) {
+            sort(0, count - 1);
+            for (int i = 0; i < count; i++) grouping.accept(records[3 * i], records[3 * i + 1], records[3 * i + 2]);
+            grouping.finish();
+            return;
+        }
+
+        if (count > 0) spill();
+        while (runs.size() > fanIn) {
+            List<Path> inputs = new ArrayList<>(runs.subList(0, fanIn));
+            runs.subList(0, fanIn).clear();
+            runs.add(mergeToRun(inputs));
+        }
+
+        List<Path> inputs = new ArrayList<>(runs);
+        runs.clear();
+        merge(inputs, grouping::accept);
+        grouping.finish();
+    }
+
+    private void spill() throws IOException {
+        sort(0, count - 1);
+        Path run = Files.createTempFile(directory, "run-", ".bin");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_BYTES))) {
+            for (int i = 0; i < 3 * count; i++) out.writeLong(records[i]);
+        }
+        logger.debug("Spilled {} records to {}.", count, run);
+        count = 0;
+    }
+
+    private Path mergeToRun(List<Path> inputs) throws IOException {
+        Path run = Files.createTempFile(directory, "run-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_BYTES))) {
+            merge(inputs, (key1, key2, ref) -> {
+                out.writeLong(key1);
+                out.writeLong(key2);
+                out.writeLong(ref);
+            });
+        } catch (IOException e) {
+            Files.deleteIfExists(run);
+            throw e;
+        }
+        logger.debug("Merged {} runs into {}.", inputs.size(), run);
+        return run;
+    }
+
+    /**
+     * Merges the sorted runs, passing their records to the sink in order, and deletes them.
+     */
+    private void merge(List<Path> inputs, RecordSink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(inputs.size(), (a, b) -> compare(a.key1, a.key2, b.key1, b.key2));
+        List<RunReader> readers = new ArrayList<>(inputs.size());
+        try {
+            for (Path input : inputs) {
+                RunReader reader = new RunReader(input);
+                readers.add(reader);
+                if (reader.next()) queue.add(reader);
+            }
+
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                sink.accept(reader.key1, reader.key2, reader.ref);
+                if (reader.next()) queue.add(reader);
+            }
+        } finally {
+            for (RunReader reader : readers) reader.close();
+            for (Path input : inputs) Files.deleteIfExists(input);
+        }
+    }
+
+    /**
+     * Sorts the buffered records by their keys, with a three-way quicksort, as many records share their keys.
+     */
+    private void sort(int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+            int p = 3 * ThreadLocalRandom.current().nextInt(lo, hi + 1);
+            long pivot1 = records[p], pivot2 = records[p + 1];
+
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                int c = compare(records[3 * i], records[3 * i + 1], pivot1, pivot2);
+                if (c < 0) swap(lt++, i++);
+                else if (c > 0) swap(i, gt--);
+                else i++;
+            }
+
+            if (lt - lo < hi - gt) { // Recurse into the smaller part, to bound the depth of the stack.
+                sort(lo, lt - 1);
+                lo = gt + 1;
+            } else {
+                sort(gt + 1, hi);
+                hi = lt - 1;
+            }
+        }
+
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && compare(records[3 * j], records[3 * j + 1], records[3 * j - 3], records[3 * j - 2]) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        for (int k = 0; k < 3; k++) {
+            long t = records[3 * a + k];
+            records[3 * a + k] = records[3 * b + k];
+            records[3 * b + k] = t;
+        }
+    }
+
+    private static int compare(long a1, long a2, long b1, long b2) {
+        int c = Long.compare(a1, b1);
+        return c != 0 ? c : Long.compare(a2, b2);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        runs.clear();
+        if (failure != null) throw failure;
+    }
+
+    @FunctionalInterface
+    private interface RecordSink {
+        void accept(long key1, long key2, long ref) throws IOException;
+    }
+
+    /**
+     * Collects consecutive records with equal keys, and reports the groups large enough.
+     */
+    private static final class Grouping implements RecordSink {
+
+        private final int minSize;
+        private final GroupConsumer consumer;
+        private long[] refs = new long[16];
+        private long key1, key2;
+        private int size;
+
+        private Grouping(int minSize, GroupConsumer consumer) {
+            this.minSize = minSize;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(long key1, long key2, long ref) throws IOException {
+            if (size > 0 && (key1 != this.key1 || key2 != this.key2)) finish();
+
+            this.key1 = key1;
+            this.key2 = key2;
+            if (size == refs.length) refs = Arrays.copyOf(refs, size * 2);
+            refs[size++] = ref;
+        }
+
+        private void finish() throws IOException {
+            if (size >= minSize) consumer.accept(key1, key2, refs, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * Reads the records of a run file, one at a time.
+     */
+    private static final class RunReader implements Closeable {
+
+        private final DataInputStream in;
+        private long remaining;
+        private long key1, key2, ref;
+
+        private RunReader(Path run) throws IOException {
+            this.remaining = Files.size(run) / RECORD_BYTES;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_BYTES));
+        }
+
+        private boolean next() throws IOException {
+            if (remaining == 0) return false;
+
+            key1 = in.readLong();
+            key2 = in.readLong();
+            ref = in.readLong();
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pl.magzik.grouping;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Interns files to dense {@code int} IDs, in the order they are first seen, for the duration of a single run.
+ * <p>
+ * Groups of files are then handled as sorted {@code int} arrays, and merged with a {@link UnionFind},
+ * instead of sets of {@link File} objects. Where a {@link Set} is required, e.g. as the input of an algorithm,
+ * a read-only {@link #view(int[]) view} over the IDs is used, so no set is built.
+ * </p>
+ */
+public final class FileIndex {
+
+    private final Map<File, Integer> ids;
+    private File[] files;
+    private int size;
+
+    /**
+     * Constructs an empty {@code FileIndex}.
+     */
+    public FileIndex() {
+        this.ids = new HashMap<>();
+        this.files = new File[16];
+    }
+
+    /**
+     * Returns the ID of the file, assigning the next one if the file is seen for the first time.
+     *
+     * @param file the file.
+     * @return the ID of the file.
+     */
+    public int intern(@NotNull File file) {
+        Objects.requireNonNull(file, "file must not be null");
+
+        Integer id = ids.putIfAbsent(file, size);
+        if (id != null) return id;
+
+        if (size == files.length) files = Arrays.copyOf(files, size * 2);
+        files[size] = file;
+        return size++;
+    }
+
+    /**
+     * Interns every file of the group.
+     *
+     * @param group the files.
+     * @return the IDs of the files, in ascending order.
+     */
+    @NotNull
+    public int[] intern(@NotNull Set<File> group) {
+        int[] result = new int[group.size()];
+        int i = 0;
+        for (File file : group) result[i++] = intern(file);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @param file the file.
+     * @return the ID of the file, or {@code -1} if it wasn't interned.
+     */
+    public int idOf(@NotNull File file) {
+        Integer id = ids.get(file);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the ID.
+     * @return the file with the given ID.
+     * @throws IndexOutOfBoundsException if no file has the ID.
+     */
+    @NotNull
+    public File file(int id) {
+        Objects.checkIndex(id, size);
+        return files[id];
+    }
+
+    /**
+     * @return the number of interned files, which is also the first free ID.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only set of the files with the given IDs.
+     *
+     * @param group the IDs, in ascending order.
+     * @return the view of the files.
+     */
+    @NotNull
+    public Set<File> view(@NotNull int[] group) {
+        return new View(group);
+    }
+
+    /**
+     * A read-only set of files backed by a sorted array of their IDs.
+     */
+    private final class View extends AbstractSet<File> {
+
+        private final int[] group;
+
+        private View(int[] group) {
+            this.group = group;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof File f)) return false;
+
+            int id = idOf(f);
+            return id >= 0 && Arrays.binarySearch(group, id) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return group.length;
+        }
+
+        @NotNull
+        @Override
+        public Iterator<File> iterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < group.length;
+                }
+
+                @Override
+                public File next() {
+                    if (i >= group.length) throw new NoSuchElementException();
+                    return files[group[i++]];
+                }
+            };
+        }
+    }
+}
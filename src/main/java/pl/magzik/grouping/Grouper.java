@@ -1,9 +1,12 @@
 package pl.magzik.grouping;
 
+import pl.magzik.execution.CancellationToken;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 /**
  * Functional interface representing grouping function.
@@ -22,4 +25,24 @@ public interface Grouper {
      * */
     Set<Set<File>> divide(Collection<File> col) throws IOException;
 
+    /**
+     * Divides a collection of files like {@link #divide(Collection)}, stopping early once the token is cancelled.
+     * <p>
+     * The default implementation checks the token only before and after the division.
+     * Groupers doing a lot of I/O should override it, to stop reading once the token is cancelled.
+     * </p>
+     *
+     * @param col <i>A collection of files of one type (e.g., images) to be divided into groups.</i>
+     * @param token <i>The token stopping the division.</i>
+     * @return <i>A set of subsets of the input collection, as returned by {@link #divide(Collection)}.</i>
+     * @throws IOException If an I/O error occurs while reading or processing the files.
+     * @throws CancellationException If the token was cancelled before the division completed.
+     * */
+    default Set<Set<File>> divide(Collection<File> col, CancellationToken token) throws IOException {
+        token.throwIfCancelled();
+        Set<Set<File>> groups = divide(col);
+        token.throwIfCancelled();
+        return groups;
+    }
+
 }
@@ -0,0 +1,131 @@
+package pl.magzik.grouping;
+
+import org.jetbrains.annotations.NotNull;
+import pl.magzik.io.FileRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file of paths, each identified by its offset, so files may be referenced by a {@code long}
+ * without keeping their paths in memory.
+ * <p>
+ * Paths are appended first, and read back by their offsets once {@link #finish() finished}.
+ * The attribute snapshot of a {@link FileRecord}, including its device and inode numbers, is spilled with its path,
+ * so it's read back as a record, and neither its size nor its location has to be read from the file system again.
+ * The file is deleted when the spill is closed.
+ * </p>
+ */
+final class PathSpill implements Closeable {
+
+    private static final byte PLAIN = 0, RECORD = 1, REGULAR_FILE = 2, DIRECTORY = 4;
+
+    /**
+     * The bytes of the attributes of a record: flags, size, modification time, device and inode numbers.
+     */
+    private static final int RECORD_BYTES = 1 + 4 * Long.BYTES;
+
+    private final Path path;
+    private final DataOutputStream out;
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * Creates the spill file in the given directory.
+     *
+     * @param directory the directory.
+     * @throws IOException if the file couldn't be created.
+     */
+    PathSpill(@NotNull Path directory) throws IOException {
+        this.path = Files.createTempFile(directory, "paths-", ".bin");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+    }
+
+    /**
+     * Appends the path of the file.
+     *
+     * @param file the file.
+     * @return the reference to the path.
+     * @throws IOException if the path couldn't be written.
+     */
+    long append(@NotNull File file) throws IOException {
+        byte[] bytes = file.getPath().getBytes(StandardCharsets.UTF_8);
+        long ref = size;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        if (file instanceof FileRecord record) {
+            int flags = RECORD | (record.regularFile() ? REGULAR_FILE : 0) | (record.directory() ? DIRECTORY : 0);
+            out.writeByte(flags);
+            out.writeLong(record.size());
+            out.writeLong(record.mtime());
+            out.writeLong(record.device());
+            out.writeLong(record.inode());
+            size += RECORD_BYTES;
+        } else {
+            out.writeByte(PLAIN);
+            size += 1;
+        }
+        size += Integer.BYTES + bytes.length;
+        return ref;
+    }
+
+    /**
+     * Finishes appending, so paths may be read.
+     *
+     * @throws IOException if the file couldn't be written or opened for reading.
+     */
+    void finish() throws IOException {
+        out.close();
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads the file with the given reference.
+     *
+     * @param ref the reference returned by {@link #append(File)}.
+     * @return the file, a {@link FileRecord} without a file key if a record was appended.
+     * @throws IOException if the path couldn't be read.
+     */
+    @NotNull
+    File read(long ref) throws IOException {
+        int length = read(ref, Integer.BYTES).getInt();
+        String name = new String(read(ref + Integer.BYTES, length).array(), StandardCharsets.UTF_8);
+
+        long attributes = ref + Integer.BYTES + length;
+        if (read(attributes, 1).get() == PLAIN) return new File(name);
+
+        ByteBuffer record = read(attributes, RECORD_BYTES);
+        byte flags = record.get();
+        return new FileRecord(
+            name, (flags & REGULAR_FILE) != 0, (flags & DIRECTORY) != 0,
+            record.getLong(), record.getLong(), record.getLong(), record.getLong()
+        );
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of " + path);
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            if (channel != null) channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pl.magzik.grouping;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A disjoint-set forest over dense {@code int} IDs, with union by size and path compression.
+ * <p>
+ * Used to merge groups of files identified by a {@link FileIndex} without building intermediate sets:
+ * every merge is a constant amount of array work, and the groups are materialized once, with {@link #components(int[], int)}.
+ * </p>
+ */
+public final class UnionFind {
+
+    private final int[] parent;
+    private final int[] size;
+
+    /**
+     * Constructs a {@code UnionFind} of singleton sets.
+     *
+     * @param count the number of elements, with IDs from {@code 0} to {@code count - 1}.
+     * @throws IllegalArgumentException if the count is negative.
+     */
+    public UnionFind(int count) {
+        if (count < 0) throw new IllegalArgumentException("Count must not be negative");
+
+        this.parent = new int[count];
+        this.size = new int[count];
+        for (int i = 0; i < count; i++) parent[i] = i;
+        Arrays.fill(size, 1);
+    }
+
+    /**
+     * Finds the representative of the set containing the element, compressing the path to it.
+     *
+     * @param x the element.
+     * @return the representative of its set.
+     */
+    public int find(int x) {
+        int root = x;
+        while (parent[root] != root) root = parent[root];
+
+        while (parent[x] != root) {
+            int next = parent[x];
+            parent[x] = root;
+            x = next;
+        }
+        return root;
+    }
+
+    /**
+     * Merges the sets containing both elements.
+     *
+     * @param a the first element.
+     * @param b the second element.
+     * @return {@code true} if the sets were distinct.
+     */
+    public boolean union(int a, int b) {
+        int ra = find(a), rb = find(b);
+        if (ra == rb) return false;
+
+        if (size[ra] < size[rb]) {
+            int t = ra;
+            ra = rb;
+            rb = t;
+        }
+        parent[rb] = ra;
+        size[ra] += size[rb];
+        return true;
+    }
+
+    /**
+     * Groups the given elements by their sets. Elements must be distinct, and their sets must consist of the given elements only.
+     *
+     * @param members the elements to group, in ascending order.
+     * @param minSize the minimum size of a returned group.
+     * @return the groups of at least {@code minSize} elements, each in ascending order.
+     */
+    @NotNull
+    public int[][] components(@NotNull int[] members, int minSize) {
+        Objects.requireNonNull(members, "members must not be null");
+
+        int[] slot = new int[parent.length];
+        int count = 0;
+        for (int m : members) {
+            int root = find(m);
+            if (size[root] >= minSize && slot[root] == 0) slot[root] = ++count; // 0 marks an unassigned root.
+        }
+
+        int[][] groups = new int[count][];
+        int[] fill = new int[count];
+        for (int m : members) {
+            int root = find(m);
+            if (size[root] < minSize) continue;
+
+            int g = slot[root] - 1;
+            if (groups[g] == null) groups[g] = new int[size[root]];
+            groups[g][fill[g]++] = m;
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,362 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit tuned from the observed latency, in the style of the gradient limiters from Netflix concurrency-limits.
+ * <p>
+ * Operations acquire a {@link Permit} before they start, waiting while the limit is reached, and report their
+ * completion with the amount of work done (e.g. kilobytes read). Latencies are measured per operation, and
+ * classed by the work, in powers of two, as reading a large file takes longer than a small one regardless of load.
+ * Each class has its own baseline, the lowest mean latency of a window, which approximates the latency without load.
+ * After every window of samples, the recent latency is compared with the baseline of the same mix of classes:
+ * </p>
+ * <ul>
+ *     <li>while the recent latency stays within the tolerance of the baseline, the limit grows by its square root,
+ *     as long as the limit is actually used,</li>
+ *     <li>when the latency rises, the device is queueing, and the limit is scaled down by the ratio of both latencies,</li>
+ *     <li>dropped operations, e.g. timeouts, cut the limit multiplicatively.</li>
+ * </ul>
+ * <p>
+ * The baselines decay upwards by a small fraction every window, so one lucky window, or a device that got slower,
+ * doesn't pin the limit low forever.
+ * </p>
+ * <p>
+ * A slow NAS therefore settles at a few concurrent reads, while an NVMe drive grows towards the maximum.
+ * The current limit, latencies and throughput are available through JMX after {@link #registerMBean(String)}.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 256);
+ * try (AdaptiveLimiter.Permit permit = limiter.acquire()) {
+ *     byte[] content = Files.readAllBytes(path);
+ *     permit.success(content.length / 1024);
+ * }
+ * }</pre>
+ */
+public class AdaptiveLimiter implements AdaptiveLimiterMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+    private static final int WINDOW_SIZE = 32;
+
+    private static final double TOLERANCE = 1.5;
+
+    private static final double BASELINE_DECAY = 1.01;
+
+    private static final int CLASSES = Long.SIZE + 1;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final LongAdder dropped;
+
+    private double limit;
+    private int inFlight;
+    private int peakInFlight;
+    private double baseline;
+    private double recent;
+    private double throughput;
+
+    private final double[] baselines = new double[CLASSES];
+    private final double[] classLatency = new double[CLASSES];
+    private final int[] classCount = new int[CLASSES];
+    private long windowWork;
+    private int windowCount;
+    private long windowStart;
+
+    private ObjectName mBeanName;
+
+    /**
+     * Constructs an {@code AdaptiveLimiter}.
+     *
+     * @param initialLimit the limit to start with.
+     * @param minLimit the lowest limit.
+     * @param maxLimit the highest limit.
+     * @throws IllegalArgumentException if the limits are not positive, or not ordered.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("Limits must be positive and satisfy: min <= initial <= max");
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.lock = new ReentrantLock();
+        this.available = lock.newCondition();
+        this.dropped = new LongAdder();
+        this.limit = initialLimit;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * Waits until an operation may start.
+     *
+     * @return the permit, which must be closed once the operation ends.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    @NotNull
+    public Permit acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) available.await();
+            inFlight++;
+            peakInFlight = Math.max(peakInFlight, inFlight);
+        } finally {
+            lock.unlock();
+        }
+        return new Permit();
+    }
+
+    /**
+     * Executes the operation within the limit, reporting its latency with the given amount of work.
+     * Operations throwing an exception are not sampled.
+     *
+     * @param work the units of work done by the operation, e.g. kilobytes read.
+     * @param operation the operation to execute.
+     * @return the result of the operation.
+     * @param <T> the type of the result.
+     * @param <E> the type of the exception thrown by the operation.
+     * @throws E if the operation throws it.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public <T, E extends Exception> T execute(long work, @NotNull Operation<T, E> operation) throws E, InterruptedException {
+        Objects.requireNonNull(operation, "operation must not be null");
+        try (Permit permit = acquire()) {
+            T result = operation.run();
+            permit.success(work);
+            return result;
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getBaselineLatencyMicros() {
+        lock.lock();
+        try {
+            return baseline / 1e3;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getRecentLatencyMicros() {
+        lock.lock();
+        try {
+            return recent / 1e3;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getThroughput() {
+        lock.lock();
+        try {
+            return throughput;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Registers the limiter in the platform {@link javax.management.MBeanServer}
+     * under the {@code pl.magzik:type=AdaptiveLimiter,name=<name>} object name.
+     *
+     * @param name the name of the limiter, e.g. the pipeline stage it limits.
+     * @throws IllegalStateException if the bean couldn't be registered.
+     */
+    public synchronized void registerMBean(@NotNull String name) {
+        if (mBeanName != null) return;
+
+        try {
+            ObjectName objectName = new ObjectName("pl.magzik:type=AdaptiveLimiter,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            mBeanName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register limiter MBean: " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the limiter from the platform {@link javax.management.MBeanServer}, if it was registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (mBeanName == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        } catch (JMException e) {
+            logger.warn("Couldn't unregister limiter MBean: {}", mBeanName, e);
+        }
+        mBeanName = null;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter[limit=" + getLimit() + ", inFlight=" + getInFlight() + "]";
+    }
+
+    /**
+     * Records a successful operation and recalculates the limit at the end of a window.
+     * Must be called while holding the lock.
+     */
+    private void sample(long nanos, long work) {
+        int c = Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, work));
+        classLatency[c] += nanos;
+        classCount[c]++;
+        windowWork += Math.max(0, work);
+        if (++windowCount < WINDOW_SIZE) return;
+
+        long now = System.nanoTime();
+        throughput = windowWork * 1e9 / Math.max(1, now - windowStart);
+
+        double total = 0, expected = 0;
+        for (int i = 0; i < CLASSES; i++) {
+            if (baselines[i] > 0) baselines[i] *= BASELINE_DECAY; // Rises slowly, so growing queues don't become the new normal.
+            if (classCount[i] == 0) continue;
+
+            double mean = classLatency[i] / classCount[i];
+            if (baselines[i] == 0 || mean < baselines[i]) baselines[i] = mean;
+            total += classLatency[i];
+            expected += baselines[i] * classCount[i];
+            classLatency[i] = 0;
+            classCount[i] = 0;
+        }
+        recent = total / windowCount;
+        baseline = expected / windowCount;
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baseline / recent));
+        boolean saturated = peakInFlight >= limit / 2; // Don't grow a limit the callers don't use.
+        double target = limit * gradient + (saturated ? Math.sqrt(limit) : 0);
+        update(limit * (1 - SMOOTHING) + target * SMOOTHING);
+
+        windowWork = 0;
+        windowCount = 0;
+        windowStart = now;
+        peakInFlight = inFlight;
+    }
+
+    /**
+     * Sets the new limit, waking up waiting callers if it grew. Must be called while holding the lock.
+     */
+    private void update(double newLimit) {
+        int previous = (int) limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) limit != previous) {
+            logger.debug("Concurrency limit changed: {} -> {}", previous, (int) limit);
+            available.signalAll();
+        }
+    }
+
+    /**
+     * The right to run one operation within the limit.
+     * <p>
+     * The operation should report its outcome with {@link #success(long)} or {@link #dropped()}.
+     * Closing the permit without reporting ignores the operation, e.g. if it failed for reasons unrelated to load.
+     * </p>
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final long start;
+
+        private boolean released;
+
+        private Permit() {
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Reports the successful completion of the operation, and releases the permit.
+         *
+         * @param work the units of work done by the operation, e.g. kilobytes read.
+         */
+        public void success(long work) {
+            release(System.nanoTime() - start, work, false);
+        }
+
+        /**
+         * Reports that the operation was dropped, e.g. timed out, and releases the permit.
+         */
+        public void dropped() {
+            release(0, 0, true);
+        }
+
+        /**
+         * Releases the permit without reporting the operation, if it wasn't reported yet.
+         */
+        @Override
+        public void close() {
+            release(0, 0, false);
+        }
+
+        private void release(long nanos, long work, boolean drop) {
+            lock.lock();
+            try {
+                if (released) return;
+                released = true;
+
+                inFlight--;
+                if (drop) {
+                    dropped.increment();
+                    update(limit * BACKOFF);
+                } else if (nanos > 0) {
+                    sample(nanos, work);
+                }
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * An operation run within the limit.
+     *
+     * @param <T> the type of the result.
+     * @param <E> the type of the exception thrown by the operation.
+     */
+    @FunctionalInterface
+    public interface Operation<T, E extends Exception> {
+        T run() throws E;
+    }
+}
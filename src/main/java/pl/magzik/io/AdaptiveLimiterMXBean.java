@@ -0,0 +1,39 @@
+package pl.magzik.io;
+
+/**
+ * Management interface of the {@link AdaptiveLimiter}, exposing its state through JMX.
+ *
+ * @see AdaptiveLimiter#registerMBean(String)
+ */
+public interface AdaptiveLimiterMXBean {
+
+    /**
+     * @return the current number of operations allowed to run concurrently.
+     */
+    int getLimit();
+
+    /**
+     * @return the number of operations currently running.
+     */
+    int getInFlight();
+
+    /**
+     * @return the long-term average latency per unit of work, in microseconds.
+     */
+    double getBaselineLatencyMicros();
+
+    /**
+     * @return the average latency per unit of work in the last completed window, in microseconds.
+     */
+    double getRecentLatencyMicros();
+
+    /**
+     * @return the units of work completed per second in the last completed window.
+     */
+    double getThroughput();
+
+    /**
+     * @return the number of operations reported as dropped, e.g. timed out.
+     */
+    long getDroppedCount();
+}
@@ -0,0 +1,341 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Moves, deletes and links large numbers of files with bounded concurrency, reporting the outcome of every file.
+ * <p>
+ * At most {@link #DEFAULT_CONCURRENCY concurrency} operations run at once, and the calling thread waits until
+ * all of them are finished. Moves prefer an {@link StandardCopyOption#ATOMIC_MOVE atomic} rename, which is
+ * a metadata-only operation on the same file system. Across devices, where renames aren't possible, the file is
+ * copied next to its target under a unique temporary {@code .part} name, renamed into place, and only then is the source deleted,
+ * so a crash never leaves a partially written file under the target name.
+ * </p>
+ * <p>
+ * Duplicates may also be {@link #link(Map, LinkMode) linked} to their originals instead, which reclaims
+ * their storage while keeping every path valid.
+ * </p>
+ * <p>
+ * With a {@link #setJournal(Path) journal}, every operation is recorded before and after it's performed.
+ * Running the same job again with the same journal skips the files completed before, and finishes the operations
+ * that were interrupted: a started move whose source is gone and whose target exists, or a started deletion whose
+ * file is gone, are reported as {@link BulkResult.Status#ALREADY_DONE}. A journal should be used for a single job,
+ * and may be deleted once the job is {@link BulkResult#isComplete() complete}.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * BulkFileOperator operator = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor(), 32);
+ * operator.setJournal(Path.of("cleanup.journal"));
+ * BulkResult result = operator.delete(duplicates);
+ * result.failures().forEach(o -> System.err.println(o.source() + ": " + o.error()));
+ * }</pre>
+ */
+public class BulkFileOperator {
+    private static final Logger logger = LoggerFactory.getLogger(BulkFileOperator.class);
+
+    /**
+     * The default maximum number of operations running at once.
+     */
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    private static final String MOVE = "MOVE";
+
+    private static final String DELETE = "DELETE";
+
+    private static final String LINK = "LINK";
+
+    private static final Action MOVE_ACTION = (source, target, resuming) -> {
+        try {
+            move(source, target);
+            return true;
+        } catch (NoSuchFileException e) {
+            if (resuming && isFinished(source, target)) return false;
+            throw e;
+        }
+    };
+
+    private static final Action DELETE_ACTION = (source, target, resuming) -> {
+        try {
+            Files.delete(source);
+            return true;
+        } catch (NoSuchFileException e) {
+            if (resuming && isFinished(source, null)) return false;
+            throw e;
+        }
+    };
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final ExecutorService executorService;
+    private final int concurrency;
+    private volatile Path journal;
+
+    /**
+     * Constructs a {@code BulkFileOperator} with the default concurrency.
+     *
+     * @param executorService the {@code ExecutorService} used for file operations.
+     */
+    public BulkFileOperator(ExecutorService executorService) {
+        this(executorService, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a {@code BulkFileOperator}.
+     *
+     * @param executorService the {@code ExecutorService} used for file operations.
+     * @param concurrency the maximum number of operations running at once.
+     * @throws IllegalArgumentException if the concurrency is not positive.
+     */
+    public BulkFileOperator(ExecutorService executorService, int concurrency) {
+        if (concurrency <= 0) throw new IllegalArgumentException("Concurrency must be positive");
+
+        this.executorService = Objects.requireNonNull(executorService, "executorService must not be null");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets the write-ahead journal, allowing an interrupted job to be resumed.
+     *
+     * @param journal the journal file, created if it doesn't exist, or {@code null} to run without a journal.
+     */
+    public void setJournal(@Nullable Path journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Moves the files to the destination directory, keeping their names and replacing existing files.
+     *
+     * @param destination the destination directory.
+     * @param files the files to move.
+     * @return the outcome of every file.
+     * @throws IOException if the journal couldn't be opened.
+     */
+    @NotNull
+    public BulkResult move(@NotNull File destination, @NotNull Collection<File> files) throws IOException {
+        Objects.requireNonNull(destination, "destination must not be null");
+        Objects.requireNonNull(files, "files must not be null");
+
+        Path dir = destination.toPath();
+        return run(MOVE, files, f -> dir.resolve(f.getName()), MOVE_ACTION);
+    }
+
+    /**
+     * Deletes the files.
+     *
+     * @param files the files to delete.
+     * @return the outcome of every file.
+     * @throws IOException if the journal couldn't be opened.
+     */
+    @NotNull
+    public BulkResult delete(@NotNull Collection<File> files) throws IOException {
+        Objects.requireNonNull(files, "files must not be null");
+
+        return run(DELETE, files, f -> null, DELETE_ACTION);
+    }
+
+    /**
+     * Replaces the duplicates with links to their originals, e.g. the result of {@link pl.magzik.Processor#process(Collection)}.
+     * <p>
+     * Each duplicate is replaced atomically: the link is created under a temporary name next to the duplicate,
+     * and renamed over it, so the duplicate's path always leads to a complete file. Duplicates already linked
+     * to their original are reported as {@link BulkResult.Status#ALREADY_DONE}. Before the rename, the duplicate is
+     * compared with the original byte by byte, and if they differ, e.g. because the duplicates were found by a perceptual
+     * algorithm, or the file changed since the scan, the duplicate is left intact and reported as {@link BulkResult.Status#FAILED}.
+     * </p>
+     * <p>
+     * Reflinks are created by running {@code cp --reflink=always}, so the {@link LinkMode#REFLINK} and
+     * {@link LinkMode#REFLINK_OR_HARD_LINK} modes start one {@code cp} process per duplicate.
+     * </p>
+     *
+     * @param duplicates the originals, mapped to their duplicates.
+     * @param mode the kind of links to create.
+     * @return the outcome of every duplicate, with its original as the target.
+     * @throws IOException if the journal couldn't be opened.
+     */
+    @NotNull
+    public BulkResult link(@NotNull Map<File, ? extends Collection<File>> duplicates, @NotNull LinkMode mode) throws IOException {
+        Objects.requireNonNull(duplicates, "duplicates must not be null");
+        Objects.requireNonNull(mode, "mode must not be null");
+
+        Map<File, Path> originals = new LinkedHashMap<>();
+        duplicates.forEach((original, copies) -> copies.forEach(c -> originals.put(c, original.toPath())));
+
+        FileLinker linker = new FileLinker(mode);
+        return run(LINK, originals.keySet(), originals::get, (duplicate, original, resuming) -> linker.replace(duplicate, original));
+    }
+
+    private BulkResult run(String operation, Collection<File> files, Function<File, Path> targets, Action action) throws IOException {
+        List<File> sources = List.copyOf(files);
+        BulkResult.Outcome[] outcomes = new BulkResult.Outcome[sources.size()];
+        Path journalPath = journal;
+
+        try (OperationJournal log = journalPath == null ? null : new OperationJournal(journalPath)) {
+            Job job = new Job(operation, action, log);
+            Semaphore permits = new Semaphore(concurrency);
+            int submitted = 0;
+            try {
+                for (; submitted < sources.size() && !job.aborted; submitted++) {
+                    File source = sources.get(submitted);
+                    Path target = targets.apply(source);
+                    int index = submitted;
+
+                    permits.acquire();
+                    try {
+                        executorService.execute(() -> {
+                            try {
+                                outcomes[index] = job.perform(source, target);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("{} interrupted after {} of {} files.", operation, submitted, sources.size());
+            } finally {
+                permits.acquireUninterruptibly(concurrency);
+            }
+
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] != null) continue;
+
+                Path target = targets.apply(sources.get(i));
+                outcomes[i] = new BulkResult.Outcome(sources.get(i), target == null ? null : target.toFile(), BulkResult.Status.NOT_STARTED, null);
+            }
+        }
+
+        BulkResult result = new BulkResult(Arrays.asList(outcomes));
+        logger.info("{} finished: {}", operation, result);
+        return result;
+    }
+
+    /**
+     * The state of a single {@link #run(String, Collection, Function, Action)} call.
+     */
+    private static final class Job {
+
+        private final String operation;
+        private final Action action;
+        private final OperationJournal journal;
+        private volatile boolean aborted;
+
+        private Job(String operation, Action action, OperationJournal journal) {
+            this.operation = operation;
+            this.action = action;
+            this.journal = journal;
+        }
+
+        private BulkResult.Outcome perform(File file, Path target) {
+            Path source = file.toPath();
+            File targetFile = target == null ? null : target.toFile();
+            if (aborted) return new BulkResult.Outcome(file, targetFile, BulkResult.Status.NOT_STARTED, null);
+
+            OperationJournal.State state = journal == null ? null : journal.state(operation, source);
+            if (state == OperationJournal.State.DONE)
+                return new BulkResult.Outcome(file, targetFile, BulkResult.Status.ALREADY_DONE, null);
+
+            try {
+                if (journal != null) journal.started(operation, source);
+            } catch (IOException e) {
+                // Without the journal, the job couldn't be resumed, so nothing else is started.
+                aborted = true;
+                logger.error("Couldn't write to the journal, aborting: {}", e.getMessage(), e);
+                return new BulkResult.Outcome(file, targetFile, BulkResult.Status.FAILED, e);
+            }
+
+            BulkResult.Status status;
+            try {
+                boolean performed = action.perform(source, target, state == OperationJournal.State.STARTED);
+                status = performed ? BulkResult.Status.DONE : BulkResult.Status.ALREADY_DONE;
+            } catch (IOException e) {
+                return failed(file, targetFile, e);
+            }
+
+            try {
+                if (journal != null) journal.done(operation, source);
+            } catch (IOException e) {
+                logger.warn("Couldn't record a finished operation: {}", source, e);
+            }
+            return new BulkResult.Outcome(file, targetFile, status, null);
+        }
+
+        private BulkResult.Outcome failed(File file, File target, IOException e) {
+            logger.warn("Couldn't {} a file: {}", operation.toLowerCase(), e.toString());
+            return new BulkResult.Outcome(file, target, BulkResult.Status.FAILED, e);
+        }
+    }
+
+    /**
+     * Checks whether an interrupted operation has completed, given its source no longer exists.
+     */
+    private static boolean isFinished(Path source, Path target) {
+        return Files.notExists(source, LinkOption.NOFOLLOW_LINKS)
+                && (target == null || Files.exists(target, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Can't rename across file systems, copying: {}", source);
+        }
+
+        Path part = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", PART_SUFFIX);
+        try {
+            Files.copy(source, part, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            try {
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        Files.delete(source);
+    }
+
+    /**
+     * An operation performed on a single file.
+     */
+    @FunctionalInterface
+    private interface Action {
+
+        /**
+         * @param source the file operated on.
+         * @param target the target of the operation, or {@code null} if there's none.
+         * @param resuming whether the journal shows the operation was started by an earlier run.
+         * @return {@code true} if the operation was performed, {@code false} if it had already taken effect.
+         * @throws IOException if the operation failed.
+         */
+        boolean perform(@NotNull Path source, @Nullable Path target, boolean resuming) throws IOException;
+    }
+}
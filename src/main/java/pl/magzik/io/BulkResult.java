@@ -0,0 +1,121 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The outcome of a bulk operation performed by the {@link BulkFileOperator}, with the status of every file,
+ * in the order the files were given.
+ */
+public final class BulkResult {
+
+    /**
+     * The status of a single file.
+     */
+    public enum Status {
+        /**
+         * The operation was performed on the file.
+         */
+        DONE,
+        /**
+         * The operation was already performed on the file by an earlier run, according to the journal.
+         */
+        ALREADY_DONE,
+        /**
+         * The operation failed, see {@link Outcome#error()}.
+         */
+        FAILED,
+        /**
+         * The operation wasn't started, because the run was interrupted.
+         */
+        NOT_STARTED
+    }
+
+    /**
+     * The outcome of the operation on a single file.
+     *
+     * @param source the file operated on.
+     * @param target the file it was moved or linked to, or {@code null} for deletions.
+     * @param status the status of the file.
+     * @param error the cause of the failure, or {@code null} if it didn't fail.
+     */
+    public record Outcome(@NotNull File source, @Nullable File target, @NotNull Status status, @Nullable IOException error) {}
+
+    private final List<Outcome> outcomes;
+
+    BulkResult(List<Outcome> outcomes) {
+        this.outcomes = Collections.unmodifiableList(outcomes);
+    }
+
+    /**
+     * @return the outcomes of all files, in the order they were given.
+     */
+    @NotNull
+    public List<Outcome> outcomes() {
+        return outcomes;
+    }
+
+    /**
+     * @return the outcomes of the files the operation failed on.
+     */
+    @NotNull
+    public List<Outcome> failures() {
+        return outcomes.stream().filter(o -> o.status() == Status.FAILED).toList();
+    }
+
+    /**
+     * Counts the files with the given status.
+     *
+     * @param status the status.
+     * @return the number of files with this status.
+     */
+    public long count(@NotNull Status status) {
+        Objects.requireNonNull(status, "status must not be null");
+        return outcomes.stream().filter(o -> o.status() == status).count();
+    }
+
+    /**
+     * @return {@code true} if the operation is done on every file, in this or an earlier run.
+     */
+    public boolean isComplete() {
+        return outcomes.stream().allMatch(o -> o.status() == Status.DONE || o.status() == Status.ALREADY_DONE);
+    }
+
+    /**
+     * Throws the first failure, with the following ones attached as suppressed exceptions.
+     * If the run was interrupted before every file was started, an {@link InterruptedIOException} is thrown,
+     * or attached to the first failure, so a partial run is never taken for a complete one.
+     *
+     * @throws IOException if the operation failed on any file, or wasn't started on some of them.
+     */
+    public void throwIfFailed() throws IOException {
+        IOException first = null;
+        for (Outcome outcome : outcomes) {
+            if (outcome.error() == null) continue;
+
+            if (first == null) first = outcome.error();
+            else first.addSuppressed(outcome.error());
+        }
+
+        long notStarted = count(Status.NOT_STARTED);
+        if (notStarted > 0) {
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted before " + notStarted + " of " + outcomes.size() + " files");
+            if (first == null) first = interrupted;
+            else first.addSuppressed(interrupted);
+        }
+        if (first != null) throw first;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult[done=" + count(Status.DONE) + ", alreadyDone=" + count(Status.ALREADY_DONE)
+                + ", failed=" + count(Status.FAILED) + ", notStarted=" + count(Status.NOT_STARTED) + "]";
+    }
+}
@@ -0,0 +1,106 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Reads the attributes of a file, including its device and inode numbers where the file system exposes them.
+ * <p>
+ * On file systems supporting the {@code unix} attribute view, the basic attributes and {@code unix:dev} and
+ * {@code unix:ino} are read with a single call, so the location of a file costs no additional lookup.
+ * Elsewhere, the plain {@link BasicFileAttributes} are returned, and the location stays unknown.
+ * </p>
+ */
+final class FileAttributes implements BasicFileAttributes {
+
+    private static final String UNIX_ATTRIBUTES =
+            "unix:size,lastModifiedTime,lastAccessTime,creationTime,isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,dev,ino";
+
+    private final Map<String, Object> attributes;
+
+    private FileAttributes(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * Reads the attributes of the file.
+     *
+     * @param path the path of the file.
+     * @param options the options telling how symbolic links are handled.
+     * @return the attributes, holding the device and inode numbers if the file system supports the {@code unix} view.
+     * @throws IOException if the attributes couldn't be read.
+     */
+    @NotNull
+    static BasicFileAttributes read(@NotNull Path path, LinkOption... options) throws IOException {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            return Files.readAttributes(path, BasicFileAttributes.class, options);
+        }
+        return new FileAttributes(Files.readAttributes(path, UNIX_ATTRIBUTES, options));
+    }
+
+    /**
+     * @return the device number of the file.
+     */
+    long device() {
+        return (Long) attributes.get("dev");
+    }
+
+    /**
+     * @return the inode number of the file.
+     */
+    long inode() {
+        return (Long) attributes.get("ino");
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return (FileTime) attributes.get("lastModifiedTime");
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return (FileTime) attributes.get("lastAccessTime");
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return (FileTime) attributes.get("creationTime");
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return (Boolean) attributes.get("isRegularFile");
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return (Boolean) attributes.get("isDirectory");
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return (Boolean) attributes.get("isSymbolicLink");
+    }
+
+    @Override
+    public boolean isOther() {
+        return (Boolean) attributes.get("isOther");
+    }
+
+    @Override
+    public long size() {
+        return (Long) attributes.get("size");
+    }
+
+    @Override
+    public Object fileKey() {
+        return attributes.get("fileKey");
+    }
+}
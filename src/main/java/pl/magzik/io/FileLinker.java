@@ -0,0 +1,148 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces duplicates with links to their originals.
+ * <p>
+ * The link is created in a new temporary directory next to the duplicate, so it can't collide with any existing file,
+ * and renamed over the duplicate atomically. Right before the rename, the content of the duplicate is compared with
+ * the link byte by byte, so a file that isn't an exact copy, e.g. a visually similar image or a file changed since
+ * the scan, is never replaced.
+ * Reflinks are created with {@code cp --reflink=always}, which issues the {@code FICLONE} ioctl.
+ * A file store is remembered as not supporting them once {@code cp} reports so, after which
+ * {@link LinkMode#REFLINK_OR_HARD_LINK} falls back to hard links without trying again. Other failures of {@code cp},
+ * e.g. a full disk, only make that file fall back.
+ * </p>
+ */
+final class FileLinker {
+    private static final Logger logger = LoggerFactory.getLogger(FileLinker.class);
+
+    private static final String TEMP_PREFIX = ".link";
+
+    /**
+     * Messages of {@code cp}, in the C locale, for the errors meaning the file system can't clone files.
+     */
+    private static final List<String> UNSUPPORTED = List.of("Operation not supported", "Inappropriate ioctl for device");
+
+    /**
+     * The outcome of an attempt to clone a file.
+     */
+    private enum Clone { DONE, UNSUPPORTED, FAILED }
+
+    private final LinkMode mode;
+    private final Map<FileStore, Boolean> reflinks;
+
+    /**
+     * Constructs a {@code FileLinker}.
+     *
+     * @param mode the kind of links to create.
+     */
+    FileLinker(@NotNull LinkMode mode) {
+        this.mode = mode;
+        this.reflinks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replaces the duplicate with a link to the original.
+     *
+     * @param duplicate the file to replace.
+     * @param original the file to link to.
+     * @return {@code false} if the duplicate is already a hard link to the original, {@code true} otherwise.
+     * @throws IOException if any of the files doesn't exist, the content of the files differs, or the link couldn't be created.
+     */
+    boolean replace(@NotNull Path duplicate, @NotNull Path original) throws IOException {
+        if (Files.isSameFile(duplicate, original)) return false;
+        if (Files.size(duplicate) != Files.size(original)) throw mismatch(duplicate, original);
+
+        Path dir = Files.createTempDirectory(duplicate.toAbsolutePath().getParent(), TEMP_PREFIX);
+        Path temp = dir.resolve(duplicate.getFileName());
+        try {
+            create(temp, original);
+            // Compared with the link, not the original, so the bytes checked are the ones the duplicate is replaced with.
+            if (Files.mismatch(duplicate, temp) != -1) throw mismatch(duplicate, original);
+            Files.move(temp, duplicate, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+        return true;
+    }
+
+    private static IOException mismatch(Path duplicate, Path original) {
+        return new IOException("Content of " + duplicate + " differs from " + original + ", not replacing it");
+    }
+
+    private void create(Path link, Path original) throws IOException {
+        if (mode == LinkMode.HARD_LINK) {
+            Files.createLink(link, original);
+            return;
+        }
+
+        FileStore store = Files.getFileStore(original);
+        boolean supported = reflinks.getOrDefault(store, true);
+        if (supported) {
+            Clone clone = reflink(original, link);
+            if (clone == Clone.DONE) {
+                reflinks.putIfAbsent(store, true);
+                return;
+            }
+            if (clone == Clone.UNSUPPORTED) {
+                reflinks.put(store, false);
+                supported = false;
+            }
+        }
+
+        if (mode == LinkMode.REFLINK) {
+            throw new IOException(supported ? "Couldn't reflink: " + original : "Reflinks are not supported by: " + store);
+        }
+        Files.createLink(link, original);
+    }
+
+    private static Clone reflink(Path original, Path link) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder("cp", "--reflink=always", "--", original.toString(), link.toString())
+                .redirectErrorStream(true);
+        builder.environment().put("LC_ALL", "C");
+
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            logger.debug("Couldn't start cp, reflinks are unavailable: {}", e.getMessage());
+            return Clone.UNSUPPORTED;
+        }
+
+        String output;
+        try {
+            output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+            if (process.waitFor() == 0) return Clone.DONE;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning: " + original);
+        }
+
+        Files.deleteIfExists(link);
+        if (UNSUPPORTED.stream().anyMatch(output::contains)) {
+            logger.debug("Couldn't reflink {}, the file system doesn't support it: {}", original, output);
+            return Clone.UNSUPPORTED;
+        }
+        logger.warn("Couldn't reflink {}: {}", original, output);
+        return Clone.FAILED;
+    }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Interface providing operations for file management, such as loading, moving, and deleting files.
@@ -37,6 +39,23 @@ public interface FileOperation {
         return load(Arrays.asList(files));
     }
 
+    /**
+     * Loads the given collection of files, emitting them as they are found.
+     * <p>
+     * The returned stream must be closed once it's no longer needed, so the background work can be stopped.
+     * The default implementation delegates to {@link #load(Collection)}, which finishes loading before returning.
+     * </p>
+     *
+     * @param files
+     *        A {@code Collection<File>} representing the files to be loaded.
+     * @return {@code Stream<File>} of the loaded files.
+     * @throws IOException
+     *         If an I/O error occurs while loading the files.
+     */
+    default Stream<File> stream(Collection<File> files) throws IOException {
+        return load(files).stream();
+    }
+
     /**
      * Moves the given collection of files to the specified destination directory.
      *
@@ -89,4 +108,20 @@ public interface FileOperation {
         delete(Arrays.asList(files));
     }
 
+    /**
+     * Replaces duplicates with links to their originals, reclaiming their storage without removing any path.
+     * The default implementation doesn't support links.
+     *
+     * @param duplicates
+     *        A {@code Map} of the original files to their duplicates, e.g. the result of {@link pl.magzik.Processor#process(Collection)}.
+     * @param mode
+     *        The kind of links to create.
+     * @throws IOException
+     *         If an I/O error occurs while linking the files.
+     * @throws UnsupportedOperationException
+     *         If the implementation doesn't support links.
+     */
+    default void link(Map<File, ? extends Collection<File>> duplicates, LinkMode mode) throws IOException {
+        throw new UnsupportedOperationException("Links are not supported by: " + getClass().getName());
+    }
 }
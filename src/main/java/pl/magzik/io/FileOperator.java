@@ -1,22 +1,23 @@
 package pl.magzik.io;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pl.magzik.predicates.FilePredicate;
+import pl.magzik.progress.ProgressDispatcher;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -28,9 +29,21 @@ import java.util.stream.Stream;
  * <ol>
  *     <li><strong>Pre-validation:</strong> Validates the provided files to ensure they exist and can be accessed. If any file fails this validation, an {@link IOException} is thrown.</li>
  *     <li><strong>File validation:</strong> Validates individual files based on the provided predicate. Files that throw an {@link IOException} during validation are excluded from the result list.</li>
- *     <li><strong>Directory validation:</strong> Recursively processes directories up to the specified depth, extracting all files and validating them. Files that throw an {@link IOException} during extraction are excluded from the result list.</li>
+ *     <li><strong>Directory validation:</strong> Recursively processes directories up to the specified depth, listing directories in parallel, extracting all files and validating them. Files that throw an {@link IOException} during extraction are excluded from the result list.</li>
  * </ol>
  *
+ * <p>Validated files can also be consumed with {@link #stream(Collection)} while directories are still being walked.
+ * The walk is throttled by the consumer: at most {@link #setBufferSize(int) buffer size} files wait to be consumed.
+ * Duplicates are removed with a set of path fingerprints, instead of a set of paths.</p>
+ *
+ * <p>Loaded files are {@link FileRecord}s, holding the attributes read during the walk,
+ * so their type, size and modification time can be checked later without touching the file system.
+ * Paths of the same physical file, e.g. hard links, are all loaded by default, so the {@link pl.magzik.Processor}
+ * collapses them and reports them to its {@link pl.magzik.Processor#setLinkListener(pl.magzik.Processor.LinkListener) link listener}
+ * as already linked. If an {@link #setAliasSink(Consumer) alias sink} is set, they are collapsed by their file key
+ * during the walk instead: only the first path found is loaded, and the others are passed to the sink.
+ * Only fingerprints of the file keys are kept during the walk, not the records.</p>
+ *
  * <p>Example usage:</p>
  * <pre>
  * {@code
@@ -48,12 +61,20 @@ import java.util.stream.Stream;
  *     List<File> validatedFiles = fileOperator.load(files);
  *     System.out.println("Validated files: " + validatedFiles);
  *
+ *     // Or start processing files while the directories are still walked.
+ *     try (Stream<File> stream = fileOperator.stream(files)) {
+ *         stream.forEach(System.out::println);
+ *     }
+ *
  *     // Define a destination directory for moving files.
  *     File destination = new File("destination_directory");
  *
  *     // Move validated files to the destination directory.
  *     fileOperator.move(destination, validatedFiles);
  *
+ *     // Or replace duplicates found by the Processor with links to their originals.
+ *     fileOperator.link(processor.process(validatedFiles), LinkMode.REFLINK_OR_HARD_LINK);
+ *
  *     // Delete the files if needed.
  *     fileOperator.delete(validatedFiles);
  * } catch (IOException e) {
@@ -62,6 +83,9 @@ import java.util.stream.Stream;
  * }
  * </pre>
  *
+ * <p>Moves, deletions and links are performed by a {@link BulkFileOperator}, with bounded concurrency. They return once
+ * all files are processed, and throw the first failure, with the others attached as suppressed exceptions.</p>
+ *
  * <p>Note:</p>
  * <ul>
  *     <li>Make sure to handle exceptions appropriately when performing operations.</li>
@@ -71,9 +95,18 @@ import java.util.stream.Stream;
 public class FileOperator implements FileOperation {
     private static final Logger logger = LoggerFactory.getLogger(FileOperator.class);
 
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
     private final FileValidator fileValidator;
     private int depth;
+    private int bufferSize;
+    private boolean followLinks;
+    private AdaptiveLimiter walkLimiter;
+    private IOThrottle throttle;
+    private ProgressDispatcher progress;
+    private Consumer<? super FileRecord> aliasSink;
     private final ExecutorService executorService;
+    private final BulkFileOperator bulkOperator;
 
     /**
      * Constructs a {@code FileOperator} with the specified file predicate,
@@ -86,7 +119,11 @@ public class FileOperator implements FileOperation {
     public FileOperator(FilePredicate filePredicate, int depth, ExecutorService executorService) {
         this.fileValidator = new FileValidator(filePredicate);
         this.depth = depth;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.throttle = IOThrottle.getInstance();
+        this.progress = ProgressDispatcher.none();
         this.executorService = executorService;
+        this.bulkOperator = new BulkFileOperator(executorService);
     }
 
     /**
@@ -113,97 +150,211 @@ public class FileOperator implements FileOperation {
         this.depth = depth;
     }
 
+    /**
+     * Sets the number of validated files that may wait for the consumer of {@link #stream(Collection)}.
+     * When the buffer is full, the directory walk is paused.
+     *
+     * @param bufferSize the buffer size to set.
+     * @throws IllegalArgumentException if the buffer size is not positive.
+     */
+    @SuppressWarnings("unused")
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets whether symbolic links to directories are followed during directory traversal.
+     * Directories reached more than once, e.g. through a link cycle, are walked only once.
+     *
+     * @param followLinks {@code true} to follow symbolic links, {@code false} by default.
+     */
+    @SuppressWarnings("unused")
+    public void setFollowLinks(boolean followLinks) {
+        this.followLinks = followLinks;
+    }
+
+    /**
+     * Sets the limiter tuning the number of directories listed concurrently, from the observed listing latency.
+     *
+     * @param walkLimiter the limiter, or {@code null} to list up to {@link ParallelFileWalker#DEFAULT_MAX_OPEN_DIRECTORIES} directories at once.
+     */
+    @SuppressWarnings("unused")
+    public void setWalkLimiter(AdaptiveLimiter walkLimiter) {
+        this.walkLimiter = walkLimiter;
+    }
+
+    /**
+     * Sets the throttle charged before directories are listed and files are validated.
+     *
+     * @param throttle the throttle limiting the rate of file opens, the shared {@link IOThrottle} by default.
+     * @throws NullPointerException if {@code throttle} is {@code null}.
+     */
+    @SuppressWarnings("unused")
+    public void setThrottle(IOThrottle throttle) {
+        this.throttle = Objects.requireNonNull(throttle, "throttle must not be null");
+    }
+
+    /**
+     * Sets the dispatcher recording the files discovered and validated, and the {@code load} stage of {@link #load(Collection)}.
+     *
+     * @param progress the dispatcher, {@link ProgressDispatcher#none()} by default.
+     * @throws NullPointerException if {@code progress} is {@code null}.
+     */
+    @SuppressWarnings("unused")
+    public void setProgress(ProgressDispatcher progress) {
+        this.progress = Objects.requireNonNull(progress, "progress must not be null");
+    }
+
+    /**
+     * Sets the consumer of aliases, i.e. files found under another path of a file already loaded, such as a hard link,
+     * or a file reached through overlapping roots. With a sink, aliases aren't loaded. To report them as already linked,
+     * pass them to the {@link pl.magzik.Processor} together with the loaded files, or to {@link FileRecord#collapseAliases(Collection, java.util.function.BiConsumer)}.
+     *
+     * @param aliasSink the consumer, called concurrently, or {@code null} to load aliases like other files, the default.
+     */
+    @SuppressWarnings("unused")
+    public void setAliasSink(@Nullable Consumer<? super FileRecord> aliasSink) {
+        this.aliasSink = aliasSink;
+    }
+
+    /**
+     * Sets the write-ahead journal of moves and deletions, so an interrupted job can be resumed.
+     *
+     * @param journal the journal file, or {@code null} to run without a journal.
+     * @see BulkFileOperator#setJournal(Path)
+     */
+    @SuppressWarnings("unused")
+    public void setJournal(Path journal) {
+        bulkOperator.setJournal(journal);
+    }
+
     @Override
     public List<File> load(Collection<File> files) throws IOException {
         Objects.requireNonNull(files, "files must not be null");
         logger.info("Loading input sources...");
+        ProgressDispatcher.Stage stage = progress.stage("load", 0, files.size());
+
+        List<File> out;
+        try (Stream<File> stream = stream(files)) {
+            out = stream.toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // E.g. interrupted while waiting for files, the list would be incomplete.
+        }
+        stage.finish(0, out.size());
+
+        logger.info("Input files validated.");
+
+        return out;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Input sources are pre-validated before this method returns. Regular files and directories are then
+     * processed in the background, by a dedicated thread listing directories and validating files as tasks
+     * of the configured {@link ExecutorService}, even if it has a single thread. Closing the stream stops
+     * the directory walk.
+     * </p>
+     */
+    @Override
+    public Stream<File> stream(Collection<File> files) throws IOException {
+        Objects.requireNonNull(files, "files must not be null");
         logger.info("Pre-validating input sources...");
-        fileValidator.preValidate(files);
+        List<FileRecord> sources = fileValidator.preValidate(files);
         logger.info("Sources pre-validated.");
 
-        logger.info("Regular file validation...");
-        List<File> out = handleRegularFiles(files);
+        FileStream out = new FileStream(bufferSize);
+        FingerprintSet seen = new FingerprintSet();
+        FingerprintSet keys = new FingerprintSet();
+        LongAdder aliases = new LongAdder();
+        Consumer<? super FileRecord> aliasSink = this.aliasSink;
+        FileVisitor fv = new FileVisitor(executorService, fileValidator, r -> {
+            if (!seen.add(r.toPath().toAbsolutePath().normalize().toString())) return;
 
-        logger.info("Directory validation...");
+            if (aliasSink != null && r.fileKey() != null && !keys.add(r.fileKey().toString())) {
+                aliases.increment(); // Same physical file, reached through another path.
+                aliasSink.accept(r);
+                return;
+            }
+            progress.filesValidated(1);
+            out.offer(r);
+        }, bufferSize);
+        fv.setThrottle(throttle);
+        fv.setProgress(progress);
 
-        out = Stream.concat(out.stream(), handleDirectories(files).stream())
-                .distinct()
-                .toList();
+        // The coordinator waits for listing and validation tasks, so it mustn't take a thread of the executor running them.
+        Thread.ofVirtual().name("file-stream-coordinator").start(() -> {
+            try {
+                logger.info("Regular file validation...");
+                handleRegularFiles(sources, fv);
 
-        logger.info("Input files validated.");
+                logger.info("Directory validation...");
+                handleDirectories(sources, fv);
 
-        return out;
+                fv.await();
+                logger.debug("Found {} distinct paths, {} aliases of other files passed to the sink.", seen.size(), aliases.sum());
+                out.complete(null);
+            } catch (Throwable t) {
+                out.complete(t);
+            }
+        });
+
+        return out.stream(fv::cancel);
     }
 
     /**
      * Handles validation and processing of regular files.
      * <p>
      * This method filters the provided collection of files to include only regular files (not directories),
-     * and processes each file asynchronously using the configured {@link ExecutorService}.
-     * Each file is validated using the {@link FileValidator}. If a file is valid, it is included in the result list;
-     * otherwise, it is ignored. Any {@link IOException} encountered during validation is logged.
+     * and passes each file to the visitor, which validates it asynchronously.
      * </p>
      *
-     * @param files a {@code Collection<File>} of files to be processed. Must not be {@code null}.
-     * @return a {@code List<File>} containing the files that passed validation.
+     * @param files a {@code Collection<FileRecord>} of pre-validated files to be processed. Must not be {@code null}.
+     * @param fv the {@code FileVisitor} validating the files.
      * @throws NullPointerException if {@code files} is {@code null}.
      */
-    private List<File> handleRegularFiles(Collection<File> files) {
+    private void handleRegularFiles(Collection<FileRecord> files, FileVisitor fv) {
         Objects.requireNonNull(files, "files must not be null");
 
-        List<CompletableFuture<File>> futures = files.stream()
-                .filter(File::isFile)
-                .map(f -> CompletableFuture.supplyAsync(() -> {
-                    try {
-                        if (fileValidator.validate(f))
-                            return f;
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                    return null;
-                }, executorService))
-                .toList();
-
-        return futures.stream()
-                .map(CompletableFuture::join)
-                .filter(Objects::nonNull)
-                .toList();
+        files.stream()
+            .filter(FileRecord::regularFile)
+            .forEach(fv::submit);
     }
 
     /**
      * Handles validation and processing of directories.
      * <p>
      * This method filters the provided collection of files to include only directories,
-     * and processes each directory asynchronously using the configured {@link ExecutorService}.
-     * It recursively walks through each directory up to the specified depth, extracting all files and validating them.
+     * and walks them with a {@link ParallelFileWalker}, listing every directory as a separate task
+     * on the configured {@link ExecutorService}. Directories are walked up to the specified depth,
+     * and all found files are passed to the visitor.
      * Any {@link IOException} encountered during directory traversal or file extraction is logged.
+     * The method returns once all directories are walked, validations may still be in progress.
      * </p>
      *
-     * @param files a {@code Collection<File>} of files to be processed. Must not be {@code null}.
-     * @return a {@code List<File>} containing all files extracted from the validated directories.
+     * @param files a {@code Collection<FileRecord>} of pre-validated files to be processed. Must not be {@code null}.
+     * @param fv the {@code FileVisitor} validating extracted files.
      * @throws NullPointerException if {@code files} is {@code null}.
      */
-    private List<File> handleDirectories(Collection<File> files) {
+    private void handleDirectories(Collection<FileRecord> files, FileVisitor fv) {
         Objects.requireNonNull(files, "files must not be null");
 
-        FileVisitor fv = new FileVisitor(executorService, fileValidator);
-        List<CompletableFuture<Void>> futures = files.stream()
-                .filter(File::isDirectory)
+        List<Path> roots = files.stream()
+                .filter(FileRecord::directory)
                 .map(File::toPath)
-                .map(d -> CompletableFuture.runAsync(() -> {
-                    try {
-                        Files.walkFileTree(d, new HashSet<>(), depth, fv);
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                }, executorService))
                 .toList();
 
-        futures.forEach(CompletableFuture::join);
-
-        return List.copyOf(fv.getFiles()).stream()
-                .map(Path::toFile)
-                .toList();
+        ParallelFileWalker walker = new ParallelFileWalker(executorService, ParallelFileWalker.DEFAULT_MAX_OPEN_DIRECTORIES, followLinks);
+        walker.setLimiter(walkLimiter);
+        walker.setThrottle(throttle);
+        try {
+            walker.walk(roots, depth, fv);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fv.cancel();
+        }
     }
 
     @Override
@@ -213,22 +364,7 @@ public class FileOperator implements FileOperation {
 
         if (files.isEmpty()) return;
 
-        try {
-            files.forEach(f -> CompletableFuture.runAsync(() -> {
-                try {
-                    Files.move(
-                        f.toPath(),
-                        Path.of(String.valueOf(destination), f.getName()),
-                        StandardCopyOption.REPLACE_EXISTING
-                    );
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                    throw new UncheckedIOException(e);
-                }
-            }));
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
-        }
+        bulkOperator.move(destination, files).throwIfFailed();
     }
 
     @Override
@@ -237,19 +373,16 @@ public class FileOperator implements FileOperation {
 
         if (files.isEmpty()) return;
 
-        try {
-            files.stream()
-                .map(File::toPath)
-                .forEach(f -> CompletableFuture.runAsync(() -> {
-                    try {
-                        Files.delete(f);
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
-                        throw new UncheckedIOException(e);
-                    }
-                }));
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
-        }
+        bulkOperator.delete(files).throwIfFailed();
+    }
+
+    @Override
+    public void link(Map<File, ? extends Collection<File>> duplicates, LinkMode mode) throws IOException {
+        Objects.requireNonNull(duplicates, "duplicates must not be null");
+        Objects.requireNonNull(mode, "mode must not be null");
+
+        if (duplicates.isEmpty()) return;
+
+        bulkOperator.link(duplicates, mode).throwIfFailed();
     }
 }
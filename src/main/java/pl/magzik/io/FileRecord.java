@@ -0,0 +1,292 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import pl.magzik.predicates.ImageFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link File} carrying the attributes read when it was found.
+ * <p>
+ * Records are created once, from the attributes returned by the directory walk, and flow through
+ * {@link FileOperation}, the groupers and the algorithms in place of plain files. The type, size and
+ * modification time are kept as a snapshot, answered by {@link #regularFile()}, {@link #directory()}, {@link #size()}
+ * and {@link #mtime()}, so asking for them again doesn't stat the file. This matters most on network file systems,
+ * where every metadata lookup is a round trip. The accessors inherited from {@link File}, such as {@link #length()},
+ * still ask the file system, and the static helpers, such as {@link #sizeOf(File)}, take the snapshot when there is one.
+ * </p>
+ * <p>
+ * Where the file system exposes them, the {@link #device() device} and {@link #inode() inode} numbers are kept as well,
+ * read together with the other attributes, so reads can be ordered by the physical location of files.
+ * </p>
+ * <p>
+ * Files sharing the same {@link #fileKey() file key}, such as hard links or paths reached through overlapping
+ * roots, are the same physical file. Only one of them is kept as the canonical record by {@link #collapseAliases(Collection, BiConsumer)},
+ * and the other paths are reported as already linked to it, so they're never reported as duplicates.
+ * </p>
+ * <p>
+ * The image format may be attached to the record by the predicate that read the file header,
+ * so decoding can skip detecting it.
+ * </p>
+ * <p>
+ * Equality is inherited from {@link File}: a record is equal to a plain file with the same path.
+ * </p>
+ */
+public class FileRecord extends File {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final boolean regularFile;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final transient Object fileKey;
+    private final long device;
+    private final long inode;
+    private transient volatile ImageFormat format;
+
+    /**
+     * Creates a record of the file with the given attributes.
+     * The device and inode numbers are known only if the attributes were read by the walk or by {@link #of(Path)}.
+     *
+     * @param path the path of the file.
+     * @param attrs the attributes of the file.
+     */
+    public FileRecord(@NotNull Path path, @NotNull BasicFileAttributes attrs) {
+        super(path.toString());
+        this.regularFile = attrs.isRegularFile();
+        this.directory = attrs.isDirectory();
+        this.size = attrs.size();
+        this.lastModified = attrs.lastModifiedTime().toMillis();
+        this.fileKey = attrs.fileKey();
+        if (attrs instanceof FileAttributes located) {
+            this.device = located.device();
+            this.inode = located.inode();
+        } else {
+            this.device = -1;
+            this.inode = -1;
+        }
+    }
+
+    /**
+     * Creates a record from attributes saved earlier, e.g. spilled to a temporary file. The file key isn't restored,
+     * but the {@link #identity() identity} of the file is, if its device and inode numbers are known.
+     *
+     * @param path the path of the file.
+     * @param regularFile whether the file was a regular file.
+     * @param directory whether the file was a directory.
+     * @param size the size of the file in bytes.
+     * @param lastModified the modification time of the file in milliseconds since the epoch.
+     * @param device the device number of the file, or {@code -1} if it's unknown.
+     * @param inode the inode number of the file, or {@code -1} if it's unknown.
+     */
+    public FileRecord(@NotNull String path, boolean regularFile, boolean directory,
+                      long size, long lastModified, long device, long inode) {
+        super(path);
+        this.regularFile = regularFile;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = null;
+        this.device = device;
+        this.inode = inode;
+    }
+
+    /**
+     * Creates a record of the given file, reading its attributes unless it's a record already.
+     * Symbolic links are followed.
+     *
+     * @param file the file.
+     * @return the record of the file.
+     * @throws IOException if the file doesn't exist, or its attributes couldn't be read.
+     */
+    @NotNull
+    public static FileRecord of(@NotNull File file) throws IOException {
+        if (file instanceof FileRecord record) return record;
+        return of(file.toPath());
+    }
+
+    /**
+     * Creates a record of the file, reading its attributes. Symbolic links are followed.
+     *
+     * @param path the path of the file.
+     * @return the record of the file.
+     * @throws IOException if the file doesn't exist, or its attributes couldn't be read.
+     */
+    @NotNull
+    public static FileRecord of(@NotNull Path path) throws IOException {
+        try {
+            return new FileRecord(path, FileAttributes.read(path));
+        } catch (NoSuchFileException e) {
+            throw new IOException("Couldn't find a file: " + path.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Collapses records of the same physical file, keeping the one with the smallest path as the canonical record.
+     * The other records are removed from the result. Plain files and records without a file key are kept as they are.
+     *
+     * @param files the files to collapse.
+     * @return the files without aliases, in the original order.
+     */
+    @NotNull
+    public static List<File> collapseAliases(@NotNull Collection<File> files) {
+        return collapseAliases(files, null);
+    }
+
+    /**
+     * Collapses records of the same physical file like {@link #collapseAliases(Collection)},
+     * reporting each removed record with the canonical record it's linked to.
+     *
+     * @param files the files to collapse.
+     * @param linked the consumer of the {@code (canonical, alias)} pairs, or {@code null}.
+     * @return the files without aliases, in the original order.
+     */
+    @NotNull
+    public static List<File> collapseAliases(@NotNull Collection<File> files, @Nullable BiConsumer<File, File> linked) {
+        Map<Object, FileRecord> canonical = new HashMap<>();
+        for (File file : files) {
+            if (file instanceof FileRecord record && record.fileKey != null) {
+                canonical.merge(record.fileKey, record, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        List<File> out = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (file instanceof FileRecord record && record.fileKey != null) {
+                FileRecord kept = canonical.get(record.fileKey);
+                if (kept != record) {
+                    if (linked != null && !kept.equals(record)) linked.accept(kept, record);
+                    continue;
+                }
+            }
+            out.add(file);
+        }
+        return out;
+    }
+
+    /**
+     * @return {@code true} if the file was a regular file when the record was created.
+     */
+    public boolean regularFile() {
+        return regularFile;
+    }
+
+    /**
+     * @return {@code true} if the file was a directory when the record was created.
+     */
+    public boolean directory() {
+        return directory;
+    }
+
+    /**
+     * @return the size of the file in bytes, when the record was created.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the modification time of the file in milliseconds since the epoch, when the record was created.
+     */
+    public long mtime() {
+        return lastModified;
+    }
+
+    /**
+     * @param file the file.
+     * @return the size of the file in bytes, from the snapshot of a record, or read from the file otherwise.
+     */
+    public static long sizeOf(@NotNull File file) {
+        return file instanceof FileRecord record ? record.size : file.length();
+    }
+
+    /**
+     * @param file the file.
+     * @return the modification time of the file, from the snapshot of a record, or read from the file otherwise.
+     */
+    public static long mtimeOf(@NotNull File file) {
+        return file instanceof FileRecord record ? record.lastModified : file.lastModified();
+    }
+
+    /**
+     * @param file the file.
+     * @return {@code true} if the file is a regular file, according to the snapshot of a record, or to the file otherwise.
+     */
+    public static boolean isRegularFile(@NotNull File file) {
+        return file instanceof FileRecord record ? record.regularFile : file.isFile();
+    }
+
+    /**
+     * @param file the file.
+     * @return {@code true} if the file is a directory, according to the snapshot of a record, or to the file otherwise.
+     */
+    public static boolean isDirectory(@NotNull File file) {
+        return file instanceof FileRecord record ? record.directory : file.isDirectory();
+    }
+
+    /**
+     * @return the object uniquely identifying the file, or {@code null} if the file system doesn't provide it.
+     * @see BasicFileAttributes#fileKey()
+     */
+    @Nullable
+    public Object fileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return the device number of the file, or {@code -1} if it's unknown.
+     */
+    public long device() {
+        return device;
+    }
+
+    /**
+     * @return the inode number of the file, or {@code -1} if it's unknown.
+     */
+    public long inode() {
+        return inode;
+    }
+
+    /**
+     * Returns a string identifying the physical file, the same for all of its paths, such as hard links.
+     * It's built from the device and inode numbers where they're known, and from the file key otherwise,
+     * so it can be kept in a {@link FingerprintSet} instead of the record.
+     *
+     * @return the identity of the file, or {@code null} if neither is known.
+     */
+    @Nullable
+    public String identity() {
+        if (inode >= 0) return "i:" + device + ':' + inode;
+        return fileKey == null ? null : "k:" + fileKey;
+    }
+
+    /**
+     * @return the image format detected from the file header, or {@code null} if it's unknown.
+     */
+    @Nullable
+    public ImageFormat format() {
+        return format;
+    }
+
+    /**
+     * Attaches the image format detected from the file header.
+     *
+     * @param format the detected format, or {@code null} if it's unknown.
+     */
+    public void setFormat(@Nullable ImageFormat format) {
+        this.format = format;
+    }
+}
@@ -0,0 +1,144 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A bounded hand-off between the producers discovering files and a single consumer reading them as a {@link Stream}.
+ * <p>
+ * Producers block in {@link #offer(File)} while the buffer is full, so a slow consumer holds back the discovery
+ * instead of letting found files pile up on the heap. Closing the stream releases blocked producers,
+ * which then discard the remaining files.
+ * </p>
+ * <p>
+ * Completion is signalled by a flag, which the consumer checks whenever the buffer is empty, so it's never lost,
+ * even when the completing thread is interrupted. An interrupted consumer fails with an {@link InterruptedIOException},
+ * instead of ending the stream as if all files were found.
+ * </p>
+ */
+final class FileStream {
+
+    /**
+     * The marker appended after the last file, if there's room for it, so the consumer needn't wait for the next poll.
+     */
+    private static final File END = new File("");
+
+    private static final long OFFER_TIMEOUT_MILLIS = 50;
+
+    private static final long POLL_TIMEOUT_MILLIS = 50;
+
+    private final BlockingQueue<File> queue;
+
+    private volatile boolean closed;
+
+    private volatile Throwable failure;
+
+    private volatile boolean completed;
+
+    /**
+     * @param capacity the maximum number of files buffered ahead of the consumer.
+     */
+    FileStream(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Hands the file over to the consumer, waiting while the buffer is full.
+     *
+     * @param file the file to hand over.
+     * @return {@code false} if the stream was closed and the file was discarded.
+     */
+    boolean offer(@NotNull File file) {
+        try {
+            while (!closed) {
+                if (queue.offer(file, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Signals the consumer that no more files will be offered.
+     *
+     * @param failure the cause, if producing failed, otherwise {@code null}.
+     */
+    void complete(Throwable failure) {
+        this.failure = failure;
+        this.completed = true;
+        queue.offer(END);
+    }
+
+    /**
+     * @return {@code true} if the consumer has closed the stream.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Creates the sequential stream of offered files.
+     *
+     * @param onClose the action to run when the stream is closed, after producers are released.
+     * @return the stream of files.
+     */
+    @NotNull
+    Stream<File> stream(@NotNull Runnable onClose) {
+        return StreamSupport.stream(new QueueSpliterator(), false)
+                .onClose(() -> {
+                    closed = true;
+                    queue.clear();
+                    onClose.run();
+                });
+    }
+
+    private final class QueueSpliterator extends Spliterators.AbstractSpliterator<File> {
+
+        private boolean done;
+
+        private QueueSpliterator() {
+            super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super File> action) {
+            if (done) return false;
+
+            while (true) {
+                boolean finished = completed; // Read before polling: once set, every file is already in the buffer.
+                File file;
+                try {
+                    file = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    done = true;
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for files"));
+                }
+
+                if (file == END || (file == null && finished)) {
+                    done = true;
+                    if (failure instanceof RuntimeException e) throw e;
+                    if (failure != null) throw new CompletionException(failure);
+                    return false;
+                }
+                if (file == null) continue;
+
+                action.accept(file);
+                return true;
+            }
+        }
+    }
+}
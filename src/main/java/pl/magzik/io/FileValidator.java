@@ -4,9 +4,10 @@ import pl.magzik.predicates.FilePredicate;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * A utility class for validating files based on a given {@link FilePredicate}.
@@ -33,32 +34,29 @@ public class FileValidator {
     /**
      * Pre-validates the given collection of files to ensure they exist.
      * <p>
+     * The attributes of each file are read once, and returned as {@link FileRecord}s,
+     * so later checks of their type don't touch the file system again.
      * If any file in the collection does not exist, an {@link IOException} is thrown.
      * The exception contains the path of the missing file.
      * </p>
      *
      * @param files a {@code Collection<File>} representing the files to be pre-validated.
+     * @return the records of the given files, in the same order.
      * @throws IOException if an I/O error occurs, specifically if any file does not exist.
      */
-    public void preValidate(Collection<File> files) throws IOException {
-        try {
-            files.stream()
-                .filter(f -> !f.exists())
-                .findAny()
-                .ifPresent(f -> {
-                    throw new UncheckedIOException(new IOException(
-                        "Couldn't find a file: " + f.getAbsolutePath()
-                    ));
-                });
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
+    public List<FileRecord> preValidate(Collection<File> files) throws IOException {
+        List<FileRecord> records = new ArrayList<>(files.size());
+        for (File f : files) {
+            records.add(FileRecord.of(f));
         }
+        return records;
     }
 
     /**
      * Validates an individual file based on the provided {@link FilePredicate}.
      * <p>
      * The file is considered valid if it is a regular file and it satisfies the predicate.
+     * For a {@link FileRecord}, the type recorded with it is used.
      * </p>
      *
      * @param file the {@code File} to be validated.
@@ -66,7 +64,7 @@ public class FileValidator {
      * @throws IOException if an I/O error occurs while accessing the file.
      */
     public boolean validate(File file) throws IOException {
-        return file.isFile() && predicate.test(file);
+        return FileRecord.isRegularFile(file) && predicate.test(file);
     }
 
     /**
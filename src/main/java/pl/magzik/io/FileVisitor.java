@@ -2,28 +2,33 @@ package pl.magzik.io;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.magzik.progress.ProgressDispatcher;
 
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Queue;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 /**
  * A file visitor that processes files and directories during a file tree walk operation.
  * <p>
  * This class extends {@link SimpleFileVisitor} to traverse a file tree and processes each file asynchronously.
- * It validates files using a {@link FileValidator} and collects valid files in a concurrent set.
+ * It validates files using a {@link FileValidator} and passes valid files to a sink, by default a concurrent set.
  * The processing is performed asynchronously using the provided {@link ExecutorService}.
  * </p>
  * <p>
+ * The number of pending validations is bounded: once the limit is reached, files are validated on the thread
+ * visiting them, so the walk never waits for the executor. A sink that blocks therefore slows down the walk itself.
+ * </p>
+ * <p>
  * The {@link #getFiles()} method waits for all asynchronous tasks to complete before returning the set of files.
  * </p>
  *
@@ -36,45 +41,156 @@ public class FileVisitor extends SimpleFileVisitor<Path> {
     private final ExecutorService executorService;
     private final FileValidator fileValidator;
     private final Set<Path> files;
-    private final Queue<CompletableFuture<Void>> futures;
+    private final Consumer<FileRecord> sink;
+    private final Semaphore pending;
+    private final int maxPending;
+    private volatile boolean cancelled;
+    private volatile IOThrottle throttle;
+    private volatile ProgressDispatcher progress;
 
     /**
-     * Constructs a {@code FileVisitor} with the specified executor service and file validator.
+     * Constructs a {@code FileVisitor} with the specified executor service and file validator,
+     * collecting valid files into the set returned by {@link #getFiles()}.
      *
      * @param executorService the {@code ExecutorService} used for asynchronous file processing.
      * @param fileValidator   the {@code FileValidator} used to validate files.
      */
     public FileVisitor(ExecutorService executorService, FileValidator fileValidator) {
+        this(executorService, fileValidator, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a {@code FileVisitor} passing valid files to the given sink.
+     *
+     * @param executorService the {@code ExecutorService} used for asynchronous file processing.
+     * @param fileValidator   the {@code FileValidator} used to validate files.
+     * @param sink            the consumer of records of valid files, called concurrently. If {@code null}, files are collected into a set.
+     * @param maxPending      the maximum number of validations in progress.
+     * @throws IllegalArgumentException if {@code maxPending} is not positive.
+     */
+    public FileVisitor(ExecutorService executorService, FileValidator fileValidator, Consumer<FileRecord> sink, int maxPending) {
+        if (maxPending <= 0) throw new IllegalArgumentException("Max pending must be positive");
+
         this.executorService = executorService;
         this.fileValidator = fileValidator;
         this.files = new ConcurrentSkipListSet<>();
-        this.futures = new ConcurrentLinkedQueue<>();
+        this.sink = sink == null ? r -> files.add(r.toPath()) : sink;
+        this.pending = new Semaphore(maxPending);
+        this.maxPending = maxPending;
+        this.throttle = IOThrottle.getInstance();
+        this.progress = ProgressDispatcher.none();
+    }
+
+    /**
+     * Sets the throttle charged before each file is validated, the shared {@link IOThrottle} by default.
+     *
+     * @param throttle the throttle limiting the rate of file opens.
+     */
+    public void setThrottle(IOThrottle throttle) {
+        this.throttle = Objects.requireNonNull(throttle, "throttle must not be null");
+    }
+
+    /**
+     * Sets the dispatcher recording every file submitted for validation as discovered.
+     *
+     * @param progress the dispatcher, {@link ProgressDispatcher#none()} by default.
+     */
+    public void setProgress(ProgressDispatcher progress) {
+        this.progress = Objects.requireNonNull(progress, "progress must not be null");
     }
 
     /**
      * Processes each file encountered during the file tree walk.
      * <p>
      * The file is processed asynchronously to validate it using the provided {@link FileValidator}.
-     * If the file is a regular file and passes validation, it is added to the set of files.
+     * The given attributes are kept in a {@link FileRecord}, so the file isn't stat'ed again.
+     * If the file is a regular file and passes validation, its record is passed to the sink.
      * </p>
      *
      * @param file the path of the file being visited.
      * @param attrs the file attributes of the file being visited.
-     * @return {@code FileVisitResult.CONTINUE} to continue visiting files.
+     * @return {@code FileVisitResult.CONTINUE} to continue visiting files, or {@code TERMINATE} if the visitor was cancelled.
      */
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-        futures.offer(CompletableFuture.runAsync(() -> {
-            try {
-                if (Files.isRegularFile(file) && fileValidator.validate(file)) {
-                    files.add(file);
+        // The attributes of a link describe the link itself, so only then the target is stat'ed again.
+        submit(() -> attrs.isSymbolicLink() ? FileRecord.of(file) : new FileRecord(file, attrs));
+        return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Stops the walk before the next directory is entered.
+     *
+     * @param dir the directory about to be visited.
+     * @param attrs the file attributes of the directory.
+     * @return {@code FileVisitResult.CONTINUE}, or {@code TERMINATE} if the visitor was cancelled.
+     */
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Validates the file asynchronously, outside the file tree walk.
+     * If the maximum number of validations is already in progress, validates it on the calling thread instead.
+     *
+     * @param record the record of the file to validate.
+     */
+    public void submit(FileRecord record) {
+        submit(() -> record);
+    }
+
+    private void submit(RecordSupplier supplier) {
+        if (cancelled) return;
+
+        progress.filesDiscovered(1);
+        if (!pending.tryAcquire()) {
+            // Validating on the calling thread slows the walk down without waiting for the executor,
+            // which may be busy with the very tasks submitting files.
+            validate(supplier);
+            return;
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    validate(supplier);
+                } finally {
+                    pending.release();
                 }
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    private void validate(RecordSupplier supplier) {
+        if (cancelled) return;
+
+        try {
+            FileRecord record = supplier.get();
+            throttle.acquireOpen(); // The predicate may read the file header.
+            if (fileValidator.validate(record)) {
+                sink.accept(record);
             }
-        }, executorService));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
 
-        return FileVisitResult.CONTINUE;
+    /**
+     * Makes the visitor skip all files and directories that aren't being validated yet.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Waits until all submitted validations are completed.
+     */
+    public void await() {
+        pending.acquireUninterruptibly(maxPending); // Holding all permits means nothing is in progress.
+        pending.release(maxPending);
     }
 
     /**
@@ -102,7 +218,15 @@ public class FileVisitor extends SimpleFileVisitor<Path> {
      * @return a {@code Set<Path>} containing the paths of all valid files.
      */
     public Set<Path> getFiles() {
-        futures.forEach(CompletableFuture::join); // Hold the current thread until processing is completed.
+        await(); // Hold the current thread until processing is completed.
         return files;
     }
+
+    /**
+     * Supplies the record of a file to validate.
+     */
+    @FunctionalInterface
+    private interface RecordSupplier {
+        FileRecord get() throws IOException;
+    }
 }
@@ -0,0 +1,127 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A compact, thread-safe set of strings, storing only their 128-bit fingerprints.
+ * <p>
+ * Each element costs 16 bytes in an open-addressing table, instead of a {@link String} or {@link java.nio.file.Path}
+ * object held by a {@link java.util.HashSet} node. The fingerprint is built from two independent 64-bit hashes,
+ * so the probability of two different strings being considered equal is negligible, even for millions of elements.
+ * </p>
+ * <p>
+ * The set is split into lock-striped segments, selected by the fingerprint, to reduce contention.
+ * </p>
+ */
+public final class FingerprintSet {
+
+    private static final int STRIPE_BITS = 6;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Stripe[] stripes;
+
+    /**
+     * Creates an empty set.
+     */
+    public FingerprintSet() {
+        this.stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+    }
+
+    /**
+     * Adds the string to the set.
+     *
+     * @param key the string to add.
+     * @return {@code true} if the set did not already contain the string.
+     */
+    public boolean add(@NotNull CharSequence key) {
+        long h1 = fnv(key), h2 = polynomial(key);
+        if (h1 == 0 && h2 == 0) h1 = 1; // (0, 0) marks an empty slot.
+
+        return stripes[(int) (h1 >>> (Long.SIZE - STRIPE_BITS))].add(h1, h2);
+    }
+
+    /**
+     * @return the number of elements in the set.
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static long fnv(@NotNull CharSequence key) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long polynomial(@NotNull CharSequence key) {
+        long h = key.length();
+        for (int i = 0; i < key.length(); i++) {
+            h = h * 0x9E3779B97F4A7C15L + key.charAt(i);
+        }
+        return mix(h);
+    }
+
+    /**
+     * The MurmurHash3 finalizer, spreading the entropy over all bits.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A single segment of the set: a linear-probing table of fingerprint pairs.
+     */
+    private static final class Stripe {
+
+        private long[] table = new long[INITIAL_CAPACITY * 2];
+
+        private int size;
+
+        private synchronized boolean add(long h1, long h2) {
+            if (insert(table, h1, h2)) {
+                if (++size * 2 > table.length / 2) grow();
+                return true;
+            }
+            return false;
+        }
+
+        private void grow() {
+            long[] grown = new long[table.length * 2];
+            for (int i = 0; i < table.length; i += 2) {
+                if (table[i] != 0 || table[i + 1] != 0) insert(grown, table[i], table[i + 1]);
+            }
+            table = grown;
+        }
+
+        private static boolean insert(long[] table, long h1, long h2) {
+            int mask = table.length / 2 - 1;
+            int slot = (int) h1 & mask;
+            while (true) {
+                int i = slot * 2;
+                if (table[i] == 0 && table[i + 1] == 0) {
+                    table[i] = h1;
+                    table[i + 1] = h2;
+                    return true;
+                }
+                if (table[i] == h1 && table[i + 1] == h2) return false;
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
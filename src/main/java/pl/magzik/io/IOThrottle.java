@@ -0,0 +1,229 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the rate of file opens and bytes read, so scans can run alongside production traffic.
+ * <p>
+ * Both rates are enforced with token buckets that are charged before the I/O is issued: a caller reserves
+ * the bytes it's about to read, and waits until the reservations made before it are paid off. Only a small
+ * credit, worth {@value #CREDIT_MILLIS} ms of the rate, may be accumulated while the throttle is idle,
+ * so the resulting traffic is smooth rather than bursty.
+ * </p>
+ * <p>
+ * A single shared throttle, available from {@link #getInstance()}, is used by default by {@link FileOperator},
+ * {@link pl.magzik.grouping.CRC32Grouper} and {@link ImageDecoder}. It's unlimited until a rate is set.
+ * Rates may be changed at any time, e.g. through JMX after {@link #registerMBean(String)}, and apply to the next reservation.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * IOThrottle throttle = IOThrottle.getInstance();
+ * throttle.setBytesPerSecond(50L << 20); // 50 MiB/s
+ * throttle.setOpensPerSecond(500);
+ * throttle.registerMBean("scan");
+ * }</pre>
+ */
+public class IOThrottle implements IOThrottleMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(IOThrottle.class);
+
+    private static final long CREDIT_MILLIS = 100;
+
+    /**
+     * Singleton holder for the {@link IOThrottle} instance.
+     */
+    private static final class InstanceHolder {
+        private static final IOThrottle instance = new IOThrottle(0, 0);
+    }
+
+    /**
+     * Retrieves the shared, initially unlimited, instance of the {@link IOThrottle}.
+     *
+     * @return the shared {@link IOThrottle} instance.
+     */
+    @NotNull
+    public static IOThrottle getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    private final Bucket bytes;
+    private final Bucket opens;
+    private final LongAdder throttled;
+
+    private ObjectName mBeanName;
+
+    /**
+     * Constructs an {@code IOThrottle}.
+     *
+     * @param bytesPerSecond the maximum number of bytes read per second, {@code 0} for no limit.
+     * @param opensPerSecond the maximum number of files opened per second, {@code 0} for no limit.
+     * @throws IllegalArgumentException if any rate is negative.
+     */
+    public IOThrottle(long bytesPerSecond, long opensPerSecond) {
+        this.bytes = new Bucket();
+        this.opens = new Bucket();
+        this.throttled = new LongAdder();
+        setRate(bytes, bytesPerSecond, "Read rate set to: {} B/s");
+        setRate(opens, opensPerSecond, "Open rate set to: {} /s");
+    }
+
+    /**
+     * Charges opening a file and reading the given number of bytes from it, waiting if the budget is exceeded.
+     *
+     * @param length the number of bytes about to be read.
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    public void acquire(long length) throws InterruptedIOException {
+        long now = System.nanoTime();
+        pause(Math.max(opens.reserve(1, now), bytes.reserve(length, now)));
+    }
+
+    /**
+     * Charges opening a file, waiting if the budget is exceeded.
+     *
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    public void acquireOpen() throws InterruptedIOException {
+        pause(opens.reserve(1, System.nanoTime()));
+    }
+
+    /**
+     * Charges reading the given number of bytes from an already opened file, waiting if the budget is exceeded.
+     *
+     * @param length the number of bytes about to be read.
+     * @throws InterruptedIOException if the current thread is interrupted while waiting.
+     */
+    public void acquireBytes(long length) throws InterruptedIOException {
+        pause(bytes.reserve(length, System.nanoTime()));
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytes.rate;
+    }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond) {
+        setRate(bytes, bytesPerSecond, "Read rate set to: {} B/s");
+    }
+
+    @Override
+    public long getOpensPerSecond() {
+        return opens.rate;
+    }
+
+    @Override
+    public void setOpensPerSecond(long opensPerSecond) {
+        setRate(opens, opensPerSecond, "Open rate set to: {} /s");
+    }
+
+    private static void setRate(Bucket bucket, long rate, String message) {
+        if (rate < 0) throw new IllegalArgumentException("Rate must not be negative");
+
+        bucket.setRate(rate);
+        logger.info(message, rate == 0 ? "unlimited" : rate);
+    }
+
+    @Override
+    public long getBytesCharged() {
+        return bytes.charged.sum();
+    }
+
+    @Override
+    public long getOpensCharged() {
+        return opens.charged.sum();
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttled.sum());
+    }
+
+    /**
+     * Registers the throttle in the platform {@link javax.management.MBeanServer}
+     * under the {@code pl.magzik:type=IOThrottle,name=<name>} object name.
+     *
+     * @param name the name of the throttle.
+     * @throws IllegalStateException if the bean couldn't be registered.
+     */
+    public synchronized void registerMBean(@NotNull String name) {
+        if (mBeanName != null) return;
+
+        try {
+            ObjectName objectName = new ObjectName("pl.magzik:type=IOThrottle,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            mBeanName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register throttle MBean: " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the throttle from the platform {@link javax.management.MBeanServer}, if it was registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (mBeanName == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        } catch (JMException e) {
+            logger.warn("Couldn't unregister throttle MBean: {}", mBeanName, e);
+        }
+        mBeanName = null;
+    }
+
+    private void pause(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) return;
+
+        throttled.add(nanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    /**
+     * A token bucket, tracking the time at which all reservations made so far are paid off.
+     */
+    private static final class Bucket {
+
+        private final LongAdder charged = new LongAdder();
+
+        private volatile long rate;
+
+        private long paidOff;
+
+        private synchronized void setRate(long rate) {
+            this.rate = rate;
+            this.paidOff = System.nanoTime();
+        }
+
+        /**
+         * Reserves the amount, returning the time the caller has to wait for the previous reservations.
+         */
+        private long reserve(long amount, long now) {
+            charged.add(amount);
+            if (rate == 0) return 0;
+
+            synchronized (this) {
+                long rate = this.rate;
+                if (rate == 0) return 0;
+
+                long start = Math.max(paidOff, now - TimeUnit.MILLISECONDS.toNanos(CREDIT_MILLIS));
+                paidOff = start + (long) (amount * 1e9 / rate);
+                return start - now;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package pl.magzik.io;
+
+/**
+ * Management interface of the {@link IOThrottle}, allowing its rates to be read and changed through JMX.
+ * A rate of {@code 0} means no limit.
+ *
+ * @see IOThrottle#registerMBean(String)
+ */
+public interface IOThrottleMXBean {
+
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long bytesPerSecond);
+
+    long getOpensPerSecond();
+
+    void setOpensPerSecond(long opensPerSecond);
+
+    /**
+     * @return the number of bytes charged so far.
+     */
+    long getBytesCharged();
+
+    /**
+     * @return the number of file opens charged so far.
+     */
+    long getOpensCharged();
+
+    /**
+     * @return the total time callers were held back, in milliseconds.
+     */
+    long getThrottledMillis();
+}
@@ -0,0 +1,300 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.predicates.ImageFormat;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes images from in-memory file content, reusing {@link ImageReader} instances.
+ * <p>
+ * Compared to {@link ImageIO#read(File)}, this class:
+ * </p>
+ * <ul>
+ *     <li>reads the whole file with a single {@link FileChannel} read, or maps and loads it into memory if it's large,</li>
+ *     <li>decodes from a {@link MemoryCacheImageInputStream}, with the {@link ImageIO} disk cache disabled,</li>
+ *     <li>picks the reader by the format detected from the magic number, without querying the service registry,</li>
+ *     <li>keeps a pool of idle readers per format, resetting and reusing them instead of creating new ones.</li>
+ * </ul>
+ * <p>
+ * The pools are shared by all threads, as per-thread readers would be lost with every virtual thread.
+ * Formats without a registered reader fall back to {@link ImageIO#read(ImageInputStream)}.
+ * </p>
+ */
+public class ImageDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+
+    /**
+     * Files of at least this size are memory-mapped instead of read into the heap.
+     */
+    private static final long MAPPING_THRESHOLD = 4 * 1024 * 1024;
+
+    static {
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Singleton holder for the {@link ImageDecoder} instance.
+     */
+    private static final class InstanceHolder {
+        private static final ImageDecoder instance = new ImageDecoder(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Retrieves the shared instance of the {@link ImageDecoder}.
+     *
+     * @return the shared {@link ImageDecoder} instance.
+     */
+    @NotNull
+    public static ImageDecoder getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    private final Map<ImageFormat, ReaderPool> pools;
+
+    private volatile IOThrottle throttle;
+
+    /**
+     * Creates a decoder keeping at most {@code poolSize} idle readers per format.
+     *
+     * @param poolSize the maximum number of idle readers kept per format.
+     * @throws IllegalArgumentException if the pool size is negative.
+     */
+    public ImageDecoder(int poolSize) {
+        if (poolSize < 0) throw new IllegalArgumentException("Pool size must not be negative");
+
+        this.pools = new EnumMap<>(ImageFormat.class);
+        this.throttle = IOThrottle.getInstance();
+        for (ImageFormat format : ImageFormat.values()) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format.formatName());
+            if (!readers.hasNext()) {
+                logger.debug("No image reader available for format: {}", format);
+                continue;
+            }
+
+            ImageReader reader = readers.next();
+            ReaderPool pool = new ReaderPool(reader.getOriginatingProvider(), poolSize);
+            pool.release(reader);
+            pools.put(format, pool);
+        }
+    }
+
+    /**
+     * Sets the throttle charged before files are read, the shared {@link IOThrottle} by default.
+     *
+     * @param throttle the throttle limiting the rate of file reads.
+     */
+    public void setThrottle(@NotNull IOThrottle throttle) {
+        this.throttle = Objects.requireNonNull(throttle, "throttle must not be null");
+    }
+
+    /**
+     * Reads the whole content of the file.
+     * <p>
+     * Small files are read with a single channel read into a heap buffer, large ones are memory-mapped and loaded,
+     * so the file is read here, e.g. while a {@link ReadScheduler} permit is held, and not by page faults while decoding.
+     * The open and the whole file size are charged to the throttle before reading.
+     * </p>
+     *
+     * @param path the file to read.
+     * @return the buffer holding the file content, positioned at its beginning.
+     * @throws IOException if an I/O error occurs, or the file is too large.
+     */
+    @NotNull
+    public ByteBuffer read(@NotNull Path path) throws IOException {
+        IOThrottle throttle = this.throttle;
+        throttle.acquireOpen();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File is too large to decode: " + path);
+            throttle.acquireBytes(size);
+            if (size >= MAPPING_THRESHOLD) return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).load();
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Reads and decodes the image file.
+     * <p>
+     * If the file is a {@link FileRecord} with a known format, the format isn't detected again.
+     * </p>
+     *
+     * @param file the image file.
+     * @return the decoded image.
+     * @throws IOException if an I/O error occurs, or the file format is not supported.
+     */
+    @NotNull
+    public BufferedImage decode(@NotNull File file) throws IOException {
+        return decode(read(file.toPath()), formatOf(file));
+    }
+
+    /**
+     * Decodes the image from the given file content.
+     *
+     * @param content the whole content of the image file. The buffer itself is not modified.
+     * @param format the format of the image, or {@code null} to detect it from the content.
+     * @return the decoded image.
+     * @throws IOException if the content couldn't be decoded, or its format is not supported.
+     */
+    @NotNull
+    public BufferedImage decode(@NotNull ByteBuffer content, @Nullable ImageFormat format) throws IOException {
+        if (format == null) format = ImageFormat.detect(content);
+        ReaderPool pool = format == null ? null : pools.get(format);
+
+        ImageInputStream stream = new MemoryCacheImageInputStream(new ByteBufferInputStream(content.duplicate()));
+        BufferedImage image;
+        if (pool == null) {
+            image = ImageIO.read(stream); // Closes the stream, unless no reader supports the format.
+            if (image == null) stream.close();
+        } else {
+            try (stream) {
+                image = read(pool, stream);
+            }
+        }
+        if (image == null) throw new IOException("Unsupported image format");
+        return image;
+    }
+
+    /**
+     * Returns the format attached to the file, if it's a {@link FileRecord}.
+     *
+     * @param file the image file.
+     * @return the known format of the file, or {@code null} if it has to be detected.
+     */
+    @Nullable
+    public static ImageFormat formatOf(@NotNull File file) {
+        return file instanceof FileRecord record ? record.format() : null;
+    }
+
+    /**
+     * Decodes the first image from the stream using a pooled reader.
+     *
+     * @param pool the pool of readers for the image format.
+     * @param stream the stream holding the image.
+     * @return the decoded image.
+     * @throws IOException if the image couldn't be decoded.
+     */
+    private BufferedImage read(@NotNull ReaderPool pool, @NotNull ImageInputStream stream) throws IOException {
+        ImageReader reader = pool.borrow();
+        boolean reusable = false;
+        try {
+            reader.setInput(stream, true, true);
+            BufferedImage image = reader.read(0, reader.getDefaultReadParam());
+            reusable = true;
+            return image;
+        } finally {
+            if (reusable) {
+                reader.reset();
+                pool.release(reader);
+            } else {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * A bounded pool of idle readers for a single format.
+     */
+    private static final class ReaderPool {
+
+        private final ImageReaderSpi provider;
+
+        private final Deque<ImageReader> idle;
+
+        private final AtomicInteger size;
+
+        private final int capacity;
+
+        private ReaderPool(ImageReaderSpi provider, int capacity) {
+            this.provider = provider;
+            this.idle = new ConcurrentLinkedDeque<>();
+            this.size = new AtomicInteger();
+            this.capacity = capacity;
+        }
+
+        private ImageReader borrow() throws IOException {
+            ImageReader reader = idle.pollFirst();
+            if (reader != null) {
+                size.decrementAndGet();
+                return reader;
+            }
+            return provider.createReaderInstance();
+        }
+
+        private void release(ImageReader reader) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                reader.dispose();
+                return;
+            }
+            idle.offerFirst(reader);
+        }
+    }
+
+    /**
+     * An input stream reading the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package pl.magzik.io;
+
+/**
+ * The kind of link a duplicate is replaced with by {@link BulkFileOperator#link(java.util.Map, LinkMode)}.
+ */
+public enum LinkMode {
+
+    /**
+     * A hard link: the duplicate's path becomes another name of the original file, sharing its inode,
+     * so later changes through either path affect both.
+     */
+    HARD_LINK,
+
+    /**
+     * A copy-on-write clone, supported e.g. by btrfs and XFS: the duplicate stays a separate file,
+     * sharing the original's data blocks until either of them is modified. Fails on file systems without reflinks.
+     */
+    REFLINK,
+
+    /**
+     * A reflink where the file system supports it, a hard link otherwise.
+     */
+    REFLINK_OR_HARD_LINK
+}
@@ -0,0 +1,139 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only, write-ahead journal of bulk file operations.
+ * <p>
+ * Every operation is recorded as started before it's performed, and as done afterwards, one line each:
+ * {@code S\t<operation>\t<source>\t$} and {@code D\t<operation>\t<source>\t$}. Tabs, line breaks and backslashes
+ * in paths are escaped. Records are written straight to the file, so they survive a crash of the process, and are forced
+ * to the storage device every {@value #SYNC_INTERVAL} records, and when the journal is closed.
+ * </p>
+ * <p>
+ * Every record ends with a {@code $} field, so a truncated last line, left by a crash in the middle of a write, lacks it
+ * and is ignored when the journal is opened again. The line is then terminated, before new records are appended.
+ * </p>
+ */
+final class OperationJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(OperationJournal.class);
+
+    private static final int SYNC_INTERVAL = 1024;
+
+    /**
+     * The state of an operation recorded in the journal.
+     */
+    enum State { STARTED, DONE }
+
+    private final Path path;
+    private final Map<String, State> states;
+    private final FileChannel channel;
+    private int unsynced;
+
+    /**
+     * Opens the journal, reading the records of earlier runs if it exists.
+     *
+     * @param path the journal file.
+     * @throws IOException if the journal couldn't be read or opened for writing.
+     */
+    OperationJournal(@NotNull Path path) throws IOException {
+        this.path = path;
+        this.states = new HashMap<>();
+        boolean terminated = true;
+        if (Files.exists(path)) {
+            read();
+            terminated = RecordFiles.endsWithLine(path);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (!terminated) {
+            try {
+                write("\n"); // Terminates a record cut short by a crash.
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4 || fields[0].length() != 1 || !fields[3].equals("$")) continue;
+
+                String key = fields[1] + '\t' + fields[2];
+                switch (fields[0].charAt(0)) {
+                    case 'S' -> states.putIfAbsent(key, State.STARTED);
+                    case 'D' -> states.put(key, State.DONE);
+                    default -> { continue; }
+                }
+                records++;
+            }
+        }
+        logger.info("Journal {} opened with {} records.", path, records);
+    }
+
+    /**
+     * Returns the state of the operation recorded by earlier runs.
+     *
+     * @param operation the name of the operation.
+     * @param source the file operated on.
+     * @return the state, or {@code null} if the operation wasn't recorded.
+     */
+    synchronized State state(@NotNull String operation, @NotNull Path source) {
+        return states.get(operation + '\t' + RecordFiles.escape(source.toString()));
+    }
+
+    /**
+     * Records the operation as started. Must be called before the operation is performed.
+     */
+    void started(@NotNull String operation, @NotNull Path source) throws IOException {
+        append('S', operation, source);
+    }
+
+    /**
+     * Records the operation as done.
+     */
+    void done(@NotNull String operation, @NotNull Path source) throws IOException {
+        append('D', operation, source);
+    }
+
+    private synchronized void append(char type, String operation, Path source) throws IOException {
+        write(String.valueOf(type) + '\t' + operation + '\t' + RecordFiles.escape(source.toString()) + "\t$\n");
+
+        if (++unsynced >= SYNC_INTERVAL) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    private void write(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
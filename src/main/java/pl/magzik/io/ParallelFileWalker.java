@@ -0,0 +1,289 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks file trees in parallel, listing every directory as a separate task.
+ * <p>
+ * Unlike {@link Files#walkFileTree(Path, Set, int, java.nio.file.FileVisitor)}, which walks a whole tree
+ * on the calling thread, this walker lists each directory with {@link Files#newDirectoryStream(Path)}
+ * and schedules its subdirectories on the given executor. With virtual threads, a deep tree on high-latency
+ * storage is listed with as many requests in flight as there are directories waiting, up to a limit
+ * of directories opened at once.
+ * </p>
+ * <p>
+ * The walker reports to a {@link FileVisitor}, following the same depth semantics as {@code walkFileTree}:
+ * the root is at depth {@code 0}, and directories at the maximum depth are not opened. Entries are visited
+ * concurrently, in no particular order. When symbolic links are followed, each directory is entered once,
+ * and links leading back to an already entered directory are reported as a {@link FileSystemLoopException}.
+ * </p>
+ *
+ * @see FileVisitor
+ */
+public class ParallelFileWalker {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelFileWalker.class);
+
+    /**
+     * The default maximum number of directories opened at once.
+     */
+    public static final int DEFAULT_MAX_OPEN_DIRECTORIES = 64;
+
+    private final ExecutorService executorService;
+    private final Semaphore handles;
+    private final boolean followLinks;
+    private volatile AdaptiveLimiter limiter;
+    private volatile IOThrottle throttle;
+
+    /**
+     * Constructs a {@code ParallelFileWalker} that doesn't follow symbolic links.
+     *
+     * @param executorService the {@code ExecutorService} used for listing directories.
+     */
+    public ParallelFileWalker(ExecutorService executorService) {
+        this(executorService, DEFAULT_MAX_OPEN_DIRECTORIES, false);
+    }
+
+    /**
+     * Constructs a {@code ParallelFileWalker}.
+     *
+     * @param executorService the {@code ExecutorService} used for listing directories.
+     * @param maxOpenDirectories the maximum number of directories opened at once.
+     * @param followLinks whether symbolic links to directories should be followed.
+     * @throws IllegalArgumentException if {@code maxOpenDirectories} is not positive.
+     */
+    public ParallelFileWalker(ExecutorService executorService, int maxOpenDirectories, boolean followLinks) {
+        if (maxOpenDirectories <= 0) throw new IllegalArgumentException("Max open directories must be positive");
+
+        this.executorService = Objects.requireNonNull(executorService, "executorService must not be null");
+        this.handles = new Semaphore(maxOpenDirectories);
+        this.followLinks = followLinks;
+        this.throttle = IOThrottle.getInstance();
+    }
+
+    /**
+     * Sets the throttle charged before each directory is opened, the shared {@link IOThrottle} by default.
+     *
+     * @param throttle the throttle limiting the rate of directory opens.
+     */
+    public void setThrottle(@NotNull IOThrottle throttle) {
+        this.throttle = Objects.requireNonNull(throttle, "throttle must not be null");
+    }
+
+    /**
+     * Sets the limiter tuning the number of directories listed concurrently from the observed latency per entry.
+     * The maximum number of open directories still applies.
+     *
+     * @param limiter the limiter, or {@code null} to rely on the maximum number of open directories only.
+     */
+    public void setLimiter(@Nullable AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Walks the given directories, and waits until all of them are listed.
+     * <p>
+     * Files are passed to {@link FileVisitor#visitFile(Path, BasicFileAttributes)}, directories that can't be
+     * read to {@link FileVisitor#visitFileFailed(Path, IOException)}. If the visitor returns
+     * {@link FileVisitResult#TERMINATE}, no more directories are opened.
+     * </p>
+     *
+     * @param roots the directories to walk.
+     * @param depth the maximum number of directory levels to visit.
+     * @param visitor the visitor of found files.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     * @throws IllegalArgumentException if the depth is negative.
+     */
+    public void walk(@NotNull Collection<Path> roots, int depth, @NotNull FileVisitor visitor) throws InterruptedException {
+        Objects.requireNonNull(roots, "roots must not be null");
+        Objects.requireNonNull(visitor, "visitor must not be null");
+        if (depth < 0) throw new IllegalArgumentException("Depth must not be negative");
+
+        Walk walk = new Walk(depth, visitor);
+        for (Path root : roots) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = readAttributes(root);
+            } catch (IOException e) {
+                visitor.visitFileFailed(root, e);
+                continue;
+            }
+
+            if (attrs.isDirectory() && depth > 0) {
+                if (walk.enter(root, attrs)) walk.schedule(root, 0, attrs);
+            } else {
+                visitor.visitFile(root, attrs);
+            }
+        }
+        walk.await();
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        // Read with the device and inode numbers where supported, so records know their location without another lookup.
+        if (!followLinks) return FileAttributes.read(path, LinkOption.NOFOLLOW_LINKS);
+
+        try {
+            return FileAttributes.read(path);
+        } catch (IOException e) {
+            // A broken link is reported as the link itself, same as in Files.walkFileTree.
+            return FileAttributes.read(path, LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+
+    /**
+     * The state of a single {@link #walk(Collection, int, FileVisitor)} call.
+     */
+    private final class Walk {
+
+        private final int depth;
+        private final FileVisitor visitor;
+        private final Set<Object> entered;
+        private final AtomicLong pending;
+        private final CountDownLatch done;
+        private volatile boolean terminated;
+
+        private Walk(int depth, FileVisitor visitor) {
+            this.depth = depth;
+            this.visitor = visitor;
+            this.entered = ConcurrentHashMap.newKeySet();
+            this.pending = new AtomicLong(1); // Held by the caller until all roots are scheduled.
+            this.done = new CountDownLatch(1);
+        }
+
+        /**
+         * Checks whether the directory should be entered. Without following links, every directory is reached once.
+         */
+        private boolean enter(Path dir, BasicFileAttributes attrs) {
+            if (!followLinks) return true;
+
+            Object key = attrs.fileKey();
+            if (key == null) {
+                try {
+                    key = dir.toRealPath();
+                } catch (IOException e) {
+                    visitor.visitFileFailed(dir, e);
+                    return false;
+                }
+            }
+
+            if (entered.add(key)) return true;
+
+            logger.debug("Directory already visited: {}", dir);
+            visitor.visitFileFailed(dir, new FileSystemLoopException(dir.toString()));
+            return false;
+        }
+
+        private void schedule(Path dir, int level, BasicFileAttributes attrs) {
+            if (terminated) return;
+
+            pending.incrementAndGet();
+            try {
+                executorService.execute(() -> {
+                    try {
+                        list(dir, level, attrs);
+                    } finally {
+                        complete();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                complete();
+                throw e;
+            }
+        }
+
+        private void list(Path dir, int level, BasicFileAttributes attrs) {
+            if (terminated || visitor.preVisitDirectory(dir, attrs) == FileVisitResult.TERMINATE) {
+                terminated = true;
+                return;
+            }
+
+            try {
+                handles.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            AdaptiveLimiter.Permit permit = null;
+            try {
+                if (limiter != null) permit = limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                handles.release();
+                return;
+            }
+
+            int count = 0;
+            try {
+                throttle.acquireOpen();
+            } catch (InterruptedIOException e) {
+                if (permit != null) permit.close();
+                handles.release();
+                return;
+            }
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (terminated) return;
+                    visit(entry, level + 1);
+                    count++;
+                }
+                if (permit != null) permit.success(count);
+            } catch (IOException e) {
+                visitor.visitFileFailed(dir, e);
+            } catch (DirectoryIteratorException e) {
+                visitor.visitFileFailed(dir, e.getCause());
+            } finally {
+                if (permit != null) permit.close();
+                handles.release();
+            }
+        }
+
+        private void visit(Path entry, int level) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = readAttributes(entry);
+            } catch (IOException e) {
+                visitor.visitFileFailed(entry, e);
+                return;
+            }
+
+            if (attrs.isDirectory() && level < depth) {
+                if (enter(entry, attrs)) schedule(entry, level, attrs);
+            } else if (visitor.visitFile(entry, attrs) == FileVisitResult.TERMINATE) {
+                terminated = true;
+            }
+        }
+
+        private void complete() {
+            if (pending.decrementAndGet() == 0) done.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            complete();
+            done.await();
+        }
+    }
+}
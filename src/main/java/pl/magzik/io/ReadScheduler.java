@@ -0,0 +1,434 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.execution.CancellationToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Schedules file reads by their physical location.
+ * <p>
+ * Reads are ordered by device, then by directory, then by inode, which on most file systems approximates
+ * the on-disk layout. Each device gets its own limit of concurrent reads, depending on its profile:
+ * spinning disks are read by a few readers walking the files in order, so a scan stays sequential instead of
+ * seeking across the platter, while solid-state drives are read with a deep queue. Devices are read in parallel.
+ * </p>
+ * <p>
+ * The location is taken from the {@link FileRecord#device() device} and {@link FileRecord#inode() inode} numbers of records.
+ * Files without a known location, such as plain {@link File}s or records from file systems without the {@code unix}
+ * attribute view, are read in the order they are given, using the solid-state profile.
+ * On Linux, the profile of a device is detected from {@code /sys/dev/block/<major>:<minor>/queue/rotational}.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * ReadScheduler scheduler = ReadScheduler.getInstance();
+ * Map<File, Long> sizes = scheduler.readAll(files, f -> Files.size(f.toPath()));
+ * }</pre>
+ */
+public class ReadScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(ReadScheduler.class);
+
+    /**
+     * The default number of concurrent reads from a spinning disk.
+     */
+    public static final int DEFAULT_ROTATIONAL_DEPTH = 2;
+
+    /**
+     * The default number of concurrent reads from a solid-state drive, or a device of unknown type.
+     */
+    public static final int DEFAULT_SOLID_STATE_DEPTH = 32;
+
+    private static final Comparator<Location> ORDER = Comparator.comparingLong(Location::device)
+            .thenComparing(Location::directory)
+            .thenComparingLong(Location::inode);
+
+    /**
+     * Orders files by device, directory and inode. Files without a known location come last, in encounter order.
+     */
+    public static final Comparator<File> LOCALITY = Comparator.comparing(ReadScheduler::locate, Comparator.nullsLast(ORDER));
+
+    /**
+     * Singleton holder for the {@link ReadScheduler} instance.
+     */
+    private static final class InstanceHolder {
+        private static final ReadScheduler instance = new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Retrieves the shared instance of the {@link ReadScheduler}, reading on virtual threads.
+     * It has no {@link AdaptiveLimiter} unless one is {@link #setLimiter(AdaptiveLimiter) set}.
+     *
+     * @return the shared {@link ReadScheduler} instance.
+     */
+    @NotNull
+    public static ReadScheduler getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    private final ExecutorService executorService;
+    private final int rotationalDepth;
+    private final int solidStateDepth;
+    private final Map<Long, Device> devices;
+    private volatile AdaptiveLimiter limiter;
+
+    /**
+     * Constructs a {@code ReadScheduler} with the default depths.
+     *
+     * @param executorService the {@code ExecutorService} used for reads.
+     */
+    public ReadScheduler(ExecutorService executorService) {
+        this(executorService, DEFAULT_ROTATIONAL_DEPTH, DEFAULT_SOLID_STATE_DEPTH);
+    }
+
+    /**
+     * Constructs a {@code ReadScheduler}.
+     *
+     * @param executorService the {@code ExecutorService} used for reads.
+     * @param rotationalDepth the number of concurrent reads from a spinning disk.
+     * @param solidStateDepth the number of concurrent reads from a solid-state drive, or a device of unknown type.
+     * @throws IllegalArgumentException if any depth is not positive.
+     */
+    public ReadScheduler(ExecutorService executorService, int rotationalDepth, int solidStateDepth) {
+        if (rotationalDepth <= 0 || solidStateDepth <= 0) throw new IllegalArgumentException("Depth must be positive");
+
+        this.executorService = Objects.requireNonNull(executorService, "executorService must not be null");
+        this.rotationalDepth = rotationalDepth;
+        this.solidStateDepth = solidStateDepth;
+        this.devices = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the limiter tuning the total number of concurrent reads from the observed latency of reads,
+     * classed by the size of the file. The per-device limits still apply.
+     *
+     * @param limiter the limiter, or {@code null} to rely on the per-device limits only.
+     */
+    public void setLimiter(@Nullable AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return the limiter tuning the total number of concurrent reads, or {@code null} if there's none.
+     */
+    @Nullable
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Reads all files, in the order of their physical location.
+     * <p>
+     * Files of each device are read by as many readers as the device allows, taking files in order.
+     * Files that couldn't be read are logged and left out of the result.
+     * </p>
+     *
+     * @param files the files to read.
+     * @param task the read to perform on each file.
+     * @return the results of successful reads.
+     * @param <T> the type of the results.
+     */
+    @NotNull
+    public <T> Map<File, T> readAll(@NotNull Collection<File> files, @NotNull ReadTask<T> task) {
+        return readAll(files, task, null);
+    }
+
+    /**
+     * Reads all files like {@link #readAll(Collection, ReadTask)}, until the token is cancelled.
+     * <p>
+     * Readers check the token before each file, and their threads are interrupted when it's cancelled,
+     * so reads through interruptible channels stop at once. The results of reads completed before the
+     * cancellation are returned.
+     * </p>
+     *
+     * @param files the files to read.
+     * @param task the read to perform on each file.
+     * @param token the token stopping the reads, or {@code null}.
+     * @return the results of successful reads.
+     * @param <T> the type of the results.
+     */
+    @NotNull
+    public <T> Map<File, T> readAll(@NotNull Collection<File> files, @NotNull ReadTask<T> task, @Nullable CancellationToken token) {
+        Objects.requireNonNull(files, "files must not be null");
+        Objects.requireNonNull(task, "task must not be null");
+
+        Map<File, T> results = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> readers = start(files, task, token, (file, result, failure) -> {
+            if (failure != null) logger.error("Error while reading a file: {}", file.getName(), failure);
+            else if (result != null) results.put(file, result);
+        });
+        readers.forEach(CompletableFuture::join);
+        return results;
+    }
+
+    /**
+     * Reads all files asynchronously, in the order of their physical location.
+     * <p>
+     * Like {@link #readAll(Collection, ReadTask)}, files of each device are read by as many readers as the device allows,
+     * taking files in order, so a batch is read in the {@link #LOCALITY} order, unlike files {@link #submit(File, ReadTask) submitted}
+     * one by one, which race for the device.
+     * </p>
+     *
+     * @param files the files to read.
+     * @param task the read to perform on each file.
+     * @return the futures completed with the result of each read, or with a {@link CompletionException}
+     *         wrapping the {@link IOException} thrown by the read, in the order of the given files.
+     * @param <T> the type of the results.
+     */
+    @NotNull
+    public <T> Map<File, CompletableFuture<T>> submitAll(@NotNull Collection<File> files, @NotNull ReadTask<T> task) {
+        Objects.requireNonNull(files, "files must not be null");
+        Objects.requireNonNull(task, "task must not be null");
+
+        Map<File, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (File file : files) futures.put(file, new CompletableFuture<>());
+        List<CompletableFuture<Void>> readers = start(futures.keySet(), task, null, (file, result, failure) -> {
+            if (failure != null) futures.get(file).completeExceptionally(new CompletionException(failure));
+            else futures.get(file).complete(result);
+        });
+        CompletableFuture.allOf(readers.toArray(CompletableFuture[]::new)).whenComplete((v, e) -> {
+            if (e != null) futures.values().forEach(f -> f.completeExceptionally(e)); // A read failed unexpectedly.
+        });
+        return futures;
+    }
+
+    /**
+     * Starts the readers of each device, taking the files in order.
+     *
+     * @return the readers, completed once they read all files, or the token is cancelled.
+     */
+    private <T> List<CompletableFuture<Void>> start(Collection<File> files, ReadTask<T> task,
+                                                   @Nullable CancellationToken token, ReadSink<T> sink) {
+        Map<Long, List<File>> byDevice = files.stream()
+                .map(f -> new Located(f, locate(f))) // Locate each file once, not on every comparison.
+                .sorted(Comparator.comparing(Located::location, Comparator.nullsLast(ORDER)))
+                .collect(Collectors.groupingBy(
+                    l -> l.location() == null ? -1L : l.location().device(),
+                    LinkedHashMap::new,
+                    Collectors.mapping(Located::file, Collectors.toList())
+                ));
+
+        List<CompletableFuture<Void>> readers = new ArrayList<>();
+        byDevice.forEach((dev, queue) -> {
+            Device device = device(dev);
+            AtomicInteger next = new AtomicInteger();
+            int count = Math.min(device.depth, queue.size());
+            for (int i = 0; i < count; i++) {
+                readers.add(CompletableFuture.runAsync(() -> {
+                    Thread reader = Thread.currentThread();
+                    CancellationToken.Registration registration = token == null ? () -> {} : token.onCancel(reader::interrupt);
+                    try (registration) {
+                        for (int j = next.getAndIncrement(); j < queue.size(); j = next.getAndIncrement()) {
+                            if (token != null && token.isCancelled()) break;
+
+                            File file = queue.get(j);
+                            T result;
+                            try {
+                                result = device.read(file, task, limiter);
+                            } catch (IOException e) {
+                                if (token != null && token.isCancelled()) break;
+                                sink.accept(file, null, e);
+                                continue;
+                            }
+                            sink.accept(file, result, null);
+                        }
+                    } finally {
+                        if (token != null) Thread.interrupted(); // Clears an interrupt of the cancellation, the thread may be pooled.
+                    }
+                }, executorService));
+            }
+        });
+
+        return readers;
+    }
+
+    /**
+     * Reads a single file, within the limit of concurrent reads of its device.
+     * <p>
+     * Files submitted one by one race for the permits of their device, callers reading many files should
+     * {@link #submitAll(Collection, ReadTask) submit them together} instead.
+     * </p>
+     *
+     * @param file the file to read.
+     * @param task the read to perform.
+     * @return the future completed with the result of the read, or with a {@link CompletionException}
+     *         wrapping the {@link IOException} thrown by the read.
+     * @param <T> the type of the result.
+     */
+    @NotNull
+    public <T> CompletableFuture<T> submit(@NotNull File file, @NotNull ReadTask<T> task) {
+        Location location = locate(file);
+        Device device = device(location == null ? -1L : location.device());
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return device.read(file, task, limiter);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executorService);
+    }
+
+    /**
+     * Reads a single file on the calling thread, within the limit of concurrent reads of its device.
+     * <p>
+     * Unlike {@link #submit(File, ReadTask)}, the read doesn't move to another thread, so callers that need the result
+     * at once, e.g. to load an image on demand, share the limits with the scheduled reads without a thread hop.
+     * </p>
+     *
+     * @param file the file to read.
+     * @param task the read to perform.
+     * @return the result of the read.
+     * @param <T> the type of the result.
+     * @throws IOException if the read failed.
+     */
+    public <T> T read(@NotNull File file, @NotNull ReadTask<T> task) throws IOException {
+        Location location = locate(file);
+        return device(location == null ? -1L : location.device()).read(file, task, limiter);
+    }
+
+    /**
+     * Returns the number of concurrent reads allowed for the device of the file.
+     *
+     * @param file the file.
+     * @return the read depth of its device.
+     */
+    public int depthOf(@NotNull File file) {
+        Location location = locate(file);
+        return device(location == null ? -1L : location.device()).depth;
+    }
+
+    private Device device(long dev) {
+        return devices.computeIfAbsent(dev, d -> {
+            boolean rotational = d >= 0 && isRotational(d);
+            logger.debug("Device {} detected as {}.", Long.toHexString(d), rotational ? "rotational" : "solid-state");
+            return new Device(rotational ? rotationalDepth : solidStateDepth);
+        });
+    }
+
+    /**
+     * Takes the location of the file from its record.
+     *
+     * @param file the file.
+     * @return the location of the file, or {@code null} if it's unknown.
+     */
+    @Nullable
+    static Location locate(@NotNull File file) {
+        if (!(file instanceof FileRecord record) || record.inode() < 0) return null;
+
+        String parent = file.getParent();
+        return new Location(record.device(), parent == null ? "" : parent, record.inode());
+    }
+
+    /**
+     * Checks whether the block device is a spinning disk, following the Linux device number encoding.
+     *
+     * @param dev the device number.
+     * @return {@code true} if the device is known to be rotational.
+     */
+    private static boolean isRotational(long dev) {
+        long major = ((dev >>> 8) & 0xFFF) | ((dev >>> 32) & ~0xFFFL);
+        long minor = (dev & 0xFF) | ((dev >>> 12) & ~0xFFL);
+        try {
+            Path block = Path.of("/sys/dev/block", major + ":" + minor).toRealPath();
+            Path flag = block.resolve("queue/rotational");
+            if (!Files.exists(flag)) flag = block.resolveSibling("queue/rotational"); // A partition of the disk.
+            return Files.exists(flag) && Files.readString(flag).trim().equals("1");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The physical location of a file.
+     *
+     * @param device the device number.
+     * @param directory the path of the parent directory.
+     * @param inode the inode number.
+     */
+    record Location(long device, String directory, long inode) {}
+
+    private record Located(File file, Location location) {}
+
+    /**
+     * Receives the outcome of each read of a batch.
+     */
+    @FunctionalInterface
+    private interface ReadSink<T> {
+        void accept(File file, @Nullable T result, @Nullable IOException failure);
+    }
+
+    /**
+     * A device with its limit of concurrent reads.
+     */
+    private static final class Device {
+
+        private final int depth;
+        private final Semaphore permits;
+
+        private Device(int depth) {
+            this.depth = depth;
+            this.permits = new Semaphore(depth, true);
+        }
+
+        private <T> T read(File file, ReadTask<T> task, AdaptiveLimiter limiter) throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a device permit: " + file);
+            }
+            try {
+                if (limiter == null) return task.read(file);
+
+                try (AdaptiveLimiter.Permit permit = limiter.acquire()) {
+                    T result = task.read(file);
+                    permit.success(FileRecord.sizeOf(file) / 1024);
+                    return result;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a read permit: " + file);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A read performed on a single file, that may throw {@link IOException}.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    public interface ReadTask<T> {
+
+        /**
+         * @param file the file to read.
+         * @return the result of the read.
+         * @throws IOException if the file couldn't be read.
+         */
+        T read(@NotNull File file) throws IOException;
+    }
+}
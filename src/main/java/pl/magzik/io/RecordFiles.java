@@ -0,0 +1,82 @@
+package pl.magzik.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers shared by the append-only record files, the {@link OperationJournal} and the checkpoint of the {@link pl.magzik.Processor}.
+ * <p>
+ * Records are lines of tab-separated fields, so tabs, line breaks and backslashes in fields are escaped.
+ * </p>
+ */
+public final class RecordFiles {
+
+    private RecordFiles() {}
+
+    /**
+     * Checks whether the file ends with a complete line, so new records may be appended right away.
+     *
+     * @param path the record file.
+     * @return {@code true} if the file is empty or its last byte is a line feed.
+     * @throws IOException if the file couldn't be read.
+     */
+    public static boolean endsWithLine(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            return size == 0 || channel.read(last, size - 1) == 1 && last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Escapes tabs, line breaks and backslashes, so the value can be written as a single field.
+     *
+     * @param s the value.
+     * @return the escaped value.
+     */
+    @NotNull
+    public static String escape(@NotNull String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reverses {@link #escape(String)}.
+     *
+     * @param s the escaped field.
+     * @return the original value.
+     */
+    @NotNull
+    public static String unescape(@NotNull String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            switch (s.charAt(++i)) {
+                case 't' -> sb.append('\t');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                default -> sb.append(s.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+}
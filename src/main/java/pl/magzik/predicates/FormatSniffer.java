@@ -0,0 +1,154 @@
+package pl.magzik.predicates;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Detects file formats from a single read of the file header.
+ * <p>
+ * The header is read with one {@link FileChannel} read into a pooled buffer, so sniffing a file doesn't
+ * allocate anything but the channel. The {@link ImageFormat} signatures are compiled into a prefix trie,
+ * so the format is detected with at most one table lookup per header byte, without converting bytes to text.
+ * </p>
+ * <p>
+ * The pool is shared by all threads, as per-thread buffers would be lost with every virtual thread.
+ * </p>
+ */
+public class FormatSniffer {
+
+    /**
+     * The length of the longest {@link ImageFormat} signature.
+     */
+    public static final int SIGNATURE_LENGTH;
+
+    private static final SignatureTrie<ImageFormat> signatures;
+
+    static {
+        signatures = new SignatureTrie<>();
+        for (ImageFormat format : ImageFormat.values()) {
+            for (byte[] signature : format.signatures()) signatures.put(signature, format);
+        }
+        SIGNATURE_LENGTH = signatures.length();
+    }
+
+    /**
+     * Singleton holder for the {@link FormatSniffer} instance.
+     */
+    private static final class InstanceHolder {
+        private static final FormatSniffer instance = new FormatSniffer(SIGNATURE_LENGTH);
+    }
+
+    /**
+     * Retrieves the shared instance of the {@link FormatSniffer}, reading headers of {@link #SIGNATURE_LENGTH} bytes.
+     *
+     * @return the shared {@link FormatSniffer} instance.
+     */
+    @NotNull
+    public static FormatSniffer getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    private final int headerLength;
+
+    private final Deque<ByteBuffer> buffers;
+
+    /**
+     * Creates a sniffer reading headers of the given length.
+     *
+     * @param headerLength the number of leading bytes read from each file.
+     * @throws IllegalArgumentException if the header length is not positive.
+     */
+    public FormatSniffer(int headerLength) {
+        if (headerLength <= 0) throw new IllegalArgumentException("Header length must be positive");
+
+        this.headerLength = headerLength;
+        this.buffers = new ConcurrentLinkedDeque<>();
+    }
+
+    /**
+     * @return the number of leading bytes read from each file.
+     */
+    public int headerLength() {
+        return headerLength;
+    }
+
+    /**
+     * Reads the header of the file and passes it to the given function.
+     * <p>
+     * The buffer is only valid until the function returns, as it's given back to the pool afterwards.
+     * It may hold fewer bytes than the header length, if the file is shorter.
+     * </p>
+     *
+     * @param path the file to read.
+     * @param function the function processing the header.
+     * @return the result of the function.
+     * @param <T> the type of the result.
+     * @throws IOException if an I/O error occurs, or the function throws it.
+     */
+    public <T> T sniff(@NotNull Path path, @NotNull HeaderFunction<T> function) throws IOException {
+        ByteBuffer buffer = buffers.pollFirst();
+        if (buffer == null) buffer = ByteBuffer.allocate(headerLength);
+
+        try {
+            buffer.clear();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) break;
+                }
+            }
+            return function.apply(buffer.flip());
+        } finally {
+            buffers.offerFirst(buffer);
+        }
+    }
+
+    /**
+     * Reads the header of the file, and detects its format.
+     *
+     * @param path the file to read.
+     * @return the detected format, or {@code null} if the header doesn't match any known signature.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Nullable
+    public ImageFormat detect(@NotNull Path path) throws IOException {
+        return sniff(path, FormatSniffer::match);
+    }
+
+    /**
+     * Matches the header against the {@link ImageFormat} signatures.
+     * <p>
+     * The position of the buffer is not changed.
+     * </p>
+     *
+     * @param header the buffer holding (at least) the beginning of the file.
+     * @return the detected format, or {@code null} if the header doesn't match any known signature.
+     */
+    @Nullable
+    public static ImageFormat match(@NotNull ByteBuffer header) {
+        return signatures.match(header);
+    }
+
+    /**
+     * A function processing the file header, that may throw {@link IOException}.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    public interface HeaderFunction<T> {
+
+        /**
+         * @param header the buffer holding the header, positioned at its beginning.
+         * @return the result.
+         * @throws IOException if the header couldn't be processed.
+         */
+        T apply(@NotNull ByteBuffer header) throws IOException;
+    }
+}
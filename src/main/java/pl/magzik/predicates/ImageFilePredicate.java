@@ -1,11 +1,16 @@
 package pl.magzik.predicates;
 
+import pl.magzik.io.FileRecord;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * A predicate for validating image files based on their magic numbers.
@@ -17,19 +22,60 @@ import java.util.Set;
  * Magic numbers are used to identify or validate file types based on their binary signatures.
  * This class uses these signatures to verify that a file is of the expected type.
  * </p>
+ * <p>
+ * The header of each file is read once, with a {@link FormatSniffer}, and matched with a prefix trie of the signatures,
+ * compiled to bytes up front. The longest match alone decides whether the file is accepted: it carries the extensions
+ * of its own signature and of every signature it starts with, and the {@link ImageFormat} of its own signature.
+ * If the file is a {@link FileRecord}, the format is stored in the record, so decoding doesn't need to detect it again.
+ * Extensions may be ignored with {@link #setIgnoreExtensions(boolean)}, accepting extension-less
+ * and mis-named files that match any known signature.
+ * </p>
  */
 public class ImageFilePredicate implements FilePredicate {
 
-    private final Map<String, Set<String>> magicNumbers;
+    private final SignatureTrie<Signature> signatures;
+
+    private final Set<String> extensions;
+
+    private final FormatSniffer sniffer;
+
+    private boolean ignoreExtensions;
 
     /**
      * Constructs an {@code ImageFilePredicate} with a specific map of magic numbers.
      *
      * @param magicNumbers a map of file extensions to their corresponding magic numbers.
-     *                     The map is immutable and should not be modified after creation.
+     *                     The magic numbers are compiled to bytes, later changes to the map have no effect.
      */
     public ImageFilePredicate(Map<String, Set<String>> magicNumbers) {
-        this.magicNumbers = Collections.unmodifiableMap(magicNumbers);
+        Map<String, Set<String>> extensions = new HashMap<>();
+        for (Map.Entry<String, Set<String>> e : magicNumbers.entrySet()) {
+            for (String signature : e.getValue()) {
+                extensions.computeIfAbsent(signature.toUpperCase(), k -> new HashSet<>()).add(e.getKey().toUpperCase());
+            }
+        }
+
+        this.signatures = new SignatureTrie<>();
+        HexFormat hex = HexFormat.of();
+        for (String signature : extensions.keySet()) {
+            // The longest match wins, so it also carries the extensions of the signatures it starts with.
+            Set<String> accepted = new HashSet<>();
+            extensions.forEach((prefix, e) -> {
+                if (signature.startsWith(prefix)) accepted.addAll(e);
+            });
+
+            byte[] bytes = hex.parseHex(signature);
+            signatures.put(bytes, new Signature(Set.copyOf(accepted), FormatSniffer.match(ByteBuffer.wrap(bytes))));
+        }
+
+        this.extensions = magicNumbers.keySet().stream()
+                .map(String::toUpperCase)
+                .collect(Collectors.toUnmodifiableSet());
+
+        int headerLength = Math.max(FormatSniffer.SIGNATURE_LENGTH, signatures.length());
+        this.sniffer = headerLength == FormatSniffer.SIGNATURE_LENGTH
+                ? FormatSniffer.getInstance()
+                : new FormatSniffer(headerLength);
     }
 
     /**
@@ -51,26 +97,38 @@ public class ImageFilePredicate implements FilePredicate {
         ));
     }
 
+    /**
+     * Sets whether file extensions are ignored. If so, a file is accepted if its header matches
+     * any of the known magic numbers, regardless of its name.
+     *
+     * @param ignoreExtensions {@code true} to accept extension-less and mis-named files, {@code false} by default.
+     */
+    @SuppressWarnings("unused")
+    public void setIgnoreExtensions(boolean ignoreExtensions) {
+        this.ignoreExtensions = ignoreExtensions;
+    }
+
     /**
      * Tests if the given file is a valid image based on its extension and magic number.
      *
      * @param file the file to be tested.
-     * @return {@code true} if the file matches one of the known magic numbers for its extension;
-     *         {@code false} otherwise.
-     * @throws IOException if an I/O error occurs while reading the file.
+     * @return {@code true} if the file matches one of the known magic numbers for its extension
+     *         (or any known magic number, if extensions are ignored); {@code false} otherwise.
+     * @throws IOException if an I/O error occurs while reading the file, or the file is too short to hold a magic number.
      */
     @Override
     public boolean test(File file) throws IOException {
-        String ext = getExtension(file);
-        if (!magicNumbers.containsKey(ext)) return false;
+        String extension = getExtension(file);
+        if (!ignoreExtensions && !extensions.contains(extension)) return false;
 
-        Set<String> expectedMagicNumbers = magicNumbers.get(ext);
-        for (String expected : expectedMagicNumbers) {
-            String fileMagicNumber = getFileMagicNumber(file, expected.length() / 2);
-            if (fileMagicNumber.equalsIgnoreCase(expected)) return true;
-        }
+        return sniffer.sniff(file.toPath(), header -> {
+            Signature match = signatures.match(header);
+            if (file instanceof FileRecord record) record.setFormat(match == null ? null : match.format());
+            if (match == null && signatures.truncated(header))
+                throw new IOException(String.format("File %s is corrupted", file.getName()));
 
-        return false;
+            return match != null && (ignoreExtensions || match.extensions().contains(extension));
+        });
     }
 
     /**
@@ -86,35 +144,10 @@ public class ImageFilePredicate implements FilePredicate {
     }
 
     /**
-     * Reads the magic number from the beginning of the file.
-     *
-     * @param file the file from which the magic number is to be read.
-     * @param bytesToRead the number of bytes to read to get the magic number.
-     * @return the magic number as a hexadecimal string.
-     * @throws IOException if an I/O error occurs while reading the file.
-     */
-    private String getFileMagicNumber(File file, int bytesToRead) throws IOException {
-        try (FileInputStream is = new FileInputStream(file)) {
-            byte[] bytes = new byte[bytesToRead];
-            int bytesRead = is.read(bytes);
-            if (bytesRead < bytesToRead)
-                throw new IOException(String.format("File %s is corrupted", file.getName()));
-
-            return bytesToHex(bytes);
-        }
-    }
-
-    /**
-     * Converts an array of bytes to a hexadecimal string representation.
+     * A compiled magic number.
      *
-     * @param bytes the array of bytes to be converted.
-     * @return the hexadecimal string representation of the bytes.
+     * @param extensions the extensions, in uppercase, of the files that may start with the magic number.
+     * @param format the format of the files starting with the magic number, or {@code null} if it's not a known image format.
      */
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : bytes) {
-            hexString.append(String.format("%02X", b));
-        }
-        return hexString.toString();
-    }
+    private record Signature(Set<String> extensions, ImageFormat format) {}
 }
@@ -0,0 +1,66 @@
+package pl.magzik.predicates;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+/**
+ * Image formats recognized by their magic numbers.
+ * <p>
+ * Each format holds its binary signatures and the name under which {@link javax.imageio.ImageIO}
+ * registers its readers, so the detected format can be used directly to pick an image reader.
+ * </p>
+ */
+public enum ImageFormat {
+    JPEG("jpeg", "FFD8FF"),
+    PNG("png", "89504E470D0A1A0A"),
+    GIF("gif", "474946383761", "474946383961"),
+    BMP("bmp", "424D"),
+    TIFF("tiff", "49492A00", "4D4D002A"),
+    ICO("ico", "00000100"),
+    JPEG2000("jpeg2000", "0000000C6A5020200D0A870A", "FF4FFF51");
+
+    private final String formatName;
+
+    private final byte[][] signatures;
+
+    ImageFormat(String formatName, String... signatures) {
+        this.formatName = formatName;
+        this.signatures = new byte[signatures.length][];
+        for (int i = 0; i < signatures.length; i++) {
+            this.signatures[i] = HexFormat.of().parseHex(signatures[i]);
+        }
+    }
+
+    /**
+     * @return the format name used by {@link javax.imageio.ImageIO} to look up readers.
+     */
+    @NotNull
+    public String formatName() {
+        return formatName;
+    }
+
+    /**
+     * @return the binary signatures of the format. The arrays must not be modified.
+     */
+    byte[][] signatures() {
+        return signatures;
+    }
+
+    /**
+     * Detects the format of the file based on its leading bytes.
+     * <p>
+     * The position of the buffer is not changed.
+     * </p>
+     *
+     * @param header the buffer holding (at least) the beginning of the file.
+     * @return the detected format, or {@code null} if the header doesn't match any known signature.
+     * @see FormatSniffer#match(ByteBuffer)
+     */
+    @Nullable
+    public static ImageFormat detect(@NotNull ByteBuffer header) {
+        return FormatSniffer.match(header);
+    }
+}
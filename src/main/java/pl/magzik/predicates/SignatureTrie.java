@@ -0,0 +1,124 @@
+package pl.magzik.predicates;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A prefix trie of binary signatures, mapping each signature to a value.
+ * <p>
+ * A header is matched with at most one table lookup per byte, without converting bytes to text.
+ * The trie is filled with {@link #put(byte[], Object)} and must not be modified once it's shared between threads.
+ * </p>
+ *
+ * @param <T> the type of the values.
+ */
+final class SignatureTrie<T> {
+
+    private static final int ALPHABET = 256;
+
+    /**
+     * Transitions of the trie: the child of node {@code n} for byte {@code b} is at {@code n * 256 + b}, {@code 0} if absent.
+     */
+    private int[] transitions;
+
+    /**
+     * The value whose signature ends at the given node, or {@code null}.
+     */
+    private Object[] accepted;
+
+    private int nodes;
+
+    private int length;
+
+    SignatureTrie() {
+        this.transitions = new int[ALPHABET];
+        this.accepted = new Object[1];
+        this.nodes = 1;
+    }
+
+    /**
+     * Adds the signature, replacing the value of an equal signature.
+     *
+     * @param signature the signature, must not be empty.
+     * @param value the value returned when a header starts with the signature.
+     * @throws IllegalArgumentException if the signature is empty.
+     */
+    void put(byte @NotNull [] signature, @NotNull T value) {
+        if (signature.length == 0) throw new IllegalArgumentException("Signature must not be empty");
+
+        int node = 0;
+        for (byte b : signature) {
+            int i = node * ALPHABET + (b & 0xFF);
+            if (transitions[i] == 0) {
+                int child = grow(); // Reallocates the table, so it's read again afterwards.
+                transitions[i] = child;
+            }
+            node = transitions[i];
+        }
+        accepted[node] = value;
+        length = Math.max(length, signature.length);
+    }
+
+    /**
+     * @return the length of the longest signature, {@code 0} if the trie is empty.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Matches the header against the signatures. If a signature is a prefix of another one, the longer one wins.
+     * <p>
+     * The position of the buffer is not changed.
+     * </p>
+     *
+     * @param header the buffer holding (at least) the beginning of the file.
+     * @return the value of the signature the header starts with, or {@code null} if there is none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    T match(@NotNull ByteBuffer header) {
+        Object match = null;
+        int node = 0;
+        for (int i = header.position(); i < header.limit(); i++) {
+            node = transitions[node * ALPHABET + (header.get(i) & 0xFF)];
+            if (node == 0) break;
+            if (accepted[node] != null) match = accepted[node];
+        }
+        return (T) match;
+    }
+
+    /**
+     * Checks whether the whole header is a proper prefix of a signature, i.e. it's too short to tell if it matches.
+     * <p>
+     * The position of the buffer is not changed.
+     * </p>
+     *
+     * @param header the buffer holding the beginning of the file.
+     * @return {@code true} if a longer header could start with a signature, while this one doesn't.
+     */
+    boolean truncated(@NotNull ByteBuffer header) {
+        int node = 0;
+        for (int i = header.position(); i < header.limit(); i++) {
+            node = transitions[node * ALPHABET + (header.get(i) & 0xFF)];
+            if (node == 0 || accepted[node] != null) return false;
+        }
+        return nodes > 1;
+    }
+
+    /**
+     * Allocates a new node.
+     *
+     * @return the index of the node.
+     */
+    private int grow() {
+        if (nodes == accepted.length) {
+            accepted = Arrays.copyOf(accepted, nodes * 2);
+            transitions = Arrays.copyOf(transitions, nodes * 2 * ALPHABET);
+        }
+        return nodes++;
+    }
+}
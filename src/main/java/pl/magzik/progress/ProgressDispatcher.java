@@ -0,0 +1,383 @@
+package pl.magzik.progress;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers the {@link ProgressEvent}s of a run to a {@link ProgressListener}, asynchronously.
+ * <p>
+ * Components doing the work only record events, without allocating and without locks:
+ * </p>
+ * <ul>
+ *     <li>counters, e.g. files discovered or bytes read, are added to {@link LongAdder}s, sampled by the dispatcher
+ *     thread every interval, and before every stage event, and delivered as running totals when they change,</li>
+ *     <li>stage events are written as primitives to a slot of a bounded ring buffer, claimed with a compare-and-set
+ *     of its tail, and published with a per-slot sequence. The dispatcher thread turns them into events.</li>
+ * </ul>
+ * <p>
+ * When the buffer is full, {@link ProgressEvent.GroupsProcessed} events are dropped, and counted by {@link #dropped()},
+ * as the next one supersedes them. Stage starts and finishes wait for a free slot, parking the recording thread briefly
+ * between checks, unless it's interrupted, e.g. by a cancelled run, in which case they're skipped.
+ * </p>
+ * <p>
+ * The dispatcher returned by {@link #none()} records nothing, and is the default of every component,
+ * so a run without a listener only pays for a check of a final field.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (ProgressDispatcher progress = new ProgressDispatcher(event -> {
+ *     if (event instanceof ProgressEvent.GroupsProcessed p) System.out.println(p.stage() + " ETA: " + p.eta());
+ * })) {
+ *     fileOperator.setProgress(progress);
+ *     grouper.setProgress(progress);
+ *     processor.setProgress(progress);
+ *     processor.process(fileOperator.load(files));
+ * }
+ * }</pre>
+ */
+public final class ProgressDispatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressDispatcher.class);
+
+    /**
+     * The default number of slots of the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The default interval between samples of the counters.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(100);
+
+    private static final int STAGE_STARTED = 1, GROUPS_PROCESSED = 2, STAGE_FINISHED = 3;
+
+    private static final int VALUES = 5;
+
+    /**
+     * The time a stage event waits for the dispatcher thread to free a slot, before checking again.
+     */
+    private static final long WAIT_NANOS = 100_000;
+
+    /**
+     * Singleton holder for the disabled dispatcher.
+     */
+    private static final class InstanceHolder {
+        private static final ProgressDispatcher none = new ProgressDispatcher();
+    }
+
+    private final boolean enabled;
+    private final ProgressListener listener;
+    private final long intervalNanos;
+    private final Thread thread;
+
+    private final LongAdder discovered, validated, bytes;
+    private long discoveredSent, validatedSent, bytesSent; // Dispatcher thread only.
+
+    private final int mask;
+    private final int[] types;
+    private final String[] stages;
+    private final long[] values;
+    private final AtomicLongArray published;
+    private final AtomicLong tail;
+    private final LongAdder droppedEvents;
+    private volatile long head;
+    private volatile boolean closed;
+
+    private ProgressDispatcher() {
+        this.enabled = false;
+        this.listener = null;
+        this.intervalNanos = 0;
+        this.thread = null;
+        this.discovered = this.validated = this.bytes = null;
+        this.mask = 0;
+        this.types = null;
+        this.stages = null;
+        this.values = null;
+        this.published = null;
+        this.tail = null;
+        this.droppedEvents = null;
+    }
+
+    /**
+     * Constructs a {@code ProgressDispatcher} with a buffer of {@value #DEFAULT_CAPACITY} slots,
+     * sampling the counters every {@link #DEFAULT_INTERVAL}.
+     *
+     * @param listener the listener of the events.
+     */
+    public ProgressDispatcher(@NotNull ProgressListener listener) {
+        this(listener, DEFAULT_CAPACITY, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructs a {@code ProgressDispatcher}, and starts its thread.
+     *
+     * @param listener the listener of the events.
+     * @param capacity the number of slots of the ring buffer, rounded up to a power of two.
+     * @param interval the interval between samples of the counters.
+     * @throws IllegalArgumentException if the capacity or the interval isn't positive.
+     */
+    public ProgressDispatcher(@NotNull ProgressListener listener, int capacity, @NotNull Duration interval) {
+        Objects.requireNonNull(listener, "listener must not be null");
+        Objects.requireNonNull(interval, "interval must not be null");
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        if (interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("Interval must be positive");
+
+        int slots = capacity == 1 ? 1 : Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1;
+        this.enabled = true;
+        this.listener = listener;
+        this.intervalNanos = interval.toNanos();
+        this.discovered = new LongAdder();
+        this.validated = new LongAdder();
+        this.bytes = new LongAdder();
+        this.mask = slots - 1;
+        this.types = new int[slots];
+        this.stages = new String[slots];
+        this.values = new long[slots * VALUES];
+        this.published = new AtomicLongArray(slots);
+        this.tail = new AtomicLong();
+        this.droppedEvents = new LongAdder();
+
+        this.thread = new Thread(this::run, "progress-dispatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the dispatcher recording nothing.
+     */
+    @NotNull
+    public static ProgressDispatcher none() {
+        return InstanceHolder.none;
+    }
+
+    /**
+     * @return {@code true} unless this is the dispatcher returned by {@link #none()}.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records files found by a directory walk, or given directly.
+     *
+     * @param count the number of files.
+     */
+    public void filesDiscovered(long count) {
+        if (enabled) discovered.add(count);
+    }
+
+    /**
+     * Records distinct files accepted by validation.
+     *
+     * @param count the number of files.
+     */
+    public void filesValidated(long count) {
+        if (enabled) validated.add(count);
+    }
+
+    /**
+     * Records bytes read to compare file contents.
+     *
+     * @param count the number of bytes.
+     */
+    public void bytesRead(long count) {
+        if (enabled) bytes.add(count);
+    }
+
+    /**
+     * Starts a stage, recording a {@link ProgressEvent.StageStarted}.
+     *
+     * @param name the name of the stage.
+     * @param groups the number of groups entering the stage.
+     * @param files the number of files in these groups.
+     * @return the stage, to record its progress and finish.
+     */
+    @NotNull
+    public Stage stage(@NotNull String name, int groups, long files) {
+        if (!enabled) return Stage.NONE;
+
+        Objects.requireNonNull(name, "name must not be null");
+        Stage stage = new Stage(this, name, groups, files);
+        offer(STAGE_STARTED, name, true, groups, files, 0, 0, 0);
+        return stage;
+    }
+
+    /**
+     * @return the number of {@link ProgressEvent.GroupsProcessed} events dropped, because the buffer was full.
+     */
+    public long dropped() {
+        return enabled ? droppedEvents.sum() : 0;
+    }
+
+    /**
+     * Delivers the recorded events, and stops the dispatcher thread. Events recorded afterwards are ignored.
+     */
+    @Override
+    public void close() {
+        if (!enabled || closed) return;
+
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes an event to the next slot of the buffer.
+     *
+     * @param wait whether to wait for a free slot, instead of dropping the event when the buffer is full.
+     *             An interrupted thread doesn't wait, and skips the event.
+     */
+    private void offer(int type, String stage, boolean wait, long v0, long v1, long v2, long v3, long v4) {
+        long seq;
+        while (true) {
+            if (closed) return;
+
+            seq = tail.get();
+            if (seq - head > mask) {
+                if (!wait) {
+                    droppedEvents.increment();
+                    return;
+                }
+                if (Thread.currentThread().isInterrupted()) return;
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                continue;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) break;
+        }
+
+        int slot = (int) (seq & mask), base = slot * VALUES;
+        types[slot] = type;
+        stages[slot] = stage;
+        values[base] = v0;
+        values[base + 1] = v1;
+        values[base + 2] = v2;
+        values[base + 3] = v3;
+        values[base + 4] = v4;
+        published.set(slot, seq + 1); // Publishes the plain writes above.
+    }
+
+    private void run() {
+        while (true) {
+            boolean stopping = closed;
+            if (drain() > 0) continue;
+
+            sample();
+            if (stopping) return;
+            LockSupport.parkNanos(this, intervalNanos);
+        }
+    }
+
+    /**
+     * Delivers the published events, in order.
+     *
+     * @return the number of events delivered.
+     */
+    private int drain() {
+        int count = 0;
+        while (true) {
+            long h = head;
+            int slot = (int) (h & mask), base = slot * VALUES;
+            if (published.get(slot) != h + 1) return count;
+
+            String stage = stages[slot];
+            ProgressEvent event = switch (types[slot]) {
+                case STAGE_STARTED -> new ProgressEvent.StageStarted(stage, (int) values[base], values[base + 1]);
+                case GROUPS_PROCESSED -> new ProgressEvent.GroupsProcessed(stage, (int) values[base], (int) values[base + 1],
+                        values[base + 2], values[base + 3], values[base + 4]);
+                case STAGE_FINISHED -> new ProgressEvent.StageFinished(stage, (int) values[base], (int) values[base + 1],
+                        values[base + 2], values[base + 3], values[base + 4]);
+                default -> throw new IllegalStateException("Unknown event type: " + types[slot]);
+            };
+            stages[slot] = null;
+            head = h + 1; // Frees the slot, after it's read.
+
+            if (!(event instanceof ProgressEvent.GroupsProcessed)) sample(); // Counters are up to date at stage boundaries.
+            deliver(event);
+            count++;
+        }
+    }
+
+    /**
+     * Delivers the counters that changed since they were last delivered.
+     */
+    private void sample() {
+        long d = discovered.sum(), v = validated.sum(), b = bytes.sum();
+        if (d != discoveredSent) deliver(new ProgressEvent.FilesDiscovered(discoveredSent = d));
+        if (v != validatedSent) deliver(new ProgressEvent.FilesValidated(validatedSent = v));
+        if (b != bytesSent) deliver(new ProgressEvent.BytesRead(bytesSent = b));
+    }
+
+    private void deliver(ProgressEvent event) {
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            logger.warn("Progress listener failed on {}", event, e);
+        }
+    }
+
+    /**
+     * A stage of a run, e.g. the initial division or an algorithm, tracking the groups processed in it.
+     * Methods may be called concurrently.
+     */
+    public static final class Stage {
+
+        private static final Stage NONE = new Stage(null, null, 0, 0);
+
+        private final ProgressDispatcher dispatcher;
+        private final String name;
+        private final int groups;
+        private final long files;
+        private final long start;
+        private final AtomicInteger done;
+        private final AtomicLong filesDone;
+
+        private Stage(ProgressDispatcher dispatcher, String name, int groups, long files) {
+            this.dispatcher = dispatcher;
+            this.name = name;
+            this.groups = groups;
+            this.files = files;
+            this.start = dispatcher == null ? 0 : System.nanoTime();
+            this.done = dispatcher == null ? null : new AtomicInteger();
+            this.filesDone = dispatcher == null ? null : new AtomicLong();
+        }
+
+        /**
+         * Records a processed group, as a {@link ProgressEvent.GroupsProcessed}.
+         *
+         * @param files the number of files in the group.
+         */
+        public void groupDone(long files) {
+            if (dispatcher == null) return;
+
+            int d = done.incrementAndGet();
+            long f = filesDone.addAndGet(files);
+            dispatcher.offer(GROUPS_PROCESSED, name, false, d, groups, f, this.files, System.nanoTime() - start);
+        }
+
+        /**
+         * Finishes the stage, recording a {@link ProgressEvent.StageFinished}.
+         *
+         * @param groupsOut the number of groups left after the stage.
+         * @param filesOut the number of files in these groups.
+         */
+        public void finish(int groupsOut, long filesOut) {
+            if (dispatcher == null) return;
+
+            dispatcher.offer(STAGE_FINISHED, name, true, groups, groupsOut, files, filesOut, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package pl.magzik.progress;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+
+/**
+ * An event of a run, delivered to a {@link ProgressListener}.
+ * <p>
+ * Counters, i.e. {@link FilesDiscovered}, {@link FilesValidated} and {@link BytesRead}, carry running totals,
+ * sampled by the dispatcher, so a listener may skip any of them. Stages are reported by a {@link StageStarted},
+ * any number of {@link GroupsProcessed} and a {@link StageFinished}, unless the run failed or was cancelled.
+ * </p>
+ */
+public sealed interface ProgressEvent {
+
+    /**
+     * @param total the number of files found so far, before validation.
+     */
+    record FilesDiscovered(long total) implements ProgressEvent {}
+
+    /**
+     * @param total the number of distinct files accepted so far.
+     */
+    record FilesValidated(long total) implements ProgressEvent {}
+
+    /**
+     * @param total the number of bytes read so far to compare file contents.
+     */
+    record BytesRead(long total) implements ProgressEvent {}
+
+    /**
+     * @param stage the name of the stage, e.g. {@code divide} or the simple name of an algorithm.
+     * @param groups the number of groups entering the stage.
+     * @param files the number of files in these groups.
+     */
+    record StageStarted(@NotNull String stage, int groups, long files) implements ProgressEvent {}
+
+    /**
+     * @param stage the name of the stage.
+     * @param done the number of groups processed so far.
+     * @param total the number of groups entering the stage.
+     * @param filesDone the number of files in the processed groups.
+     * @param filesTotal the number of files entering the stage.
+     * @param elapsedNanos the time since the stage started.
+     */
+    record GroupsProcessed(@NotNull String stage, int done, int total, long filesDone, long filesTotal, long elapsedNanos) implements ProgressEvent {
+
+        /**
+         * @return the number of files processed per second so far.
+         */
+        public double filesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : filesDone * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Estimates the time left in the stage, assuming the remaining files are processed at the rate so far.
+         *
+         * @return the estimate, or {@code null} if no file has been processed yet.
+         */
+        @Nullable
+        public Duration eta() {
+            if (filesDone <= 0) return null;
+            return Duration.ofNanos((long) ((double) elapsedNanos / filesDone * Math.max(0, filesTotal - filesDone)));
+        }
+    }
+
+    /**
+     * @param stage the name of the stage.
+     * @param groupsIn the number of groups entering the stage.
+     * @param groupsOut the number of groups left after the stage.
+     * @param filesIn the number of files entering the stage.
+     * @param filesOut the number of files left after the stage.
+     * @param elapsedNanos the duration of the stage.
+     */
+    record StageFinished(@NotNull String stage, int groupsIn, int groupsOut, long filesIn, long filesOut, long elapsedNanos) implements ProgressEvent {
+
+        /**
+         * @return the number of files the stage found to have no duplicate.
+         */
+        public long filesEliminated() {
+            return filesIn - filesOut;
+        }
+
+        /**
+         * @return the duration of the stage.
+         */
+        @NotNull
+        public Duration elapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package pl.magzik.progress;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the {@link ProgressEvent}s of a run, delivered by a {@link ProgressDispatcher}.
+ * <p>
+ * Events are delivered one at a time, in order, on the thread of the dispatcher, never on the threads doing the work.
+ * A slow listener delays the events, not the run.
+ * </p>
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Handles an event.
+     *
+     * @param event the event.
+     */
+    void onEvent(@NotNull ProgressEvent event);
+}
@@ -0,0 +1,94 @@
+package pl.magzik.report;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reads a report written by the {@link BinaryReportWriter} one group at a time, so a report never has to be held
+ * in memory as a whole.
+ * <p>
+ * Readers aren't thread-safe.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * try (BinaryReportReader reader = new BinaryReportReader(new BufferedInputStream(Files.newInputStream(Path.of("report.bin"))))) {
+ *     for (BinaryReportReader.Group group = reader.next(); group != null; group = reader.next()) {
+ *         System.out.println(group.paths().getFirst() + ": " + (group.paths().size() - 1) + " duplicates");
+ *     }
+ * }
+ * }</pre>
+ */
+public final class BinaryReportReader implements Closeable {
+
+    private final DataInputStream in;
+    private boolean finished;
+
+    /**
+     * Constructs a {@code BinaryReportReader} and reads the header of the report.
+     * The stream isn't buffered by the reader, and is read no further than the end of the report.
+     *
+     * @param in the stream to read, closed with the reader, but not if the header couldn't be read.
+     * @throws IOException if the stream couldn't be read, or isn't a report of a supported version.
+     */
+    public BinaryReportReader(@NotNull InputStream in) throws IOException {
+        Objects.requireNonNull(in, "in must not be null");
+        this.in = new DataInputStream(in);
+        BinaryReportWriter.readHeader(this.in);
+    }
+
+    /**
+     * Reads the next group.
+     *
+     * @return the group, or {@code null} once the end of the report is reached.
+     * @throws IOException if the stream couldn't be read, or the report is truncated.
+     */
+    @Nullable
+    public Group next() throws IOException {
+        if (finished) return null;
+
+        try {
+            int size = in.readInt();
+            if (size <= 0) {
+                finished = true;
+                return null;
+            }
+
+            boolean scored = in.readBoolean();
+            String[] paths = new String[size];
+            for (int m = 0; m < size; m++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                paths[m] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            float[] scores = scored ? new float[size] : null;
+            for (int m = 0; scored && m < size; m++) scores[m] = in.readFloat();
+            return new Group(List.of(paths), scores);
+        } catch (EOFException e) {
+            throw new IOException("Report is truncated", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * A group of a report.
+     *
+     * @param paths the paths of the files, the original first.
+     * @param scores the similarity of each file to the original, or {@code null}.
+     */
+    public record Group(@NotNull List<String> paths, @Nullable float[] scores) {}
+}
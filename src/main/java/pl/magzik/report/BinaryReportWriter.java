@@ -0,0 +1,85 @@
+package pl.magzik.report;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes a report in a compact binary format, read back by {@link DuplicateReport#read(java.io.InputStream)},
+ * or streamed by a {@link BinaryReportReader}.
+ * <p>
+ * The report starts with the magic {@code PCDR} and a version, followed by the groups. Each group is
+ * the number of files, a flag telling whether it has scores, the length-prefixed UTF-8 paths, the original first,
+ * and the scores, if any. A group of zero files, written on {@link #close()}, ends the report,
+ * so a truncated report is detected on reading.
+ * </p>
+ */
+public final class BinaryReportWriter extends ReportWriter {
+
+    private static final int MAGIC = 0x50434452; // "PCDR"
+    private static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private boolean closed;
+
+    /**
+     * Constructs a {@code BinaryReportWriter} and writes the header of the report.
+     *
+     * @param out the stream to write to, closed with the writer.
+     * @throws IOException if the header couldn't be written.
+     */
+    public BinaryReportWriter(@NotNull OutputStream out) throws IOException {
+        Objects.requireNonNull(out, "out must not be null");
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+    @Override
+    protected void write(@NotNull List<String> paths, @Nullable float[] scores) throws IOException {
+        out.writeInt(paths.size());
+        out.writeBoolean(scores != null);
+        for (String path : paths) {
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        if (scores != null) for (float score : scores) out.writeFloat(score);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try (out) {
+            out.writeInt(0);
+        }
+    }
+
+    /**
+     * Reads and verifies the header of a report.
+     *
+     * @param in the stream to read.
+     * @throws IOException if the stream couldn't be read, or isn't a report of a supported version.
+     */
+    static void readHeader(@NotNull DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a duplicate report");
+
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported report version: " + version);
+    }
+}
@@ -0,0 +1,295 @@
+package pl.magzik.report;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A compact, columnar result of duplicate detection.
+ * <p>
+ * Instead of a {@code Map<File, Set<File>>}, with an entry, a set and a {@link File} per path, the report keeps:
+ * </p>
+ * <ul>
+ *     <li>a table of distinct paths, stored as UTF-8 bytes in a single array, with an offset per path,</li>
+ *     <li>the members of all groups, as indices into the path table, with the original first in each group,</li>
+ *     <li>the offset of each group in the members, and optionally a similarity score per member.</li>
+ * </ul>
+ * <p>
+ * Reports are built with a {@link Builder}, written with a {@link ReportWriter}, and read back with {@link #read(InputStream)}
+ * from the binary format of the {@link BinaryReportWriter}.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * DuplicateReport report = processor.report(files);
+ * for (int g = 0; g < report.groupCount(); g++) {
+ *     System.out.println(report.original(g) + ": " + (report.size(g) - 1) + " duplicates");
+ * }
+ * try (ReportWriter writer = new NdjsonReportWriter(Files.newOutputStream(Path.of("report.ndjson")))) {
+ *     report.writeTo(writer);
+ * }
+ * }</pre>
+ */
+public final class DuplicateReport {
+
+    private final byte[] pathData;
+    private final int[] pathOffsets;
+    private final int[] groupOffsets;
+    private final int[] members;
+    private final float[] scores;
+
+    private DuplicateReport(byte[] pathData, int[] pathOffsets, int[] groupOffsets, int[] members, float[] scores) {
+        this.pathData = pathData;
+        this.pathOffsets = pathOffsets;
+        this.groupOffsets = groupOffsets;
+        this.members = members;
+        this.scores = scores;
+    }
+
+    /**
+     * @return a new, empty builder.
+     */
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    public int groupCount() {
+        return groupOffsets.length - 1;
+    }
+
+    /**
+     * @return the number of distinct paths.
+     */
+    public int pathCount() {
+        return pathOffsets.length - 1;
+    }
+
+    /**
+     * @param group the index of the group.
+     * @return the number of files in the group, including the original.
+     */
+    public int size(int group) {
+        Objects.checkIndex(group, groupCount());
+        return groupOffsets[group + 1] - groupOffsets[group];
+    }
+
+    /**
+     * @param group the index of the group.
+     * @param member the index of the file in the group, {@code 0} for the original.
+     * @return the path of the file.
+     */
+    @NotNull
+    public String path(int group, int member) {
+        return path(members[index(group, member)]);
+    }
+
+    /**
+     * @param group the index of the group.
+     * @return the path of the original file of the group.
+     */
+    @NotNull
+    public String original(int group) {
+        return path(group, 0);
+    }
+
+    /**
+     * @param group the index of the group.
+     * @param member the index of the file in the group, {@code 0} for the original.
+     * @return the similarity of the file to the original, or {@link Float#NaN} if the report has no scores.
+     */
+    public float score(int group, int member) {
+        int i = index(group, member);
+        return scores == null ? Float.NaN : scores[i];
+    }
+
+    /**
+     * @return {@code true} if the report has similarity scores.
+     */
+    public boolean hasScores() {
+        return scores != null;
+    }
+
+    /**
+     * Converts the report to the map returned by {@link pl.magzik.Processor#process(java.util.Collection)}.
+     *
+     * @return a new map of the original files to their duplicates.
+     */
+    @NotNull
+    public Map<File, Set<File>> toMap() {
+        Map<File, Set<File>> result = HashMap.newHashMap(groupCount());
+        for (int g = 0; g < groupCount(); g++) {
+            Set<File> duplicates = HashSet.newHashSet(size(g) - 1);
+            for (int m = 1; m < size(g); m++) duplicates.add(new File(path(g, m)));
+            result.put(new File(original(g)), duplicates);
+        }
+        return result;
+    }
+
+    /**
+     * Writes every group of the report. The writer isn't closed.
+     *
+     * @param writer the writer.
+     * @throws IOException if the groups couldn't be written.
+     */
+    public void writeTo(@NotNull ReportWriter writer) throws IOException {
+        Objects.requireNonNull(writer, "writer must not be null");
+
+        for (int g = 0; g < groupCount(); g++) {
+            int size = size(g);
+            String[] paths = new String[size];
+            for (int m = 0; m < size; m++) paths[m] = path(g, m);
+            float[] groupScores = scores == null ? null : Arrays.copyOfRange(scores, groupOffsets[g], groupOffsets[g + 1]);
+            writer.writeGroup(List.of(paths), groupScores);
+        }
+    }
+
+    /**
+     * Reads a report written by the {@link BinaryReportWriter}.
+     *
+     * @param in the stream to read, which isn't closed.
+     * @return the report.
+     * @throws IOException if the stream couldn't be read, isn't a report, or is truncated.
+     */
+    @NotNull
+    public static DuplicateReport read(@NotNull InputStream in) throws IOException {
+        BinaryReportReader reader = new BinaryReportReader(in); // Not closed, the stream belongs to the caller.
+        Builder builder = builder();
+        for (BinaryReportReader.Group group = reader.next(); group != null; group = reader.next()) {
+            builder.addGroup(group.paths(), group.scores());
+        }
+        return builder.build();
+    }
+
+    private int index(int group, int member) {
+        Objects.checkIndex(member, size(group));
+        return groupOffsets[group] + member;
+    }
+
+    private String path(int id) {
+        return new String(pathData, pathOffsets[id], pathOffsets[id + 1] - pathOffsets[id], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "DuplicateReport[groups=" + groupCount() + ", files=" + members.length + ", paths=" + pathCount() + "]";
+    }
+
+    /**
+     * Builds a {@link DuplicateReport} group by group. Paths added with {@link #addGroup(List, float[])} are interned,
+     * so each distinct path is stored once. Callers whose groups are already disjoint, such as the {@link pl.magzik.Processor},
+     * should use {@link #appendGroup(List, float[])} instead, which stores the paths without keeping a map of them.
+     */
+    public static final class Builder {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private byte[] pathData = new byte[1024];
+        private int[] pathOffsets = new int[64];
+        private int[] groupOffsets = new int[64];
+        private int[] members = new int[64];
+        private float[] scores;
+        private int pathCount, groupCount, memberCount;
+
+        private Builder() {}
+
+        /**
+         * Adds a group of files.
+         *
+         * @param paths the paths of the files, the original first.
+         * @param scores the similarity of each file to the original, or {@code null}.
+         *               Either all groups or none must have scores.
+         * @return this builder.
+         * @throws IllegalArgumentException if the group has fewer than two files, or the scores don't match the files.
+         */
+        @NotNull
+        public Builder addGroup(@NotNull List<String> paths, @Nullable float[] scores) {
+            return add(paths, scores, true);
+        }
+
+        /**
+         * Adds a group of files without interning their paths, so the paths aren't kept in a map while the report is built.
+         * Each path is stored as a new entry, so it must not occur in any other group.
+         *
+         * @param paths the paths of the files, the original first, none of them in other groups.
+         * @param scores the similarity of each file to the original, or {@code null}.
+         *               Either all groups or none must have scores.
+         * @return this builder.
+         * @throws IllegalArgumentException if the group has fewer than two files, or the scores don't match the files.
+         */
+        @NotNull
+        public Builder appendGroup(@NotNull List<String> paths, @Nullable float[] scores) {
+            return add(paths, scores, false);
+        }
+
+        private Builder add(List<String> paths, float[] scores, boolean intern) {
+            Objects.requireNonNull(paths, "paths must not be null");
+            if (paths.size() < 2) throw new IllegalArgumentException("Group must have at least two files");
+            if (scores != null && scores.length != paths.size()) throw new IllegalArgumentException("Scores must match the files");
+            if (groupCount > 0 && (scores != null) != (this.scores != null)) throw new IllegalArgumentException("Either all groups or none must have scores");
+
+            if (scores != null && this.scores == null) this.scores = new float[members.length];
+            if (memberCount + paths.size() > members.length) {
+                int capacity = Math.max(members.length * 2, memberCount + paths.size());
+                members = Arrays.copyOf(members, capacity);
+                if (this.scores != null) this.scores = Arrays.copyOf(this.scores, capacity);
+            }
+
+            for (int i = 0; i < paths.size(); i++) {
+                members[memberCount] = intern ? intern(paths.get(i)) : append(paths.get(i));
+                if (scores != null) this.scores[memberCount] = scores[i];
+                memberCount++;
+            }
+
+            if (groupCount + 2 > groupOffsets.length) groupOffsets = Arrays.copyOf(groupOffsets, groupOffsets.length * 2);
+            groupOffsets[++groupCount] = memberCount;
+            return this;
+        }
+
+        /**
+         * @return the report of all groups added so far.
+         */
+        @NotNull
+        public DuplicateReport build() {
+            return new DuplicateReport(
+                Arrays.copyOf(pathData, pathOffsets[pathCount]),
+                Arrays.copyOf(pathOffsets, pathCount + 1),
+                Arrays.copyOf(groupOffsets, groupCount + 1),
+                Arrays.copyOf(members, memberCount),
+                scores == null ? null : Arrays.copyOf(scores, memberCount)
+            );
+        }
+
+        private int intern(String path) {
+            Integer id = ids.get(path);
+            if (id != null) return id;
+
+            ids.put(path, pathCount);
+            return append(path);
+        }
+
+        private int append(String path) {
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            int start = pathOffsets[pathCount];
+            if (start + bytes.length > pathData.length) pathData = Arrays.copyOf(pathData, Math.max(pathData.length * 2, start + bytes.length));
+            System.arraycopy(bytes, 0, pathData, start, bytes.length);
+
+            if (pathCount + 2 > pathOffsets.length) pathOffsets = Arrays.copyOf(pathOffsets, pathOffsets.length * 2);
+            pathOffsets[pathCount + 1] = start + bytes.length;
+            return pathCount++;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package pl.magzik.report;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes a report as newline-delimited JSON, one object per group:
+ * <pre>{@code
+ * {"original":"a.png","duplicates":["b.png","c.png"]}
+ * {"original":"d.png","duplicates":["e.png"],"scores":[1.0,0.97]}
+ * }</pre>
+ * Scores, when present, include the original as the first element. Every complete line is a valid group,
+ * so a report cut short by a crash may still be read up to its last line.
+ */
+public final class NdjsonReportWriter extends ReportWriter {
+
+    private final Writer out;
+
+    /**
+     * Constructs a {@code NdjsonReportWriter}.
+     *
+     * @param out the stream to write to, closed with the writer.
+     */
+    public NdjsonReportWriter(@NotNull OutputStream out) {
+        Objects.requireNonNull(out, "out must not be null");
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void write(@NotNull List<String> paths, @Nullable float[] scores) throws IOException {
+        out.write("{\"original\":");
+        string(paths.getFirst());
+        out.write(",\"duplicates\":[");
+        for (int i = 1; i < paths.size(); i++) {
+            if (i > 1) out.write(',');
+            string(paths.get(i));
+        }
+        out.write(']');
+
+        if (scores != null) {
+            out.write(",\"scores\":[");
+            for (int i = 0; i < scores.length; i++) {
+                if (i > 0) out.write(',');
+                out.write(Float.isFinite(scores[i]) ? Float.toString(scores[i]) : "null");
+            }
+            out.write(']');
+        }
+        out.write("}\n");
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) out.write(String.format("\\u%04x", (int) c));
+                    else out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
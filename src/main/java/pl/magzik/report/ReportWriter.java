@@ -0,0 +1,84 @@
+package pl.magzik.report;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import pl.magzik.Processor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes groups of duplicates to a stream, one at a time, so a result never has to be held in memory as a whole.
+ * <p>
+ * A writer is also a {@link Processor.ResultListener}, so it may be passed to {@link Processor#report(java.util.Collection, ReportWriter)}
+ * to write every group as soon as it's complete. Closing the writer finishes the report and closes the underlying stream.
+ * </p>
+ * <p>
+ * Writers aren't thread-safe.
+ * </p>
+ *
+ * @see NdjsonReportWriter
+ * @see BinaryReportWriter
+ */
+public abstract class ReportWriter implements Processor.ResultListener, Closeable, Flushable {
+
+    private long groups;
+
+    /**
+     * Writes a group of files.
+     *
+     * @param paths the paths of the files, the original first.
+     * @param scores the similarity of each file to the original, or {@code null}.
+     * @throws IOException if the group couldn't be written.
+     * @throws IllegalArgumentException if the group has fewer than two files, or the scores don't match the files.
+     */
+    public final void writeGroup(@NotNull List<String> paths, @Nullable float[] scores) throws IOException {
+        Objects.requireNonNull(paths, "paths must not be null");
+        if (paths.size() < 2) throw new IllegalArgumentException("Group must have at least two files");
+        if (scores != null && scores.length != paths.size()) throw new IllegalArgumentException("Scores must match the files");
+
+        write(paths, scores);
+        groups++;
+    }
+
+    /**
+     * Writes the group, without scores.
+     *
+     * @throws UncheckedIOException if the group couldn't be written.
+     */
+    @Override
+    public void onGroup(@NotNull File original, @NotNull Set<File> duplicates) {
+        List<String> paths = new ArrayList<>(duplicates.size() + 1);
+        paths.add(original.getPath());
+        for (File duplicate : duplicates) paths.add(duplicate.getPath());
+
+        try {
+            writeGroup(paths, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of groups written so far.
+     */
+    public long groupCount() {
+        return groups;
+    }
+
+    /**
+     * Writes a validated group in the format of the writer.
+     *
+     * @param paths the paths of the files, the original first.
+     * @param scores the similarity of each file to the original, or {@code null}.
+     * @throws IOException if the group couldn't be written.
+     */
+    protected abstract void write(@NotNull List<String> paths, @Nullable float[] scores) throws IOException;
+}
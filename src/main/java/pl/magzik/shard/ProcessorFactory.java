@@ -0,0 +1,47 @@
+package pl.magzik.shard;
+
+import org.jetbrains.annotations.NotNull;
+import pl.magzik.Processor;
+import pl.magzik.algorithms.Algorithm;
+import pl.magzik.algorithms.PerceptualHash;
+import pl.magzik.algorithms.PixelByPixel;
+import pl.magzik.grouping.CRC32Grouper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Creates the {@link Processor} of a shard worker.
+ * <p>
+ * Workers run in their own processes, so the factory is passed to them by its class name,
+ * and must be a public class with a public no-argument constructor.
+ * </p>
+ */
+@FunctionalInterface
+public interface ProcessorFactory {
+
+    /**
+     * @return a new processor.
+     * @throws IOException if the processor couldn't be created.
+     */
+    @NotNull
+    Processor create() throws IOException;
+
+    /**
+     * The default factory, creating a processor with the {@link CRC32Grouper}, {@link PerceptualHash} and {@link PixelByPixel}.
+     */
+    final class Default implements ProcessorFactory {
+
+        /**
+         * Constructs the default factory.
+         */
+        public Default() {}
+
+        @NotNull
+        @Override
+        public Processor create() {
+            List<Algorithm<?>> algorithms = List.of(new PerceptualHash(), new PixelByPixel());
+            return new Processor(new CRC32Grouper(), algorithms);
+        }
+    }
+}
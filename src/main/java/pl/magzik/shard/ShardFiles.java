@@ -0,0 +1,65 @@
+package pl.magzik.shard;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the input lists of shards: the number of files, followed by their length-prefixed UTF-8 paths.
+ */
+final class ShardFiles {
+
+    private ShardFiles() {}
+
+    /**
+     * Writes the input list of a shard.
+     *
+     * @param path the list file.
+     * @param files the files of the shard.
+     * @throws IOException if the list couldn't be written.
+     */
+    static void write(@NotNull Path path, @NotNull List<File> files) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(files.size());
+            for (File file : files) {
+                byte[] bytes = file.getPath().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the input list of a shard.
+     *
+     * @param path the list file.
+     * @return the files of the shard.
+     * @throws IOException if the list couldn't be read, or is truncated.
+     */
+    @NotNull
+    static List<File> read(@NotNull Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int count = in.readInt();
+            List<File> files = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                files.add(new File(new String(bytes, StandardCharsets.UTF_8)));
+            }
+            return files;
+        } catch (EOFException e) {
+            throw new IOException("Shard input list is truncated: " + path, e);
+        }
+    }
+}
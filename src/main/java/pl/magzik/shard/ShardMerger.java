@@ -0,0 +1,146 @@
+package pl.magzik.shard;
+
+import org.jetbrains.annotations.NotNull;
+import pl.magzik.report.BinaryReportReader;
+import pl.magzik.report.DuplicateReport;
+import pl.magzik.report.ReportWriter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the binary reports of shards into a single report, deterministically.
+ * <p>
+ * The files of each group are sorted by path, and the first is the original. Every shard worker writes its groups
+ * in the order of their originals, see {@link #writeSorted(DuplicateReport, ReportWriter)}, so the merger streams
+ * the shard reports side by side, holding a single group of each shard in memory. The merged report depends only on
+ * the groups, not on the number of shards or on the order in which the workers found them.
+ * </p>
+ */
+public final class ShardMerger {
+
+    private ShardMerger() {}
+
+    /**
+     * Merges the shard reports.
+     *
+     * @param reports the binary reports of the shards, each written by {@link #writeSorted(DuplicateReport, ReportWriter)}.
+     * @param output the writer of the merged report, which isn't closed.
+     * @throws IOException if a report couldn't be read, isn't sorted, or the merged report couldn't be written.
+     */
+    public static void merge(@NotNull List<Path> reports, @NotNull ReportWriter output) throws IOException {
+        Objects.requireNonNull(reports, "reports must not be null");
+        Objects.requireNonNull(output, "output must not be null");
+
+        List<Cursor> cursors = new ArrayList<>(reports.size());
+        try {
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(Comparator.comparing(Cursor::head));
+            for (Path report : reports) {
+                Cursor cursor = Cursor.open(report);
+                cursors.add(cursor);
+                if (cursor.advance()) queue.add(cursor);
+            }
+
+            while (!queue.isEmpty()) {
+                Cursor cursor = queue.poll();
+                output.writeGroup(cursor.group, null);
+                if (cursor.advance()) queue.add(cursor);
+            }
+        } finally {
+            IOException failure = null;
+            for (Cursor cursor : cursors) {
+                try {
+                    cursor.reader.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Writes the groups of a shard in the order expected by {@link #merge(List, ReportWriter)}: the files of each group
+     * sorted by path, and the groups sorted by their first file, the original.
+     *
+     * @param report the groups of the shard.
+     * @param output the writer of the shard report, which isn't closed.
+     * @throws IOException if the report couldn't be written.
+     */
+    static void writeSorted(@NotNull DuplicateReport report, @NotNull ReportWriter output) throws IOException {
+        String[] originals = new String[report.groupCount()];
+        Integer[] order = new Integer[report.groupCount()];
+        for (int g = 0; g < originals.length; g++) {
+            String min = report.path(g, 0);
+            for (int m = 1; m < report.size(g); m++) {
+                String path = report.path(g, m);
+                if (path.compareTo(min) < 0) min = path;
+            }
+            originals[g] = min; // Only the original is kept, the other paths are decoded from the report when written.
+            order[g] = g;
+        }
+        Arrays.sort(order, Comparator.comparing(g -> originals[g]));
+
+        for (int g : order) {
+            String[] group = new String[report.size(g)];
+            for (int m = 0; m < group.length; m++) group[m] = report.path(g, m);
+            Arrays.sort(group);
+            output.writeGroup(List.of(group), null);
+        }
+    }
+
+    /**
+     * Streams the groups of a shard report, checking they come in the order of their originals.
+     */
+    private static final class Cursor {
+
+        private final Path path;
+        private final BinaryReportReader reader;
+        private List<String> group;
+
+        private Cursor(Path path, BinaryReportReader reader) {
+            this.path = path;
+            this.reader = reader;
+        }
+
+        private static Cursor open(Path path) throws IOException {
+            InputStream in = new BufferedInputStream(Files.newInputStream(path));
+            try {
+                return new Cursor(path, new BinaryReportReader(in));
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        private String head() {
+            return group.getFirst();
+        }
+
+        /**
+         * Reads the next group.
+         *
+         * @return {@code false} once the report is finished.
+         * @throws IOException if the report couldn't be read, or its groups aren't sorted.
+         */
+        private boolean advance() throws IOException {
+            BinaryReportReader.Group next = reader.next();
+            if (next == null) return false;
+
+            String original = next.paths().getFirst();
+            if (group != null && original.compareTo(head()) < 0) throw new IOException("Shard report isn't sorted: " + path);
+            group = next.paths();
+            return true;
+        }
+    }
+}
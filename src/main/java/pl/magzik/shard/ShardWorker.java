@@ -0,0 +1,82 @@
+package pl.magzik.shard;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.Processor;
+import pl.magzik.report.BinaryReportWriter;
+import pl.magzik.report.DuplicateReport;
+import pl.magzik.report.ReportWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * The entry point of a shard worker process, started by the {@link ShardedProcessor}.
+ * <p>
+ * Usage: {@code ShardWorker <factory class> <input list> <output report>}. The worker creates a {@link Processor}
+ * with the factory, processes the files of the input list, and writes the groups as a binary report.
+ * The groups are collected as a compact {@link DuplicateReport}, and written sorted by their originals,
+ * so the {@link ShardMerger} streams the reports of all shards instead of loading them.
+ * The report is written to a temporary file, and renamed into place only when complete, so a report present
+ * at the output path is always complete. The process exits with status {@code 0} on success, and {@code 1} otherwise.
+ * </p>
+ */
+public final class ShardWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+    private ShardWorker() {}
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: ShardWorker <factory class> <input list> <output report>");
+            System.exit(2);
+        }
+
+        try {
+            run(args[0], Path.of(args[1]), Path.of(args[2]));
+        } catch (Exception e) {
+            logger.error("Shard {} failed.", args[1], e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String factoryClass, Path input, Path output) throws Exception {
+        ProcessorFactory factory = Class.forName(factoryClass)
+            .asSubclass(ProcessorFactory.class)
+            .getConstructor()
+            .newInstance();
+        Processor processor = factory.create();
+
+        List<File> files = ShardFiles.read(input);
+        logger.info("Shard {} started with {} files.", input, files.size());
+
+        Path part = output.resolveSibling(output.getFileName() + ".part");
+        DuplicateReport.Builder builder = DuplicateReport.builder();
+        processor.report(files, new ReportWriter() {
+            @Override
+            protected void write(@NotNull List<String> paths, @Nullable float[] scores) {
+                builder.appendGroup(paths, scores); // Final groups are disjoint, no need to intern.
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        });
+
+        try (ReportWriter writer = new BinaryReportWriter(Files.newOutputStream(part))) {
+            ShardMerger.writeSorted(builder.build(), writer);
+            logger.info("Shard {} finished with {} groups.", input, writer.groupCount());
+        }
+        Files.move(part, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
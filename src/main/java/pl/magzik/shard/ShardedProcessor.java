@@ -0,0 +1,174 @@
+package pl.magzik.shard;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.magzik.Processor;
+import pl.magzik.io.FileRecord;
+import pl.magzik.report.ReportWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Processes a collection of files in several worker processes, each with its own {@link Processor} and heap.
+ * <p>
+ * Files are partitioned into shards by a stable hash of their size. Files of different sizes are never
+ * in the same group of a size-based grouper, such as the {@link pl.magzik.grouping.CRC32Grouper}, so the groups of each shard
+ * are self-contained. Each shard is processed by a {@link ShardWorker} started as a local JVM, with the classpath
+ * of the current one, which writes its groups to a binary report. The reports are then combined by the {@link ShardMerger}.
+ * </p>
+ * <p>
+ * Workers refine each group on their own, like {@link Processor#report(Collection, ReportWriter)}, so groups
+ * sharing a key of an algorithm aren't merged across groups of the grouper. The input lists, reports and logs of
+ * the workers are kept in the work directory, {@code shard-<n>.in}, {@code shard-<n>.report} and {@code shard-<n>.log}.
+ * </p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * ShardedProcessor processor = new ShardedProcessor(4);
+ * processor.setJvmOptions(List.of("-Xmx2g"));
+ * try (ReportWriter writer = new NdjsonReportWriter(Files.newOutputStream(Path.of("report.ndjson")))) {
+ *     processor.process(files, Path.of("work"), writer);
+ * }
+ * }</pre>
+ */
+public final class ShardedProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedProcessor.class);
+
+    private final int shards;
+
+    private final String factory;
+
+    private List<String> jvmOptions;
+
+    /**
+     * Constructs a {@code ShardedProcessor} using the {@link ProcessorFactory.Default default} processor.
+     *
+     * @param shards the number of shards, and worker processes.
+     * @throws IllegalArgumentException if the number of shards isn't positive.
+     */
+    public ShardedProcessor(int shards) {
+        this(shards, ProcessorFactory.Default.class);
+    }
+
+    /**
+     * Constructs a {@code ShardedProcessor}.
+     *
+     * @param shards the number of shards, and worker processes.
+     * @param factory the class of the factory creating the processor of each worker.
+     * @throws IllegalArgumentException if the number of shards isn't positive.
+     */
+    public ShardedProcessor(int shards, @NotNull Class<? extends ProcessorFactory> factory) {
+        if (shards <= 0) throw new IllegalArgumentException("Number of shards must be positive");
+        Objects.requireNonNull(factory, "factory must not be null");
+
+        this.shards = shards;
+        this.factory = factory.getName();
+        this.jvmOptions = List.of();
+    }
+
+    /**
+     * Sets the options of the worker JVMs, e.g. their maximum heap sizes.
+     *
+     * @param jvmOptions the options.
+     */
+    @SuppressWarnings("unused")
+    public void setJvmOptions(@NotNull List<String> jvmOptions) {
+        this.jvmOptions = List.copyOf(Objects.requireNonNull(jvmOptions, "jvmOptions must not be null"));
+    }
+
+    /**
+     * Returns the shard of files of the given size. The result is stable across processes and runs.
+     *
+     * @param size the size of the file.
+     * @param shards the number of shards.
+     * @return the index of the shard.
+     */
+    public static int shardOf(long size, int shards) {
+        long h = size; // The finalizer of MurmurHash3.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) shards);
+    }
+
+    /**
+     * Processes the files in the worker processes, and writes the merged groups.
+     *
+     * @param files the files to process.
+     * @param workDirectory the directory of the files of the workers, created if it doesn't exist.
+     * @param output the writer of the merged groups, which isn't closed.
+     * @throws IOException if a worker failed, or the files of the workers couldn't be written or read.
+     * @throws InterruptedIOException if the current thread is interrupted while waiting for the workers,
+     * which are then destroyed.
+     */
+    public void process(@NotNull Collection<File> files, @NotNull Path workDirectory, @NotNull ReportWriter output) throws IOException {
+        Objects.requireNonNull(files, "files must not be null");
+        Objects.requireNonNull(workDirectory, "workDirectory must not be null");
+        Objects.requireNonNull(output, "output must not be null");
+        Files.createDirectories(workDirectory);
+
+        List<List<File>> parts = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) parts.add(new ArrayList<>());
+        for (File file : files) parts.get(shardOf(FileRecord.sizeOf(file), shards)).add(file);
+
+        List<Process> workers = new ArrayList<>();
+        List<Path> reports = new ArrayList<>();
+        try {
+            for (int i = 0; i < shards; i++) {
+                if (parts.get(i).isEmpty()) continue;
+
+                Path input = workDirectory.resolve("shard-" + i + ".in");
+                Path report = workDirectory.resolve("shard-" + i + ".report");
+                ShardFiles.write(input, parts.get(i));
+                Files.deleteIfExists(report);
+
+                workers.add(new ProcessBuilder(command(input, report))
+                    .redirectErrorStream(true)
+                    .redirectOutput(workDirectory.resolve("shard-" + i + ".log").toFile())
+                    .start());
+                reports.add(report);
+                logger.info("Started shard {} with {} files.", i, parts.get(i).size());
+            }
+            parts.clear();
+
+            List<Path> failed = new ArrayList<>();
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i).waitFor() != 0) failed.add(reports.get(i));
+            }
+            if (!failed.isEmpty()) throw new IOException("Shards failed: " + failed + ", see their logs in " + workDirectory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shards");
+        } finally {
+            workers.forEach(Process::destroyForcibly); // No-op for the workers that have exited.
+        }
+
+        logger.info("All {} shards finished, merging.", reports.size());
+        ShardMerger.merge(reports, output);
+    }
+
+    private List<String> command(Path input, Path report) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(factory);
+        command.add(input.toString());
+        command.add(report.toString());
+        return command;
+    }
+}
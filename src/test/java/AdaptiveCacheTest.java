@@ -0,0 +1,112 @@
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.magzik.cache.AdaptiveCache;
+import pl.magzik.cache.CacheSnapshot;
+import pl.magzik.cache.DiskCache;
+import pl.magzik.io.ReadScheduler;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AdaptiveCacheTest {
+
+    private static final File FILE = new File("src/test/files/a-picture.png");
+
+    private AdaptiveCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AdaptiveCache(64 * 1024 * 1024, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void testSnapshot_afterRepeatedGet_shouldRecordHitAndDecode() throws IOException {
+        cache.get(FILE);
+        cache.get(FILE);
+
+        CacheSnapshot snapshot = cache.snapshot();
+
+        assertEquals(1, snapshot.hitCount(), "Second lookup should be a hit");
+        assertEquals(1, snapshot.missCount(), "First lookup should be a miss");
+        assertEquals(1, snapshot.decodedImages(), "Image should be decoded once");
+        assertTrue(snapshot.loadTimeP99() >= snapshot.loadTimeP50(), "Percentiles should be ordered");
+        assertTrue(snapshot.residentBytes() > 0, "Decoded image should be resident");
+    }
+
+    @Test
+    void testEviction_withDiskCache_shouldWriteOnOwnThread() throws IOException {
+        DiskCache disk = mock(DiskCache.class);
+        AtomicReference<String> writer = new AtomicReference<>();
+        doAnswer(i -> {
+            writer.set(Thread.currentThread().getName());
+            return null;
+        }).when(disk).put(eq(FILE), any());
+
+        AdaptiveCache small = new AdaptiveCache(1, disk);
+        try {
+            small.get(FILE); // Heavier than the whole cache, so it's evicted at once.
+            verify(disk, timeout(5_000)).put(eq(FILE), any());
+        } finally {
+            small.close();
+        }
+
+        assertEquals("disk-cache-writer", writer.get(), "Evicted images should be written off the common pool");
+    }
+
+    @Test
+    void testGet_onMiss_shouldReadThroughScheduler() throws IOException {
+        List<File> reads = new ArrayList<>();
+        cache.setScheduler(new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor()) {
+            @Override
+            public <T> T read(@NotNull File file, @NotNull ReadTask<T> task) throws IOException {
+                reads.add(file);
+                return super.read(file, task);
+            }
+        });
+
+        cache.get(FILE);
+        cache.get(FILE);
+
+        assertEquals(List.of(FILE), reads, "Only the miss should be read, through the scheduler");
+    }
+
+    @Test
+    void testClose_shouldReleaseImages() throws IOException {
+        cache.get(FILE);
+        cache.close();
+
+        assertEquals(0, cache.snapshot().residentImages(), "Closed cache should hold no images");
+    }
+
+    @Test
+    void testRegisterMBean_shouldExposeMetrics() throws IOException, JMException {
+        cache.registerMBean("test");
+        cache.get(FILE);
+
+        ObjectName name = new ObjectName("pl.magzik:type=AdaptiveCache,name=\"test\"");
+        Object decoded = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DecodedImages");
+        assertEquals(1L, decoded, "MBean should report the decoded image");
+
+        cache.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name), "MBean should be unregistered on close");
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.io.AdaptiveLimiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testLimitGrowsWithStableLatency() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 64);
+
+        runLoad(limiter, 2000, 16, inFlight -> 200_000L);
+
+        assertTrue(limiter.getLimit() > 2, "Limit should grow while latency is stable, was: " + limiter.getLimit());
+        assertTrue(limiter.getThroughput() > 0);
+    }
+
+    @Test
+    public void testLimitStaysLowWhenLatencyGrowsWithLoad() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64);
+
+        // A device serving 8 operations in parallel, queueing the rest.
+        runLoad(limiter, 4000, 64, inFlight -> 200_000L * Math.max(1, inFlight - 7));
+
+        assertTrue(limiter.getLimit() < 32, "Limit should stay low when the device is queueing, was: " + limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitHoldsWithMixedFileSizes() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1, 64);
+
+        // A device without queueing, reading a directory of large files, then small files,
+        // which take longer per kilobyte, but not longer than they take without load.
+        AtomicInteger count = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int n = count.getAndIncrement(); n < 900; n = count.getAndIncrement()) {
+                        boolean large = n < 100;
+                        limiter.execute(large ? 2048 : 4, () -> {
+                            LockSupport.parkNanos(large ? 20_000_000L : 1_000_000L);
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        }
+
+        assertTrue(limiter.getLimit() >= 12, "Limit shouldn't drop when only the file sizes vary, was: " + limiter.getLimit());
+    }
+
+    @Test
+    public void testDroppedCutsLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 64);
+
+        limiter.acquire().dropped();
+
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1, limiter.getDroppedCount());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private interface Latency {
+        long nanos(int inFlight);
+    }
+
+    private static void runLoad(AdaptiveLimiter limiter, int operations, int callers, Latency latency) throws Exception {
+        AtomicInteger remaining = new AtomicInteger(operations);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(executor.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        limiter.execute(1, () -> {
+                            LockSupport.parkNanos(latency.nanos(limiter.getInFlight()));
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.io.BulkFileOperator;
+import pl.magzik.io.BulkResult;
+import pl.magzik.io.FileOperator;
+import pl.magzik.io.LinkMode;
+import pl.magzik.predicates.ImageFilePredicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BulkFileOperatorTest {
+
+    @Test
+    public void testMoveReportsEveryFile(@TempDir Path dir) throws IOException {
+        Path source = Files.createDirectory(dir.resolve("source"));
+        Path destination = Files.createDirectory(dir.resolve("destination"));
+        List<File> files = create(source, 50);
+        files.add(source.resolve("missing.png").toFile());
+
+        BulkFileOperator operator = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor(), 4);
+        BulkResult result = operator.move(destination.toFile(), files);
+
+        assertEquals(51, result.outcomes().size());
+        assertEquals(50, result.count(BulkResult.Status.DONE));
+        assertEquals(1, result.failures().size());
+        assertEquals(files.getLast(), result.outcomes().getLast().source());
+        assertInstanceOf(NoSuchFileException.class, result.failures().getFirst().error());
+        assertFalse(result.isComplete());
+        assertTrue(Files.exists(destination.resolve("file-0.png")));
+        assertFalse(Files.exists(source.resolve("file-0.png")));
+    }
+
+    @Test
+    public void testFileOperatorPropagatesFailures(@TempDir Path dir) throws IOException {
+        List<File> files = create(dir, 3);
+        files.add(dir.resolve("missing.png").toFile());
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+
+        assertThrows(NoSuchFileException.class, () -> fo.delete(files));
+        assertTrue(files.stream().noneMatch(File::exists));
+    }
+
+    @Test
+    public void testFileOperatorFailsWhenInterrupted(@TempDir Path dir) throws IOException {
+        List<File> files = create(dir, 3);
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> fo.delete(files), "Shouldn't return after a partial run");
+        } finally {
+            assertTrue(Thread.interrupted(), "Should keep the interrupt");
+        }
+        assertTrue(files.stream().allMatch(File::exists));
+    }
+
+    @Test
+    public void testJournalResumesInterruptedJob(@TempDir Path dir) throws IOException {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Path journal = dir.resolve("cleanup.journal");
+        List<File> files = create(data, 4);
+
+        BulkFileOperator operator = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor(), 2);
+        operator.setJournal(journal);
+        assertTrue(operator.delete(files.subList(0, 2)).isComplete());
+
+        // A crash right after the third file was deleted, before it was recorded as done.
+        Files.writeString(journal, "S\tDELETE\t" + files.get(2).toPath() + "\t$\n", StandardOpenOption.APPEND);
+        Files.delete(files.get(2).toPath());
+
+        BulkResult result = operator.delete(files);
+
+        assertTrue(result.isComplete());
+        assertEquals(3, result.count(BulkResult.Status.ALREADY_DONE));
+        assertEquals(1, result.count(BulkResult.Status.DONE));
+        assertFalse(Files.exists(files.get(3).toPath()));
+    }
+
+    @Test
+    public void testJournalIgnoresTruncatedRecord(@TempDir Path dir) throws IOException {
+        Path journal = dir.resolve("cleanup.journal");
+        List<File> files = create(Files.createDirectory(dir.resolve("data")), 2);
+
+        // A crash in the middle of writing the record of the first file as done.
+        Files.writeString(journal, "S\tDELETE\t" + files.get(0).toPath() + "\t$\nD\tDELETE\t" + files.get(0).toPath());
+
+        BulkFileOperator operator = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor(), 2);
+        operator.setJournal(journal);
+        BulkResult result = operator.delete(files);
+
+        assertTrue(result.isComplete());
+        assertEquals(2, result.count(BulkResult.Status.DONE), "Should not treat a truncated record as done");
+        assertTrue(Files.readAllLines(journal).contains("D\tDELETE\t" + files.get(1).toPath() + "\t$"),
+                "Should append new records on a line of their own");
+    }
+
+    @Test
+    public void testLinkReplacesDuplicatesWithHardLinks(@TempDir Path dir) throws IOException {
+        List<File> files = create(dir, 3);
+        Files.writeString(files.get(1).toPath(), "content 0");
+        Files.writeString(files.get(2).toPath(), "content 0");
+        Path unrelated = Files.writeString(dir.resolve("file-1.png.link"), "unrelated");
+        Map<File, Set<File>> duplicates = Map.of(files.get(0), Set.of(files.get(1), files.get(2)));
+
+        BulkFileOperator operator = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor());
+        BulkResult result = operator.link(duplicates, LinkMode.HARD_LINK);
+
+        assertEquals(2, result.count(BulkResult.Status.DONE));
+        assertTrue(Files.isSameFile(files.get(0).toPath(), files.get(1).toPath()));
+        assertTrue(Files.isSameFile(files.get(0).toPath(), files.get(2).toPath()));
+        assertEquals("unrelated", Files.readString(unrelated), "Should never touch other files next to the duplicate");
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(4, left.count(), "Should leave no temporary files behind");
+        }
+        assertEquals(2, operator.link(duplicates, LinkMode.HARD_LINK).count(BulkResult.Status.ALREADY_DONE));
+    }
+
+    @Test
+    public void testLinkFallsBackWithoutReflinks(@TempDir Path dir) throws IOException {
+        List<File> files = create(dir, 2);
+        Files.writeString(files.get(1).toPath(), "content 0");
+
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+        fo.link(Map.of(files.get(0), List.of(files.get(1))), LinkMode.REFLINK_OR_HARD_LINK);
+
+        assertEquals("content 0", Files.readString(files.get(1).toPath()));
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(2, left.count(), "Should leave no temporary files behind");
+        }
+    }
+
+    @Test
+    public void testLinkKeepsDuplicatesWithDifferentContent(@TempDir Path dir) throws IOException {
+        List<File> files = create(dir, 3);
+        Files.writeString(files.get(1).toPath(), "content 9"); // Same size, different bytes.
+        Map<File, Set<File>> duplicates = Map.of(files.get(0), Set.of(files.get(1), files.get(2)));
+
+        BulkResult result = new BulkFileOperator(Executors.newVirtualThreadPerTaskExecutor()).link(duplicates, LinkMode.HARD_LINK);
+
+        assertEquals(2, result.count(BulkResult.Status.FAILED));
+        assertEquals("content 9", Files.readString(files.get(1).toPath()), "Should never replace a file that isn't an exact copy");
+        assertEquals("content 2", Files.readString(files.get(2).toPath()));
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(3, left.count(), "Should leave no temporary files behind");
+        }
+    }
+
+    private static List<File> create(Path dir, int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(Files.writeString(dir.resolve("file-" + i + ".png"), "content " + i).toFile());
+        }
+        return files;
+    }
+}
@@ -1,14 +1,20 @@
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import pl.magzik.grouping.CRC32Grouper;
 import pl.magzik.io.FileOperator;
+import pl.magzik.io.FileRecord;
 import pl.magzik.predicates.ImageFilePredicate;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -73,6 +79,26 @@ public class CRC32GrouperTest {
         assertEquals(2, groupForImage2.size(), "Group for image2 should contain 2 files");
     }
 
+    @Test
+    public void testDivideCollapsesHardLinks(@TempDir Path dir) throws IOException {
+        Path original = Files.copy(Path.of(FILE_2), dir.resolve("original.jpg"));
+        Files.createLink(dir.resolve("link.jpg"), original);
+        Files.copy(Path.of(FILE_2), dir.resolve("copy.jpg"));
+
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 1);
+        List<File> files = List.of(
+            FileRecord.of(original), FileRecord.of(dir.resolve("link.jpg")), FileRecord.of(dir.resolve("copy.jpg"))
+        );
+
+        Set<Set<File>> groupedFiles = new CRC32Grouper().divide(files);
+
+        assertEquals(1, groupedFiles.size(), "Should return 1 group for the copy and one of the links");
+        Set<File> group = groupedFiles.iterator().next();
+        assertEquals(2, group.size(), "Hard links should be collapsed into one file");
+        assertTrue(group.contains(dir.resolve("copy.jpg").toFile()));
+        assertEquals(2, fo.load(dir.toFile()).size(), "Loading should collapse hard links as well");
+    }
+
     @Test
     public void testDivideWithIdenticalFiles() throws IOException {
         List<File> files = images;
@@ -93,4 +119,54 @@ public class CRC32GrouperTest {
                 .orElseThrow(() -> new AssertionError("Group for image2 not found"));
         assertTrue(groupForImage2.contains(image2Copy), "Group for image2 should also contain image2Copy");
     }
+
+    @Test
+    public void testDivideInExternalMemory(@TempDir Path dir) throws IOException {
+        Path spill = Files.createDirectory(dir.resolve("spill"));
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            Path file = dir.resolve("file" + i + ".bin");
+            Files.writeString(file, "content-" + (i % 1000)); // Equal sizes across different contents, too.
+            files.add(file.toFile());
+        }
+
+        CRC32Grouper external = new CRC32Grouper();
+        external.setMemoryBudget(1); // The smallest buffers, so records are spilled and merged in several passes.
+        external.setSpillDirectory(spill);
+        Set<Set<File>> groupedFiles = external.divide(files);
+
+        assertEquals(1000, groupedFiles.size(), "Should return a group for each content");
+        assertEquals(new CRC32Grouper().divide(files), groupedFiles, "Should match the groups found in memory");
+        try (Stream<Path> left = Files.list(spill)) {
+            assertEquals(0, left.count(), "Should delete the temporary files");
+        }
+    }
+
+    @Test
+    public void testDivideInExternalMemoryCollapsesLinksAcrossBatches(@TempDir Path dir) throws IOException {
+        Path spill = Files.createDirectory(dir.resolve("spill"));
+        Path original = Files.writeString(dir.resolve("original.bin"), "linked");
+        List<File> files = new ArrayList<>();
+        files.add(FileRecord.of(original));
+        for (int i = 0; i < 200; i++) { // More than a batch, so the link lands in a later batch than the original.
+            files.add(FileRecord.of(Files.writeString(dir.resolve("file" + i + ".bin"), "unique" + i)));
+        }
+        files.add(FileRecord.of(Files.createLink(dir.resolve("link.bin"), original)));
+
+        CRC32Grouper external = new CRC32Grouper();
+        external.setMemoryBudget(1);
+        external.setSpillDirectory(spill);
+        Set<Set<File>> groupedFiles = external.divide(files);
+
+        assertTrue(groupedFiles.isEmpty(), "Should not group a file with its own hard link");
+
+        Path copy = Files.writeString(dir.resolve("copy.bin"), "linked");
+        files.add(FileRecord.of(copy));
+        groupedFiles = external.divide(files);
+
+        assertEquals(Set.of(Set.of(original.toFile(), copy.toFile())), groupedFiles, "Should keep the first path of the file");
+        for (File file : groupedFiles.iterator().next()) {
+            assertTrue(file instanceof FileRecord record && record.size() == 6, "Should restore the spilled records");
+        }
+    }
 }
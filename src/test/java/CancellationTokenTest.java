@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.execution.CancellationToken;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CancellationTokenTest {
+
+    @Test
+    public void testCallbacksRunOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.onCancel(calls::incrementAndGet);
+        token.onCancel(calls::incrementAndGet).close();
+
+        token.cancel();
+        token.cancel();
+        token.onCancel(calls::incrementAndGet); // Runs at once, the token is already cancelled.
+
+        assertEquals(2, calls.get());
+        assertFalse(token.isDeadlineExceeded());
+        assertThrows(CancellationException.class, token::throwIfCancelled);
+    }
+
+    @Test
+    public void testDeadlineInterruptsBlockedThread() throws InterruptedException {
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(50));
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        Thread blocked = Thread.ofVirtual().start(() -> {
+            CancellationToken.Registration registration = token.onCancel(Thread.currentThread()::interrupt);
+            try (registration) {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "Should interrupt the thread at the deadline");
+        assertTrue(token.isCancelled());
+        assertTrue(token.isDeadlineExceeded());
+        blocked.join();
+    }
+}
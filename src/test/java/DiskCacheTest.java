@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.cache.DiskCache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private DiskCache cache;
+
+    private File source;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cache = new DiskCache(directory.resolve("cache"), 1024 * 1024, 256 * 1024);
+        source = Files.createFile(directory.resolve("image.png")).toFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void testGet_withStoredByteImage_shouldRestoreRaster() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR);
+        image.setRGB(3, 4, 0x123456);
+
+        cache.put(source, image);
+        BufferedImage restored = cache.get(source);
+
+        assertNotNull(restored, "Stored image should be found");
+        assertEquals(image.getType(), restored.getType(), "Image type should be preserved");
+        assertArrayEquals(
+            ((DataBufferByte) image.getRaster().getDataBuffer()).getData(),
+            ((DataBufferByte) restored.getRaster().getDataBuffer()).getData(),
+            "Raster data should be preserved"
+        );
+    }
+
+    @Test
+    void testSharedDirectory_shouldKeepCachesApart() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(1, 2, 0xFF123456);
+        cache.put(source, image);
+
+        DiskCache other = new DiskCache(directory.resolve("cache"), 1024 * 1024, 256 * 1024);
+        other.put(source, image);
+        other.close();
+
+        BufferedImage restored = cache.get(source);
+        assertNotNull(restored, "Another cache in the same directory shouldn't truncate or delete the segments");
+        assertEquals(0xFF123456, restored.getRGB(1, 2));
+        try (var files = Files.list(directory.resolve("cache"))) {
+            assertEquals(4, files.count(), "Only the segments of the other cache should be removed");
+        }
+    }
+
+    @Test
+    void testGet_withStoredIntImage_shouldRestoreRaster() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(7, 7, 0xFF00FF00);
+
+        cache.put(source, image);
+        BufferedImage restored = cache.get(source);
+
+        assertNotNull(restored, "Stored image should be found");
+        assertArrayEquals(
+            ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+            ((DataBufferInt) restored.getRaster().getDataBuffer()).getData(),
+            "Raster data should be preserved"
+        );
+    }
+
+    @Test
+    void testGet_withModifiedSource_shouldMiss() throws IOException {
+        cache.put(source, new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY));
+        Files.writeString(source.toPath(), "changed");
+
+        assertNull(cache.get(source), "Entry of a modified file should not be returned");
+        assertEquals(1, cache.missCount(), "Lookup should be counted as a miss");
+    }
+
+    @Test
+    void testPut_beyondMaximumSize_shouldRecycleOldestSegment() throws IOException {
+        File other = Files.createFile(directory.resolve("other.png")).toFile();
+        BufferedImage noise = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) noise.getRaster().getDataBuffer()).getData();
+        new Random(42).nextBytes(data);
+
+        cache.put(source, noise);
+        for (int i = 0; i < 16; i++) cache.put(other, noise);
+
+        assertNull(cache.get(source), "Entry from a recycled segment should be dropped");
+        assertNotNull(cache.get(other), "Most recent entry should still be available");
+    }
+}
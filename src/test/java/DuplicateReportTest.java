@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.report.BinaryReportWriter;
+import pl.magzik.report.DuplicateReport;
+import pl.magzik.report.NdjsonReportWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DuplicateReportTest {
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        DuplicateReport report = DuplicateReport.builder()
+                .addGroup(List.of("a.png", "b.png", "c.png"), new float[] {1f, .9f, .8f})
+                .addGroup(List.of("d.png", "a.png"), new float[] {1f, .5f})
+                .build();
+        assertEquals(4, report.pathCount(), "Paths should be interned");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+            report.writeTo(writer);
+        }
+        DuplicateReport read = DuplicateReport.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(2, read.groupCount());
+        assertEquals("d.png", read.original(1));
+        assertEquals("a.png", read.path(1, 1));
+        assertEquals(.8f, read.score(0, 2));
+        assertEquals(Map.of(new File("a.png"), Set.of(new File("b.png"), new File("c.png")), new File("d.png"), Set.of(new File("a.png"))), read.toMap());
+
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+        assertThrows(IOException.class, () -> DuplicateReport.read(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void testAppendDisjointGroups() {
+        DuplicateReport report = DuplicateReport.builder()
+                .appendGroup(List.of("a.png", "b.png"), null)
+                .appendGroup(List.of("c.png", "d.png", "e.png"), null)
+                .build();
+
+        assertEquals(5, report.pathCount());
+        assertEquals("c.png", report.original(1));
+        assertEquals("e.png", report.path(1, 2));
+        assertEquals(Map.of(new File("a.png"), Set.of(new File("b.png")), new File("c.png"), Set.of(new File("d.png"), new File("e.png"))), report.toMap());
+    }
+
+    @Test
+    public void testNdjsonEscapesPaths() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NdjsonReportWriter writer = new NdjsonReportWriter(bytes)) {
+            writer.writeGroup(List.of("a\"1.png", "dir\\b.png"), null);
+            writer.onGroup(new File("c.png"), Set.of(new File("d.png")));
+            assertEquals(2, writer.groupCount());
+        }
+
+        assertEquals("""
+                {"original":"a\\"1.png","duplicates":["dir\\\\b.png"]}
+                {"original":"c.png","duplicates":["d.png"]}
+                """, bytes.toString(StandardCharsets.UTF_8));
+    }
+}
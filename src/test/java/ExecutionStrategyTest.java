@@ -0,0 +1,122 @@
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import pl.magzik.Processor;
+import pl.magzik.algorithms.Algorithm;
+import pl.magzik.cache.ImageSource;
+import pl.magzik.execution.ExecutionStrategy;
+import pl.magzik.execution.TaskScope;
+import pl.magzik.grouping.Grouper;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionStrategyTest {
+
+    @Test
+    public void testScopeCancelsSiblingsOnFailure() throws InterruptedException {
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(2, true);
+             TaskScope scope = strategy.openScope()) {
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicBoolean interrupted = new AtomicBoolean();
+
+            scope.fork(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                return null;
+            });
+            scope.fork(() -> {
+                started.await();
+                throw new IllegalStateException("failed");
+            });
+            scope.join();
+
+            assertTrue(scope.isShutdown());
+            assertTrue(interrupted.get(), "Running sibling should be interrupted");
+            ExecutionException e = assertThrows(ExecutionException.class, scope::throwIfFailed);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+    }
+
+    @Test
+    public void testScopeReturnsResults() throws InterruptedException, ExecutionException {
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated();
+             TaskScope scope = strategy.openScope()) {
+            Supplier<Integer> a = scope.fork(() -> 2);
+            Supplier<Integer> b = scope.fork(() -> 3);
+            scope.join();
+            scope.throwIfFailed();
+
+            assertEquals(5, a.get() + b.get());
+        }
+    }
+
+    @Test
+    public void testScopeForksMoreThanPhaserParties() throws InterruptedException, ExecutionException {
+        int count = 200_000; // A Phaser allows at most 65,535 parties.
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(2, true);
+             TaskScope scope = strategy.openScope()) {
+            AtomicInteger runs = new AtomicInteger();
+            for (int i = 0; i < count; i++) scope.fork(runs::incrementAndGet);
+            scope.join();
+            scope.throwIfFailed();
+
+            assertEquals(count, runs.get());
+        }
+    }
+
+    @Test
+    public void testProcessorRunsOnDedicatedPool() throws IOException {
+        File f1 = new File("file1.png"), f2 = new File("file2.png");
+        Grouper grouper = Mockito.mock(Grouper.class);
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(f1, f2)));
+
+        AtomicReference<String> thread = new AtomicReference<>();
+        Algorithm<String> algorithm = g -> {
+            thread.set(Thread.currentThread().getName());
+            return Map.of("key", g);
+        };
+
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(2, true)) {
+            Processor processor = new Processor(grouper, Arrays.asList(algorithm));
+            processor.setExecutionStrategy(strategy);
+
+            assertEquals(1, processor.process(Set.of(f1, f2)).size());
+            assertTrue(thread.get().startsWith("processor-cpu-"), thread.get());
+        }
+    }
+
+    @Test
+    public void testOffloadLoadsOnVirtualThreads() throws Exception {
+        AtomicBoolean virtual = new AtomicBoolean();
+        ImageSource source = file -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            return new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        };
+
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(1, false)) {
+            ImageSource offloaded = strategy.offload(source);
+            ForkJoinPool cpu = strategy.cpu();
+
+            assertNotNull(cpu.submit(() -> offloaded.get(new File("a.png"))).get());
+            assertTrue(virtual.get());
+        }
+    }
+}
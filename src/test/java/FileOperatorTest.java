@@ -0,0 +1,190 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.io.FileOperator;
+import pl.magzik.io.FileRecord;
+import pl.magzik.predicates.ImageFilePredicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileOperatorTest {
+
+    private static final String FILE_DIR = "src/test/files";
+    private static final String FILE_1 = "src/test/files/a-picture.png";
+
+    @Test
+    public void testStreamRemovesDuplicates() throws IOException {
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+
+        List<File> files;
+        try (Stream<File> stream = fo.stream(List.of(new File(FILE_DIR), new File(FILE_1), new File(FILE_DIR)))) {
+            files = stream.toList();
+        }
+
+        assertEquals(6, files.size());
+        assertEquals(files, files.stream().distinct().toList());
+    }
+
+    @Test
+    public void testStreamWithSmallBuffer() throws IOException {
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+        fo.setBufferSize(1);
+
+        try (Stream<File> stream = fo.stream(List.of(new File(FILE_DIR)))) {
+            Iterator<File> it = stream.iterator();
+            assertTrue(it.hasNext());
+            it.next();
+        } // Closing the stream releases the blocked producers.
+
+        assertEquals(6, fo.load(new File(FILE_DIR)).size());
+    }
+
+    @Test
+    public void testStreamEndsWhenBufferIsFullOnCompletion() throws IOException, InterruptedException {
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+        fo.setBufferSize(1);
+
+        List<File> files = new ArrayList<>();
+        try (Stream<File> stream = fo.stream(List.of(new File(FILE_DIR)))) {
+            Iterator<File> it = stream.iterator();
+            while (it.hasNext()) {
+                Thread.sleep(100); // The walk completes while the last file still fills the buffer.
+                files.add(it.next());
+            }
+        }
+
+        assertEquals(6, files.size());
+    }
+
+    @Test
+    public void testLoadFailsWhenInterrupted() {
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> fo.load(new File(FILE_DIR)), "Shouldn't return a partial list");
+        } finally {
+            assertTrue(Thread.interrupted(), "Should keep the interrupt");
+        }
+    }
+
+    @Test
+    public void testLoadRespectsDepth(@TempDir Path dir) throws IOException {
+        Path nested = Files.createDirectories(dir.resolve("a/b/c"));
+        Files.copy(Path.of(FILE_1), dir.resolve("0.png"));
+        Files.copy(Path.of(FILE_1), dir.resolve("a/1.png"));
+        Files.copy(Path.of(FILE_1), dir.resolve("a/b/2.png"));
+        Files.copy(Path.of(FILE_1), nested.resolve("3.png"));
+
+        assertEquals(1, new FileOperator(new ImageFilePredicate(), 1).load(dir.toFile()).size());
+        assertEquals(3, new FileOperator(new ImageFilePredicate(), 3).load(dir.toFile()).size());
+        assertEquals(4, new FileOperator(new ImageFilePredicate(), 10).load(dir.toFile()).size());
+    }
+
+    @Test
+    public void testLoadWithSingleThreadExecutor(@TempDir Path dir) throws IOException {
+        Path nested = Files.createDirectories(dir.resolve("a/b"));
+        for (int i = 0; i < 4; i++) {
+            Files.copy(Path.of(FILE_1), dir.resolve(i + ".png"));
+            Files.copy(Path.of(FILE_1), nested.resolve(i + ".png"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            FileOperator fo = new FileOperator(new ImageFilePredicate(), 5, executor);
+            fo.setBufferSize(1); // Listing tasks find more files than may be validated at once.
+
+            List<File> files = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> fo.load(List.of(dir.toFile())));
+            assertEquals(8, files.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLoadFollowingLinkCycle(@TempDir Path dir) throws IOException {
+        Path nested = Files.createDirectories(dir.resolve("a/b"));
+        Files.copy(Path.of(FILE_1), nested.resolve("1.png"));
+        Files.createSymbolicLink(nested.resolve("loop"), dir.resolve("a"));
+
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), Integer.MAX_VALUE);
+        fo.setFollowLinks(true);
+
+        assertEquals(1, fo.load(dir.toFile()).size());
+    }
+
+    @Test
+    public void testLoadReturnsRecords(@TempDir Path dir) throws IOException {
+        Path copy = Files.copy(Path.of(FILE_1), dir.resolve("1.png"));
+
+        File file = new FileOperator(new ImageFilePredicate(), 1).load(dir.toFile()).getFirst();
+        Files.delete(copy);
+
+        FileRecord record = assertInstanceOf(FileRecord.class, file);
+        assertTrue(record.regularFile(), "Record should keep the attributes of the deleted file");
+        assertFalse(record.isFile(), "Accessors inherited from File should ask the file system");
+        assertEquals(new File(FILE_1).length(), record.size());
+        assertEquals(copy.toFile(), record);
+    }
+
+    @Test
+    public void testLoadCollapsesHardLinks(@TempDir Path dir) throws IOException {
+        Path original = Files.copy(Path.of(FILE_1), dir.resolve("1.png"));
+        Path link = Files.createLink(dir.resolve("2.png"), original);
+
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 1);
+        List<FileRecord> aliases = new CopyOnWriteArrayList<>();
+        fo.setAliasSink(aliases::add);
+        List<File> files = fo.load(dir.toFile());
+
+        assertEquals(1, files.size());
+        assertEquals(1, aliases.size());
+        assertTrue(List.of(original.toFile(), link.toFile()).containsAll(List.of(files.getFirst(), aliases.getFirst())));
+
+        Map<File, File> linked = new HashMap<>();
+        List<File> all = new ArrayList<>(files);
+        all.addAll(aliases);
+        assertEquals(1, FileRecord.collapseAliases(all, linked::put).size());
+        assertEquals(Map.of(original.toFile(), link.toFile()), linked, "Should link the alias to the canonical file");
+    }
+
+    @Test
+    public void testLoadKeepsHardLinksWithoutSink(@TempDir Path dir) throws IOException {
+        Path original = Files.copy(Path.of(FILE_1), dir.resolve("1.png"));
+        Path link = Files.createLink(dir.resolve("2.png"), original);
+
+        List<File> files = new FileOperator(new ImageFilePredicate(), 1).load(dir.toFile());
+        assertEquals(2, files.size(), "Aliases should be loaded when there's no sink");
+
+        Map<File, File> linked = new HashMap<>();
+        assertEquals(List.of(original.toFile()), FileRecord.collapseAliases(files, linked::put));
+        assertEquals(Map.of(original.toFile(), link.toFile()), linked, "Loaded aliases should still be reported as linked");
+    }
+
+    @Test
+    public void testStreamPreValidatesSources() {
+        FileOperator fo = new FileOperator(new ImageFilePredicate(), 2);
+
+        assertThrows(IOException.class, () -> fo.stream(List.of(new File("src/test/files/missing.png"))));
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.io.IOThrottle;
+
+import java.io.InterruptedIOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IOThrottleTest {
+
+    @Test
+    public void testUnlimitedDoesNotWait() throws InterruptedIOException {
+        IOThrottle throttle = new IOThrottle(0, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) throttle.acquire(1 << 20);
+
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        assertEquals(1000L << 20, throttle.getBytesCharged());
+        assertEquals(1000, throttle.getOpensCharged());
+        assertEquals(0, throttle.getThrottledMillis());
+    }
+
+    @Test
+    public void testBytesPerSecond() throws InterruptedIOException {
+        IOThrottle throttle = new IOThrottle(1000, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) throttle.acquireBytes(100); // Each reservation takes 100 ms of the budget.
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsed >= 350, "Reads should be spread over time, took: " + elapsed + " ms");
+    }
+
+    @Test
+    public void testRateChangedAtRuntime() throws InterruptedIOException {
+        IOThrottle throttle = new IOThrottle(0, 10);
+        throttle.setOpensPerSecond(0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) throttle.acquireOpen();
+
+        assertTrue(System.nanoTime() - start < 500_000_000L, "Lifted limit should apply to the next reservation");
+        assertThrows(IllegalArgumentException.class, () -> throttle.setBytesPerSecond(-1));
+    }
+}
@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+import pl.magzik.io.FileRecord;
+import pl.magzik.io.ImageDecoder;
+import pl.magzik.predicates.ImageFormat;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ImageDecoderTest {
+
+    private static final String PNG = "src/test/files/a-picture.png";
+    private static final String JPEG = "src/test/files/nave-7741260_960_720.jpg";
+
+    /**
+     * Tests that a reader is reset and reused after a successful read,
+     * and disposed, instead of being returned to the pool, after a failed one.
+     */
+    @Test
+    public void testDecode_reusesReaderAndDisposesFailedOne() throws IOException {
+        ImageReaderSpi provider = mock(ImageReaderSpi.class);
+        ImageReader first = mock(ImageReader.class), second = mock(ImageReader.class);
+        when(first.getOriginatingProvider()).thenReturn(provider);
+        when(provider.createReaderInstance()).thenReturn(second);
+
+        ImageDecoder decoder;
+        try (MockedStatic<ImageIO> imageIO = mockStatic(ImageIO.class)) {
+            imageIO.when(() -> ImageIO.getImageReadersByFormatName(anyString()))
+                .thenAnswer(i -> "png".equals(i.getArgument(0)) ? List.of(first).iterator() : Collections.emptyIterator());
+            decoder = new ImageDecoder(1);
+        }
+
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(Path.of(PNG)));
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        when(first.read(eq(0), any())).thenReturn(image).thenThrow(new IOException("Corrupted image"));
+        when(second.read(eq(0), any())).thenReturn(image);
+
+        assertSame(image, decoder.decode(content, ImageFormat.PNG));
+        verify(first).reset();
+        assertThrows(IOException.class, () -> decoder.decode(content, ImageFormat.PNG), "Should reuse the pooled reader");
+        verify(first).dispose();
+        verify(provider, never()).createReaderInstance();
+
+        assertSame(image, decoder.decode(content, ImageFormat.PNG));
+        verify(provider).createReaderInstance();
+        verify(first).reset(); // Not reset again after the failure.
+        verify(second).reset();
+    }
+
+    /**
+     * Tests that files of at least 4 MB are memory-mapped and loaded, and smaller ones read into the heap.
+     */
+    @Test
+    public void testRead_mapsLargeFiles(@TempDir Path dir) throws IOException {
+        Path large = Files.copy(Path.of(PNG), dir.resolve("large.png"));
+        Files.write(large, new byte[4 * 1024 * 1024 - (int) Files.size(large)], StandardOpenOption.APPEND);
+
+        ImageDecoder decoder = new ImageDecoder(1);
+        ByteBuffer mapped = decoder.read(large), read = decoder.read(Path.of(PNG));
+
+        assertInstanceOf(MappedByteBuffer.class, mapped, "Should map a file of 4 MB");
+        assertEquals(4 * 1024 * 1024, mapped.remaining());
+        assertFalse(read.isDirect(), "Should read a smaller file into the heap");
+        assertEquals(Files.size(Path.of(PNG)), read.remaining());
+
+        BufferedImage expected = decoder.decode(new File(PNG)), actual = decoder.decode(large.toFile());
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getRGB(0, 0), actual.getRGB(0, 0));
+    }
+
+    /**
+     * Tests that formats without a pooled reader are decoded by {@link ImageIO#read(javax.imageio.stream.ImageInputStream)}.
+     */
+    @Test
+    public void testDecode_withoutPooledReader_shouldFallBackToImageIO() throws IOException {
+        ImageDecoder decoder;
+        try (MockedStatic<ImageIO> imageIO = mockStatic(ImageIO.class)) {
+            imageIO.when(() -> ImageIO.getImageReadersByFormatName(anyString())).thenAnswer(i -> Collections.emptyIterator());
+            decoder = new ImageDecoder(1);
+        }
+
+        BufferedImage expected = ImageIO.read(new File(PNG));
+        BufferedImage actual = decoder.decode(ByteBuffer.wrap(Files.readAllBytes(Path.of(PNG))), null);
+
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getRGB(expected.getWidth() / 2, expected.getHeight() / 2), actual.getRGB(actual.getWidth() / 2, actual.getHeight() / 2));
+
+        ByteBuffer icon = ByteBuffer.wrap(new byte[] {0, 0, 1, 0, 1, 0});
+        assertThrows(IOException.class, () -> decoder.decode(icon, null), "Should fail if no reader supports the format");
+    }
+
+    /**
+     * Tests that the format attached to a {@link FileRecord} is used instead of detecting it.
+     */
+    @Test
+    public void testDecode_withKnownFormat_shouldSkipDetection() throws IOException {
+        ImageDecoder decoder = new ImageDecoder(1);
+        FileRecord record = FileRecord.of(new File(JPEG));
+        record.setFormat(ImageFormat.JPEG);
+
+        BufferedImage image = decoder.decode(record);
+        assertEquals(ImageIO.read(new File(JPEG)).getWidth(), image.getWidth());
+
+        record.setFormat(ImageFormat.PNG);
+        assertThrows(IOException.class, () -> decoder.decode(record), "Should decode with the attached format");
+        assertNotNull(decoder.decode(new File(JPEG)), "Should detect the format of a plain file");
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.io.FileRecord;
+import pl.magzik.predicates.FormatSniffer;
+import pl.magzik.predicates.ImageFilePredicate;
+import pl.magzik.predicates.ImageFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageFilePredicateTest {
+
+    private static final String FILE_1 = "src/test/files/a-picture.png";
+    private static final String FILE_2 = "src/test/files/nave-7741260_960_720.jpg";
+
+    @Test
+    public void testMatchSignatures() {
+        assertEquals(ImageFormat.PNG, FormatSniffer.match(ByteBuffer.wrap(new byte[] {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A})));
+        assertEquals(ImageFormat.GIF, FormatSniffer.match(ByteBuffer.wrap("GIF89a".getBytes())));
+        assertEquals(ImageFormat.JPEG2000, FormatSniffer.match(ByteBuffer.wrap(new byte[] {(byte) 0xFF, 0x4F, (byte) 0xFF, 0x51})));
+        assertNull(FormatSniffer.match(ByteBuffer.wrap("GIF8".getBytes())), "Truncated signature shouldn't match");
+        assertNull(FormatSniffer.match(ByteBuffer.wrap("plain text".getBytes())));
+    }
+
+    @Test
+    public void testRecordsDetectedFormat() throws IOException {
+        FileRecord record = FileRecord.of(new File(FILE_2));
+
+        assertTrue(new ImageFilePredicate().test(record));
+        assertEquals(ImageFormat.JPEG, record.format());
+    }
+
+    @Test
+    public void testMisnamedFile(@TempDir Path dir) throws IOException {
+        File misnamed = Files.copy(Path.of(FILE_1), dir.resolve("picture.jpg")).toFile();
+        File extensionless = Files.copy(Path.of(FILE_1), dir.resolve("picture")).toFile();
+
+        ImageFilePredicate predicate = new ImageFilePredicate();
+        assertFalse(predicate.test(misnamed));
+        assertFalse(predicate.test(extensionless));
+
+        predicate.setIgnoreExtensions(true);
+        assertTrue(predicate.test(misnamed));
+        assertTrue(predicate.test(extensionless));
+    }
+
+    @Test
+    public void testCustomMagicNumbers(@TempDir Path dir) throws IOException {
+        File custom = Files.write(dir.resolve("file.abc"), new byte[] {0x0A, 0x0B, 0x0C}).toFile();
+        File shorter = Files.write(dir.resolve("short.abc"), new byte[] {0x0A}).toFile();
+
+        ImageFilePredicate predicate = new ImageFilePredicate(Map.of("abc", Set.of("0A0B0C")));
+        assertTrue(predicate.test(custom));
+        assertThrows(IOException.class, () -> predicate.test(shorter));
+    }
+
+    @Test
+    public void testSignatureDecidesByExtension(@TempDir Path dir) throws IOException {
+        FileRecord jpeg = FileRecord.of(Files.copy(Path.of(FILE_2), dir.resolve("picture.jpeg")));
+        File png = Files.copy(Path.of(FILE_2), dir.resolve("picture.png")).toFile();
+
+        ImageFilePredicate predicate = new ImageFilePredicate();
+        assertTrue(predicate.test(jpeg), "Signatures shared by extensions should match each of them");
+        assertFalse(predicate.test(png), "A JPEG signature shouldn't match a PNG extension");
+        assertFalse(predicate.test(dir.resolve("missing.txt").toFile()), "Unknown extensions shouldn't be read");
+
+        FileRecord custom = FileRecord.of(Files.copy(Path.of(FILE_1), dir.resolve("picture.abc")));
+        assertTrue(new ImageFilePredicate(Map.of("abc", Set.of("89504E470D0A1A0A0000"))).test(custom));
+        assertEquals(ImageFormat.PNG, custom.format(), "A custom signature starting with a known one should keep its format");
+    }
+
+    @Test
+    public void testOverlappingCustomSignatures(@TempDir Path dir) throws IOException {
+        byte[] header = {0x49, 0x49, 0x2A, 0x00, 0x08, 0x00};
+        FileRecord tiff = FileRecord.of(Files.write(dir.resolve("x.tiff"), header));
+        FileRecord tif = FileRecord.of(Files.write(dir.resolve("x.tif"), header));
+        File other = Files.write(dir.resolve("y.tiff"), new byte[] {0x49, 0x49, 0x00, 0x00}).toFile();
+
+        ImageFilePredicate predicate = new ImageFilePredicate(Map.of("TIF", Set.of("4949"), "TIFF", Set.of("49492A00")));
+        assertTrue(predicate.test(tiff), "The longer signature should accept its extension");
+        assertTrue(predicate.test(tif), "The shorter signature should still accept its extension");
+        assertFalse(predicate.test(other), "Only the shorter signature matches, which doesn't accept the extension");
+        assertEquals(ImageFormat.TIFF, tiff.format(), "The format should come from the longest match");
+    }
+}
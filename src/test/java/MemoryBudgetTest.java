@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.cache.MemoryBudget;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    @Test
+    void testQuota_withinCapacity_shouldGetFullLimit() {
+        MemoryBudget budget = new MemoryBudget(1000);
+
+        MemoryBudget.Quota a = budget.quota("a", 300);
+        MemoryBudget.Quota b = budget.quota("b", 500);
+
+        assertEquals(300, a.allocation(), "Quota 'a' should get its full limit");
+        assertEquals(500, b.allocation(), "Quota 'b' should get its full limit");
+    }
+
+    @Test
+    void testQuota_oversubscribed_shouldShareProportionally() {
+        MemoryBudget budget = new MemoryBudget(1000);
+
+        MemoryBudget.Quota a = budget.quota("a", 1000);
+        MemoryBudget.Quota b = budget.quota("b", 3000);
+
+        assertEquals(250, a.allocation(), "Quota 'a' should get a quarter of the budget");
+        assertEquals(750, b.allocation(), "Quota 'b' should get three quarters of the budget");
+        assertTrue(budget.allocated() <= budget.capacity(), "Allocations should not exceed the capacity");
+    }
+
+    @Test
+    void testClose_shouldReturnMemoryToOtherQuotas() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        MemoryBudget.Quota a = budget.quota("a", 1000);
+        MemoryBudget.Quota b = budget.quota("b", 1000);
+
+        long[] resized = {0};
+        a.onResize(size -> resized[0] = size);
+        b.close();
+
+        assertEquals(1000, a.allocation(), "Remaining quota should get its full limit back");
+        assertEquals(1000, resized[0], "Owner should be notified about the new allocation");
+    }
+}
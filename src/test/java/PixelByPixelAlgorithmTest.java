@@ -91,4 +91,16 @@ public class PixelByPixelAlgorithmTest {
         assertNotEquals(result.get(image1), result.get(image2), "Images with different sizes should not be grouped together");
     }
 
+    @Test
+    void testMerge_shouldJoinGroupsWithIdenticalKeys() {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), b1 = new File("b1.png");
+        BufferedImage imageA = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage imageB = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+        imageB.setRGB(0, 0, 0xFFFFFF);
+        PixelByPixel pbp = new PixelByPixel(f -> f.getName().startsWith("a") ? imageA : imageB);
+
+        Map<File, Set<File>> result = pbp.merge(Map.of(a1, Set.of(a1)), Map.of(a2, Set.of(a2), b1, Set.of(b1)));
+
+        assertEquals(Map.of(a1, Set.of(a1, a2), b1, Set.of(b1)), result);
+    }
 }
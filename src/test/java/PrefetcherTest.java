@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.magzik.cache.AdaptiveCache;
+import pl.magzik.cache.Prefetcher;
+import pl.magzik.io.ReadScheduler;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefetcherTest {
+
+    private static final File FILE_1 = new File("src/test/files/a-picture.png");
+    private static final File FILE_2 = new File("src/test/files/nave-7741260_960_720.jpg");
+    private static final File FILE_3 = new File("src/test/files/women-7341444_960_720.jpg");
+
+    private AdaptiveCache cache;
+
+    private Prefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AdaptiveCache(64 * 1024 * 1024, null);
+        prefetcher = new Prefetcher(cache, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.close();
+        cache.close();
+    }
+
+    @Test
+    void testSchedule_shouldDecodeImagesOfAdmittedGroups() throws InterruptedException {
+        try (Prefetcher.Schedule schedule = prefetcher.schedule(List.of(Set.of(FILE_1, FILE_2), Set.of(FILE_3)))) {
+            awaitPrefetched(2);
+
+            assertEquals(2, prefetcher.stats().prefetched(), "Only the first group should fit into the window");
+
+            schedule.release(0);
+            awaitPrefetched(3);
+        }
+
+        Prefetcher.Stats stats = prefetcher.stats();
+        assertEquals(3, stats.prefetched(), "All groups should be prefetched after releasing the first one");
+        assertTrue(stats.maxReadyLatency() >= stats.meanReadyLatency(), "Maximum latency should not be lower than the mean");
+    }
+
+    @Test
+    void testSchedule_withReleasedGroup_shouldSkipIt() throws InterruptedException {
+        try (Prefetcher.Schedule schedule = prefetcher.schedule(List.of(Set.of(FILE_1), Set.of(FILE_2), Set.of(FILE_3)))) {
+            schedule.release(1);
+            awaitPrefetched(1);
+            schedule.release(0);
+            awaitPrefetched(2);
+        }
+
+        assertFalse(cache.contains(FILE_2), "Released group should not be prefetched");
+    }
+
+    @Test
+    void testSchedule_withSlowConsumer_shouldKeepPrefetchedImages() throws InterruptedException {
+        try (Prefetcher.Schedule schedule = prefetcher.schedule(List.of(Set.of(FILE_1, FILE_2)))) {
+            awaitPrefetched(2);
+            Thread.sleep(1500); // Longer than images that aren't pinned are kept.
+
+            assertTrue(cache.contains(FILE_1) && cache.contains(FILE_2), "Prefetched images should be kept until the group is released");
+            assertEquals(0, cache.snapshot().expiryEvictionCount());
+
+            schedule.release(0);
+            Thread.sleep(1500);
+        }
+
+        assertFalse(cache.contains(FILE_1) || cache.contains(FILE_2), "Released images should expire");
+    }
+
+    @Test
+    void testSchedule_withBusyDecoders_shouldKeepReadsWithinBudget() throws InterruptedException {
+        ThreadPoolExecutor decoders = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        decoders.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try (Prefetcher bounded = new Prefetcher(cache, 1, 1, ReadScheduler.getInstance(), decoders);
+             Prefetcher.Schedule ignored = bounded.schedule(List.of(Set.of(FILE_1, FILE_2, FILE_3)))) {
+            Thread.sleep(500); // The first file is read, the others wait for it to be decoded.
+            assertTrue(decoders.getQueue().size() <= 1, "Only the budget of files should wait for a decoder");
+
+            busy.countDown();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (bounded.stats().prefetched() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, bounded.stats().prefetched(), "The whole group should be prefetched once decoders are free");
+        }
+    }
+
+    private void awaitPrefetched(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (prefetcher.stats().prefetched() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(prefetcher.stats().prefetched() >= count, "Prefetching should complete in time");
+    }
+}
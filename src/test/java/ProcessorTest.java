@@ -1,18 +1,37 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import pl.magzik.Processor;
 import pl.magzik.algorithms.Algorithm;
+import pl.magzik.algorithms.SplittableAlgorithm;
+import pl.magzik.execution.CancellationToken;
+import pl.magzik.execution.ExecutionStrategy;
 import pl.magzik.grouping.Grouper;
-
+import pl.magzik.io.FileRecord;
+import pl.magzik.progress.ProgressDispatcher;
+import pl.magzik.progress.ProgressEvent;
+import pl.magzik.report.BinaryReportWriter;
+import pl.magzik.report.DuplicateReport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -124,81 +143,83 @@ public class ProcessorTest {
     }
 
     /**
-     * Test for the private method {@code algorithmsApplication} using reflection.
+     * Test for the algorithm application of the {@code process} method.
      * <p>
-     * This test ensures that the algorithms are correctly applied to the grouped files.
-     * The method should process the groups and return the correct result.
+     * This test ensures that the algorithms are correctly applied to the grouped files,
+     * and the files they group together are returned as one group.
      * </p>
      */
     @Test
-    void testAlgorithmsApplication() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        Set<Set<File>> groupedFiles = new HashSet<>();
+    void testProcess_shouldApplyAlgorithmsToGroups() throws IOException {
         File file1 = new File("file1.txt");
         File file2 = new File("file2.txt");
-        groupedFiles.add(new HashSet<>(Arrays.asList(file1, file2)));
-
-        Map<Object, Set<File>> algorithmOutput = new HashMap<>();
-        algorithmOutput.put("someKey", new HashSet<>(Arrays.asList(file1, file2)));
 
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection()))
+                .thenReturn(Set.of(Set.of(file1, file2)));
         Mockito.when(algorithm.apply(ArgumentMatchers.anySet()))
-                .thenReturn(algorithmOutput);
-
-        Method method = Processor.class.getDeclaredMethod("algorithmsApplication", Set.class);
-        method.setAccessible(true);
+                .thenReturn(Map.of("someKey", Set.of(file1, file2)));
 
-        Set<Set<File>> result = (Set<Set<File>>) method.invoke(processor, groupedFiles);
+        Map<File, Set<File>> result = processor.process(List.of(file1, file2));
 
-        assertNotNull(result);
         assertEquals(1, result.size(), "Should have one group");
-        assertTrue(result.stream().anyMatch(group -> group.contains(file1)), "Group should contain file1");
+        Mockito.verify(algorithm).apply(Set.of(file1, file2));
+        Set<File> group = new HashSet<>(result.values().iterator().next());
+        group.addAll(result.keySet());
+        assertEquals(Set.of(file1, file2), group, "Group should contain both files");
     }
 
     /**
-     * Test for the private method {@code postAlgorithmConsolidation} using reflection.
+     * Test for the consolidation of algorithm results in the {@code process} method.
      * <p>
-     * This test verifies that after applying algorithms, the resulting file groups are properly consolidated
-     * into a single group, and redundant groups are merged.
+     * This test verifies that after applying algorithms, files left alone under their key
+     * are removed, and only groups with more than one file are kept.
      * </p>
      */
     @Test
-    void testPostAlgorithmConsolidation() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-
-        Map<Object, Set<File>> algorithmOutput = new HashMap<>();
-        Set<File> fileGroup1 = new HashSet<>(Arrays.asList(new File("file1.txt"), new File("file2.txt")));
-        Set<File> fileGroup2 = new HashSet<>(Collections.singletonList(new File("file3.txt")));
-        algorithmOutput.put("someKey", fileGroup1);
-        algorithmOutput.put("otherKey", fileGroup2);
+    void testProcess_shouldDropUniqueFilesAfterAlgorithm() throws IOException {
+        File file1 = new File("file1.txt");
+        File file2 = new File("file2.txt");
+        File file3 = new File("file3.txt");
 
-        Method method = Processor.class.getDeclaredMethod("postAlgorithmConsolidation", Map.class);
-        method.setAccessible(true);
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection()))
+                .thenReturn(Set.of(Set.of(file1, file2, file3)));
+        Mockito.when(algorithm.apply(ArgumentMatchers.anySet()))
+                .thenReturn(Map.of("someKey", Set.of(file1, file2), "otherKey", Set.of(file3)));
 
-        Set<Set<File>> consolidated = (Set<Set<File>>) method.invoke(processor, algorithmOutput);
+        Map<File, Set<File>> result = processor.process(List.of(file1, file2, file3));
 
-        assertEquals(1, consolidated.size(), "Should return only one group");
+        assertEquals(1, result.size(), "Should return only one group");
+        assertFalse(result.containsKey(file3) || result.values().iterator().next().contains(file3), "Unique file should be removed");
     }
 
     /**
-     * Test for the private method {@code originalDistinction} using reflection.
+     * Test for the original distinction of the {@code process} method.
      * <p>
-     * This test ensures that the final groups of files are correctly reorganized by the {@code originalDistinction}
-     * method, with the first file in each group being considered the original.
+     * This test ensures that the final groups of files are correctly reorganized into a map,
+     * with one file of each group being considered the original, and the others its duplicates.
      * </p>
      */
     @Test
-    void testOriginalDistinction() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        Set<File> group1 = new HashSet<>(Arrays.asList(new File("file1.txt"), new File("file2.txt")));
-        Set<File> group2 = new HashSet<>(Arrays.asList(new File("file3.txt"), new File("file4.txt")));
-
-        Set<Set<File>> groupedFiles = new HashSet<>(Arrays.asList(group1, group2));
+    void testProcess_shouldDistinguishOriginals() throws IOException {
+        Set<File> group1 = Set.of(new File("file1.txt"), new File("file2.txt"));
+        Set<File> group2 = Set.of(new File("file3.txt"), new File("file4.txt"));
 
-        Method method = Processor.class.getDeclaredMethod("originalDistinction", Set.class);
-        method.setAccessible(true);
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection()))
+                .thenReturn(Set.of(group1, group2));
+        Mockito.when(algorithm.apply(ArgumentMatchers.anySet()))
+                .thenAnswer(invocation -> Map.of(invocation.getArgument(0), invocation.getArgument(0)));
 
-        Map<File, Set<File>> originalFiles = (Map<File ,Set<File>>) method.invoke(processor, groupedFiles);
+        List<File> files = new ArrayList<>(group1);
+        files.addAll(group2);
+        Map<File, Set<File>> originalFiles = processor.process(files);
 
         assertEquals(2, originalFiles.size(), "Should return 2 groups");
-        assertTrue(originalFiles.containsKey(new File("file1.txt")) || originalFiles.containsKey(new File("file2.txt")) , "Group should contain 'file1' or `file2` as original");
-        assertTrue(originalFiles.containsKey(new File("file3.txt")) || originalFiles.containsKey(new File("file4.txt")), "Group should contain 'file3' or `file4` as original");
+        originalFiles.forEach((original, duplicates) -> {
+            Set<File> group = group1.contains(original) ? group1 : group2;
+            assertTrue(group.contains(original), "Original should come from one of the groups");
+            assertEquals(1, duplicates.size(), "Original should not be listed among its duplicates");
+            assertTrue(group.containsAll(duplicates), "Duplicates should come from the group of their original");
+        });
     }
 
     /**
@@ -222,4 +243,353 @@ public class ProcessorTest {
         assertTrue(duration < 1000000000, "Process should complete in less than 1 second");
     }
 
+    /**
+     * Test for the pipelined `process` method.
+     * <p>
+     * This test ensures that each group is refined by the algorithms in order, on its own,
+     * and that every final group is reported to the listener.
+     * </p>
+     */
+    @Test
+    void testProcess_pipelined() throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), a3 = new File("a33.png");
+        File b1 = new File("b1.png"), b2 = new File("b2.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection()))
+                .thenReturn(Set.of(Set.of(a1, a2, a3), Set.of(b1, b2), Set.of(new File("c.png"))));
+
+        Algorithm<Character> byInitial = g -> g.stream().collect(Collectors.groupingBy(f -> f.getName().charAt(0), Collectors.toSet()));
+        Algorithm<Integer> byLength = g -> g.stream().collect(Collectors.groupingBy(f -> f.getName().length(), Collectors.toSet()));
+        Processor pipelined = new Processor(grouper, Arrays.asList(byInitial, byLength));
+
+        List<Set<File>> reported = new ArrayList<>();
+        Map<File, Set<File>> result = pipelined.process(List.of(a1, a2, a3, b1, b2), (original, duplicates) -> {
+            Set<File> group = new HashSet<>(duplicates);
+            group.add(original);
+            reported.add(group);
+        });
+
+        assertEquals(2, result.size(), "Should return 2 groups");
+        assertEquals(Set.of(Set.of(a1, a2), Set.of(b1, b2)), new HashSet<>(reported), "Should report each final group once");
+    }
+
+    /**
+     * Test for streaming a report.
+     * <p>
+     * This test ensures that every final group is written by the report writer, and that the columnar report
+     * of the same files holds the same groups.
+     * </p>
+     */
+    @Test
+    void testReport_streamsGroups() throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), b1 = new File("b1.png"), b2 = new File("b2.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(a1, a2), Set.of(b1, b2)));
+        Algorithm<Character> byInitial = g -> g.stream().collect(Collectors.groupingBy(f -> f.getName().charAt(0), Collectors.toSet()));
+        Processor reporting = new Processor(grouper, List.of(byInitial));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+            reporting.report(List.of(a1, a2, b1, b2), writer);
+            assertEquals(2, writer.groupCount(), "Should write each final group");
+        }
+        DuplicateReport streamed = DuplicateReport.read(new ByteArrayInputStream(bytes.toByteArray()));
+        DuplicateReport report = reporting.report(List.of(a1, a2, b1, b2));
+
+        Set<Set<File>> expected = Set.of(Set.of(a1, a2), Set.of(b1, b2));
+        assertEquals(expected, flatten(streamed.toMap()));
+        assertEquals(expected, flatten(report.toMap()));
+    }
+
+    private static Set<Set<File>> flatten(Map<File, Set<File>> result) {
+        return result.entrySet().stream().map(e -> {
+            Set<File> group = new HashSet<>(e.getValue());
+            group.add(e.getKey());
+            return group;
+        }).collect(Collectors.toSet());
+    }
+
+    /**
+     * Test for resuming from a checkpoint.
+     * <p>
+     * This test ensures that a run failing in the second algorithm is resumed from the checkpoint, without applying
+     * the first algorithm again, and that a completed run is restored without applying any algorithm.
+     * </p>
+     */
+    @Test
+    void testProcess_resumesFromCheckpoint(@TempDir Path dir) throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), b1 = new File("b1.png"), c1 = new File("c11.png"), c2 = new File("c22.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(a1, a2, b1), Set.of(c1, c2)));
+
+        AtomicInteger initialCalls = new AtomicInteger();
+        AtomicBoolean crash = new AtomicBoolean(true);
+        Algorithm<Character> byInitial = g -> {
+            initialCalls.incrementAndGet();
+            return g.stream().collect(Collectors.groupingBy(f -> f.getName().charAt(0), Collectors.toSet()));
+        };
+        Algorithm<Integer> byLength = g -> {
+            if (crash.get()) throw new UncheckedIOException(new IOException("Crash"));
+            return g.stream().collect(Collectors.groupingBy(f -> f.getName().length(), Collectors.toSet()));
+        };
+        List<File> files = List.of(a1, a2, b1, c1, c2);
+
+        Processor first = new Processor(grouper, List.of(byInitial, byLength));
+        first.setCheckpoint(dir.resolve("run.checkpoint"));
+        assertThrows(IOException.class, () -> first.process(files));
+        assertEquals(2, initialCalls.get());
+
+        crash.set(false);
+        Processor second = new Processor(grouper, List.of(byInitial, byLength));
+        second.setCheckpoint(dir.resolve("run.checkpoint"));
+        Map<File, Set<File>> result = second.process(files);
+        assertEquals(2, initialCalls.get(), "Should not apply the first algorithm again");
+        assertEquals(Set.of(Set.of(a1, a2), Set.of(c1, c2)), flatten(result));
+
+        crash.set(true);
+        assertEquals(result, second.process(files), "Should restore the completed run");
+        Mockito.verify(grouper, Mockito.times(1)).divide(ArgumentMatchers.anyCollection());
+    }
+
+    /**
+     * Test for the records of a resumed run.
+     * <p>
+     * This test ensures that files restored from a checkpoint are the input records, not plain files.
+     * </p>
+     */
+    @Test
+    void testProcess_resumedRunKeepsRecords(@TempDir Path dir) throws IOException {
+        FileRecord a = FileRecord.of(Files.writeString(dir.resolve("a.png"), "content"));
+        FileRecord b = FileRecord.of(Files.writeString(dir.resolve("b.png"), "content"));
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(a, b)));
+        Mockito.when(algorithm.apply(ArgumentMatchers.anySet())).thenReturn(Map.of("key", Set.of(a, b)));
+        processor.setCheckpoint(dir.resolve("run.checkpoint"));
+
+        processor.process(List.of(a, b));
+        Map<File, Set<File>> resumed = processor.process(List.of(a, b));
+        Mockito.verify(grouper, Mockito.times(1)).divide(ArgumentMatchers.anyCollection());
+
+        assertEquals(1, resumed.size());
+        resumed.forEach((original, duplicates) -> {
+            assertInstanceOf(FileRecord.class, original, "Restored original should be the input record");
+            duplicates.forEach(d -> assertInstanceOf(FileRecord.class, d, "Restored duplicate should be the input record"));
+        });
+    }
+
+    /**
+     * Test for the fingerprint of a checkpoint.
+     * <p>
+     * This test ensures that the checkpoint of a completed run is restored for unchanged files,
+     * and discarded once a file is modified.
+     * </p>
+     */
+    @Test
+    void testProcess_discardsCheckpointOfChangedFiles(@TempDir Path dir) throws IOException {
+        File a = Files.writeString(dir.resolve("a.png"), "content").toFile();
+        File b = Files.writeString(dir.resolve("b.png"), "content").toFile();
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(a, b)));
+        Mockito.when(algorithm.apply(ArgumentMatchers.anySet())).thenReturn(Map.of("key", Set.of(a, b)));
+        processor.setCheckpoint(dir.resolve("run.checkpoint"));
+
+        processor.process(List.of(a, b));
+        processor.process(List.of(a, b));
+        Mockito.verify(grouper, Mockito.times(1)).divide(ArgumentMatchers.anyCollection());
+
+        Files.writeString(a.toPath(), "changed content");
+        processor.process(List.of(a, b));
+        Mockito.verify(grouper, Mockito.times(2)).divide(ArgumentMatchers.anyCollection());
+    }
+
+    /**
+     * Test for linked files.
+     * <p>
+     * This test ensures that records of the same physical file are reported as linked, and removed from the input
+     * before it's divided, so they're never reported as duplicates.
+     * </p>
+     */
+    @Test
+    void testProcess_reportsLinkedFiles(@TempDir Path dir) throws IOException {
+        Path original = Files.writeString(dir.resolve("a.png"), "content");
+        Path link = Files.createLink(dir.resolve("b.png"), original);
+        FileRecord a = FileRecord.of(original), b = FileRecord.of(link);
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of());
+
+        Map<File, File> linked = new HashMap<>();
+        processor.setLinkListener(linked::put);
+        processor.process(List.of(b, a));
+
+        assertEquals(Map.of(a, b), linked, "Should link the alias to the canonical file");
+        Mockito.verify(grouper).divide(List.of(a));
+    }
+
+    /**
+     * Test for progress events.
+     * <p>
+     * This test ensures that the division and every algorithm are reported as stages, with the groups and files
+     * entering and leaving them, and a progress event for every group.
+     * </p>
+     */
+    @Test
+    void testProcess_reportsStages() throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), b1 = new File("b1.png"), b2 = new File("b2.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(Set.of(a1, a2), Set.of(b1, b2)));
+        Mockito.when(algorithm.apply(ArgumentMatchers.anySet())).thenAnswer(i -> {
+            Set<File> g = i.getArgument(0);
+            return g.contains(a1) ? Map.of(0, g) : Map.of(1, Set.of(b1), 2, Set.of(b2));
+        });
+
+        List<ProgressEvent> events = Collections.synchronizedList(new ArrayList<>());
+        try (ProgressDispatcher progress = new ProgressDispatcher(events::add)) {
+            processor.setProgress(progress);
+            processor.process(List.of(a1, a2, b1, b2));
+        }
+
+        List<ProgressEvent.StageFinished> stages = events.stream()
+            .filter(e -> e instanceof ProgressEvent.StageFinished)
+            .map(e -> (ProgressEvent.StageFinished) e)
+            .toList();
+        assertEquals(2, stages.size(), "Should report the division and the algorithm");
+        assertEquals("divide", stages.get(0).stage());
+        assertEquals(2, stages.get(0).groupsOut());
+        assertEquals(2, stages.get(1).groupsIn());
+        assertEquals(1, stages.get(1).groupsOut());
+        assertEquals(2, stages.get(1).filesEliminated());
+        assertEquals(2, events.stream().filter(e -> e instanceof ProgressEvent.GroupsProcessed).count(), "Should report every group");
+    }
+
+    /**
+     * Test for a deadline.
+     * <p>
+     * This test ensures that groups not complete when the deadline passes are left out, and the result is marked as partial,
+     * while the groups completed before it are returned.
+     * </p>
+     */
+    @Test
+    void testProcess_deadlineReturnsPartialResult() throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png"), b1 = new File("b1.png"), b2 = new File("b2.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection(), ArgumentMatchers.any())).thenReturn(Set.of(Set.of(a1, a2), Set.of(b1, b2)));
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(200));
+
+        Algorithm<Integer> slowForB = g -> {
+            if (g.contains(b1)) awaitCancellation(token); // Blocks without starving a single-worker pool.
+            return Map.of(0, g);
+        };
+        Algorithm<Integer> identity = g -> Map.of(0, g);
+        Processor.Result result = new Processor(grouper, List.of(slowForB, identity)).process(List.of(a1, a2, b1, b2), token);
+
+        assertTrue(result.partial(), "Should be marked as partial");
+        assertEquals(Set.of(Set.of(a1, a2)), flatten(result.groups()), "Should return only the complete group");
+    }
+
+    /**
+     * Test for cancelling algorithms in progress.
+     * <p>
+     * This test ensures that an algorithm blocked when the deadline passes is interrupted,
+     * and that the run returns a partial result instead of failing.
+     * </p>
+     */
+    @Test
+    void testProcess_deadlineInterruptsRunningAlgorithm() throws IOException {
+        File a1 = new File("a1.png"), a2 = new File("a2.png");
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection(), ArgumentMatchers.any())).thenReturn(Set.of(Set.of(a1, a2)));
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(100));
+
+        Algorithm<Integer> blocking = g -> {
+            try {
+                Thread.sleep(30_000); // Stands for a read stuck on a slow device.
+            } catch (InterruptedException e) {
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while loading an image"));
+            }
+            return Map.of(0, g);
+        };
+        long start = System.nanoTime();
+        Processor.Result result = new Processor(grouper, List.of(blocking)).process(List.of(a1, a2), token);
+
+        assertTrue(result.partial(), "Should be marked as partial");
+        assertTrue(result.groups().isEmpty(), "Should not return the interrupted group");
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toSeconds() < 10, "Should stop the algorithm at once");
+    }
+
+    private static void awaitCancellation(CancellationToken token) {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CancellationToken.Registration registration = token.onCancel(cancelled::countDown);
+        try (registration) {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    cancelled.await();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return cancelled.getCount() == 0;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Test for splitting oversized groups.
+     * <p>
+     * This test ensures that a group above the split threshold is processed in parts no larger than the threshold,
+     * and that the merged result is the same as for the whole group.
+     * </p>
+     */
+    @Test
+    void testProcess_splitsOversizedGroups() throws IOException {
+        Set<File> group = new HashSet<>();
+        for (int i = 0; i < 100; i++) group.add(new File("file" + i + ".png"));
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(Set.of(group));
+
+        List<Integer> parts = Collections.synchronizedList(new ArrayList<>());
+        SplittableAlgorithm<Integer> byParity = g -> {
+            parts.add(g.size());
+            return g.stream().collect(Collectors.groupingBy(f -> f.getName().length() % 2, Collectors.toSet()));
+        };
+        Processor splitting = new Processor(grouper, List.of(byParity));
+        splitting.setSplitThreshold(10);
+
+        Map<File, Set<File>> result = splitting.process(group);
+
+        assertEquals(2, result.size(), "Should return 2 groups");
+        assertEquals(100, result.values().stream().mapToInt(s -> s.size() + 1).sum(), "Should keep every file");
+        assertTrue(parts.size() > 1 && parts.stream().allMatch(p -> p <= 10), "Should process parts no larger than the threshold");
+    }
+
+    /**
+     * Test for the order in which groups are started.
+     * <p>
+     * This test ensures that the workers start the groups in the order they are scheduled for prefetching,
+     * so no group is started before all but the last few groups ahead of it.
+     * </p>
+     */
+    @Test
+    void testProcess_startsGroupsInScheduleOrder() throws IOException {
+        Set<Set<File>> groups = new LinkedHashSet<>();
+        for (int i = 0; i < 64; i++) groups.add(Set.of(new File(i + "-a.png"), new File(i + "-b.png")));
+        Mockito.when(grouper.divide(ArgumentMatchers.anyCollection())).thenReturn(groups);
+
+        List<Integer> started = Collections.synchronizedList(new ArrayList<>());
+        Algorithm<String> recording = g -> {
+            started.add(Integer.parseInt(g.iterator().next().getName().split("-")[0]));
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of("key", g);
+        };
+
+        int parallelism = 4;
+        try (ExecutionStrategy strategy = ExecutionStrategy.dedicated(parallelism, false)) {
+            Processor ordered = new Processor(grouper, List.of(recording));
+            ordered.setExecutionStrategy(strategy);
+            ordered.process(groups.stream().flatMap(Set::stream).toList());
+        }
+
+        assertEquals(64, started.size());
+        for (int position = 0; position < started.size(); position++) {
+            assertTrue(started.get(position) < position + parallelism, "Group " + started.get(position) + " started at " + position);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.progress.ProgressDispatcher;
+import pl.magzik.progress.ProgressEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgressDispatcherTest {
+
+    @Test
+    public void testDeliversEventsInOrder() {
+        List<ProgressEvent> events = Collections.synchronizedList(new ArrayList<>());
+        try (ProgressDispatcher progress = new ProgressDispatcher(events::add)) {
+            progress.filesDiscovered(3);
+            progress.filesValidated(2);
+            ProgressDispatcher.Stage stage = progress.stage("hash", 2, 10);
+            progress.bytesRead(100);
+            stage.groupDone(4);
+            stage.groupDone(6);
+            stage.finish(1, 3);
+        }
+
+        int started = events.indexOf(new ProgressEvent.StageStarted("hash", 2, 10));
+        assertTrue(started > events.indexOf(new ProgressEvent.FilesDiscovered(3)), "Counters should be delivered before the stage starts");
+        assertTrue(started > events.indexOf(new ProgressEvent.FilesValidated(2)), "Counters should be delivered before the stage starts");
+
+        List<ProgressEvent.GroupsProcessed> processed = events.stream()
+            .filter(e -> e instanceof ProgressEvent.GroupsProcessed)
+            .map(e -> (ProgressEvent.GroupsProcessed) e)
+            .toList();
+        assertEquals(2, processed.size());
+        assertEquals(4, processed.get(0).filesDone());
+        assertEquals(10, processed.get(1).filesDone());
+        assertEquals(Duration.ZERO, processed.get(1).eta(), "Should have nothing left");
+
+        ProgressEvent.StageFinished finished = (ProgressEvent.StageFinished) events.getLast();
+        assertEquals(7, finished.filesEliminated());
+        int bytes = events.indexOf(new ProgressEvent.BytesRead(100));
+        assertTrue(bytes >= 0 && bytes < events.size() - 1, "Bytes should be delivered before the stage finishes");
+    }
+
+    @Test
+    public void testDropsProgressWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ProgressEvent> events = Collections.synchronizedList(new ArrayList<>());
+        ProgressDispatcher progress = new ProgressDispatcher(e -> {
+            events.add(e);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, 2, Duration.ofMillis(10));
+
+        ProgressDispatcher.Stage stage = progress.stage("hash", 10, 10);
+        for (int i = 0; i < 10; i++) stage.groupDone(1);
+        release.countDown();
+        stage.finish(0, 0);
+        progress.close();
+
+        long delivered = events.stream().filter(e -> e instanceof ProgressEvent.GroupsProcessed).count();
+        assertTrue(progress.dropped() > 0, "Should drop progress when the listener falls behind");
+        assertEquals(10, delivered + progress.dropped(), "Should deliver or count every event");
+        assertInstanceOf(ProgressEvent.StageFinished.class, events.getLast(), "Should never drop a stage finish");
+    }
+
+    @Test
+    public void testInterruptedThreadSkipsStageWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ProgressEvent> events = Collections.synchronizedList(new ArrayList<>());
+        ProgressDispatcher progress = new ProgressDispatcher(e -> {
+            events.add(e);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, 1, Duration.ofMillis(10));
+
+        progress.stage("first", 1, 1);
+        progress.stage("second", 1, 1); // Waits until the first one is taken, then fills the buffer.
+        Thread.currentThread().interrupt();
+        try {
+            progress.stage("third", 1, 1);
+        } finally {
+            assertTrue(Thread.interrupted(), "Should keep the interrupt");
+        }
+        release.countDown();
+        progress.close();
+
+        assertEquals(List.of(new ProgressEvent.StageStarted("first", 1, 1), new ProgressEvent.StageStarted("second", 1, 1)), events);
+    }
+
+    @Test
+    public void testNoneRecordsNothing() {
+        ProgressDispatcher none = ProgressDispatcher.none();
+        none.filesDiscovered(1);
+        ProgressDispatcher.Stage stage = none.stage("hash", 1, 1);
+        stage.groupDone(1);
+        stage.finish(0, 0);
+        none.close();
+
+        assertFalse(none.isEnabled());
+        assertSame(stage, none.stage("other", 2, 2), "Should share a single no-op stage");
+        assertEquals(0, none.dropped());
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.io.FileRecord;
+import pl.magzik.io.ReadScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadSchedulerTest {
+
+    @Test
+    public void testReadAllInLocalityOrder(@TempDir Path dir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path sub = Files.createDirectories(dir.resolve("d" + (i % 3)));
+            files.add(FileRecord.of(Files.writeString(sub.resolve(i + ".txt"), "file " + i)));
+        }
+        Collections.shuffle(files);
+
+        ReadScheduler scheduler = new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor(), 1, 1);
+        List<File> order = Collections.synchronizedList(new ArrayList<>());
+        Map<File, Long> sizes = scheduler.readAll(files, f -> {
+            order.add(f);
+            return Files.size(f.toPath());
+        });
+
+        assertEquals(20, sizes.size());
+        assertEquals(files.stream().sorted(ReadScheduler.LOCALITY).toList(), order, "Single reader should follow the locality order");
+    }
+
+    @Test
+    public void testSubmitAllInLocalityOrder(@TempDir Path dir) throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path sub = Files.createDirectories(dir.resolve("d" + (i % 3)));
+            files.add(FileRecord.of(Files.writeString(sub.resolve(i + ".txt"), "file " + i)));
+        }
+        files.add(dir.resolve("missing").toFile());
+        Collections.shuffle(files);
+
+        ReadScheduler scheduler = new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor(), 1, 1);
+        List<File> order = Collections.synchronizedList(new ArrayList<>());
+        Map<File, CompletableFuture<Long>> sizes = scheduler.submitAll(files, f -> {
+            order.add(f);
+            return Files.size(f.toPath());
+        });
+
+        assertEquals(files, List.copyOf(sizes.keySet()));
+        for (File file : files) {
+            if (file instanceof FileRecord) assertEquals(Files.size(file.toPath()), sizes.get(file).get());
+            else assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> sizes.get(file).get()).getCause());
+        }
+        List<File> located = order.stream().filter(f -> f instanceof FileRecord).toList(); // The missing file is read on its own.
+        assertEquals(files.stream().filter(f -> f instanceof FileRecord).sorted(ReadScheduler.LOCALITY).toList(), located, "Single reader should follow the locality order");
+    }
+
+    @Test
+    public void testRecordsKeepDeviceAndInode(@TempDir Path dir) throws IOException {
+        Path path = Files.writeString(dir.resolve("file.txt"), "file");
+        FileRecord record = FileRecord.of(path);
+
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            assertEquals(-1, record.inode(), "Location should stay unknown without the unix view");
+            return;
+        }
+        assertEquals(Files.getAttribute(path, "unix:dev"), record.device());
+        assertEquals(Files.getAttribute(path, "unix:ino"), record.inode());
+    }
+
+    @Test
+    public void testSubmitPropagatesFailure(@TempDir Path dir) {
+        ReadScheduler scheduler = new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor());
+
+        ExecutionException e = assertThrows(
+            ExecutionException.class,
+            () -> scheduler.submit(dir.resolve("missing").toFile(), f -> Files.size(f.toPath())).get()
+        );
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    public void testReadInterruptedWhileWaitingForPermit() throws Exception {
+        ReadScheduler scheduler = new ReadScheduler(Executors.newVirtualThreadPerTaskExecutor(), 1, 1);
+        File file = new File("a.png");
+        CountDownLatch reading = new CountDownLatch(1), release = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = scheduler.submit(file, f -> {
+            reading.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        });
+        reading.await();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                scheduler.read(file, f -> true);
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        Thread.sleep(50);
+        waiter.interrupt();
+        waiter.join(5_000);
+        release.countDown();
+
+        assertInstanceOf(InterruptedIOException.class, failure.get(), "Should stop waiting for the permit when interrupted");
+        assertTrue(holder.get());
+    }
+}
@@ -0,0 +1,99 @@
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.magzik.Processor;
+import pl.magzik.algorithms.Algorithm;
+import pl.magzik.grouping.CRC32Grouper;
+import pl.magzik.report.BinaryReportWriter;
+import pl.magzik.report.DuplicateReport;
+import pl.magzik.shard.ProcessorFactory;
+import pl.magzik.shard.ShardMerger;
+import pl.magzik.shard.ShardedProcessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedProcessorTest {
+
+    /**
+     * Keeps the groups of the grouper as they are.
+     */
+    public static final class ContentFactory implements ProcessorFactory {
+
+        public ContentFactory() {}
+
+        @NotNull
+        @Override
+        public Processor create() {
+            Algorithm<Integer> identity = group -> Map.of(0, group);
+            return new Processor(new CRC32Grouper(), List.of(identity));
+        }
+    }
+
+    @Test
+    public void testShardsAreMergedDeterministically(@TempDir Path dir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Path file = dir.resolve("file" + i + ".txt");
+            Files.writeString(file, "x".repeat(i % 10 + 1)); // 10 distinct sizes, 4 copies each.
+            files.add(file.toFile());
+        }
+
+        byte[] two = run(new ShardedProcessor(2, ContentFactory.class), files, dir.resolve("two"));
+        byte[] three = run(new ShardedProcessor(3, ContentFactory.class), files, dir.resolve("three"));
+
+        DuplicateReport report = DuplicateReport.read(new ByteArrayInputStream(two));
+        assertEquals(10, report.groupCount());
+        assertEquals(dir.resolve("file0.txt").toString(), report.original(0), "Originals should be the smallest paths");
+        assertEquals(Set.of(new File(dir.resolve("file10.txt").toString()), new File(dir.resolve("file20.txt").toString()),
+            new File(dir.resolve("file30.txt").toString())), report.toMap().get(new File(report.original(0))));
+        assertArrayEquals(two, three, "Should not depend on the number of shards");
+    }
+
+    @Test
+    public void testMergeStreamsSortedShards(@TempDir Path dir) throws IOException {
+        Path first = shard(dir.resolve("first.bin"), List.of("a.png", "b.png"), List.of("c.png", "z.png"));
+        Path second = shard(dir.resolve("second.bin"), List.of("b1.png", "b2.png"), List.of("d.png", "e.png"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+            ShardMerger.merge(List.of(first, second), writer);
+        }
+
+        DuplicateReport merged = DuplicateReport.read(new ByteArrayInputStream(bytes.toByteArray()));
+        List<String> originals = new ArrayList<>();
+        for (int g = 0; g < merged.groupCount(); g++) originals.add(merged.original(g));
+        assertEquals(List.of("a.png", "b1.png", "c.png", "d.png"), originals);
+
+        Path unsorted = shard(dir.resolve("unsorted.bin"), List.of("c.png", "d.png"), List.of("a.png", "b.png"));
+        try (BinaryReportWriter writer = new BinaryReportWriter(new ByteArrayOutputStream())) {
+            assertThrows(IOException.class, () -> ShardMerger.merge(List.of(unsorted), writer), "Should reject a shard out of order");
+        }
+    }
+
+    @SafeVarargs
+    private static Path shard(Path path, List<String>... groups) throws IOException {
+        try (BinaryReportWriter writer = new BinaryReportWriter(Files.newOutputStream(path))) {
+            for (List<String> group : groups) writer.writeGroup(group, null);
+        }
+        return path;
+    }
+
+    private static byte[] run(ShardedProcessor processor, List<File> files, Path work) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryReportWriter writer = new BinaryReportWriter(bytes)) {
+            processor.process(files, work, writer);
+        }
+        return bytes.toByteArray();
+    }
+}
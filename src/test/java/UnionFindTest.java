@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import pl.magzik.grouping.FileIndex;
+import pl.magzik.grouping.UnionFind;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnionFindTest {
+
+    @Test
+    public void testComponentsMergeTransitively() {
+        UnionFind uf = new UnionFind(8);
+        uf.union(0, 3);
+        uf.union(3, 5);
+        uf.union(6, 7);
+        assertFalse(uf.union(5, 0), "Already in the same set");
+
+        int[][] groups = uf.components(new int[] {0, 1, 3, 5, 6, 7}, 2);
+
+        assertEquals(2, groups.length);
+        assertArrayEquals(new int[] {0, 3, 5}, groups[0]);
+        assertArrayEquals(new int[] {6, 7}, groups[1]);
+        assertEquals(uf.find(0), uf.find(5));
+    }
+
+    @Test
+    public void testFileIndexViews() {
+        File a = new File("a.png"), b = new File("b.png"), c = new File("c.png");
+        FileIndex index = new FileIndex();
+
+        int[] ids = index.intern(new LinkedHashSet<>(List.of(c, a)));
+        assertEquals(0, index.intern(c));
+        assertEquals(2, index.intern(b));
+
+        Set<File> view = index.view(ids);
+        assertEquals(Set.of(a, c), view);
+        assertTrue(view.contains(a));
+        assertFalse(view.contains(b));
+        assertEquals(-1, index.idOf(new File("d.png")));
+    }
+}